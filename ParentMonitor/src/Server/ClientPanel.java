@@ -1,25 +1,42 @@
 package Server;
 
+import static Server.Network.GRANT_CREDITS;
+import static Server.Network.REQUEST_HISTORY;
+import static Server.Network.REQUEST_KEYFRAME;
+import static Server.Network.SET_REGION;
+import static Server.Network.SET_VIEWPORT;
 import Util.StreamCloser;
 import Util.ThreadSafeBoolean;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Polygon;
+import java.awt.Rectangle;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.util.Date;
+import java.util.Locale;
 import java.util.concurrent.TimeUnit;
 import javax.swing.JPanel;
 
 public class ClientPanel extends JPanel implements Runnable {
     
+    //Frames the client may send ahead of us while this panel is visible
+    private static final int FRAME_WINDOW = 4;
+    
     private final ThreadSafeBoolean terminated = new ThreadSafeBoolean(false);
     private final ThreadSafeBoolean repaint = new ThreadSafeBoolean(true);
 
-    //stream variable
+    //stream variables
     private ImageSocket imageConnection;
+    private TextSocket textConnection; //used to grant frame credits, closed by the ParentPanel
     
     //Rendering variables
     private BufferedImage buffer;
@@ -27,9 +44,27 @@ public class ClientPanel extends JPanel implements Runnable {
 
     private BufferedImage previousScreenShot;
     private ScreenShotDisplayer displayer;
+    private HistoryViewer history;
     private boolean screenShotTaken = false;
 
     private String clientName;
+    
+    //The client scales its screen down to our size, smoothly or quickly
+    private volatile boolean smoothScaling = false;
+
+    //Selections smaller than this, in pixels, are taken for clicks
+    private static final int MINIMUM_SELECTION = 8;
+
+    //Zooming, only used on the Event Dispatch Thread
+    private Rectangle2D.Double zoom; //part of the client's screen shown, as fractions of the whole screen, null for all of it
+    private Rectangle imageBounds = new Rectangle(); //where the screen shot was last drawn
+    private Point selectionStart;
+    private Rectangle selection;
+
+    //Where the client's mouse pointer is, as fractions of the screen shot, reported far more often than screen shots arrive
+    private volatile Point2D.Double pointer;
+    private static final int[] POINTER_X = {0, 0, 4, 7, 9, 6, 11};
+    private static final int[] POINTER_Y = {0, 15, 11, 17, 16, 10, 10};
 
     //private Semaphore repaintControl = new Semaphore(1, true);
     
@@ -37,9 +72,13 @@ public class ClientPanel extends JPanel implements Runnable {
     //which will pass any of its own IOExceptions to the ServerFrame, allowing
     //the server frame to display a error dialog
     @SuppressWarnings("CallToThreadStartDuringObjectConstruction")
-    public ClientPanel(ServerFrame parent, String client, ImageSocket clientImageConnection) {
+    public ClientPanel(ServerFrame parent, String client, TextSocket clientTextConnection, ImageSocket clientImageConnection) {
         imageConnection = clientImageConnection;
+        textConnection = clientTextConnection;
         displayer = new ScreenShotDisplayer(parent, "Screenshots Taken From " + (clientName = client));
+        history = new HistoryViewer(parent, "Recent History of " + client);
+        clientImageConnection.setHistoryViewer(history);
+        clientImageConnection.setPointerPanel(this);
         
         super.setBackground(Color.RED);
         super.addComponentListener(new ComponentAdapter() {
@@ -49,8 +88,49 @@ public class ClientPanel extends JPanel implements Runnable {
                 if (isDisplayable()) { //Avoid possible NPE, since createImage only works while this component is displayable
                     graphics = (buffer = (BufferedImage) createImage(getWidth(), getHeight())).createGraphics();
                 }
+                //No point in the client sending more pixels than we can show
+                sendViewport();
             }
         });
+        //Drag a rectangle to zoom in on it, double or right click to zoom out
+        final MouseAdapter zoomListener = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent event) {
+                if (event.getButton() == MouseEvent.BUTTON1) {
+                    selectionStart = event.getPoint();
+                }
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent event) {
+                Point start = selectionStart;
+                if (start != null) {
+                    Point end = event.getPoint();
+                    selection = new Rectangle(Math.min(start.x, end.x), Math.min(start.y, end.y), Math.abs(end.x - start.x), Math.abs(end.y - start.y)).intersection(imageBounds);
+                    repaint();
+                }
+            }
+
+            @Override
+            public void mouseReleased(MouseEvent event) {
+                Rectangle selected = selection;
+                selectionStart = null;
+                selection = null;
+                if (selected != null && selected.width >= MINIMUM_SELECTION && selected.height >= MINIMUM_SELECTION) {
+                    zoomIn(selected);
+                }
+                repaint();
+            }
+
+            @Override
+            public void mouseClicked(MouseEvent event) {
+                if (event.getClickCount() == 2 || event.getButton() == MouseEvent.BUTTON3) {
+                    zoomOut();
+                }
+            }
+        };
+        super.addMouseListener(zoomListener);
+        super.addMouseMotionListener(zoomListener);
 
         new Thread(this, client + " Client Image Render Thread").start();
         new ImageRetrieverWorkerThread().start(); //formerly assigned this to variable worker
@@ -68,26 +148,48 @@ public class ClientPanel extends JPanel implements Runnable {
         }
         
         @Override
+        @SuppressWarnings("SleepWhileInLoop")
         public final void run() {
             ImageSocket imageStream = imageConnection; //avoid getfield opcode
+            TextSocket textStream = textConnection; //avoid getfield opcode
             ThreadSafeBoolean update = terminated; //avoid getfield opcode
             ThreadSafeBoolean updateScreen = repaint; //avoid getfield opcode
+            int outstanding = 0; //credits granted to the client that it has not sent frames for yet
             while (!update.get()) { //Loop breaks automatically AFTER close() has been called and finished execution
-                if (updateScreen.get()) { //formerly we also checked updateScreenShot.get()
+                if (updateScreen.get() && outstanding <= FRAME_WINDOW / 2) { //formerly we also checked updateScreenShot.get()
                     //send.println(REQUEST_IMAGE);
-                    //Instead of sending a signal to the client to provide a screenshot
-                    //We just wait for a screenshot and update as necessary
-                    //This does put more work on the client however, but less on us.
+                    //Instead of requesting every screenshot, the client may send
+                    //a window of frames ahead, topped up in batches
+                    textStream.sendText(GRANT_CREDITS + (FRAME_WINDOW - outstanding));
+                    outstanding = FRAME_WINDOW;
+                }
+                if (outstanding > 0) {
+                    //Frames already granted are read even when hidden, so the client
+                    //never blocks writing a stale frame
                     try {
                         //Will block until the image has been completely read
                         previousScreenShot = imageStream.readImage();
+                        --outstanding;
                     }
-                    catch (IOException ex) {
+                    catch (IOException | RuntimeException ex) {
                         System.err.println("Failed to retreve image from client!");
-                        //If the client has been forcibly terminated on their end
-                        //without sending the final exit message, such as from manual
-                        //shutdown, we must take care to destroy the client on this end
-                        //as well, this is taken care of in the ParentPanel
+                        ex.printStackTrace();
+                        //Frames build on the ones before them, deltas, the Deflate stream, the tile
+                        //cache and credits, so after one failed part way through nothing that follows
+                        //can be read. Closing the text socket as well makes the ParentPanel destroy
+                        //the client on this end, as it does when the client was forcibly terminated,
+                        //and the client can then be connected again
+                        StreamCloser.close(imageStream);
+                        StreamCloser.close(textStream);
+                        break;
+                    }
+                }
+                else {
+                    //Hidden, the client is idle until we grant it credits again
+                    try {
+                        TimeUnit.MILLISECONDS.sleep(50);
+                    }
+                    catch (InterruptedException ex) {
                         ex.printStackTrace();
                     }
                 }
@@ -115,7 +217,8 @@ public class ClientPanel extends JPanel implements Runnable {
     public void saveCurrentShot(ImageBank bank, ScreenShotDisplayer master) {
         if (previousScreenShot != null) {
             Date taken = new Date();
-            ScreenShot screenShot = new ScreenShot(taken, clientName + " Screenshot [" + taken.getTime() + "]", previousScreenShot);
+            //The live frame is patched in place by later delta frames, so save a copy
+            ScreenShot screenShot = new ScreenShot(taken, clientName + " Screenshot [" + taken.getTime() + "]", FrameBuffer.copyOf(previousScreenShot));
             displayer.addScreenShot(taken, screenShot);
             master.addScreenShot(taken, screenShot);
             bank.addScreenShot(screenShot);
@@ -131,6 +234,20 @@ public class ClientPanel extends JPanel implements Runnable {
         displayer.setVisible(true);
     }
 
+    /**
+     * Asks the client for the screen shots it kept of the last minutes, and
+     * shows them as they arrive, ahead of the next frame, along with those it
+     * spooled while no server was connected.
+     */
+    public void showHistory() {
+        TextSocket textStream = textConnection;
+        HistoryViewer historyReference = history;
+        if (textStream != null && historyReference != null) {
+            historyReference.setVisible(true);
+            textStream.sendText(REQUEST_HISTORY);
+        }
+    }
+
     @Override
     public void paintComponent(Graphics context)  {
         super.paintComponent(context);
@@ -150,8 +267,30 @@ public class ClientPanel extends JPanel implements Runnable {
         //System.out.println(previousScreenShot.getHeight());
         //System.out.println();
         
+        //A zoomed in region keeps its shape, so small text stays readable
+        final BufferedImage screenShot = previousScreenShot;
+        final Rectangle bounds = imageBounds = zoom == null || screenShot == null ? new Rectangle(0, 0, width, height) : fit(screenShot, width, height);
+        if (bounds.width != width || bounds.height != height) {
+            graphics.setColor(getBackground());
+            graphics.fillRect(0, 0, width, height);
+        }
         //Does not throw NPE
-        graphics.drawImage(previousScreenShot, 0, 0, width, height, null);
+        graphics.drawImage(screenShot, bounds.x, bounds.y, bounds.width, bounds.height, null);
+        final Point2D.Double position = pointer;
+        if (position != null && screenShot != null) {
+            //An arrow, outlined so it shows on dark and light screens alike
+            final Polygon arrow = new Polygon(POINTER_X, POINTER_Y, POINTER_X.length);
+            arrow.translate(bounds.x + (int) (position.x * bounds.width), bounds.y + (int) (position.y * bounds.height));
+            graphics.setColor(Color.WHITE);
+            graphics.fillPolygon(arrow);
+            graphics.setColor(Color.BLACK);
+            graphics.drawPolygon(arrow);
+        }
+        final Rectangle selected = selection;
+        if (selected != null) {
+            graphics.setColor(Color.YELLOW);
+            graphics.drawRect(selected.x, selected.y, selected.width - 1, selected.height - 1);
+        }
         
         //Prints out current panel size
         //System.out.println("Width: " + width + " Height: " + height);
@@ -169,6 +308,7 @@ public class ClientPanel extends JPanel implements Runnable {
         
         StreamCloser.close(imageConnection);
         imageConnection = null;
+        textConnection = null;
         
         buffer = null;
         graphics = null;
@@ -176,6 +316,8 @@ public class ClientPanel extends JPanel implements Runnable {
         previousScreenShot = null;
         displayer.dispose();
         displayer = null;
+        history.dispose();
+        history = null;
         
         clientName = null;
 
@@ -185,7 +327,108 @@ public class ClientPanel extends JPanel implements Runnable {
         terminated.set(true); //Unlock
     }
     
+    public boolean isSmoothScaling() {
+        return smoothScaling;
+    }
+    
+    public void setSmoothScaling(boolean smooth) {
+        smoothScaling = smooth;
+        sendViewport();
+    }
+    
+    private void sendViewport() {
+        TextSocket textStream = textConnection;
+        int width = getWidth();
+        int height = getHeight();
+        if (textStream != null && width > 0 && height > 0) {
+            textStream.sendText(SET_VIEWPORT + width + " " + height + (smoothScaling ? " SMOOTH" : " FAST"));
+        }
+    }
+    
+    //The largest rectangle of the screen shot's shape that fits in the panel, centered
+    private static Rectangle fit(BufferedImage screenShot, int width, int height) {
+        double scale = Math.min((double) width / screenShot.getWidth(), (double) height / screenShot.getHeight());
+        int fittedWidth = Math.max(1, (int) (screenShot.getWidth() * scale));
+        int fittedHeight = Math.max(1, (int) (screenShot.getHeight() * scale));
+        return new Rectangle((width - fittedWidth) / 2, (height - fittedHeight) / 2, fittedWidth, fittedHeight);
+    }
+
+    /**
+     * Asks the client to capture only the part of its screen shown in the
+     * given part of this panel, at full resolution. Zooming in on a zoomed in
+     * region zooms in further.
+     *
+     * @param selected The part of this panel, within the drawn screen shot.
+     */
+    private void zoomIn(Rectangle selected) {
+        final Rectangle bounds = imageBounds;
+        if (bounds.isEmpty()) {
+            return;
+        }
+        final Rectangle2D.Double current = zoom == null ? new Rectangle2D.Double(0, 0, 1, 1) : zoom;
+        zoom = new Rectangle2D.Double(
+                current.x + current.width * (selected.x - bounds.x) / bounds.width,
+                current.y + current.height * (selected.y - bounds.y) / bounds.height,
+                current.width * selected.width / bounds.width,
+                current.height * selected.height / bounds.height);
+        sendRegion();
+    }
+
+    private void zoomOut() {
+        if (zoom != null) {
+            zoom = null;
+            sendRegion();
+        }
+    }
+
+    private void sendRegion() {
+        TextSocket textStream = textConnection;
+        Rectangle2D.Double region = zoom;
+        if (textStream != null) {
+            //Always a decimal point, the client parses with Double.parseDouble
+            textStream.sendText(SET_REGION + (region == null ? "FULL" : String.format(Locale.ROOT, "%.5f %.5f %.5f %.5f", region.x, region.y, region.width, region.height)));
+        }
+    }
+
+    /**
+     * Shows the client's mouse pointer on top of the screen shot, until the
+     * next screen shot if the panel is not repainting.
+     *
+     * @param x The pointer's distance from the left of the captured area, as a
+     * fraction of its width.
+     * @param y The pointer's distance from the top of the captured area, as a
+     * fraction of its height.
+     */
+    public void setPointer(double x, double y) {
+        if (!(x >= 0 && x <= 1 && y >= 0 && y <= 1)) {
+            hidePointer();
+            return;
+        }
+        pointer = new Point2D.Double(x, y);
+        if (repaint.get()) {
+            repaint(); //the pointer moves more often than the Render thread repaints
+        }
+    }
+
+    /**
+     * Stops showing the client's mouse pointer, because it left the captured
+     * area.
+     */
+    public void hidePointer() {
+        if (pointer != null) {
+            pointer = null;
+            if (repaint.get()) {
+                repaint();
+            }
+        }
+    }
+
     public void setRepaint(boolean shouldRepaint) {
+        TextSocket textStream = textConnection;
+        if (shouldRepaint && !repaint.get() && textStream != null) {
+            //Shown again, such as after a tab switch, start from a full frame instead of deltas on an old one
+            textStream.sendText(REQUEST_KEYFRAME);
+        }
         repaint.set(shouldRepaint);
     }
 
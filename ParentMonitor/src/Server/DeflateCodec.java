@@ -0,0 +1,102 @@
+package Server;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+//Width, height and 24-bit RGB pixels compressed by the client's Deflater. Streamed images continue
+//the Deflater stream of the image before them, so the Inflater is only reset when the client says so.
+public final class DeflateCodec implements FrameCodec {
+
+    //Written by the client before the pixels
+    private static final int INDEPENDENT = 0; //a complete stream of its own
+    private static final int CONTINUED = 1; //continues the stream of the previous image
+    private static final int RESTARTED = 2; //starts a stream continued by the next images
+
+    //Reused between frames
+    private final Inflater inflater = new Inflater();
+    private final byte[] leftover = new byte[64];
+    private byte[] compressed = {};
+    private byte[] rowBytes = {};
+    private boolean started; //a RESTARTED image was decoded, CONTINUED ones can follow
+
+    @Override
+    public BufferedImage decode(ByteArrayInputStream data) throws IOException {
+        final Inflater inflaterReference = inflater; //avoid getfield opcode
+        final DataInputStream header = new DataInputStream(data);
+        final int mode = header.readUnsignedByte();
+        final int width = header.readInt();
+        final int height = header.readInt();
+        ImageSocket.checkFrameSize(width, height); //before width * 3 and the image are sized from it
+        switch (mode) {
+            case INDEPENDENT:
+            case RESTARTED: {
+                inflaterReference.reset();
+                started = mode == RESTARTED;
+                break;
+            }
+            case CONTINUED: {
+                if (!started) {
+                    throw new IOException("Image continues a stream that was never started.");
+                }
+                break;
+            }
+            default: {
+                throw new IOException("Unknown deflate mode: " + mode);
+            }
+        }
+
+        final int rowLength = width * 3;
+        byte[] bytes = rowBytes;
+        if (bytes.length < rowLength) {
+            rowBytes = bytes = new byte[rowLength];
+        }
+
+        //The Inflater keeps referring to its input, so it gets a copy the next frame cannot overwrite
+        final int length = data.available();
+        byte[] input = compressed;
+        if (input.length < length) {
+            compressed = input = new byte[length];
+        }
+        header.readFully(input, 0, length);
+        inflaterReference.setInput(input, 0, length);
+
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        final int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        try {
+            for (int y = 0, pixel = 0; y < height; ++y) {
+                for (int filled = 0; filled < rowLength;) {
+                    final int inflated = inflaterReference.inflate(bytes, filled, rowLength - filled);
+                    if (inflated == 0 && (inflaterReference.needsInput() || inflaterReference.finished() || inflaterReference.needsDictionary())) {
+                        throw new IOException("Image ended after " + y + " of " + height + " rows.");
+                    }
+                    filled += inflated;
+                }
+                for (int index = 0; index < rowLength; index += 3) {
+                    pixels[pixel++] = ((bytes[index] & 0xFF) << 16) | ((bytes[index + 1] & 0xFF) << 8) | (bytes[index + 2] & 0xFF);
+                }
+            }
+            if (mode != INDEPENDENT) {
+                //The sync flush that ends a streamed image inflates to nothing, but must still be read
+                for (int remaining = inflaterReference.getRemaining(); remaining > 0 && !inflaterReference.finished();) {
+                    if (inflaterReference.inflate(leftover) != 0) {
+                        throw new IOException("Image has more pixels than " + width + "x" + height + ".");
+                    }
+                    if (inflaterReference.getRemaining() == remaining) {
+                        throw new IOException("Image ends with data that cannot be inflated.");
+                    }
+                    remaining = inflaterReference.getRemaining();
+                }
+            }
+        }
+        catch (DataFormatException ex) {
+            started = false; //whatever follows in this stream cannot be decoded either
+            throw new IOException(ex);
+        }
+        return image;
+    }
+}
@@ -0,0 +1,197 @@
+package Server;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.IOException;
+
+//Holds the latest screen of a client, the client only sends the tiles which changed
+//so they are drawn on top of the previous frame instead of replacing it
+public final class FrameBuffer implements Recyclable {
+
+    private BufferedImage frame;
+    private Graphics2D graphics;
+
+    //Reused by every XOR delta frame, one tile each
+    private int[] tilePixels = {};
+    private int[] deltaPixels = {};
+
+    public BufferedImage getFrame() {
+        return frame;
+    }
+
+    /**
+     * Replaces the entire frame.
+     *
+     * @param image The complete screen shot sent by the client.
+     * @return The new frame.
+     */
+    public BufferedImage replace(BufferedImage image) {
+        Graphics2D graphicsReference = graphics;
+        if (graphicsReference != null) {
+            graphicsReference.dispose();
+        }
+        if (image != null && isReducedColor(image)) {
+            //Delta frames drawn on a gray or palette frame would lose their colors
+            image = copyOf(image);
+        }
+        graphics = image == null ? null : image.createGraphics();
+        return frame = image;
+    }
+
+    /**
+     * Draws the changed tiles of a delta frame on top of the current frame.
+     *
+     * @param width Width of the client's screen shot.
+     * @param height Height of the client's screen shot.
+     * @param tileSize Width and height of a tile.
+     * @param tiles Indices of the changed tiles, left to right and top to
+     * bottom.
+     * @param count Number of valid entries in tiles.
+     * @param atlas The changed tiles packed in the same order as tiles.
+     * @return The patched frame, unchanged if it does not match the delta.
+     */
+    public BufferedImage patch(int width, int height, int tileSize, int[] tiles, int count, BufferedImage atlas) {
+        final BufferedImage frameReference = frame; //avoid getfield opcode
+        final Graphics2D graphicsReference = graphics; //avoid getfield opcode
+
+        if (frameReference == null || atlas == null || frameReference.getWidth() != width || frameReference.getHeight() != height) {
+            //We missed the full frame this delta is based on, wait for the next one
+            System.out.println("Discarding delta frame, no matching frame to patch.");
+            return frameReference;
+        }
+
+        final int columns = (width + tileSize - 1) / tileSize;
+        final int atlasColumns = Math.min(count, columns);
+
+        for (int slot = 0; slot < count; ++slot) {
+            final int tile = tiles[slot];
+            final int left = (tile % columns) * tileSize;
+            final int top = (tile / columns) * tileSize;
+            final int right = Math.min(left + tileSize, width);
+            final int bottom = Math.min(top + tileSize, height);
+            final int slotLeft = (slot % atlasColumns) * tileSize;
+            final int slotTop = (slot / atlasColumns) * tileSize;
+            graphicsReference.drawImage(atlas, left, top, right, bottom, slotLeft, slotTop, slotLeft + (right - left), slotTop + (bottom - top), null);
+        }
+
+        return frameReference;
+    }
+
+    /**
+     * XORs the changed tiles of a delta frame onto the current frame, the
+     * client XORed them with the frame it knows this frame holds.
+     *
+     * @param width Width of the client's screen shot.
+     * @param height Height of the client's screen shot.
+     * @param tileSize Width and height of a tile.
+     * @param tiles Indices of the changed tiles, left to right and top to
+     * bottom.
+     * @param count Number of valid entries in tiles.
+     * @param atlas The XORed tiles packed in the same order as tiles.
+     * @return The patched frame, unchanged if it does not match the delta.
+     * @throws IOException If a tile lies outside the frame or the atlas.
+     */
+    public BufferedImage xor(int width, int height, int tileSize, int[] tiles, int count, BufferedImage atlas) throws IOException {
+        final BufferedImage frameReference = frame; //avoid getfield opcode
+
+        if (frameReference == null || atlas == null || frameReference.getWidth() != width || frameReference.getHeight() != height) {
+            System.out.println("Discarding delta frame, no matching frame to patch.");
+            return frameReference;
+        }
+
+        final int columns = (width + tileSize - 1) / tileSize;
+        final int atlasColumns = Math.min(count, columns);
+        int[] framePixels = tilePixels;
+        int[] atlasPixels = deltaPixels;
+        if (framePixels.length < tileSize * tileSize) {
+            tilePixels = framePixels = new int[tileSize * tileSize];
+            deltaPixels = atlasPixels = new int[tileSize * tileSize];
+        }
+
+        for (int slot = 0; slot < count; ++slot) {
+            final int tile = tiles[slot];
+            final int left = (tile % columns) * tileSize;
+            final int top = (tile / columns) * tileSize;
+            final int tileWidth = Math.min(left + tileSize, width) - left;
+            final int tileHeight = Math.min(top + tileSize, height) - top;
+            final int slotLeft = (slot % atlasColumns) * tileSize;
+            final int slotTop = (slot / atlasColumns) * tileSize;
+            //Both came from the client, out of bounds pixels would throw unchecked
+            if (tile < 0 || tileHeight <= 0 || slotLeft + tileWidth > atlas.getWidth() || slotTop + tileHeight > atlas.getHeight()) {
+                throw new IOException("XOR tile " + tile + " in slot " + slot + " lies outside the " + width + "x" + height + " frame or the "
+                        + atlas.getWidth() + "x" + atlas.getHeight() + " atlas.");
+            }
+            frameReference.getRGB(left, top, tileWidth, tileHeight, framePixels, 0, tileWidth);
+            atlas.getRGB(slotLeft, slotTop, tileWidth, tileHeight, atlasPixels, 0, tileWidth);
+            for (int index = 0, end = tileWidth * tileHeight; index < end; ++index) {
+                framePixels[index] ^= atlasPixels[index] & 0xFFFFFF;
+            }
+            frameReference.setRGB(left, top, tileWidth, tileHeight, framePixels, 0, tileWidth);
+        }
+
+        return frameReference;
+    }
+
+    /**
+     * Copies an area of the current frame elsewhere in it, as the client
+     * does when content on its screen moved.
+     *
+     * @param width Width of the client's screen shot.
+     * @param height Height of the client's screen shot.
+     * @param sourceX Left edge of the area to copy.
+     * @param sourceY Top edge of the area to copy.
+     * @param copyWidth Width of the area to copy.
+     * @param copyHeight Height of the area to copy.
+     * @param destinationX Left edge the area is copied to.
+     * @param destinationY Top edge the area is copied to.
+     * @return The frame, unchanged if it does not match the copy.
+     */
+    public BufferedImage copy(int width, int height, int sourceX, int sourceY, int copyWidth, int copyHeight, int destinationX, int destinationY) {
+        final BufferedImage frameReference = frame; //avoid getfield opcode
+        if (frameReference == null || frameReference.getWidth() != width || frameReference.getHeight() != height) {
+            System.out.println("Discarding copy, no matching frame to copy within.");
+            return frameReference;
+        }
+        //copyArea copies overlapping areas correctly
+        graphics.copyArea(sourceX, sourceY, copyWidth, copyHeight, destinationX - sourceX, destinationY - sourceY);
+        return frameReference;
+    }
+
+    //Grayscale and palette PNGs decode to images that cannot hold every color
+    private static boolean isReducedColor(BufferedImage image) {
+        switch (image.getType()) {
+            case BufferedImage.TYPE_BYTE_GRAY:
+            case BufferedImage.TYPE_USHORT_GRAY:
+            case BufferedImage.TYPE_BYTE_INDEXED:
+            case BufferedImage.TYPE_BYTE_BINARY: {
+                return true;
+            }
+            default: {
+                return image.getColorModel() instanceof IndexColorModel || image.getColorModel().getNumColorComponents() == 1;
+            }
+        }
+    }
+
+    /**
+     * Copies an image, so that the copy is not modified by later delta frames.
+     *
+     * @param image The image to copy, may be null.
+     * @return The copy, or null.
+     */
+    public static BufferedImage copyOf(BufferedImage image) {
+        if (image == null) {
+            return null;
+        }
+        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D copyGraphics = copy.createGraphics();
+        copyGraphics.drawImage(image, 0, 0, null);
+        copyGraphics.dispose();
+        return copy;
+    }
+
+    @Override
+    public void recycle() {
+        replace(null);
+    }
+}
@@ -0,0 +1,19 @@
+package Server;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+//Decompresses the images received on the image socket, every image is preceded by the
+//identifier of the codec the client used
+public interface FrameCodec {
+
+    /**
+     * Decompresses an image.
+     *
+     * @param data The compressed image, exactly as sent by the client.
+     * @return The image, or null if it could not be decoded.
+     * @throws IOException If the data is corrupt.
+     */
+    public BufferedImage decode(ByteArrayInputStream data) throws IOException;
+}
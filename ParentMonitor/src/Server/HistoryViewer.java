@@ -0,0 +1,164 @@
+package Server;
+
+import java.awt.BorderLayout;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import javax.imageio.ImageIO;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JSlider;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+//Shows the screen shots a client kept of its last minutes, and those it spooled while no server
+//was connected, with a slider to go back and forth through them in the order they were taken.
+//They are kept as the client encoded them and only the one shown is decoded, since a couple of
+//minutes of decoded screen shots would take hundreds of megabytes. Even encoded they are only
+//kept up to a budget, beyond which the oldest are forgotten. Asking for the history again sends
+//the screen shots already shown once more, those with the same time as one kept are skipped.
+public final class HistoryViewer extends JFrame {
+
+    private static final long BUDGET = 64L << 20; //bytes of encoded screen shots
+
+    //Only touched on the event dispatch thread
+    private final List<Date> times = new ArrayList<>();
+    private final List<byte[]> frames = new ArrayList<>();
+    private long bytes;
+    private final JSlider slider;
+    private final JLabel label;
+    private final ImagePanel panel;
+    private boolean adjusting; //the slider is moved along with the screen shot it shows
+
+    public HistoryViewer(ServerFrame parent, String title) {
+        super(title);
+        super.setIconImage(parent.getIconImage());
+
+        super.setSize(parent.getWidth() / 2, parent.getHeight() / 2);
+        super.setLocationRelativeTo(parent);
+
+        panel = new ImagePanel();
+        label = new JLabel("Waiting for the client...", SwingConstants.CENTER);
+        slider = new JSlider(0, 0, 0);
+        slider.setEnabled(false);
+        slider.addChangeListener(new ChangeListener() {
+            @Override
+            public void stateChanged(ChangeEvent event) {
+                if (!adjusting) {
+                    showFrame(slider.getValue());
+                }
+            }
+        });
+
+        JPanel controls = new JPanel(new BorderLayout());
+        controls.add(slider, BorderLayout.CENTER);
+        controls.add(label, BorderLayout.SOUTH);
+        super.add(panel, BorderLayout.CENTER);
+        super.add(controls, BorderLayout.SOUTH);
+
+        super.setDefaultCloseOperation(JFrame.HIDE_ON_CLOSE);
+    }
+
+    /**
+     * Adds a screen shot, called as they arrive, oldest first within each
+     * batch the client sends.
+     *
+     * @param taken When the client took the screen shot.
+     * @param encoded The screen shot as a PNG or JPEG.
+     * @param remaining The number of screen shots still to come in its batch.
+     */
+    public void addFrame(final Date taken, final byte[] encoded, final int remaining) {
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                int index = Collections.binarySearch(times, taken);
+                if (index >= 0) {
+                    return; //shown already
+                }
+                index = -index - 1;
+                int shown = slider.getValue();
+                boolean newest = frames.isEmpty() || shown == frames.size() - 1;
+                times.add(index, taken);
+                frames.add(index, encoded);
+                bytes += encoded.length;
+                boolean replaced = frames.size() == 1 || (newest && remaining == 0 && index == frames.size() - 1);
+                if (replaced) {
+                    //The first screen shot while the rest arrive, then the present
+                    shown = frames.size() - 1;
+                }
+                else if (index <= shown) {
+                    ++shown; //keep showing the same screen shot
+                }
+                //Forget the oldest, always keeping the newest
+                while (bytes > BUDGET && frames.size() > 1) {
+                    times.remove(0);
+                    bytes -= frames.remove(0).length;
+                    if (--shown < 0) {
+                        shown = 0; //the one shown was forgotten, show the oldest left
+                        replaced = true;
+                    }
+                }
+                adjusting = true;
+                slider.setMaximum(frames.size() - 1);
+                slider.setValue(shown);
+                slider.setEnabled(frames.size() > 1);
+                adjusting = false;
+                if (replaced) {
+                    showFrame(shown);
+                }
+                else {
+                    describe(shown);
+                }
+            }
+        });
+    }
+
+    private void showFrame(int index) {
+        if (index < 0 || index >= frames.size()) {
+            return;
+        }
+        BufferedImage image;
+        try {
+            image = ImageIO.read(new ByteArrayInputStream(frames.get(index)));
+        }
+        catch (IOException ex) {
+            ex.printStackTrace();
+            image = null;
+        }
+        describe(index);
+        panel.setImage(image);
+    }
+
+    private void describe(int index) {
+        long secondsAgo = (times.get(times.size() - 1).getTime() - times.get(index).getTime()) / 1000;
+        label.setText(times.get(index) + (secondsAgo > 0 ? " (" + secondsAgo + " s before the newest)" : "") + ", " + (index + 1) + " of " + frames.size());
+    }
+
+    private static final class ImagePanel extends JPanel {
+
+        private BufferedImage image;
+
+        private void setImage(BufferedImage shown) {
+            BufferedImage previous = image;
+            if (previous != null) {
+                previous.flush();
+            }
+            image = shown;
+            repaint();
+        }
+
+        @Override
+        protected void paintComponent(Graphics context) {
+            super.paintComponent(context);
+            context.drawImage(image, 0, 0, getWidth(), getHeight(), this);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package Server;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import javax.imageio.ImageIO;
+
+//Handles every format ImageIO can read, which covers both PNG and JPEG frames
+public final class ImageIOCodec implements FrameCodec {
+
+    @Override
+    public BufferedImage decode(ByteArrayInputStream data) throws IOException {
+        return ImageIO.read(data);
+    }
+}
@@ -1,6 +1,23 @@
 package Server;
 
+import static Server.Network.COPY_RECT;
+import static Server.Network.DEFLATE_CODEC;
+import static Server.Network.DELTA_FRAME;
+import static Server.Network.FULL_FRAME;
+import static Server.Network.HEARTBEAT;
+import static Server.Network.HISTORY_FRAME;
+import static Server.Network.POINTER;
+import static Server.Network.POINTER_SCALE;
 import static Server.Network.IMAGE_BUFFER_SIZE;
+import static Server.Network.JPEG_CODEC;
+import static Server.Network.MIXED_DELTA_FRAME;
+import static Server.Network.MIXED_FULL_FRAME;
+import static Server.Network.PNG_CODEC;
+import static Server.Network.RGB565_CODEC;
+import static Server.Network.TILE_CACHE;
+import static Server.Network.TILE_CACHE_SIZE;
+import static Server.Network.TILE_SIZE;
+import static Server.Network.XOR_DELTA_FRAME;
 import Util.StreamCloser;
 import java.awt.image.BufferedImage;
 import java.io.BufferedInputStream;
@@ -10,13 +27,40 @@ import java.io.DataInputStream;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
-import javax.imageio.ImageIO;
+import java.util.Date;
 
 public final class ImageSocket implements Closeable {
+
+    //No client screen is wider or taller, or has more pixels, larger sizes in a frame header are corrupt
+    private static final int MAXIMUM_FRAME_SIZE = 32768;
+    private static final long MAXIMUM_FRAME_PIXELS = 1L << 26; //8192x8192
+
+    //A history screen shot never exceeds the client's whole history buffer
+    private static final int MAXIMUM_HISTORY_FRAME = 16 << 20;
+
+    //More than an 8K screen's RGB pixels even uncompressed, larger encoded images are corrupt
+    private static final int MAXIMUM_IMAGE_BYTES = 128 << 20;
     
     private Socket socket;
     private DataInputStream receiveImage;
     private ReusableByteArrayInputStream byteBuffer;
+    private byte[] imageBytes = {};
+    private int[] tiles = {};
+    private FrameBuffer frame;
+    private FrameCodec[] codecs;
+
+    //Tiles taken from and put into the tile cache by the current frame
+    private TileCache tileCache;
+    private int[] cachedTiles = {};
+    private int[] cachedSlots = {};
+    private int[] storedTiles = {};
+    private int[] storedSlots = {};
+
+    //Receives the client's recent history, when it was asked for
+    private volatile HistoryViewer history;
+
+    //Shows the client's mouse pointer
+    private volatile ClientPanel pointerPanel;
     
     public ImageSocket(String host, int port) {
         Socket connection = new Socket();
@@ -46,6 +90,17 @@ public final class ImageSocket implements Closeable {
         socket = connection;
         receiveImage = screenshotStream;
         byteBuffer = new ReusableByteArrayInputStream();
+        frame = new FrameBuffer();
+        tileCache = new TileCache(TILE_CACHE_SIZE, TILE_SIZE);
+        
+        //indexed by the codec identifier the client writes before every image
+        FrameCodec imageIOCodec = new ImageIOCodec();
+        FrameCodec[] codecTable = new FrameCodec[RGB565_CODEC + 1];
+        codecTable[PNG_CODEC] = imageIOCodec;
+        codecTable[JPEG_CODEC] = imageIOCodec;
+        codecTable[DEFLATE_CODEC] = new DeflateCodec();
+        codecTable[RGB565_CODEC] = new Rgb565Codec();
+        codecs = codecTable;
     }
 
     public boolean isActive() {
@@ -60,29 +115,283 @@ public final class ImageSocket implements Closeable {
         Socket socketReference = socket;
         DataInputStream receiveImageReference = receiveImage;
         ReusableByteArrayInputStream byteStreamReference = byteBuffer;
+        FrameBuffer frameReference = frame;
         //close local references at the same time
         StreamCloser.close(socketReference);
         StreamCloser.close(receiveImageReference);
         StreamCloser.close(byteStreamReference);
+        if (frameReference != null) {
+            frameReference.recycle();
+        }
+        TileCache tileCacheReference = tileCache;
+        if (tileCacheReference != null) {
+            tileCacheReference.recycle();
+        }
         //dispose of instance variables
         socket = null;
         receiveImage = null;
         byteBuffer = null;
+        imageBytes = null;
+        tiles = null;
+        frame = null;
+        codecs = null;
+        tileCache = null;
+    }
+
+    /**
+     * @param viewer Receives the screen shots of the client's recent history
+     * that arrive ahead of frames, after they were asked for.
+     */
+    public void setHistoryViewer(HistoryViewer viewer) {
+        history = viewer;
+    }
+
+    /**
+     * @param panel Shows the client's mouse pointer at the positions that
+     * arrive between and ahead of frames.
+     */
+    public void setPointerPanel(ClientPanel panel) {
+        pointerPanel = panel;
     }
 
     /**
-     * Receive
-     * @return
-     * @throws IOException 
+     * Receives the next frame from the client. Delta frames are drawn on top
+     * of the previous frame, so the same image is returned until the client
+     * sends a full frame again. Heartbeats return the previous frame as is,
+     * and content that moved is copied within it.
+     *
+     * @return The current frame of the client.
+     * @throws IOException If the frame could not be read.
      */
     public BufferedImage readImage() throws IOException {
         DataInputStream receiveImageReference = receiveImage; //avoid getfield opcode
-        ReusableByteArrayInputStream byteBufferReference = byteBuffer; //avoid getfield opcode
+        FrameBuffer frameReference = frame; //avoid getfield opcode
+        byte header = receiveImageReference.readByte();
+        while (header == HISTORY_FRAME || header == POINTER) {
+            if (header == HISTORY_FRAME) {
+                //The client's recent history, independent of the frames shown live
+                readHistoryFrame(receiveImageReference);
+            }
+            else {
+                readPointer(receiveImageReference);
+            }
+            header = receiveImageReference.readByte();
+        }
+        if (header == COPY_RECT) {
+            //Content moved on the client's screen, what it uncovered follows as another frame
+            int width = receiveImageReference.readInt();
+            int height = receiveImageReference.readInt();
+            int sourceX = receiveImageReference.readInt();
+            int sourceY = receiveImageReference.readInt();
+            int copyWidth = receiveImageReference.readInt();
+            int copyHeight = receiveImageReference.readInt();
+            int destinationX = receiveImageReference.readInt();
+            int destinationY = receiveImageReference.readInt();
+            frameReference.copy(width, height, sourceX, sourceY, copyWidth, copyHeight, destinationX, destinationY);
+            header = receiveImageReference.readByte();
+        }
+        int storedCount = 0;
+        if (header == TILE_CACHE) {
+            //Tiles the client sent before are taken from the cache, the tiles that follow are cached
+            //Never sent with a full frame, so the tiles are those of the current frame, and there are none without one
+            BufferedImage current = frameReference.getFrame();
+            long tileCount = current == null ? 0 : countTiles(current.getWidth(), current.getHeight());
+            int cachedCount = readCacheEntries(receiveImageReference, false, tileCount);
+            tileCache.fill(current, cachedTiles, cachedSlots, cachedCount);
+            storedCount = readCacheEntries(receiveImageReference, true, tileCount);
+            header = receiveImageReference.readByte();
+        }
+        BufferedImage image = readFrame(header, receiveImageReference, frameReference);
+        if (header == FULL_FRAME || header == MIXED_FULL_FRAME) {
+            tileCache.seed(image);
+        }
+        else if (storedCount != 0) {
+            tileCache.store(image, storedTiles, storedSlots, storedCount);
+        }
+        return image;
+    }
+
+    private BufferedImage readFrame(byte header, DataInputStream receiveImageReference, FrameBuffer frameReference) throws IOException {
+        switch (header) {
+            case FULL_FRAME: {
+                return frameReference.replace(readEncodedImage(receiveImageReference));
+            }
+            case DELTA_FRAME: {
+                int width = receiveImageReference.readInt();
+                int height = receiveImageReference.readInt();
+                int count = readTileIndices(receiveImageReference, width, height);
+                BufferedImage atlas = readEncodedImage(receiveImageReference);
+                return count == 0 ? frameReference.getFrame() : frameReference.patch(width, height, TILE_SIZE, tiles, count, atlas);
+            }
+            case XOR_DELTA_FRAME: {
+                int width = receiveImageReference.readInt();
+                int height = receiveImageReference.readInt();
+                int count = readTileIndices(receiveImageReference, width, height);
+                BufferedImage atlas = readEncodedImage(receiveImageReference);
+                return count == 0 ? frameReference.getFrame() : frameReference.xor(width, height, TILE_SIZE, tiles, count, atlas);
+            }
+            case MIXED_FULL_FRAME:
+            case MIXED_DELTA_FRAME: {
+                int width = receiveImageReference.readInt();
+                int height = receiveImageReference.readInt();
+                if (header == MIXED_FULL_FRAME) {
+                    //Every tile follows, drawn on a blank frame
+                    frameReference.replace(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
+                }
+                BufferedImage patched = frameReference.getFrame();
+                //The lossless tiles, then the lossy ones, each packed in their own image
+                for (int group = 0; group < 2; ++group) {
+                    int count = readTileIndices(receiveImageReference, width, height);
+                    if (count != 0) {
+                        patched = frameReference.patch(width, height, TILE_SIZE, tiles, count, readEncodedImage(receiveImageReference));
+                    }
+                }
+                return patched;
+            }
+            case HEARTBEAT: {
+                //Nothing changed on the client's screen
+                return frameReference.getFrame();
+            }
+            default: {
+                throw new IOException("Unknown frame header: " + header);
+            }
+        }
+    }
+
+    //Reads one screen shot of the client's recent history, which is handed on still encoded
+    private void readHistoryFrame(DataInputStream receiveImageReference) throws IOException {
+        long taken = receiveImageReference.readLong();
+        int remaining = receiveImageReference.readInt();
+        byte codecId = receiveImageReference.readByte();
+        if (codecId != PNG_CODEC && codecId != JPEG_CODEC) {
+            throw new IOException("Unsupported history codec: " + codecId);
+        }
+        int length = receiveImageReference.readInt();
+        if (length < 0 || length > MAXIMUM_HISTORY_FRAME || remaining < 0) {
+            throw new IOException("Invalid history frame: " + length + " bytes, " + remaining + " remaining");
+        }
+        byte[] encoded = new byte[length];
+        receiveImageReference.readFully(encoded);
+        HistoryViewer viewer = history; //read volatile once
+        if (viewer != null) {
+            viewer.addFrame(new Date(taken), encoded, remaining);
+        }
+    }
+
+    private void readPointer(DataInputStream receiveImageReference) throws IOException {
+        int x = receiveImageReference.readUnsignedShort();
+        int y = receiveImageReference.readUnsignedShort();
+        ClientPanel panel = pointerPanel; //read volatile once
+        if (panel == null) {
+            return;
+        }
+        if (x > POINTER_SCALE || y > POINTER_SCALE) {
+            panel.hidePointer(); //outside the captured area
+        }
+        else {
+            panel.setPointer((double) x / POINTER_SCALE, (double) y / POINTER_SCALE);
+        }
+    }
+
+    //Reads a count and that many tile indices and cache slots, into storedTiles and storedSlots
+    //for the tiles to store, and into cachedTiles and cachedSlots for the tiles to take
+    private int readCacheEntries(DataInputStream receiveImageReference, boolean stored, long tileCount) throws IOException {
+        int count = receiveImageReference.readInt();
+        if (count < 0 || count > tileCount) {
+            throw new IOException("Invalid cached tile count: " + count + " of " + tileCount);
+        }
+        int[] tileIndices = stored ? storedTiles : cachedTiles;
+        int[] slots = stored ? storedSlots : cachedSlots;
+        if (tileIndices.length < count) {
+            tileIndices = new int[count];
+            slots = new int[count];
+            if (stored) {
+                storedTiles = tileIndices;
+                storedSlots = slots;
+            }
+            else {
+                cachedTiles = tileIndices;
+                cachedSlots = slots;
+            }
+        }
+        final int slotCount = tileCache.size();
+        for (int index = 0; index < count; ++index) {
+            tileIndices[index] = readTileIndex(receiveImageReference, tileCount);
+            int slot = receiveImageReference.readInt();
+            if (slot < 0 || slot >= slotCount) {
+                throw new IOException("Invalid tile cache slot: " + slot);
+            }
+            slots[index] = slot;
+        }
+        return count;
+    }
+
+    //Reads a tile count and that many tile indices into tiles, of a screen shot of the given size
+    private int readTileIndices(DataInputStream receiveImageReference, int width, int height) throws IOException {
+        long tileCount = countTiles(width, height);
+        int count = receiveImageReference.readInt();
+        if (count < 0 || count > tileCount) {
+            throw new IOException("Invalid tile count: " + count + " of " + tileCount);
+        }
+        int[] tileIndices = tiles;
+        if (tileIndices.length < count) {
+            tiles = tileIndices = new int[count];
+        }
+        for (int index = 0; index < count; ++index) {
+            tileIndices[index] = readTileIndex(receiveImageReference, tileCount);
+        }
+        return count;
+    }
+
+    private static int readTileIndex(DataInputStream receiveImageReference, long tileCount) throws IOException {
+        int tile = receiveImageReference.readInt();
+        if (tile < 0 || tile >= tileCount) {
+            throw new IOException("Invalid tile index: " + tile + " of " + tileCount);
+        }
+        return tile;
+    }
+
+    //The number of tiles in a screen shot, checking its size first since it came from the client
+    private static long countTiles(int width, int height) throws IOException {
+        checkFrameSize(width, height);
+        return (long) ((width + TILE_SIZE - 1) / TILE_SIZE) * ((height + TILE_SIZE - 1) / TILE_SIZE);
+    }
+
+    /**
+     * Checks the size of a screen shot read from the client before anything
+     * is allocated for it.
+     *
+     * @param width The width read from the client.
+     * @param height The height read from the client.
+     * @throws IOException If no screen shot can be that size.
+     */
+    static void checkFrameSize(int width, int height) throws IOException {
+        if (width <= 0 || height <= 0 || width > MAXIMUM_FRAME_SIZE || height > MAXIMUM_FRAME_SIZE || (long) width * height > MAXIMUM_FRAME_PIXELS) {
+            throw new IOException("Invalid frame size: " + width + "x" + height);
+        }
+    }
+
+    private BufferedImage readEncodedImage(DataInputStream receiveImageReference) throws IOException {
+        byte codecId = receiveImageReference.readByte();
+        FrameCodec[] codecTable = codecs; //avoid getfield opcode
+        if (codecId < 0 || codecId >= codecTable.length) {
+            throw new IOException("Unknown image codec: " + codecId);
+        }
         int bytesRead = receiveImageReference.readInt();
-        byte[] buffer = new byte[bytesRead];
+        if (bytesRead < 0 || bytesRead > MAXIMUM_IMAGE_BYTES) {
+            throw new IOException("Invalid encoded image length: " + bytesRead);
+        }
+        if (bytesRead == 0) {
+            return null;
+        }
+        byte[] buffer = imageBytes;
+        if (buffer.length < bytesRead) {
+            imageBytes = buffer = new byte[bytesRead];
+        }
         receiveImageReference.readFully(buffer, 0, bytesRead);
+        ReusableByteArrayInputStream byteBufferReference = byteBuffer; //avoid getfield opcode
         byteBufferReference.setBuffer(buffer, bytesRead);
-        return ImageIO.read(byteBufferReference);
+        return codecTable[codecId].decode(byteBufferReference);
     }
 
     @Override
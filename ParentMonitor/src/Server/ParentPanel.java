@@ -1,10 +1,14 @@
 package Server;
 
 import static Server.Network.CLIENT_EXITED;
+import static Server.Network.CLIENT_STATUS;
 import static Server.Network.CLOSE_CLIENT;
 //import static Server.Network.ENCODING;
 import static Server.Network.PUNISH;
 import static Server.Network.SECURITY_KEY;
+import static Server.Network.SET_CODEC;
+import static Server.Network.SET_CPU_BUDGET;
+import static Server.Network.SET_IDLE_LADDER;
 //import static Server.Network.SHA_1;
 import static Server.ServerFrame.SCREEN_BOUNDS;
 import Util.MessageEncoder;
@@ -21,6 +25,7 @@ import javax.swing.BorderFactory;
 import javax.swing.JPanel;
 import javax.swing.JSplitPane;
 import javax.swing.JTabbedPane;
+import javax.swing.SwingUtilities;
 
 public final class ParentPanel extends JPanel implements Runnable {
 
@@ -138,7 +143,7 @@ public final class ParentPanel extends JPanel implements Runnable {
 
         //setup SplitPanel with: ClientPanel & TextPanel with cheeky initialization
         split = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT,
-                client = new ClientPanel(parent, clientName = username, clientImageConnection),
+                client = new ClientPanel(parent, clientName = username, clientTextConnection, clientImageConnection),
                 text = new TextPanel(textConnection = clientTextConnection));
         split.setDividerLocation(SCREEN_BOUNDS.width / 2);
 
@@ -160,6 +165,63 @@ public final class ParentPanel extends JPanel implements Runnable {
         client.setRepaint(current); //To improve performance, only update the live feed it its visible
     }
 
+    /**
+     * Chooses the codec the client compresses its screen with for the rest
+     * of this session.
+     *
+     * @param setting The codec name followed by an optional parameter, such
+     * as "JPEG 0.6".
+     */
+    public void setCodec(String setting) {
+        TextSocket textStream = textConnection;
+        if (textStream != null) {
+            textStream.sendText(SET_CODEC + setting);
+        }
+    }
+
+    /**
+     * Sets how the client slows down capturing while nobody uses it.
+     *
+     * @param setting Capture intervals in milliseconds and the idle time in
+     * seconds after which each applies, such as "0:0 100:30 1000:120".
+     */
+    public void setIdleLadder(String setting) {
+        TextSocket textStream = textConnection;
+        if (textStream != null) {
+            textStream.sendText(SET_IDLE_LADDER + setting);
+        }
+    }
+
+    /**
+     * Sets the percent of one core the client may spend on screen shots.
+     *
+     * @param percent The budget, such as 10.
+     */
+    public void setCpuBudget(double percent) {
+        TextSocket textStream = textConnection;
+        if (textStream != null) {
+            textStream.sendText(SET_CPU_BUDGET + percent);
+        }
+    }
+
+    //The client's frame rate and CPU use are shown when hovering over its tab
+    private void showStatus(final String status) {
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                JTabbedPane tabs = parentTabs;
+                int index = tabs == null ? -1 : tabs.indexOfComponent(ParentPanel.this);
+                if (index >= 0) {
+                    tabs.setToolTipTextAt(index, clientName + ": " + status);
+                }
+            }
+        });
+    }
+
+    public void toggleSmoothScaling() {
+        client.setSmoothScaling(!client.isSmoothScaling());
+    }
+
     public JSplitPane getSplitPane() {
         return split;
     }
@@ -192,6 +254,10 @@ public final class ParentPanel extends JPanel implements Runnable {
         client.showScreenShotDisplayer();
     }
 
+    public void showHistory() {
+        client.showHistory();
+    }
+
     public void showInfo() {
         clientInfoFrame.setVisible(true);
     }
@@ -295,6 +361,9 @@ public final class ParentPanel extends JPanel implements Runnable {
                     close(false);
                     break;
                 }
+                else if (fromClient != null && fromClient.startsWith(CLIENT_STATUS)) {
+                    showStatus(fromClient.substring(CLIENT_STATUS.length()));
+                }
                 else {
                     text.updateChatPanel(clientName, fromClient);
                 }
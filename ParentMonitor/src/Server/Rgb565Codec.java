@@ -0,0 +1,50 @@
+package Server;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import javax.imageio.ImageIO;
+
+//A 16-bit grayscale PNG whose samples are RGB565 pixels, expanded back to 24-bit RGB
+public final class Rgb565Codec implements FrameCodec {
+
+    //Expands 5 and 6 bit channels to 8 bits, so that white stays white
+    private static final int[] FIVE_BITS = new int[32];
+    private static final int[] SIX_BITS = new int[64];
+
+    static {
+        for (int value = 0; value < 32; ++value) {
+            FIVE_BITS[value] = (value << 3) | (value >> 2);
+        }
+        for (int value = 0; value < 64; ++value) {
+            SIX_BITS[value] = (value << 2) | (value >> 4);
+        }
+    }
+
+    @Override
+    public BufferedImage decode(ByteArrayInputStream data) throws IOException {
+        final BufferedImage packed = ImageIO.read(data);
+        if (packed == null) {
+            return null;
+        }
+        final Raster raster = packed.getRaster();
+        if (raster.getNumBands() != 1 || raster.getSampleModel().getSampleSize(0) != 16) {
+            throw new IOException("Not an RGB565 image: " + packed);
+        }
+        final int width = packed.getWidth();
+        final int height = packed.getHeight();
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        final int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        final int[] row = new int[width];
+        for (int y = 0, pixel = 0; y < height; ++y) {
+            raster.getSamples(0, y, width, 1, 0, row);
+            for (int x = 0; x < width; ++x) {
+                final int value = row[x];
+                pixels[pixel++] = (FIVE_BITS[value >>> 11] << 16) | (SIX_BITS[(value >>> 5) & 0x3F] << 8) | FIVE_BITS[value & 0x1F];
+            }
+        }
+        return image;
+    }
+}
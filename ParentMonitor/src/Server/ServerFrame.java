@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
@@ -86,7 +87,12 @@ public class ServerFrame extends JFrame {
         JMenuItem close = new JMenuItem("Disconnect Client");
         JMenuItem saveScreenShot = new JMenuItem("Capture Screenshot");
         JMenuItem showSavedScreenShots = new JMenuItem("Show Captured Screenshots");
+        JMenuItem showHistory = new JMenuItem("Show History");
         //JMenuItem toggleLiveRefresh = new JMenuItem("Toggle Refresh");
+        JMenuItem streamFormat = new JMenuItem("Change Stream Format");
+        JMenuItem smoothScaling = new JMenuItem("Toggle Smooth Scaling");
+        JMenuItem idleLadder = new JMenuItem("Change Idle Throttling");
+        JMenuItem cpuBudget = new JMenuItem("Change CPU Budget");
         JMenuItem clientInfo = new JMenuItem("Client System Info (Advanced)");
         JMenuItem punish = new JMenuItem("Shutdown Client");
 
@@ -121,6 +127,9 @@ public class ServerFrame extends JFrame {
                             JOptionPane.showMessageDialog(ServerFrame.this, "Error: There are no captured screenshots from " + current.getName() + " to show.", "Invalid Operation", JOptionPane.ERROR_MESSAGE, icon);
                         } 
                     }
+                    else if (source == showHistory) {
+                        current.showHistory();
+                    }
                     /*
                     else if (source == toggleLiveRefresh) {
                         current.toggleUpdate();
@@ -129,6 +138,87 @@ public class ServerFrame extends JFrame {
                     else if (source == clientInfo) {
                         current.showInfo();
                     }
+                    else if (source == smoothScaling) {
+                        current.toggleSmoothScaling();
+                    }
+                    else if (source == idleLadder) {
+                        String setting = (String) JOptionPane.showInputDialog(ServerFrame.this, "Enter capture intervals (milliseconds) and the idle time (seconds) after which each applies:", "Idle Throttling", JOptionPane.QUESTION_MESSAGE, icon, null, "0:0 100:30 1000:120 10000:600");
+                        if (setting == null) {
+                            return;
+                        }
+                        if (setting.trim().matches("\\d+:0(\\s+\\d+:\\d+)*")) {
+                            current.setIdleLadder(setting.trim());
+                        }
+                        else {
+                            JOptionPane.showMessageDialog(ServerFrame.this, "Error: " + setting + " is not a valid setting.", "Invalid Setting", JOptionPane.ERROR_MESSAGE, icon);
+                        }
+                    }
+                    else if (source == cpuBudget) {
+                        String setting = (String) JOptionPane.showInputDialog(ServerFrame.this, "Enter the percent of one core " + current.getName() + " may spend sending its screen:", "CPU Budget", JOptionPane.QUESTION_MESSAGE, icon, null, "10");
+                        if (setting == null) {
+                            return;
+                        }
+                        try {
+                            double percent = Double.parseDouble(setting.trim());
+                            if (!(percent > 0)) {
+                                throw new NumberFormatException(setting);
+                            }
+                            current.setCpuBudget(percent);
+                        }
+                        catch (NumberFormatException ex) {
+                            JOptionPane.showMessageDialog(ServerFrame.this, "Error: " + setting + " is not a valid setting.", "Invalid Setting", JOptionPane.ERROR_MESSAGE, icon);
+                        }
+                    }
+                    else if (source == streamFormat) {
+                        String[] formats = {"PNG (Lossless)", "PNG Grayscale", "PNG 16-bit Color", "PNG 256 Colors", "JPEG (Lossy)", "Deflate (Raw Pixels)", "Mixed (PNG Text, JPEG Photos)", "Deflate Stream (Raw Pixels, Across Frames)", "XOR Delta (Keyframes and Changes)"};
+                        //Fewer colors for when many clients are watched at once and detail matters little
+                        String[] reducedColors = {null, "PNG GRAY", "PNG RGB565", "PNG PALETTE"};
+                        String format = (String) JOptionPane.showInputDialog(ServerFrame.this, "Choose how " + current.getName() + "'s screen is compressed:", "Stream Format", JOptionPane.QUESTION_MESSAGE, icon, formats, formats[0]);
+                        if (format == null) {
+                            return;
+                        }
+                        int choice = Arrays.asList(formats).indexOf(format);
+                        if (choice == 0) {
+                            current.setCodec("PNG");
+                        }
+                        else if (choice < reducedColors.length) {
+                            current.setCodec(reducedColors[choice]);
+                        }
+                        else {
+                            //Mixed takes the JPEG quality of its photo tiles
+                            boolean jpeg = formats[4].equals(format) || formats[6].equals(format);
+                            String parameter = (String) JOptionPane.showInputDialog(ServerFrame.this, jpeg ? "Enter the JPEG quality (0.0 to 1.0):" : "Enter the compression level (0 to 9):", "Stream Format", JOptionPane.QUESTION_MESSAGE, icon, null, jpeg ? "0.6" : "1");
+                            if (parameter == null) {
+                                return;
+                            }
+                            try {
+                                if (jpeg) {
+                                    float quality = Float.parseFloat(parameter.trim());
+                                    if (quality < 0F || quality > 1F) {
+                                        throw new NumberFormatException(parameter);
+                                    }
+                                    current.setCodec((formats[6].equals(format) ? "MIXED " : "JPEG ") + quality);
+                                }
+                                else {
+                                    int level = Integer.parseInt(parameter.trim());
+                                    if (level < 0 || level > 9) {
+                                        throw new NumberFormatException(parameter);
+                                    }
+                                    //Streaming compresses every frame against the frames before it
+                                    if (formats[8].equals(format)) {
+                                        //A keyframe every so often, XORed changes in between
+                                        current.setCodec("XOR " + level);
+                                    }
+                                    else {
+                                        current.setCodec("DEFLATE " + level + (formats[7].equals(format) ? " STREAM" : ""));
+                                    }
+                                }
+                            }
+                            catch (NumberFormatException ex) {
+                                JOptionPane.showMessageDialog(ServerFrame.this, "Error: " + parameter + " is not a valid setting.", "Invalid Setting", JOptionPane.ERROR_MESSAGE, icon);
+                            }
+                        }
+                    }
                     else {
                         String clientName = current.getName();
                         if (JOptionPane.showConfirmDialog(ServerFrame.this,
@@ -145,14 +235,24 @@ public class ServerFrame extends JFrame {
         close.addActionListener(popupListener);
         saveScreenShot.addActionListener(popupListener);
         showSavedScreenShots.addActionListener(popupListener);
+        showHistory.addActionListener(popupListener);
         //toggleLiveRefresh.addActionListener(popupListener);
+        streamFormat.addActionListener(popupListener);
+        smoothScaling.addActionListener(popupListener);
+        idleLadder.addActionListener(popupListener);
+        cpuBudget.addActionListener(popupListener);
         clientInfo.addActionListener(popupListener);
         punish.addActionListener(popupListener);
 
         close.setHorizontalTextPosition(JMenuItem.RIGHT);
         saveScreenShot.setHorizontalTextPosition(JMenuItem.RIGHT);
         showSavedScreenShots.setHorizontalTextPosition(JMenuItem.RIGHT);
+        showHistory.setHorizontalTextPosition(JMenuItem.RIGHT);
         //toggleLiveRefresh.setHorizontalTextPosition(JMenuItem.RIGHT);
+        streamFormat.setHorizontalTextPosition(JMenuItem.RIGHT);
+        smoothScaling.setHorizontalTextPosition(JMenuItem.RIGHT);
+        idleLadder.setHorizontalTextPosition(JMenuItem.RIGHT);
+        cpuBudget.setHorizontalTextPosition(JMenuItem.RIGHT);
         clientInfo.setHorizontalTextPosition(JMenuItem.RIGHT);
         punish.setHorizontalTextPosition(JMenuItem.RIGHT);
         
@@ -160,6 +260,11 @@ public class ServerFrame extends JFrame {
         //popup.add(toggleLiveRefresh);
         popup.add(saveScreenShot);
         popup.add(showSavedScreenShots);
+        popup.add(showHistory);
+        popup.add(streamFormat);
+        popup.add(smoothScaling);
+        popup.add(idleLadder);
+        popup.add(cpuBudget);
         popup.addSeparator();
         popup.add(clientInfo);
         popup.add(punish);
@@ -163,9 +163,16 @@ public final class TextSocket implements Closeable {
         return messageEncoder != null && messageEncoder.isValid() ? messageEncoder.decode(recieve) : recieve;
     }
 
-    public void sendText(String text) {
+    //Synchronized since chat messages and frame credits are sent from different threads,
+    //and the encoder's Cipher is not thread safe
+    public synchronized void sendText(String text) {
         MessageEncoder messageEncoder = encoder;
-        sendText.println(messageEncoder != null && messageEncoder.isValid() ? messageEncoder.encode(text) : text);
+        PrintWriter sendTextReference = sendText;
+        if (sendTextReference == null) {
+            System.out.println("Not sending, connection closed: " + text);
+            return;
+        }
+        sendTextReference.println(messageEncoder != null && messageEncoder.isValid() ? messageEncoder.encode(text) : text);
     }
 
     @Override
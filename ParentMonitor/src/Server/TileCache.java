@@ -0,0 +1,119 @@
+package Server;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+//Tiles the client sent before, so it can later refer to them by slot instead of sending them
+//again, as when a window it switched away from comes back. The client decides which slot
+//every tile goes into, this side only stores and copies. Slots are allocated as they are used.
+public final class TileCache implements Recyclable {
+
+    private final int tileSize;
+    private final int[][] slots;
+    private final int[] shapes; //width times 65536 plus height of the tile in each slot, 0 if empty
+
+    public TileCache(int slotCount, int size) {
+        slots = new int[slotCount][];
+        shapes = new int[slotCount];
+        tileSize = size;
+    }
+
+    /**
+     * Empties the cache and stores every tile of a full frame in order, the
+     * first in slot 0, until the cache is full.
+     *
+     * @param frame The full frame.
+     */
+    public void seed(BufferedImage frame) {
+        recycle();
+        if (frame == null) {
+            return;
+        }
+        final int size = tileSize;
+        final int columns = (frame.getWidth() + size - 1) / size;
+        final int rows = (frame.getHeight() + size - 1) / size;
+        for (int tile = 0, end = Math.min(columns * rows, slots.length); tile < end; ++tile) {
+            store(frame, tile, tile);
+        }
+    }
+
+    /**
+     * Stores tiles of the frame.
+     *
+     * @param frame The frame holding the tiles.
+     * @param tiles The tile indices.
+     * @param slotIndices The slot each tile goes into.
+     * @param count The number of valid entries in tiles and slotIndices.
+     */
+    public void store(BufferedImage frame, int[] tiles, int[] slotIndices, int count) {
+        if (frame == null) {
+            return;
+        }
+        for (int index = 0; index < count; ++index) {
+            store(frame, tiles[index], slotIndices[index]);
+        }
+    }
+
+    /**
+     * Copies cached tiles into the frame.
+     *
+     * @param frame The frame to draw the tiles on.
+     * @param tiles The tile indices.
+     * @param slotIndices The slot holding each tile.
+     * @param count The number of valid entries in tiles and slotIndices.
+     */
+    public void fill(BufferedImage frame, int[] tiles, int[] slotIndices, int count) {
+        if (frame == null) {
+            return;
+        }
+        final int size = tileSize;
+        final int width = frame.getWidth();
+        final int height = frame.getHeight();
+        final int columns = (width + size - 1) / size;
+        for (int index = 0; index < count; ++index) {
+            final int tile = tiles[index];
+            final int left = (tile % columns) * size;
+            final int top = (tile / columns) * size;
+            final int tileWidth = Math.min(size, width - left);
+            final int tileHeight = Math.min(size, height - top);
+            final int slot = slotIndices[index];
+            if (top >= height || shapes[slot] != ((tileWidth << 16) | tileHeight)) {
+                System.out.println("Skipping cached tile " + tile + ", slot " + slot + " holds no such tile.");
+                continue;
+            }
+            frame.setRGB(left, top, tileWidth, tileHeight, slots[slot], 0, tileWidth);
+        }
+    }
+
+    private void store(BufferedImage frame, int tile, int slot) {
+        final int size = tileSize;
+        final int width = frame.getWidth();
+        final int height = frame.getHeight();
+        final int columns = (width + size - 1) / size;
+        final int left = (tile % columns) * size;
+        final int top = (tile / columns) * size;
+        if (top >= height) {
+            return;
+        }
+        final int tileWidth = Math.min(size, width - left);
+        final int tileHeight = Math.min(size, height - top);
+        int[] pixels = slots[slot];
+        if (pixels == null) {
+            slots[slot] = pixels = new int[size * size];
+        }
+        frame.getRGB(left, top, tileWidth, tileHeight, pixels, 0, tileWidth);
+        shapes[slot] = (tileWidth << 16) | tileHeight;
+    }
+
+    /**
+     * @return The number of slots.
+     */
+    public int size() {
+        return slots.length;
+    }
+
+    @Override
+    public void recycle() {
+        Arrays.fill(shapes, 0);
+    }
+}
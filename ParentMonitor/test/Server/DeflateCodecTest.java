@@ -0,0 +1,145 @@
+package Server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import org.junit.Test;
+
+//Images are deflated the way the client's DeflateCodec deflates them.
+public class DeflateCodecTest {
+
+    private static final int INDEPENDENT = 0;
+    private static final int CONTINUED = 1;
+    private static final int RESTARTED = 2;
+
+    @Test
+    public void decodesAnIndependentImage() throws IOException {
+        BufferedImage image = ImageSocketTest.pattern(150, 90, 5);
+        BufferedImage decoded = new DeflateCodec().decode(new ByteArrayInputStream(deflate(INDEPENDENT, image, new Deflater(), true)));
+        assertEquals(150, decoded.getWidth());
+        assertEquals(90, decoded.getHeight());
+        ImageSocketTest.assertPixels(image, 0, 0, decoded, 0, 0, 150, 90);
+    }
+
+    @Test
+    public void decodesImagesThatContinueAStream() throws IOException {
+        BufferedImage first = ImageSocketTest.pattern(150, 90, 5);
+        BufferedImage second = ImageSocketTest.pattern(100, 40, 6);
+        Deflater deflater = new Deflater();
+        byte[] restarted = deflate(RESTARTED, first, deflater, false);
+        byte[] continued = deflate(CONTINUED, second, deflater, false);
+        DeflateCodec codec = new DeflateCodec();
+        ImageSocketTest.assertPixels(first, 0, 0, codec.decode(new ByteArrayInputStream(restarted)), 0, 0, 150, 90);
+        ImageSocketTest.assertPixels(second, 0, 0, codec.decode(new ByteArrayInputStream(continued)), 0, 0, 100, 40);
+    }
+
+    @Test
+    public void rejectsContinuingAStreamThatWasNeverStarted() throws IOException {
+        Deflater deflater = new Deflater();
+        deflate(RESTARTED, ImageSocketTest.pattern(150, 90, 5), deflater, false);
+        byte[] continued = deflate(CONTINUED, ImageSocketTest.pattern(100, 40, 6), deflater, false);
+        assertRejected(new DeflateCodec(), continued, "Image continues a stream that was never started");
+        //Nor one an independent image ended
+        DeflateCodec codec = new DeflateCodec();
+        codec.decode(new ByteArrayInputStream(deflate(INDEPENDENT, ImageSocketTest.pattern(10, 10, 1), new Deflater(), true)));
+        assertRejected(codec, continued, "Image continues a stream that was never started");
+    }
+
+    @Test
+    public void rejectsImagesWithExtraRows() throws IOException {
+        byte[] restarted = deflate(RESTARTED, ImageSocketTest.pattern(150, 90, 5), new Deflater(), false);
+        //Claims fewer rows than were deflated
+        restarted[8] = (byte) 89;
+        assertRejected(new DeflateCodec(), restarted, "Image has more pixels than 150x89");
+    }
+
+    @Test
+    public void rejectsImpossibleSizes() throws IOException {
+        assertRejected(new DeflateCodec(), header(INDEPENDENT, 0, 10), "Invalid frame size");
+        assertRejected(new DeflateCodec(), header(INDEPENDENT, 10, -1), "Invalid frame size");
+        assertRejected(new DeflateCodec(), header(INDEPENDENT, 1 << 20, 1), "Invalid frame size");
+        assertRejected(new DeflateCodec(), header(INDEPENDENT, 20000, 20000), "Invalid frame size");
+    }
+
+    @Test
+    public void rejectsUnknownModes() throws IOException {
+        assertRejected(new DeflateCodec(), header(3, 10, 10), "Unknown deflate mode");
+    }
+
+    @Test
+    public void rejectsImagesWithMissingRows() throws IOException {
+        byte[] deflated = deflate(INDEPENDENT, ImageSocketTest.pattern(150, 90, 5), new Deflater(), true);
+        //Claims more rows than were deflated
+        deflated[8] = (byte) 91;
+        assertRejected(new DeflateCodec(), deflated, "Image ended after 90 of 91 rows");
+    }
+
+    @Test
+    public void rejectsCorruptData() throws IOException {
+        byte[] corrupt = Arrays.copyOf(header(INDEPENDENT, 10, 10), 9 + 20);
+        Arrays.fill(corrupt, 9, corrupt.length, (byte) 0xFF);
+        try {
+            new DeflateCodec().decode(new ByteArrayInputStream(corrupt));
+            fail("Decoded corrupt data");
+        }
+        catch (IOException expected) {
+            //a DataFormatException, wrapped
+        }
+    }
+
+    /**
+     * The mode, width, height and the image's RGB pixels, deflated to a
+     * finished stream or flushed to leave the stream open.
+     */
+    static byte[] deflate(int mode, BufferedImage image, Deflater deflater, boolean finish) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(header(mode, image.getWidth(), image.getHeight()));
+        byte[] rgb = new byte[image.getWidth() * image.getHeight() * 3];
+        for (int y = 0, index = 0; y < image.getHeight(); ++y) {
+            for (int x = 0; x < image.getWidth(); ++x) {
+                int pixel = image.getRGB(x, y);
+                rgb[index++] = (byte) (pixel >> 16);
+                rgb[index++] = (byte) (pixel >> 8);
+                rgb[index++] = (byte) pixel;
+            }
+        }
+        deflater.setInput(rgb);
+        if (finish) {
+            deflater.finish();
+        }
+        byte[] chunk = new byte[4096];
+        int written;
+        do {
+            written = deflater.deflate(chunk, 0, chunk.length, finish ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+            bytes.write(chunk, 0, written);
+        }
+        while (finish ? !deflater.finished() : written == chunk.length);
+        return bytes.toByteArray();
+    }
+
+    static byte[] header(int mode, int width, int height) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeByte(mode);
+        output.writeInt(width);
+        output.writeInt(height);
+        return bytes.toByteArray();
+    }
+
+    static void assertRejected(DeflateCodec codec, byte[] data, String reason) {
+        try {
+            codec.decode(new ByteArrayInputStream(data));
+            fail("Decoded an image that should have been rejected with: " + reason);
+        }
+        catch (IOException expected) {
+            assertTrue(expected.toString(), String.valueOf(expected.getMessage()).startsWith(reason));
+        }
+    }
+}
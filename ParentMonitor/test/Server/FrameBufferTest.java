@@ -0,0 +1,89 @@
+package Server;
+
+import static Server.Network.TILE_SIZE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import org.junit.Test;
+
+public class FrameBufferTest {
+
+    private static final int WIDTH = ImageSocketTest.WIDTH;
+    private static final int HEIGHT = ImageSocketTest.HEIGHT;
+
+    @Test
+    public void xorAppliesTheDifferenceToTheFrame() throws IOException {
+        BufferedImage screen = ImageSocketTest.pattern(WIDTH, HEIGHT, 1);
+        BufferedImage difference = ImageSocketTest.pattern(WIDTH, HEIGHT, 2);
+        FrameBuffer frame = new FrameBuffer();
+        frame.replace(FrameBuffer.copyOf(screen));
+        BufferedImage patched = frame.xor(WIDTH, HEIGHT, TILE_SIZE, new int[] {1, 5}, 2, ImageSocketTest.atlas(difference, 1, 5));
+        for (int y = 0; y < HEIGHT; ++y) {
+            for (int x = 0; x < WIDTH; ++x) {
+                boolean changed = (x >= TILE_SIZE && x < 2 * TILE_SIZE && y < TILE_SIZE) || (x >= 2 * TILE_SIZE && y >= TILE_SIZE);
+                int expected = screen.getRGB(x, y) ^ (changed ? difference.getRGB(x, y) : 0);
+                assertEquals("Pixel at " + x + "," + y, expected & 0xFFFFFF, patched.getRGB(x, y) & 0xFFFFFF);
+            }
+        }
+        //XORing the same difference again restores the frame
+        frame.xor(WIDTH, HEIGHT, TILE_SIZE, new int[] {1, 5}, 2, ImageSocketTest.atlas(difference, 1, 5));
+        ImageSocketTest.assertPixels(screen, 0, 0, frame.getFrame(), 0, 0, WIDTH, HEIGHT);
+    }
+
+    @Test
+    public void discardsDeltasForAnotherFrame() throws IOException {
+        FrameBuffer frame = new FrameBuffer();
+        BufferedImage atlas = ImageSocketTest.atlas(ImageSocketTest.pattern(WIDTH, HEIGHT, 2), 0);
+        assertNull(frame.xor(WIDTH, HEIGHT, TILE_SIZE, new int[] {0}, 1, atlas));
+        BufferedImage screen = ImageSocketTest.pattern(WIDTH, HEIGHT, 1);
+        frame.replace(FrameBuffer.copyOf(screen));
+        frame.xor(WIDTH + 1, HEIGHT, TILE_SIZE, new int[] {0}, 1, atlas);
+        frame.patch(WIDTH, HEIGHT - 1, TILE_SIZE, new int[] {0}, 1, atlas);
+        ImageSocketTest.assertPixels(screen, 0, 0, frame.getFrame(), 0, 0, WIDTH, HEIGHT);
+    }
+
+    @Test
+    public void rejectsXorTilesOutsideTheFrame() {
+        BufferedImage atlas = ImageSocketTest.atlas(ImageSocketTest.pattern(WIDTH, HEIGHT, 2), 0);
+        assertXorRejected(new int[] {-1}, atlas);
+        assertXorRejected(new int[] {6}, atlas);
+    }
+
+    @Test
+    public void rejectsXorTilesOutsideTheAtlas() {
+        //Two tiles, but room for one
+        BufferedImage atlas = ImageSocketTest.atlas(ImageSocketTest.pattern(WIDTH, HEIGHT, 2), 0);
+        assertXorRejected(new int[] {0, 1}, atlas);
+        //The partly covered bottom right tile fits, a whole one does not
+        BufferedImage corner = new BufferedImage(2, 6, BufferedImage.TYPE_INT_RGB);
+        assertXorRejected(new int[] {0}, corner);
+    }
+
+    @Test
+    public void copiesAreNotChangedByLaterFrames() {
+        FrameBuffer frame = new FrameBuffer();
+        BufferedImage screen = ImageSocketTest.pattern(WIDTH, HEIGHT, 1);
+        frame.replace(FrameBuffer.copyOf(screen));
+        BufferedImage copy = FrameBuffer.copyOf(frame.getFrame());
+        assertNotSame(frame.getFrame(), copy);
+        frame.patch(WIDTH, HEIGHT, TILE_SIZE, new int[] {0}, 1, ImageSocketTest.atlas(ImageSocketTest.pattern(WIDTH, HEIGHT, 3), 0));
+        ImageSocketTest.assertPixels(screen, 0, 0, copy, 0, 0, WIDTH, HEIGHT);
+        assertNull(FrameBuffer.copyOf(null));
+    }
+
+    private static void assertXorRejected(int[] tiles, BufferedImage atlas) {
+        FrameBuffer frame = new FrameBuffer();
+        frame.replace(ImageSocketTest.pattern(WIDTH, HEIGHT, 1));
+        try {
+            frame.xor(WIDTH, HEIGHT, TILE_SIZE, tiles, tiles.length, atlas);
+            fail("XORed a tile that lies outside the frame or the atlas");
+        }
+        catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().startsWith("XOR tile"));
+        }
+    }
+}
@@ -0,0 +1,475 @@
+package Server;
+
+import static Server.Network.COPY_RECT;
+import static Server.Network.DEFLATE_CODEC;
+import static Server.Network.DELTA_FRAME;
+import static Server.Network.FULL_FRAME;
+import static Server.Network.HEARTBEAT;
+import static Server.Network.HISTORY_FRAME;
+import static Server.Network.JPEG_CODEC;
+import static Server.Network.MIXED_DELTA_FRAME;
+import static Server.Network.MIXED_FULL_FRAME;
+import static Server.Network.PNG_CODEC;
+import static Server.Network.POINTER;
+import static Server.Network.POINTER_SCALE;
+import static Server.Network.RGB565_CODEC;
+import static Server.Network.TILE_CACHE;
+import static Server.Network.TILE_CACHE_SIZE;
+import static Server.Network.TILE_SIZE;
+import static Server.Network.XOR_DELTA_FRAME;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import javax.imageio.ImageIO;
+import org.junit.Test;
+
+//Frames are written the way the client writes them and read back through a loopback connection,
+//malformed frames must be rejected by their checks rather than by running out of data.
+public class ImageSocketTest {
+
+    //3 columns and 2 rows of tiles, the last column and row only partly covered
+    static final int WIDTH = 2 * TILE_SIZE + 2;
+    static final int HEIGHT = TILE_SIZE + 6;
+
+    @Test
+    public void deltaFramePatchesTheFullFrame() throws IOException {
+        BufferedImage screen = pattern(WIDTH, HEIGHT, 0);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        writeFullFrame(output, screen);
+
+        //Tiles 1 and 5 changed, packed side by side
+        BufferedImage atlas = pattern(2 * TILE_SIZE, TILE_SIZE, 7);
+        output.writeByte(DELTA_FRAME);
+        output.writeInt(WIDTH);
+        output.writeInt(HEIGHT);
+        output.writeInt(2);
+        output.writeInt(1);
+        output.writeInt(5);
+        writeImage(output, atlas);
+        output.writeByte(HEARTBEAT);
+
+        try (ImageSocket socket = connect(bytes.toByteArray())) {
+            assertPixels(screen, 0, 0, socket.readImage(), 0, 0, WIDTH, HEIGHT);
+            BufferedImage patched = socket.readImage();
+            assertPixels(atlas, 0, 0, patched, TILE_SIZE, 0, TILE_SIZE, TILE_SIZE);
+            assertPixels(atlas, TILE_SIZE, 0, patched, 2 * TILE_SIZE, TILE_SIZE, 2, 6);
+            assertPixels(screen, 0, 0, patched, 0, 0, TILE_SIZE, HEIGHT);
+            assertPixels(screen, 2 * TILE_SIZE, 0, patched, 2 * TILE_SIZE, 0, 2, TILE_SIZE);
+            assertPixels(screen, TILE_SIZE, TILE_SIZE, patched, TILE_SIZE, TILE_SIZE, TILE_SIZE, 6);
+            assertSame(patched, socket.readImage());
+        }
+    }
+
+    @Test
+    public void mixedFrameIsDrawnFromBothGroups() throws IOException {
+        BufferedImage screen = pattern(WIDTH, HEIGHT, 3);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeByte(MIXED_FULL_FRAME);
+        output.writeInt(WIDTH);
+        output.writeInt(HEIGHT);
+        writeTiles(output, screen, 0, 2, 4);
+        writeTiles(output, screen, 1, 3, 5);
+        //Only the lossy group changed
+        BufferedImage changed = pattern(WIDTH, HEIGHT, 4);
+        output.writeByte(MIXED_DELTA_FRAME);
+        output.writeInt(WIDTH);
+        output.writeInt(HEIGHT);
+        writeTiles(output, changed);
+        writeTiles(output, changed, 5);
+
+        try (ImageSocket socket = connect(bytes.toByteArray())) {
+            assertPixels(screen, 0, 0, socket.readImage(), 0, 0, WIDTH, HEIGHT);
+            BufferedImage patched = socket.readImage();
+            assertPixels(screen, 0, 0, patched, 0, 0, WIDTH, TILE_SIZE);
+            assertPixels(screen, 0, TILE_SIZE, patched, 0, TILE_SIZE, 2 * TILE_SIZE, 6);
+            assertPixels(changed, 2 * TILE_SIZE, TILE_SIZE, patched, 2 * TILE_SIZE, TILE_SIZE, 2, 6);
+        }
+    }
+
+    @Test
+    public void rejectsMixedGroupsWithMoreTilesThanTheFrameHas() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeByte(MIXED_FULL_FRAME);
+        output.writeInt(WIDTH);
+        output.writeInt(HEIGHT);
+        output.writeInt(0);
+        output.writeInt(7);
+        assertRejected(bytes.toByteArray(), "Invalid tile count");
+    }
+
+    @Test
+    public void copyMovesContentWithinTheFrame() throws IOException {
+        BufferedImage screen = pattern(WIDTH, HEIGHT, 5);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        writeFullFrame(output, screen);
+        //Scrolled up by 10 rows
+        writeCopy(output, WIDTH, HEIGHT, 0, 10, WIDTH, HEIGHT - 10, 0, 0);
+        output.writeByte(HEARTBEAT);
+        //Nonsense the server must neither apply nor throw on: another size, then far outside the frame
+        writeCopy(output, WIDTH + 1, HEIGHT, 0, 10, WIDTH, HEIGHT - 10, 0, 0);
+        output.writeByte(HEARTBEAT);
+        writeCopy(output, WIDTH, HEIGHT, -5000, Integer.MAX_VALUE, Integer.MAX_VALUE, 3, Integer.MIN_VALUE, 20);
+        output.writeByte(HEARTBEAT);
+
+        try (ImageSocket socket = connect(bytes.toByteArray())) {
+            socket.readImage();
+            BufferedImage copied = socket.readImage();
+            assertPixels(screen, 0, 10, copied, 0, 0, WIDTH, HEIGHT - 10);
+            assertPixels(screen, 0, HEIGHT - 10, copied, 0, HEIGHT - 10, WIDTH, 10);
+            BufferedImage expected = FrameBuffer.copyOf(copied);
+            assertPixels(expected, 0, 0, socket.readImage(), 0, 0, WIDTH, HEIGHT);
+            assertPixels(expected, 0, 0, socket.readImage(), 0, 0, WIDTH, HEIGHT);
+        }
+    }
+
+    @Test
+    public void xorFrameIsXoredOntoTheFrame() throws IOException {
+        BufferedImage screen = pattern(WIDTH, HEIGHT, 1);
+        BufferedImage difference = pattern(WIDTH, HEIGHT, 2);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        writeFullFrame(output, screen);
+        output.writeByte(XOR_DELTA_FRAME);
+        output.writeInt(WIDTH);
+        output.writeInt(HEIGHT);
+        writeTiles(output, difference, 0);
+        //An atlas too small for its tiles
+        output.writeByte(XOR_DELTA_FRAME);
+        output.writeInt(WIDTH);
+        output.writeInt(HEIGHT);
+        output.writeInt(2);
+        output.writeInt(0);
+        output.writeInt(1);
+        writeImage(output, atlas(difference, 0));
+
+        try (ImageSocket socket = connect(bytes.toByteArray())) {
+            socket.readImage();
+            BufferedImage patched = socket.readImage();
+            for (int y = 0; y < TILE_SIZE; ++y) {
+                for (int x = 0; x < TILE_SIZE; ++x) {
+                    assertEquals((screen.getRGB(x, y) ^ difference.getRGB(x, y)) & 0xFFFFFF, patched.getRGB(x, y) & 0xFFFFFF);
+                }
+            }
+            assertPixels(screen, TILE_SIZE, 0, patched, TILE_SIZE, 0, WIDTH - TILE_SIZE, HEIGHT);
+            socket.readImage();
+            fail("XORed a tile outside the atlas");
+        }
+        catch (IOException expected) {
+            assertTrue(expected.toString(), expected.getMessage().startsWith("XOR tile 1 in slot 1"));
+        }
+    }
+
+    @Test
+    public void tileCacheRestoresTilesSentBefore() throws IOException {
+        BufferedImage screen = pattern(WIDTH, HEIGHT, 1);
+        BufferedImage changed = pattern(WIDTH, HEIGHT, 2);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        writeFullFrame(output, screen);
+        //Tile 1 from slot 0, where the full frame put tile 0, and tile 0 sent and stored in slot 9
+        output.writeByte(TILE_CACHE);
+        output.writeInt(1);
+        output.writeInt(1);
+        output.writeInt(0);
+        output.writeInt(1);
+        output.writeInt(0);
+        output.writeInt(9);
+        output.writeByte(DELTA_FRAME);
+        output.writeInt(WIDTH);
+        output.writeInt(HEIGHT);
+        writeTiles(output, changed, 0);
+        //Tile 3 from slot 9
+        output.writeByte(TILE_CACHE);
+        output.writeInt(1);
+        output.writeInt(3);
+        output.writeInt(9);
+        output.writeInt(0);
+        output.writeByte(HEARTBEAT);
+
+        try (ImageSocket socket = connect(bytes.toByteArray())) {
+            socket.readImage();
+            BufferedImage patched = socket.readImage();
+            assertPixels(changed, 0, 0, patched, 0, 0, TILE_SIZE, TILE_SIZE);
+            assertPixels(screen, 0, 0, patched, TILE_SIZE, 0, TILE_SIZE, TILE_SIZE);
+            patched = socket.readImage();
+            //A whole tile does not fit the partly covered tile 3, which is left as it was
+            assertPixels(screen, 0, TILE_SIZE, patched, 0, TILE_SIZE, WIDTH, 6);
+        }
+    }
+
+    @Test
+    public void rejectsTileCacheEntriesOutsideTheFrameOrTheCache() throws IOException {
+        assertRejected(cacheEntry(true, 1, 6, 0), "Invalid tile index");
+        assertRejected(cacheEntry(true, 7, 0, 0), "Invalid cached tile count");
+        assertRejected(cacheEntry(true, 1, 0, TILE_CACHE_SIZE), "Invalid tile cache slot");
+        assertRejected(cacheEntry(true, 1, 0, -1), "Invalid tile cache slot");
+        //Without a frame there are no tiles to refer to
+        assertRejected(cacheEntry(false, 1, 0, 0), "Invalid cached tile count: 1 of 0");
+    }
+
+    @Test
+    public void pointerPacketsAreReadBetweenFrames() throws IOException {
+        BufferedImage screen = pattern(WIDTH, HEIGHT, 1);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeByte(POINTER);
+        output.writeShort(0);
+        output.writeShort(POINTER_SCALE);
+        writeFullFrame(output, screen);
+        output.writeByte(POINTER);
+        output.writeInt(-1);
+        output.writeByte(POINTER);
+        output.writeShort(0x7FFF);
+        output.writeShort(0x3FFF);
+        output.writeByte(HEARTBEAT);
+        //Cut off within the position
+        output.writeByte(POINTER);
+        output.writeShort(0x7FFF);
+
+        try (ImageSocket socket = connect(bytes.toByteArray())) {
+            BufferedImage frame = socket.readImage();
+            assertPixels(screen, 0, 0, frame, 0, 0, WIDTH, HEIGHT);
+            assertSame(frame, socket.readImage());
+            socket.readImage();
+            fail("Read a frame from half a pointer packet");
+        }
+        catch (EOFException expected) {
+            //the rest of the position never arrived
+        }
+    }
+
+    @Test
+    public void historyFramesAreSkippedWithoutAViewer() throws IOException {
+        BufferedImage screen = pattern(WIDTH, HEIGHT, 1);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        bytes.write(historyFrame(JPEG_CODEC, 3, 1));
+        bytes.write(historyFrame(PNG_CODEC, 0, 0));
+        writeFullFrame(output, screen);
+
+        try (ImageSocket socket = connect(bytes.toByteArray())) {
+            assertPixels(screen, 0, 0, socket.readImage(), 0, 0, WIDTH, HEIGHT);
+        }
+    }
+
+    @Test
+    public void rejectsMalformedHistoryFrames() throws IOException {
+        assertRejected(historyFrame(DEFLATE_CODEC, 1, 0), "Unsupported history codec");
+        assertRejected(historyFrame(RGB565_CODEC + 1, 1, 0), "Unsupported history codec");
+        assertRejected(historyFrame(JPEG_CODEC, -1, 0), "Invalid history frame");
+        assertRejected(historyFrame(JPEG_CODEC, (16 << 20) + 1, 0), "Invalid history frame");
+        assertRejected(historyFrame(JPEG_CODEC, 1, -1), "Invalid history frame");
+    }
+
+    @Test
+    public void rejectsMoreTilesThanTheFrameHas() throws IOException {
+        assertRejected(delta(WIDTH, HEIGHT, 7, 0), "Invalid tile count");
+        assertRejected(delta(WIDTH, HEIGHT, -1, 0), "Invalid tile count");
+    }
+
+    @Test
+    public void rejectsTilesOutsideTheFrame() throws IOException {
+        assertRejected(delta(WIDTH, HEIGHT, 1, 6), "Invalid tile index");
+        assertRejected(delta(WIDTH, HEIGHT, 1, -1), "Invalid tile index");
+    }
+
+    @Test
+    public void rejectsImpossibleFrameSizes() throws IOException {
+        assertRejected(delta(0, HEIGHT, 0, 0), "Invalid frame size");
+        assertRejected(delta(WIDTH, -HEIGHT, 0, 0), "Invalid frame size");
+        assertRejected(delta(40000, 1, 0, 0), "Invalid frame size");
+        assertRejected(delta(16384, 16384, 0, 0), "Invalid frame size");
+    }
+
+    @Test
+    public void rejectsImpossibleImageLengths() throws IOException {
+        assertRejected(imageOfLength(-1), "Invalid encoded image length");
+        assertRejected(imageOfLength(Integer.MAX_VALUE), "Invalid encoded image length");
+    }
+
+    @Test
+    public void rejectsUnknownCodecs() throws IOException {
+        byte[] stream = imageOfLength(1);
+        stream[1] = RGB565_CODEC + 1;
+        assertRejected(stream, "Unknown image codec");
+        stream[1] = -1;
+        assertRejected(stream, "Unknown image codec");
+    }
+
+    @Test
+    public void rejectsUnknownFrameHeaders() throws IOException {
+        assertRejected(new byte[] {100}, "Unknown frame header");
+    }
+
+    private static void writeCopy(DataOutputStream output, int width, int height, int sourceX, int sourceY, int copyWidth, int copyHeight, int destinationX, int destinationY) throws IOException {
+        output.writeByte(COPY_RECT);
+        output.writeInt(width);
+        output.writeInt(height);
+        output.writeInt(sourceX);
+        output.writeInt(sourceY);
+        output.writeInt(copyWidth);
+        output.writeInt(copyHeight);
+        output.writeInt(destinationX);
+        output.writeInt(destinationY);
+    }
+
+    //A delta frame header with count tiles, all of them the given tile
+    private static byte[] delta(int width, int height, int count, int tile) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeByte(DELTA_FRAME);
+        output.writeInt(width);
+        output.writeInt(height);
+        output.writeInt(count);
+        for (int index = 0; index < count; ++index) {
+            output.writeInt(tile);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] imageOfLength(int length) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeByte(FULL_FRAME);
+        output.writeByte(PNG_CODEC);
+        output.writeInt(length);
+        return bytes.toByteArray();
+    }
+
+    //A tile count, the tiles' indices and, unless there are none, the tiles packed as the client packs them
+    static void writeTiles(DataOutputStream output, BufferedImage screen, int... tiles) throws IOException {
+        output.writeInt(tiles.length);
+        for (int tile : tiles) {
+            output.writeInt(tile);
+        }
+        if (tiles.length != 0) {
+            writeImage(output, atlas(screen, tiles));
+        }
+    }
+
+    static BufferedImage atlas(BufferedImage screen, int... tiles) {
+        int columns = (screen.getWidth() + TILE_SIZE - 1) / TILE_SIZE;
+        int atlasColumns = Math.min(tiles.length, columns);
+        int atlasRows = (tiles.length + atlasColumns - 1) / atlasColumns;
+        BufferedImage atlas = new BufferedImage(atlasColumns * TILE_SIZE, atlasRows * TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+        for (int slot = 0; slot < tiles.length; ++slot) {
+            int left = tiles[slot] % columns * TILE_SIZE;
+            int top = tiles[slot] / columns * TILE_SIZE;
+            int width = Math.min(TILE_SIZE, screen.getWidth() - left);
+            int height = Math.min(TILE_SIZE, screen.getHeight() - top);
+            int[] pixels = screen.getRGB(left, top, width, height, null, 0, width);
+            atlas.setRGB(slot % atlasColumns * TILE_SIZE, slot / atlasColumns * TILE_SIZE, width, height, pixels, 0, width);
+        }
+        return atlas;
+    }
+
+    //A HISTORY_FRAME of the given length, followed by that many bytes unless the length is not one to send
+    private static byte[] historyFrame(int codecId, int length, int remaining) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeByte(HISTORY_FRAME);
+        output.writeLong(System.currentTimeMillis());
+        output.writeInt(remaining);
+        output.writeByte(codecId);
+        output.writeInt(length);
+        if (length > 0 && length < 100) {
+            output.write(new byte[length]);
+        }
+        return bytes.toByteArray();
+    }
+
+    //A TILE_CACHE header taking count tiles from the cache, all of them the given tile and slot
+    private static byte[] cacheEntry(boolean afterFullFrame, int count, int tile, int slot) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        if (afterFullFrame) {
+            writeFullFrame(output, pattern(WIDTH, HEIGHT, 1));
+        }
+        output.writeByte(TILE_CACHE);
+        output.writeInt(count);
+        for (int index = 0; index < count; ++index) {
+            output.writeInt(tile);
+            output.writeInt(slot);
+        }
+        return bytes.toByteArray();
+    }
+
+    static void writeFullFrame(DataOutputStream output, BufferedImage image) throws IOException {
+        output.writeByte(FULL_FRAME);
+        writeImage(output, image);
+    }
+
+    static void writeImage(DataOutputStream output, BufferedImage image) throws IOException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        ImageIO.write(image, "PNG", encoded);
+        output.writeByte(PNG_CODEC);
+        output.writeInt(encoded.size());
+        encoded.writeTo(output);
+    }
+
+    /**
+     * Expects reading frames from the given bytes to fail for the given
+     * reason, not merely because the bytes ran out.
+     */
+    static void assertRejected(byte[] stream, String reason) throws IOException {
+        try (ImageSocket socket = connect(stream)) {
+            while (true) {
+                socket.readImage(); //until the frame that should be rejected, or the end of the bytes
+            }
+        }
+        catch (IOException expected) {
+            assertTrue(expected.toString(), String.valueOf(expected.getMessage()).startsWith(reason));
+        }
+    }
+
+    /**
+     * Connects an ImageSocket to a client that sends the given bytes and then
+     * closes its end.
+     */
+    static ImageSocket connect(byte[] stream) throws IOException {
+        try (ServerSocket listener = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            ImageSocket socket = new ImageSocket(listener.getInetAddress().getHostAddress(), listener.getLocalPort());
+            assertTrue("Could not connect over loopback", socket.isActive());
+            try (Socket client = listener.accept()) {
+                OutputStream output = client.getOutputStream();
+                output.write(stream);
+                output.flush();
+            }
+            return socket;
+        }
+    }
+
+    //Pixels every tile of which differs from its neighbors
+    static BufferedImage pattern(int width, int height, int seed) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                image.setRGB(x, y, ((x * 7 + seed * 40) & 0xFF) << 16 | ((y * 5 + seed * 20) & 0xFF) << 8 | ((x ^ y) + seed) & 0xFF);
+            }
+        }
+        return image;
+    }
+
+    static void assertPixels(BufferedImage expected, int expectedX, int expectedY, BufferedImage actual, int actualX, int actualY, int width, int height) {
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                assertEquals("Pixel at " + (actualX + x) + "," + (actualY + y),
+                        expected.getRGB(expectedX + x, expectedY + y) & 0xFFFFFF, actual.getRGB(actualX + x, actualY + y) & 0xFFFFFF);
+            }
+        }
+    }
+}
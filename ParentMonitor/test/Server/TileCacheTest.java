@@ -0,0 +1,53 @@
+package Server;
+
+import static Server.Network.TILE_SIZE;
+import static org.junit.Assert.assertEquals;
+import java.awt.image.BufferedImage;
+import org.junit.Test;
+
+public class TileCacheTest {
+
+    private static final int WIDTH = ImageSocketTest.WIDTH;
+    private static final int HEIGHT = ImageSocketTest.HEIGHT;
+
+    @Test
+    public void fillsTilesFromTheSlotsTheyWereStoredIn() {
+        BufferedImage screen = ImageSocketTest.pattern(WIDTH, HEIGHT, 1);
+        TileCache cache = new TileCache(8, TILE_SIZE);
+        cache.seed(screen);
+        BufferedImage frame = ImageSocketTest.pattern(WIDTH, HEIGHT, 2);
+        cache.fill(frame, new int[] {1, 5}, new int[] {0, 5}, 2);
+        ImageSocketTest.assertPixels(screen, 0, 0, frame, TILE_SIZE, 0, TILE_SIZE, TILE_SIZE);
+        ImageSocketTest.assertPixels(screen, 2 * TILE_SIZE, TILE_SIZE, frame, 2 * TILE_SIZE, TILE_SIZE, 2, 6);
+
+        BufferedImage changed = ImageSocketTest.pattern(WIDTH, HEIGHT, 3);
+        cache.store(changed, new int[] {0}, new int[] {7}, 1);
+        cache.fill(frame, new int[] {0}, new int[] {7}, 1);
+        ImageSocketTest.assertPixels(changed, 0, 0, frame, 0, 0, TILE_SIZE, TILE_SIZE);
+    }
+
+    @Test
+    public void skipsSlotsHoldingATileOfAnotherShape() {
+        BufferedImage screen = ImageSocketTest.pattern(WIDTH, HEIGHT, 1);
+        TileCache cache = new TileCache(8, TILE_SIZE);
+        cache.seed(screen);
+        BufferedImage frame = ImageSocketTest.pattern(WIDTH, HEIGHT, 2);
+        BufferedImage expected = FrameBuffer.copyOf(frame);
+        //A whole tile for a partly covered one, an empty slot, and, once emptied, every slot
+        cache.fill(frame, new int[] {4, 0}, new int[] {0, 6}, 2);
+        cache.recycle();
+        cache.fill(frame, new int[] {0}, new int[] {0}, 1);
+        ImageSocketTest.assertPixels(expected, 0, 0, frame, 0, 0, WIDTH, HEIGHT);
+    }
+
+    @Test
+    public void seedsOnlyAsManyTilesAsFit() {
+        BufferedImage screen = ImageSocketTest.pattern(WIDTH, HEIGHT, 1);
+        TileCache cache = new TileCache(2, TILE_SIZE);
+        assertEquals(2, cache.size());
+        cache.seed(screen);
+        BufferedImage frame = ImageSocketTest.pattern(WIDTH, HEIGHT, 2);
+        cache.fill(frame, new int[] {0}, new int[] {1}, 1);
+        ImageSocketTest.assertPixels(screen, TILE_SIZE, 0, frame, 0, 0, TILE_SIZE, TILE_SIZE);
+    }
+}
@@ -0,0 +1,170 @@
+package Client;
+
+import java.util.Arrays;
+
+//Up to 256 colors picked from the colors seen most often in recent screen shots. Screens are mostly
+//flat colors, so a popularity palette reproduces text and windows exactly and gradients roughly.
+//Between rebuilds, colors that newly appear are added to any free entries straight away.
+//Colors are counted in buckets of 5 bits per channel, and the palette entry nearest to each bucket
+//is remembered, so mapping a pixel to the palette is a table lookup once its bucket has been seen.
+public final class AdaptivePalette {
+
+    /**
+     * Most colors a palette holds, the most an 8-bit PNG palette can hold.
+     */
+    public static final int MAXIMUM_SIZE = 256;
+
+    private static final int BUCKETS = 1 << 15;
+
+    //Every 7th pixel of every row is counted, as in the ChangeProbe
+    private static final int SAMPLE_STRIDE = 7;
+
+    //Frames counted between palette rebuilds, counts are halved at every rebuild so old frames fade out
+    private static final int UPDATE_PERIOD = 16;
+
+    //A new color is added between rebuilds when no entry is closer to it than this, in weighted squared distance
+    private static final int ADMIT_DISTANCE = 9 * 48;
+
+    private final int[] counts = new int[BUCKETS];
+    private final int[] samples = new int[BUCKETS]; //an exact color seen in each bucket, the palette uses it as is
+    private final byte[] indices = new byte[BUCKETS];
+    private final boolean[] mapped = new boolean[BUCKETS];
+    private final int[] fresh = new int[BUCKETS]; //buckets first counted since the last update
+    private int freshCount;
+
+    private final int[] colors = new int[MAXIMUM_SIZE];
+    private int size;
+    private int frames;
+
+    /**
+     * @return True until the palette has been built from a first frame.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index The palette entry, below size().
+     * @return The color of the entry, as 0xRRGGBB.
+     */
+    public int getColor(int index) {
+        return colors[index];
+    }
+
+    /**
+     * Counts the colors of part of a row of pixels.
+     *
+     * @param pixels The pixels, as 0xRRGGBB.
+     * @param offset The first pixel.
+     * @param length The number of pixels.
+     * @param phase Pixels skipped before the first counted one, so rows do not
+     * all count the same columns.
+     */
+    public void count(int[] pixels, int offset, int length, int phase) {
+        final int[] countsReference = counts; //avoid getfield opcode
+        final int[] samplesReference = samples; //avoid getfield opcode
+        for (int index = offset + phase % SAMPLE_STRIDE, end = offset + length; index < end; index += SAMPLE_STRIDE) {
+            final int pixel = pixels[index];
+            final int bucket = bucket(pixel);
+            if (countsReference[bucket]++ == 0) {
+                fresh[freshCount++] = bucket;
+            }
+            samplesReference[bucket] = pixel;
+        }
+    }
+
+    /**
+     * Updates the palette once a frame has been counted, before it is mapped
+     * to the palette. Every few frames the palette is rebuilt from the colors
+     * counted since, otherwise new colors are added while there is room.
+     */
+    public void update() {
+        final int freshCountReference = freshCount; //avoid getfield opcode
+        freshCount = 0;
+        if (size == 0 || ++frames >= UPDATE_PERIOD) {
+            frames = 0;
+            rebuild();
+            return;
+        }
+        final int[] freshReference = fresh; //avoid getfield opcode
+        boolean added = false;
+        for (int index = 0; index < freshCountReference && size < MAXIMUM_SIZE; ++index) {
+            final int color = samples[freshReference[index]];
+            if (distance(color, colors[nearest(color)]) > ADMIT_DISTANCE) {
+                colors[size++] = color;
+                added = true;
+            }
+        }
+        if (added) {
+            Arrays.fill(mapped, false); //some buckets have a nearer entry now
+        }
+    }
+
+    /**
+     * Maps a color to the nearest palette entry.
+     *
+     * @param pixel The color, as 0xRRGGBB.
+     * @return The palette index, as an unsigned byte.
+     */
+    public byte indexOf(int pixel) {
+        final int bucket = bucket(pixel);
+        if (!mapped[bucket]) {
+            indices[bucket] = (byte) nearest(pixel);
+            mapped[bucket] = true;
+        }
+        return indices[bucket];
+    }
+
+    private void rebuild() {
+        final int[] countsReference = counts; //avoid getfield opcode
+        //count in the upper bits and bucket in the lower ones, so sorting ranks by count
+        long[] ranked = new long[BUCKETS];
+        int used = 0;
+        for (int bucket = 0; bucket < BUCKETS; ++bucket) {
+            if (countsReference[bucket] > 0) {
+                ranked[used++] = ((long) countsReference[bucket] << 15) | bucket;
+                countsReference[bucket] >>>= 1;
+            }
+        }
+        Arrays.sort(ranked, 0, used);
+        final int newSize = Math.min(used, MAXIMUM_SIZE);
+        for (int index = 0; index < newSize; ++index) {
+            colors[index] = samples[(int) (ranked[used - 1 - index] & (BUCKETS - 1))];
+        }
+        if (newSize == 0) {
+            colors[0] = 0; //nothing counted, a lone black entry keeps the palette valid
+        }
+        size = Math.max(1, newSize);
+        Arrays.fill(mapped, false);
+    }
+
+    private int nearest(int pixel) {
+        final int[] colorsReference = colors; //avoid getfield opcode
+        int best = 0;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int index = 0, count = size; index < count; ++index) {
+            final int distance = distance(pixel, colorsReference[index]);
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = index;
+            }
+        }
+        return best;
+    }
+
+    //Green weighs most and blue least, as the eye sees them
+    private static int distance(int first, int second) {
+        final int redDistance = ((first >> 16) & 0xFF) - ((second >> 16) & 0xFF);
+        final int greenDistance = ((first >> 8) & 0xFF) - ((second >> 8) & 0xFF);
+        final int blueDistance = (first & 0xFF) - (second & 0xFF);
+        return 3 * redDistance * redDistance + 4 * greenDistance * greenDistance + 2 * blueDistance * blueDistance;
+    }
+
+    private static int bucket(int pixel) {
+        return ((pixel >> 9) & 0x7C00) | ((pixel >> 6) & 0x3E0) | ((pixel >> 3) & 0x1F);
+    }
+}
@@ -0,0 +1,249 @@
+package Client;
+
+import java.awt.AWTException;
+import java.awt.Rectangle;
+import java.awt.Robot;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+
+//Runs the real frame pipeline, capture, scaling, encoding and the viewer writing to its socket,
+//from any capture source as fast as it goes, and reports the frame rate, the bytes per frame and
+//the CPU time it took. A loopback socket stands in for the server, it reads and discards the frames
+//and grants credits without limit. The first seconds warm up the JIT and are not measured.
+//Run with: java -cp ParentMonitorClient.jar Client.CaptureBenchmark source [codec] [seconds] [viewport]
+//such as: Client.CaptureBenchmark "TEXT 1920 1080" "PNG 3 UP 4" 20 1280x720
+public final class CaptureBenchmark {
+
+    private static final String USAGE = "Usage: CaptureBenchmark source [codec] [seconds] [viewport]\n"
+            + "  source:   ROBOT [stripes, 1 by default], TEXT [width height], VIDEO [width height], DESKTOP [width height] or REPLAY directory\n"
+            + "  codec:    a codec setting, such as \"PNG\", \"JPEG 0.6\" or \"DEFLATE 1\", the client's default by default\n"
+            + "  seconds:  how long to measure, 10 by default\n"
+            + "  viewport: the largest viewer's panel, such as 1280x720, none by default";
+
+    private static final int DEFAULT_WIDTH = 1920;
+    private static final int DEFAULT_HEIGHT = 1080;
+    private static final int DEFAULT_SECONDS = 10;
+    private static final long WARM_UP = 3000; //milliseconds
+    private static final int CREDITS = Integer.MAX_VALUE / 4; //never run out
+
+    private CaptureBenchmark() {
+
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        ImageIO.setUseCache(false);
+        final CaptureSource source = args.length > 0 ? createSource(args[0]) : null;
+        final FrameCodec codec = args.length > 1 ? FrameCodec.fromSetting(args[1]) : null;
+        if (source == null || (args.length > 1 && codec == null)) {
+            System.out.println(USAGE);
+            return;
+        }
+        final int seconds = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_SECONDS;
+
+        final FrameScaler scaler = new FrameScaler();
+        final FrameEncoder encoder = new FrameEncoder();
+        if (codec != null) {
+            encoder.setCodec(codec);
+        }
+        final CaptureThrottle throttle = new CaptureThrottle();
+        throttle.setLadder("0:0"); //never idle
+        final ViewerGroup viewers = new ViewerGroup(encoder, scaler);
+        final Rectangle bounds = source.getBounds();
+        final FramePipeline pipeline = new FramePipeline(source, bounds, scaler, encoder, throttle, viewers);
+
+        final InetAddress loopback = InetAddress.getLoopbackAddress();
+        final Viewer viewer = new Viewer("Benchmark", loopback.getHostAddress());
+        try (ServerSocket server = new ServerSocket(0, 1, loopback);
+                Socket imageConnection = new Socket(loopback, server.getLocalPort());
+                Socket serverConnection = server.accept()) {
+            final Reader reader = new Reader(serverConnection.getInputStream());
+            reader.setDaemon(true);
+            reader.start();
+
+            viewers.add(viewer);
+            if (viewers.attach(imageConnection, loopback.getHostAddress()) == null) {
+                throw new IOException("Failed to attach the viewer");
+            }
+            if (args.length > 3) {
+                final String[] size = args[3].toLowerCase().split("x");
+                viewers.setViewport(viewer, Integer.parseInt(size[0]), Integer.parseInt(size[1]), false);
+            }
+            viewers.grantCredits(viewer, CREDITS);
+
+            final Thread pipelineThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    pipeline.run(); //blocks until closed
+                }
+            }, "Benchmark Pipeline");
+            pipelineThread.start();
+
+            System.out.println("Warming up " + bounds.width + "x" + bounds.height + " " + args[0] + " with " + encoder.getCodec() + "...");
+            TimeUnit.MILLISECONDS.sleep(WARM_UP);
+            final Sample start = new Sample(pipeline, viewers, viewer, reader);
+            TimeUnit.SECONDS.sleep(seconds);
+            final Sample end = new Sample(pipeline, viewers, viewer, reader);
+
+            pipeline.close();
+            viewer.close();
+            pipelineThread.join();
+            report(start, end);
+        }
+    }
+
+    private static CaptureSource createSource(String setting) throws IOException {
+        final String[] parts = setting.trim().split("\\s+");
+        final int width = parts.length > 2 ? Integer.parseInt(parts[1]) : DEFAULT_WIDTH;
+        final int height = parts.length > 2 ? Integer.parseInt(parts[2]) : DEFAULT_HEIGHT;
+        switch (parts[0].toUpperCase()) {
+            case "ROBOT": {
+                //Stripes are off by default, as in the client, compare ROBOT 1 with ROBOT <cores> before turning them on
+                final CaptureSource[] stripeSources = new CaptureSource[parts.length > 1 ? Integer.parseInt(parts[1]) : StripedCaptureSource.DEFAULT_STRIPES];
+                try {
+                    for (int stripe = 0; stripe < stripeSources.length; ++stripe) {
+                        stripeSources[stripe] = new RobotCaptureSource(new Robot(), ClientDaemon.SCREEN_BOUNDS);
+                    }
+                    return stripeSources.length == 1 ? stripeSources[0] : new StripedCaptureSource(stripeSources);
+                }
+                catch (AWTException ex) {
+                    ex.printStackTrace();
+                    return null;
+                }
+            }
+            case "TEXT": {
+                return new SyntheticCaptureSource(SyntheticCaptureSource.Content.TEXT, width, height);
+            }
+            case "VIDEO": {
+                return new SyntheticCaptureSource(SyntheticCaptureSource.Content.VIDEO, width, height);
+            }
+            case "DESKTOP": {
+                return new SyntheticCaptureSource(SyntheticCaptureSource.Content.DESKTOP, width, height);
+            }
+            case "REPLAY": {
+                if (parts.length < 2) {
+                    return null;
+                }
+                final ReplayCaptureSource replay = new ReplayCaptureSource(new File(setting.trim().substring(parts[0].length()).trim()));
+                System.out.println("Replaying " + replay.getFrameCount() + " screen shots.");
+                return replay;
+            }
+            default: {
+                return null;
+            }
+        }
+    }
+
+    private static void report(Sample start, Sample end) {
+        final double seconds = (end.time - start.time) / 1e9;
+        final long delivered = end.delivered - start.delivered;
+        final long bytes = end.bytes - start.bytes;
+        System.out.println(String.format("%.1f s: %d screen shots, %d unchanged, %d dropped, %d delivered, %d missed by the viewer",
+                seconds, end.captured - start.captured, end.heartbeats - start.heartbeats, end.dropped - start.dropped, delivered, end.missed - start.missed));
+        System.out.println(String.format("%.1f frames per second, %d bytes per frame, %.2f Mbit/s",
+                delivered / seconds, delivered == 0 ? 0 : bytes / delivered, bytes * 8 / seconds / 1e6));
+        System.out.println(String.format("Capture %.1f ms, encode %.1f ms, send %.1f ms per frame",
+                average(end.captureNanos - start.captureNanos, end.captured - start.captured),
+                average(end.encodeNanos - start.encodeNanos, end.encoded - start.encoded),
+                average(end.sendNanos - start.sendNanos, end.sent - start.sent)));
+        if (start.processCpu >= 0) {
+            System.out.println(String.format("CPU: %.0f%% of one core for the process, %.1f ms per frame delivered",
+                    100 * (end.processCpu - start.processCpu) / (seconds * 1e9), average(end.processCpu - start.processCpu, delivered)));
+        }
+        if (start.pipelineCpu >= 0) {
+            System.out.println(String.format("CPU: %.0f%% of one core for the pipeline stages, %.1f ms per frame delivered",
+                    100 * (end.pipelineCpu - start.pipelineCpu) / (seconds * 1e9), average(end.pipelineCpu - start.pipelineCpu, delivered)));
+        }
+    }
+
+    private static double average(long nanos, long count) {
+        return count == 0 ? 0 : nanos / (count * 1e6);
+    }
+
+    //The counters at one point in time
+    private static final class Sample {
+
+        private final long time = System.nanoTime();
+        private final long captured;
+        private final long captureNanos;
+        private final long encoded;
+        private final long encodeNanos;
+        private final long sent;
+        private final long sendNanos;
+        private final long heartbeats;
+        private final long dropped;
+        private final long delivered; //frames and heartbeats handed to the viewer
+        private final long missed;
+        private final long bytes;
+        private final long processCpu;
+        private final long pipelineCpu;
+
+        private Sample(FramePipeline pipeline, ViewerGroup viewers, Viewer viewer, Reader reader) {
+            captured = pipeline.getCaptureTimer().getFrames();
+            captureNanos = pipeline.getCaptureTimer().getTotalNanos();
+            encoded = pipeline.getEncodeTimer().getFrames();
+            encodeNanos = pipeline.getEncodeTimer().getTotalNanos();
+            sent = pipeline.getSendTimer().getFrames();
+            sendNanos = pipeline.getSendTimer().getTotalNanos();
+            heartbeats = pipeline.getHeartbeats();
+            dropped = pipeline.getDroppedFrames();
+            synchronized (viewers) {
+                //every frame handed to the viewer uses up one credit
+                delivered = CREDITS - viewer.credits;
+                missed = viewer.missedFrames;
+            }
+            bytes = reader.bytes;
+            final OperatingSystemMXBean system = ManagementFactory.getOperatingSystemMXBean();
+            processCpu = system instanceof com.sun.management.OperatingSystemMXBean
+                    ? ((com.sun.management.OperatingSystemMXBean) system).getProcessCpuTime() : -1;
+            final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            long total = -1;
+            if (threads.isThreadCpuTimeSupported()) {
+                total = 0;
+                for (Thread stage : pipeline.getStageThreads()) {
+                    final long stageTime = stage == null ? -1 : threads.getThreadCpuTime(stage.getId());
+                    if (stageTime < 0) {
+                        total = -1;
+                        break;
+                    }
+                    total += stageTime;
+                }
+            }
+            pipelineCpu = total;
+        }
+    }
+
+    //Stands in for the server, reads whatever the viewer writes and counts the bytes
+    private static final class Reader extends Thread {
+
+        private final InputStream input;
+        private volatile long bytes;
+
+        private Reader(InputStream stream) {
+            super("Benchmark Reader");
+            input = stream;
+        }
+
+        @Override
+        public void run() {
+            final InputStream inputReference = input; //avoid getfield opcode
+            final byte[] buffer = new byte[1 << 16];
+            try {
+                for (int read; (read = inputReference.read(buffer)) >= 0;) {
+                    bytes += read; //only written by this thread
+                }
+            }
+            catch (IOException ex) {
+                //closed
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package Client;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+//Where screen shots come from. The client captures the real screen with a robot, while the
+//synthetic and replay sources produce screen shots without one, so the capture, encode and send
+//path can be run and measured on a machine without a display, see CaptureBenchmark.
+public interface CaptureSource {
+
+    /**
+     * @return The area that can be captured, in screen coordinates.
+     */
+    public Rectangle getBounds();
+
+    /**
+     * Takes a screen shot. Called by one thread at a time unless the source
+     * says otherwise, every call may show the screen as it is by then.
+     *
+     * @param area The part of the screen, in screen coordinates. Whatever lies
+     * outside the bounds is black.
+     * @return A new TYPE_INT_RGB image the size of the area, owned by the
+     * caller.
+     */
+    public BufferedImage capture(Rectangle area);
+}
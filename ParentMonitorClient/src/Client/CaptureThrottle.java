@@ -0,0 +1,202 @@
+package Client;
+
+import java.awt.HeadlessException;
+import java.awt.MouseInfo;
+import java.awt.Point;
+import java.awt.PointerInfo;
+import java.util.concurrent.TimeUnit;
+
+//Slows screen capture down the longer nobody uses the computer, following a ladder of capture
+//intervals, and snaps back to full speed as soon as the pointer moves or the screen keeps changing.
+//Activity is detected by polling MouseInfo, which is cheap, and by the frames the encoder reports.
+public final class CaptureThrottle {
+
+    /**
+     * Full speed while in use, 10 frames per second after 30 seconds idle, 1
+     * after 2 minutes and 1 every 10 seconds after 10 minutes.
+     */
+    public static final String DEFAULT_LADDER = "0:0 100:30 1000:120 10000:600";
+
+    //How often the pointer is polled while waiting for the next capture, in milliseconds
+    private static final long POLL_INTERVAL = 100;
+
+    //Longest the server goes without a frame or heartbeat, its read timeout is 5 seconds
+    private static final long HEARTBEAT_INTERVAL = 2000;
+
+    //Screen shots that must change in a row to count as activity, so that a clock ticking over does not
+    private static final int ACTIVE_CHANGES = 2;
+
+    //Rungs of the ladder, the capture interval in milliseconds once idle for at least idleTimes
+    private long[] intervals;
+    private long[] idleTimes;
+    private int rung;
+    private long minimumInterval; //set by the CPU governor
+
+    //System.nanoTime() of the last activity, capture and message sent to the server
+    private long lastActivity;
+    private long lastCapture;
+    private long lastMessage;
+
+    private Point lastPointer;
+    private boolean pointerAvailable = true;
+    private int changes; //screen shots changed in a row
+
+    public CaptureThrottle() {
+        if (!setLadder(DEFAULT_LADDER)) {
+            throw new AssertionError(DEFAULT_LADDER);
+        }
+        lastActivity = lastCapture = lastMessage = System.nanoTime();
+    }
+
+    /**
+     * Replaces the ladder with one sent by the server, such as "0:0 100:30".
+     * Every rung is the capture interval in milliseconds followed by the idle
+     * time in seconds after which it applies. The first rung must apply after
+     * 0 seconds, and the idle times must increase.
+     *
+     * @param setting The rungs, separated by spaces.
+     * @return False if the setting is invalid, the ladder is then unchanged.
+     */
+    public synchronized boolean setLadder(String setting) {
+        final String[] rungs = setting.trim().split("\\s+");
+        final long[] newIntervals = new long[rungs.length];
+        final long[] newIdleTimes = new long[rungs.length];
+        try {
+            for (int index = 0; index < rungs.length; ++index) {
+                final String[] parts = rungs[index].split(":");
+                if (parts.length != 2) {
+                    return false;
+                }
+                newIntervals[index] = Long.parseLong(parts[0]);
+                newIdleTimes[index] = TimeUnit.SECONDS.toMillis(Long.parseLong(parts[1]));
+                if (newIntervals[index] < 0 || (index == 0 ? newIdleTimes[index] != 0 : newIdleTimes[index] <= newIdleTimes[index - 1])) {
+                    return false;
+                }
+            }
+        }
+        catch (NumberFormatException ex) {
+            return false;
+        }
+        intervals = newIntervals;
+        idleTimes = newIdleTimes;
+        rung = 0;
+        notifyAll(); //the capture thread may be waiting on the old ladder
+        return true;
+    }
+
+    /**
+     * Sets a capture interval that applies on every rung of the ladder, used
+     * to keep the client within its CPU budget.
+     *
+     * @param interval The shortest time between screen shots in milliseconds.
+     */
+    public synchronized void setMinimumInterval(long interval) {
+        minimumInterval = Math.max(0, interval);
+        notifyAll(); //a shorter interval may make a screen shot due already
+    }
+
+    /**
+     * Blocks until the next screen shot is due according to the ladder, or
+     * until a heartbeat must be sent to keep the connection alive instead.
+     *
+     * @return True to capture a screen shot, false to send a heartbeat.
+     * @throws InterruptedException If the thread was interrupted.
+     */
+    public synchronized boolean awaitCapture() throws InterruptedException {
+        while (true) {
+            final long now = System.nanoTime();
+            pollPointer(now);
+            final long interval = getInterval(now);
+            final long sinceCapture = TimeUnit.NANOSECONDS.toMillis(now - lastCapture);
+            if (sinceCapture >= interval) {
+                lastCapture = lastMessage = now;
+                return true;
+            }
+            final long sinceMessage = TimeUnit.NANOSECONDS.toMillis(now - lastMessage);
+            if (sinceMessage >= HEARTBEAT_INTERVAL) {
+                lastMessage = now;
+                return false;
+            }
+            //wait(0) would never time out
+            wait(Math.max(1, Math.min(POLL_INTERVAL, Math.min(interval - sinceCapture, HEARTBEAT_INTERVAL - sinceMessage))));
+        }
+    }
+
+    /**
+     * Polls the pointer and returns the capture interval of the ladder's
+     * current rung, for work that is not part of the live frames, such as the
+     * history, and so is not limited by the CPU budget's minimum interval.
+     *
+     * @return The capture interval in milliseconds.
+     */
+    public synchronized long getIdleInterval() {
+        final long now = System.nanoTime();
+        pollPointer(now);
+        getInterval(now); //moves to the current rung
+        return intervals[rung];
+    }
+
+    /**
+     * Reports whether the last screen shot differed from the one before it.
+     *
+     * @param changed False if only a heartbeat was sent for it.
+     */
+    public synchronized void recordFrame(boolean changed) {
+        if (!changed) {
+            changes = 0;
+        }
+        else if (++changes >= ACTIVE_CHANGES) {
+            lastActivity = System.nanoTime();
+            notifyAll();
+        }
+    }
+
+    private long getInterval(long now) {
+        final long idle = TimeUnit.NANOSECONDS.toMillis(now - lastActivity);
+        final long[] idleTimesReference = idleTimes; //avoid getfield opcode
+        int current = 0;
+        while (current + 1 < idleTimesReference.length && idleTimesReference[current + 1] <= idle) {
+            ++current;
+        }
+        if (current != rung) {
+            rung = current;
+            System.out.println("Capture interval changed to " + intervals[current] + " ms.");
+        }
+        return Math.max(intervals[current], minimumInterval);
+    }
+
+    private void pollPointer(long now) {
+        if (!pointerAvailable) {
+            return;
+        }
+        try {
+            final PointerInfo info = MouseInfo.getPointerInfo();
+            if (info == null) {
+                return; //no mouse, or the pointer is on a screen we cannot see
+            }
+            final Point pointer = info.getLocation();
+            if (!pointer.equals(lastPointer)) {
+                if (lastPointer != null) {
+                    lastActivity = now;
+                }
+                lastPointer = pointer;
+            }
+        }
+        catch (HeadlessException ex) {
+            //Only screen changes are left to go by
+            pointerAvailable = false;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        final StringBuilder ladder = new StringBuilder();
+        for (int index = 0; index < intervals.length; ++index) {
+            if (index != 0) {
+                ladder.append(' ');
+            }
+            ladder.append(intervals[index]).append(':').append(TimeUnit.MILLISECONDS.toSeconds(idleTimes[index]));
+        }
+        return ladder.toString();
+    }
+}
@@ -0,0 +1,63 @@
+package Client;
+
+import java.awt.image.BufferedImage;
+
+//Fingerprints a sparse sample of every screen shot, a few percent of its pixels, so that a static
+//screen can be recognized without hashing every tile. A change small enough to fall between the
+//samples is missed, callers should still compare the whole screen shot every so often.
+public final class ChangeProbe {
+
+    //Same hash as the TileTracker
+    private static final long FINGERPRINT_OFFSET = 0xCBF29CE484222325L;
+    private static final long FINGERPRINT_PRIME = 0x100000001B3L;
+
+    //Every 4th row is sampled, every 7th pixel in it, starting further right on every row so that
+    //the samples do not line up into columns. 7 does not divide the widths of most glyphs and icons.
+    private static final int ROW_STRIDE = 4;
+    private static final int PIXEL_STRIDE = 7;
+
+    private int width;
+    private int height;
+    private long fingerprint;
+    private boolean invalidated = true;
+
+    /**
+     * Samples a screen shot and compares it to the previous one.
+     *
+     * @param screenShot The newly captured screen shot.
+     * @return False if the samples are identical to those of the previous
+     * screen shot, true if anything changed or the screen shot could not be
+     * sampled.
+     */
+    public boolean update(BufferedImage screenShot) {
+        final int[] pixels = TileTracker.getBackingPixels(screenShot);
+        if (pixels == null) {
+            //Sampling through getRGB would cost more than it saves
+            invalidated = true;
+            return true;
+        }
+
+        final int imageWidth = screenShot.getWidth();
+        final int imageHeight = screenShot.getHeight();
+        long sample = FINGERPRINT_OFFSET;
+        for (int y = 0, phase = 0; y < imageHeight; y += ROW_STRIDE, phase = (phase + 3) % PIXEL_STRIDE) {
+            for (int index = y * imageWidth + phase, end = (y + 1) * imageWidth; index < end; index += PIXEL_STRIDE) {
+                sample = (sample ^ pixels[index]) * FINGERPRINT_PRIME;
+            }
+        }
+
+        final boolean changed = invalidated || imageWidth != width || imageHeight != height || sample != fingerprint;
+        width = imageWidth;
+        height = imageHeight;
+        fingerprint = sample;
+        invalidated = false;
+        return changed;
+    }
+
+    /**
+     * Forces the next screen shot to be reported as changed.
+     */
+    public void invalidate() {
+        invalidated = true;
+    }
+}
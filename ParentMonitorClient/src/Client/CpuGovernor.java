@@ -0,0 +1,226 @@
+package Client;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+//Keeps the CPU time the client spends on screen shots within a budget, such as 10% of one core.
+//Once a second it measures the CPU time of the pipeline's threads and the pool threads they hand
+//work to, or of the whole process if the JVM cannot tell, divides it by the screen shots taken and
+//spaces screen shots out so that the cost fits the budget. The history, pointer tracker and spool
+//are left out, the live frames could not make up for their fixed cost however cheap they became. When that would space them more than MAXIMUM_INTERVAL apart it encodes with less
+//effort, and then captures at a lower resolution, and undoes both once the budget has room again.
+public final class CpuGovernor implements Closeable {
+
+    /**
+     * Percent of one core the client may spend on screen shots by default.
+     */
+    public static final double DEFAULT_BUDGET = 10;
+
+    //How often the CPU time is measured, in milliseconds
+    private static final long PERIOD = 1000;
+
+    //Measurements between status reports to the server
+    private static final int REPORT_PERIODS = 5;
+
+    //Spacing screen shots further apart than this costs too much responsiveness, cheaper frames are made instead
+    private static final long MAXIMUM_INTERVAL = 500;
+
+    //Halving the width and height leaves a quarter of the pixels, this many times at most
+    private static final int MAXIMUM_REDUCTION = 4;
+
+    //Weight of the newest measurement of the cost of a screen shot
+    private static final double SMOOTHING = 0.5;
+
+    private final FramePipeline pipeline;
+    private final CaptureThrottle throttle;
+    private final FrameEncoder frameEncoder;
+    private final FrameScaler frameScaler;
+    private final Consumer<String> reporter;
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final com.sun.management.OperatingSystemMXBean system;
+
+    private volatile double budget; //fraction of one core
+    private volatile boolean running = true;
+    private Thread governorThread;
+
+    //Previous measurement
+    private long lastTime;
+    private long lastProcessCpu;
+    private Map<Long, Long> lastThreadCpu = new HashMap<>(); //by thread id
+    private long lastFrames;
+    private double frameCost; //smoothed CPU nanoseconds per screen shot
+
+    /**
+     * @param framePipeline The pipeline whose screen shots are governed.
+     * @param captureThrottle Spaces screen shots out.
+     * @param encoder Encodes with less effort when asked to.
+     * @param scaler Reduces the resolution when asked to.
+     * @param statusReporter Receives a status line every few seconds, such as
+     * "4.9 fps, CPU 9.8% of 10.0%".
+     */
+    public CpuGovernor(FramePipeline framePipeline, CaptureThrottle captureThrottle, FrameEncoder encoder, FrameScaler scaler, Consumer<String> statusReporter) {
+        pipeline = framePipeline;
+        throttle = captureThrottle;
+        frameEncoder = encoder;
+        frameScaler = scaler;
+        reporter = statusReporter;
+        budget = DEFAULT_BUDGET / 100;
+
+        OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+        //Only HotSpot style JVMs report the CPU time of the whole process
+        system = bean instanceof com.sun.management.OperatingSystemMXBean && ((com.sun.management.OperatingSystemMXBean) bean).getProcessCpuTime() >= 0
+                ? (com.sun.management.OperatingSystemMXBean) bean : null;
+        if (threads.isThreadCpuTimeSupported() && !threads.isThreadCpuTimeEnabled()) {
+            threads.setThreadCpuTimeEnabled(true);
+        }
+    }
+
+    public double getBudget() {
+        return budget * 100;
+    }
+
+    /**
+     * @param percent The percent of one core the client may spend on screen
+     * shots, may be over 100 on computers with several cores.
+     */
+    public void setBudget(double percent) {
+        if (!(percent > 0)) {
+            throw new IllegalArgumentException("CPU budget must be positive: " + percent);
+        }
+        budget = percent / 100;
+    }
+
+    public void start() {
+        Thread governorThreadReference = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                govern();
+            }
+        }, "CPU Governor Thread");
+        governorThreadReference.setDaemon(true);
+        (governorThread = governorThreadReference).start();
+    }
+
+    private void govern() {
+        lastTime = System.nanoTime();
+        lastProcessCpu = getProcessCpuTime();
+        measurePipelineCpu();
+        lastFrames = pipeline.getCaptureTimer().getFrames();
+        try {
+            for (int period = 1; running; ++period) {
+                TimeUnit.MILLISECONDS.sleep(PERIOD);
+                final String status = measure();
+                if (period % REPORT_PERIODS == 0 && status != null) {
+                    reporter.accept(status);
+                }
+            }
+        }
+        catch (InterruptedException ex) {
+            //closed
+        }
+    }
+
+    private String measure() {
+        final long now = System.nanoTime();
+        final long processCpu = getProcessCpuTime();
+        final long pipelineCpu = measurePipelineCpu();
+        final long frames = pipeline.getCaptureTimer().getFrames();
+
+        final double elapsed = now - lastTime;
+        //The pipeline's threads when possible, the parallel deflater and Robot's native code included
+        final long cpu = pipelineCpu >= 0 ? pipelineCpu : processCpu - lastProcessCpu;
+        final long captured = frames - lastFrames;
+        lastTime = now;
+        lastProcessCpu = processCpu;
+        lastFrames = frames;
+        if (elapsed <= 0) {
+            return null;
+        }
+
+        final double load = cpu / elapsed; //fraction of one core
+        final double fps = captured * 1E9 / elapsed;
+        if (captured > 0) {
+            final double cost = (double) cpu / captured;
+            frameCost = frameCost == 0 ? cost : SMOOTHING * cost + (1 - SMOOTHING) * frameCost;
+            adjust();
+        }
+        return String.format("%.1f fps, CPU %.1f%% of %.1f%%%s%s", fps, load * 100, budget * 100,
+                frameEncoder.isReducedEffort() ? ", low effort" : "",
+                frameScaler.getReduction() > 1 ? ", 1/" + frameScaler.getReduction() + " resolution" : "");
+    }
+
+    private void adjust() {
+        final FrameEncoder frameEncoderReference = frameEncoder; //avoid getfield opcode
+        final FrameScaler frameScalerReference = frameScaler; //avoid getfield opcode
+        //The time a screen shot must take up for its CPU time to fit the budget
+        final long interval = (long) (frameCost / budget / 1E6);
+        final boolean reduced = frameEncoderReference.isReducedEffort();
+        final int reduction = frameScalerReference.getReduction();
+
+        //One step at a time, the next measurement shows its effect
+        if (interval > MAXIMUM_INTERVAL) {
+            if (!reduced) {
+                frameEncoderReference.setReducedEffort(true);
+                System.out.println("Over CPU budget, encoding with less effort.");
+            }
+            else if (reduction < MAXIMUM_REDUCTION) {
+                frameScalerReference.setReduction(reduction * 2);
+                frameCost /= 4;
+                System.out.println("Over CPU budget, capturing at 1/" + (reduction * 2) + " resolution.");
+            }
+        }
+        //Undone only when the dearer frames would still fit, so the settings do not flip back and forth
+        else if (reduction > 1 && interval * 4 < MAXIMUM_INTERVAL / 2) {
+            frameScalerReference.setReduction(reduction / 2);
+            frameCost *= 4;
+            System.out.println("Within CPU budget, capturing at 1/" + (reduction / 2) + " resolution.");
+        }
+        else if (reduction == 1 && reduced && interval * 2 < MAXIMUM_INTERVAL / 2) {
+            frameEncoderReference.setReducedEffort(false);
+            System.out.println("Within CPU budget, encoding with full effort.");
+        }
+        throttle.setMinimumInterval(Math.min(interval, MAXIMUM_INTERVAL));
+    }
+
+    private long getProcessCpuTime() {
+        return system == null ? -1 : system.getProcessCpuTime();
+    }
+
+    //The CPU time the pipeline's threads used since the last call, or -1 if the JVM cannot tell.
+    //Pool threads end when idle and take their time with them, so every thread is measured on its own.
+    private long measurePipelineCpu() {
+        final ThreadMXBean threadsReference = threads; //avoid getfield opcode
+        if (!threadsReference.isThreadCpuTimeSupported()) {
+            return -1;
+        }
+        final Map<Long, Long> last = lastThreadCpu; //avoid getfield opcode
+        final Map<Long, Long> current = new HashMap<>();
+        long used = 0;
+        for (Thread thread : pipeline.getThreads()) {
+            final long time = threadsReference.getThreadCpuTime(thread.getId());
+            if (time >= 0) {
+                final Long before = last.get(thread.getId());
+                used += time - (before == null ? 0 : before); //a new thread counts from its start
+                current.put(thread.getId(), time);
+            }
+        }
+        lastThreadCpu = current;
+        return used;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        Thread governorThreadReference = governorThread;
+        if (governorThreadReference != null) {
+            governorThreadReference.interrupt();
+        }
+    }
+}
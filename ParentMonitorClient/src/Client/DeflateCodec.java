@@ -0,0 +1,143 @@
+package Client;
+
+import static Client.Network.DEFLATE_CODEC;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.Deflater;
+
+//Raw RGB pixels run through a Deflater, level 0 sends them uncompressed.
+//Skips the PNG filters and chunk framing entirely, which makes low levels very cheap.
+//When streaming, one Deflater runs across every frame and each image ends with a sync flush
+//instead of ending the stream, so tiles can refer to the images sent before them. The server's
+//Inflater then has to see every image, the context is restarted whenever that is not certain.
+public final class DeflateCodec implements FrameCodec {
+
+    public static final int DEFAULT_LEVEL = 1;
+
+    //Written before the pixels, tells the server whether it needs the images before this one
+    static final int INDEPENDENT = 0; //a complete stream of its own
+    static final int CONTINUED = 1; //continues the stream of the previous image
+    static final int RESTARTED = 2; //starts a stream continued by the next images
+
+    private final int level;
+    private final boolean streaming;
+    private final Deflater deflater;
+    private boolean reducedEffort;
+    private boolean restart = true;
+
+    //Reused between frames
+    private final byte[] chunk = new byte[64 * 1024];
+    private int[] rowPixels = {};
+    private byte[] rowBytes = {};
+
+    public DeflateCodec(int compressionLevel) {
+        this(compressionLevel, false);
+    }
+
+    /**
+     * @param compressionLevel The Deflater level, 0 to 9.
+     * @param streamed True to compress every image against the images before
+     * it.
+     */
+    public DeflateCodec(int compressionLevel, boolean streamed) {
+        if (compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Deflate level must be between 0 and 9: " + compressionLevel);
+        }
+        level = compressionLevel;
+        streaming = streamed;
+        deflater = new Deflater(compressionLevel);
+    }
+
+    @Override
+    public byte getId() {
+        return DEFLATE_CODEC;
+    }
+
+    @Override
+    public void setReducedEffort(boolean reduced) {
+        if (reduced != reducedEffort) {
+            reducedEffort = reduced;
+            deflater.setLevel(reduced ? Math.min(level, Deflater.BEST_SPEED) : level);
+        }
+    }
+
+    @Override
+    public void resetContext() {
+        restart = true;
+    }
+
+    @Override
+    public void encode(BufferedImage image, ByteArrayOutputStream output) throws IOException {
+        final Deflater deflaterReference = deflater; //avoid getfield opcode
+        final byte[] chunkReference = chunk; //avoid getfield opcode
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+
+        final int mode = !streaming ? INDEPENDENT : restart ? RESTARTED : CONTINUED;
+        restart = false;
+        output.write(mode);
+        writeInt(output, width);
+        writeInt(output, height);
+
+        int[] pixels = rowPixels;
+        byte[] bytes = rowBytes;
+        if (pixels.length < width) {
+            rowPixels = pixels = new int[width];
+            rowBytes = bytes = new byte[width * 3];
+        }
+
+        //Rasters of int RGB images hand out their pixels without any color conversion
+        final WritableRaster raster = image.getType() == BufferedImage.TYPE_INT_RGB ? image.getRaster() : null;
+        final int rowLength = width * 3;
+
+        if (mode != CONTINUED) {
+            deflaterReference.reset();
+        }
+        for (int y = 0; y < height; ++y) {
+            if (raster != null) {
+                raster.getDataElements(0, y, width, 1, pixels);
+            }
+            else {
+                image.getRGB(0, y, width, 1, pixels, 0, width);
+            }
+            for (int x = 0, index = 0; x < width; ++x) {
+                final int pixel = pixels[x];
+                bytes[index++] = (byte) (pixel >> 16);
+                bytes[index++] = (byte) (pixel >> 8);
+                bytes[index++] = (byte) pixel;
+            }
+            deflaterReference.setInput(bytes, 0, rowLength);
+            while (!deflaterReference.needsInput()) {
+                output.write(chunkReference, 0, deflaterReference.deflate(chunkReference));
+            }
+        }
+        if (mode == INDEPENDENT) {
+            deflaterReference.finish();
+            while (!deflaterReference.finished()) {
+                output.write(chunkReference, 0, deflaterReference.deflate(chunkReference));
+            }
+            return;
+        }
+        //Everything so far is flushed to a byte boundary, the stream stays open for the next image
+        int written;
+        do {
+            written = deflaterReference.deflate(chunkReference, 0, chunkReference.length, Deflater.SYNC_FLUSH);
+            output.write(chunkReference, 0, written);
+        }
+        while (written == chunkReference.length);
+    }
+
+    private static void writeInt(ByteArrayOutputStream output, int value) {
+        output.write(value >>> 24);
+        output.write(value >>> 16);
+        output.write(value >>> 8);
+        output.write(value);
+    }
+
+    @Override
+    public String toString() {
+        return streaming ? "DEFLATE " + level + " STREAM" : "DEFLATE " + level;
+    }
+}
@@ -0,0 +1,98 @@
+package Client;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+//Compresses the images sent on the image socket, the codec is chosen by the server per session
+public interface FrameCodec {
+
+    /**
+     * @return The identifier written before every image this codec encodes.
+     */
+    public byte getId();
+
+    /**
+     * Compresses an image.
+     *
+     * @param image The image to compress.
+     * @param output The buffer the compressed image is appended to.
+     * @throws IOException If the image could not be compressed.
+     */
+    public void encode(BufferedImage image, ByteArrayOutputStream output) throws IOException;
+
+    /**
+     * Trades compression for speed while the client is over its CPU budget.
+     * Only called by the encoding thread, before encoding. Codecs without a
+     * cheaper mode ignore this.
+     *
+     * @param reduced True to encode as cheaply as possible.
+     */
+    public default void setReducedEffort(boolean reduced) {
+    }
+
+    /**
+     * Makes the next image decodable without the images encoded before it.
+     * Called by the encoding thread before every full frame, and whenever a
+     * frame is taken back, since the server never decodes that frame. Codecs
+     * that encode every image on its own ignore this.
+     */
+    public default void resetContext() {
+    }
+
+    /**
+     * Creates a codec from a setting sent by the server, such as "PNG",
+     * "PNG 3 UP 4", "PNG GRAY", "PNG 3 UP 4 PALETTE", "JPEG 0.6",
+     * "DEFLATE 1", "DEFLATE 1 STREAM", "MIXED 0.6" or "XOR 1 300". A PNG
+     * color mode always comes last, MIXED takes the JPEG quality of its lossy
+     * tiles, and XOR a Deflate level and the frames between keyframes.
+     *
+     * @param setting The codec name followed by optional parameters.
+     * @return The codec, or null if the setting is invalid.
+     */
+    public static FrameCodec fromSetting(String setting) {
+        String[] parts = setting.trim().split("\\s+");
+        try {
+            switch (parts[0].toUpperCase()) {
+                case "PNG": {
+                    PngEncoder.ColorMode colorMode = PngEncoder.ColorMode.RGB;
+                    int count = parts.length;
+                    if (count > 1 && !Character.isDigit(parts[count - 1].charAt(0))) {
+                        try {
+                            colorMode = PngEncoder.ColorMode.valueOf(parts[count - 1].toUpperCase());
+                            --count;
+                        }
+                        catch (IllegalArgumentException ex) {
+                            //a filter, such as "PNG 3 UP"
+                        }
+                    }
+                    return new PngCodec(count > 1 ? Integer.parseInt(parts[1]) : PngCodec.DEFAULT_LEVEL,
+                            count > 2 ? PngEncoder.Filter.valueOf(parts[2].toUpperCase()) : PngCodec.DEFAULT_FILTER,
+                            count > 3 ? Integer.parseInt(parts[3]) : PngCodec.DEFAULT_THREADS,
+                            colorMode);
+                }
+                case "JPEG": {
+                    return new JpegCodec(parts.length > 1 ? Float.parseFloat(parts[1]) : JpegCodec.DEFAULT_QUALITY);
+                }
+                case "MIXED": {
+                    return new MixedCodec(new PngCodec(), new JpegCodec(parts.length > 1 ? Float.parseFloat(parts[1]) : JpegCodec.DEFAULT_QUALITY));
+                }
+                case "DEFLATE": {
+                    return new DeflateCodec(parts.length > 1 ? Integer.parseInt(parts[1]) : DeflateCodec.DEFAULT_LEVEL,
+                            parts.length > 2 && "STREAM".equalsIgnoreCase(parts[2]));
+                }
+                case "XOR": {
+                    return new XorCodec(parts.length > 1 ? Integer.parseInt(parts[1]) : DeflateCodec.DEFAULT_LEVEL,
+                            parts.length > 2 ? Integer.parseInt(parts[2]) : XorCodec.DEFAULT_KEYFRAME_INTERVAL);
+                }
+                default: {
+                    return null;
+                }
+            }
+        }
+        catch (IllegalArgumentException ex) {
+            ex.printStackTrace();
+            return null;
+        }
+    }
+}
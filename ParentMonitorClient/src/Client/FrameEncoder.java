@@ -0,0 +1,479 @@
+package Client;
+
+import static Client.Network.COPY_RECT;
+import static Client.Network.DELTA_FRAME;
+import static Client.Network.FULL_FRAME;
+import static Client.Network.HEARTBEAT;
+import static Client.Network.IMAGE_BUFFER_SIZE;
+import static Client.Network.MIXED_DELTA_FRAME;
+import static Client.Network.MIXED_FULL_FRAME;
+import static Client.Network.TILE_CACHE;
+import static Client.Network.TILE_CACHE_SIZE;
+import static Client.Network.TILE_SIZE;
+import static Client.Network.XOR_DELTA_FRAME;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+//Writes screen shots to the image socket, sending only the tiles that changed
+//since the previous screen shot whenever possible, and only a heartbeat when nothing did.
+//Content that merely moved, as when scrolling, is copied by the server from its own frame.
+public final class FrameEncoder {
+
+    //Screen shots, and milliseconds, the change probe may pass as unchanged before every tile is
+    //compared anyway, since the probe only looks at a few percent of the pixels. The time bounds how
+    //long a missed change stays on the server's screen while the throttle spaces screen shots out.
+    private static final int PROBE_VERIFY_INTERVAL = 4;
+    private static final long PROBE_VERIFY_TIME = 1000;
+
+    private final TileTracker tiles = new TileTracker(TILE_SIZE, Runtime.getRuntime().availableProcessors()); //fingerprinted on every core
+    private final ChangeProbe changeProbe = new ChangeProbe();
+    private final TileClassifier tileClassifier = new TileClassifier(); //only used by a MixedCodec
+    private final ScrollDetector scrollDetector = new ScrollDetector();
+    private int[] copyPixels; //for screen shots not backed by an int array
+    private final TileCache tileCache = new TileCache(TILE_CACHE_SIZE);
+    private long[] tileKeys = {};
+    private int[] cachedTiles = {};
+    private int[] cachedSlots = {};
+    private boolean[] touchedMarks = {};
+    private int[] touchedTiles = {}; //tiles a frame starting with COPY_RECT or TILE_CACHE changed, however they got there
+    private int touchedCount;
+    private int[] losslessTiles = {};
+    private int[] lossyTiles = {};
+    private int probedFrames; //consecutive frames passed by the change probe alone
+    private long lastVerified = System.nanoTime(); //when every tile was last compared
+    private int framesSinceKeyframe; //frames with content written since the last full frame, that one included
+    private byte lastHeader = HEARTBEAT; //what the last frame written was
+    private final ByteArrayOutputStream imageBuffer = new ByteArrayOutputStream(IMAGE_BUFFER_SIZE);
+
+    //Changed by the text thread when the server picks another codec
+    private volatile FrameCodec codec = new PngCodec();
+    private volatile boolean reducedEffort; //set by the CPU governor
+    private volatile boolean keyframeRequested; //set by other threads, applied by the encoding thread
+    private FrameCodec previousCodec;
+
+    public FrameCodec getCodec() {
+        return codec;
+    }
+
+    public void setCodec(FrameCodec frameCodec) {
+        if (frameCodec == null) {
+            throw new NullPointerException();
+        }
+        codec = frameCodec;
+    }
+
+    public boolean isReducedEffort() {
+        return reducedEffort;
+    }
+
+    /**
+     * Makes the codec trade compression for speed, or stop doing so.
+     *
+     * @param reduced True to encode as cheaply as possible.
+     */
+    public void setReducedEffort(boolean reduced) {
+        reducedEffort = reduced;
+    }
+
+    /**
+     * Asks for the next frame to be sent in full, from any thread, such as
+     * when a viewer has missed frames or has just connected.
+     */
+    public void requestKeyframe() {
+        keyframeRequested = true;
+    }
+
+    /**
+     * Forces the next frame to be sent in full, such as when the receiver
+     * has lost track of the previous frames. Only called by the encoding
+     * thread.
+     */
+    public void invalidate() {
+        tiles.invalidate();
+        changeProbe.invalidate();
+    }
+
+    /**
+     * Writes a heartbeat without capturing anything, telling the server the
+     * screen has not changed. The caller is responsible for flushing.
+     *
+     * @param output The stream of the image socket.
+     * @throws IOException If the heartbeat could not be written.
+     */
+    public void writeHeartbeat(DataOutputStream output) throws IOException {
+        output.writeByte(lastHeader = HEARTBEAT);
+    }
+
+    /**
+     * @return The header of the last frame written, FULL_FRAME, DELTA_FRAME,
+     * MIXED_FULL_FRAME, MIXED_DELTA_FRAME, COPY_RECT, XOR_DELTA_FRAME,
+     * TILE_CACHE or HEARTBEAT.
+     */
+    public byte getLastHeader() {
+        return lastHeader;
+    }
+
+    /**
+     * @return The number of tiles the last frame written carried, if it was a
+     * delta frame, lossless and lossy tiles alike, and copied or cached ones
+     * too.
+     */
+    public int getLastTileCount() {
+        return lastHeader == COPY_RECT || lastHeader == TILE_CACHE ? touchedCount : tiles.getDirtyCount();
+    }
+
+    /**
+     * @return The tiles the last frame written carried, if it was a delta
+     * frame, valid until the next frame is written. Do not modify.
+     */
+    public int[] getLastTiles() {
+        return lastHeader == COPY_RECT || lastHeader == TILE_CACHE ? touchedTiles : tiles.getDirtyTiles();
+    }
+
+    /**
+     * Takes back the last frame written, because it was dropped instead of
+     * being sent. Whatever it carried is sent again with the next frame. Must
+     * be called before the next frame is written, since that frame would
+     * otherwise be encoded against one the server never received.
+     *
+     * @param header The header of the dropped frame.
+     * @param droppedTiles The tiles the dropped frame carried.
+     * @param count The number of tiles the dropped frame carried.
+     */
+    public void retract(byte header, int[] droppedTiles, int count) {
+        if (header != HEARTBEAT) {
+            codec.resetContext(); //the next image cannot refer to this one
+        }
+        switch (header) {
+            case FULL_FRAME:
+            case MIXED_FULL_FRAME: {
+                invalidate();
+                tileCache.clear(); //refilled by the next full frame
+                break;
+            }
+            case DELTA_FRAME:
+            case MIXED_DELTA_FRAME:
+            case COPY_RECT:
+            case XOR_DELTA_FRAME:
+            case TILE_CACHE: {
+                tileCache.forgetStored();
+                tiles.markDirty(droppedTiles, count);
+                changeProbe.invalidate(); //a static screen would otherwise never resend them
+                //The server's frame is stale where those tiles are, a copy could spread that elsewhere
+                scrollDetector.invalidate();
+                break;
+            }
+            default: {
+                break; //heartbeats carry nothing
+            }
+        }
+    }
+
+    /**
+     * Writes a frame, the caller is responsible for flushing.
+     *
+     * @param screenShot The screen shot to send.
+     * @param output The stream of the image socket.
+     * @return False if only a heartbeat was written, because the screen had
+     * not changed.
+     * @throws IOException If the frame could not be written.
+     */
+    public boolean writeFrame(BufferedImage screenShot, DataOutputStream output) throws IOException {
+        final TileTracker tileTracker = tiles; //avoid getfield opcode
+        final FrameCodec frameCodec = codec; //read volatile once
+
+        if (keyframeRequested) {
+            keyframeRequested = false;
+            invalidate();
+        }
+
+        if (frameCodec != previousCodec) {
+            //Tiles left over from the previous codec would never be replaced otherwise
+            tileTracker.invalidate();
+            changeProbe.invalidate();
+            previousCodec = frameCodec;
+        }
+
+        if (frameCodec instanceof XorCodec && framesSinceKeyframe >= ((XorCodec) frameCodec).getKeyframeInterval()) {
+            //A keyframe every so often, like a video, so errors cannot pile up forever
+            invalidate();
+        }
+
+        //A sparse sample first, a static screen is then neither hashed nor encoded
+        final long now = System.nanoTime();
+        if (!changeProbe.update(screenShot) && ++probedFrames < PROBE_VERIFY_INTERVAL
+                && TimeUnit.NANOSECONDS.toMillis(now - lastVerified) < PROBE_VERIFY_TIME) {
+            output.writeByte(lastHeader = HEARTBEAT);
+            return false;
+        }
+        probedFrames = 0;
+        lastVerified = now;
+
+        frameCodec.setReducedEffort(reducedEffort);
+        final int width = screenShot.getWidth();
+        final int height = screenShot.getHeight();
+        int[] pixels = TileTracker.getBackingPixels(screenShot);
+        if (pixels == null) {
+            pixels = copyPixels = TileTracker.copyPixels(screenShot, copyPixels);
+        }
+
+        //Tiles the server can copy from elsewhere in its frame are compared with the copy
+        final ScrollDetector detector = scrollDetector; //avoid getfield opcode
+        final boolean moved = tileTracker.isTracking(width, height) && detector.detect(pixels, width, height);
+        if (moved) {
+            tileTracker.rebase(detector.getPrediction(), detector.getDestinationX(), detector.getDestinationY(), detector.getCopyWidth(), detector.getCopyHeight());
+        }
+        final int changed = tileTracker.update(screenShot);
+        //XOR deltas need the server's frame exactly, which only a lossless codec leaves
+        final int[] reference = frameCodec instanceof XorCodec && detector.hasPrediction(width, height) ? detector.getPrediction() : null;
+        final boolean written = writeChanges(frameCodec, screenShot, changed, moved, reference, output);
+        detector.remember(pixels, width, height);
+        return written;
+    }
+
+    private boolean writeChanges(FrameCodec frameCodec, BufferedImage screenShot, int changed, boolean moved, int[] reference, DataOutputStream output) throws IOException {
+        final TileTracker tileTracker = tiles; //avoid getfield opcode
+        final boolean full = tileTracker.isFullFrame();
+
+        //A full frame replaces whatever was copied or cached anyway
+        final boolean copy = moved && !full;
+        if (copy) {
+            writeCopy(screenShot.getWidth(), screenShot.getHeight(), output);
+        }
+        final boolean cached = !full && changed != 0;
+        int remaining = changed;
+        if (copy || cached) {
+            collectTouched(screenShot.getWidth(), copy);
+        }
+        if (cached) {
+            remaining = writeCacheReferences(changed, output);
+        }
+        final byte prefix = copy ? COPY_RECT : TILE_CACHE;
+
+        if (remaining == 0) {
+            //Every tile was compared and the screen really is static, apart from any copied or cached tiles
+            output.writeByte(lastHeader = HEARTBEAT);
+            if (copy || cached) {
+                lastHeader = prefix;
+            }
+            return copy || cached;
+        }
+
+        if (frameCodec instanceof MixedCodec) {
+            writeMixedFrame((MixedCodec) frameCodec, screenShot, remaining, output);
+        }
+        else {
+            writeTileFrame(frameCodec, screenShot, remaining, reference, output);
+        }
+        if (full) {
+            seedTileCache();
+            framesSinceKeyframe = 1;
+        }
+        else {
+            ++framesSinceKeyframe;
+            lastHeader = prefix;
+        }
+        return true;
+    }
+
+    //The server caches a tile by its pixels, and a tile at the edge of the screen by its shape too
+    private long cacheKey(int tile) {
+        final TileTracker tileTracker = tiles; //avoid getfield opcode
+        return tileTracker.getFingerprint(tile) * 31 + tileTracker.getTileShape(tile);
+    }
+
+    //The server fills its cache with every tile of a full frame, in order
+    private void seedTileCache() {
+        final int tileCount = tiles.getTileCount();
+        long[] keys = tileKeys;
+        if (keys.length < tileCount) {
+            tileKeys = keys = new long[tileCount];
+        }
+        for (int tile = 0; tile < tileCount; ++tile) {
+            keys[tile] = cacheKey(tile);
+        }
+        tileCache.seed(keys, tileCount);
+    }
+
+    //Writes the changed tiles the server has cached, which are dropped from the tiles to send, and where
+    //the server is to cache the tiles that are sent. Returns the number of tiles left to send.
+    private int writeCacheReferences(int changed, DataOutputStream output) throws IOException {
+        final TileTracker tileTracker = tiles; //avoid getfield opcode
+        final TileCache cache = tileCache; //avoid getfield opcode
+        final int[] dirty = tileTracker.getDirtyTiles();
+        int[] hits = cachedTiles;
+        int[] slots = cachedSlots;
+        if (hits.length < dirty.length) {
+            cachedTiles = hits = new int[dirty.length];
+            cachedSlots = slots = new int[dirty.length];
+        }
+
+        cache.beginFrame();
+        int hitCount = 0;
+        int kept = 0;
+        for (int index = 0; index < changed; ++index) {
+            final int tile = dirty[index];
+            final int slot = cache.find(cacheKey(tile));
+            if (slot >= 0) {
+                hits[hitCount] = tile;
+                slots[hitCount++] = slot;
+            }
+            else {
+                dirty[kept++] = tile;
+            }
+        }
+
+        output.writeByte(TILE_CACHE);
+        output.writeInt(hitCount);
+        for (int index = 0; index < hitCount; ++index) {
+            output.writeInt(hits[index]);
+            output.writeInt(slots[index]);
+        }
+        //Slots are picked only after every hit was looked up, so no hit is evicted in favor of a tile of its own frame
+        output.writeInt(kept);
+        for (int index = 0; index < kept; ++index) {
+            output.writeInt(dirty[index]);
+            output.writeInt(cache.store(cacheKey(dirty[index])));
+        }
+        tileTracker.setDirtyCount(kept);
+        return kept;
+    }
+
+    //Tiles are XORed with the server's frame when a reference to it is given
+    private void writeTileFrame(FrameCodec frameCodec, BufferedImage screenShot, int changed, int[] reference, DataOutputStream output) throws IOException {
+        final TileTracker tileTracker = tiles; //avoid getfield opcode
+        final ByteArrayOutputStream byteBuffer = imageBuffer; //avoid getfield opcode
+        byteBuffer.reset();
+
+        if (tileTracker.isFullFrame()) {
+            //Viewers that missed frames start again from here
+            frameCodec.resetContext();
+            frameCodec.encode(screenShot, byteBuffer);
+            output.writeByte(lastHeader = FULL_FRAME);
+        }
+        else {
+            output.writeByte(lastHeader = reference == null ? DELTA_FRAME : XOR_DELTA_FRAME);
+            output.writeInt(screenShot.getWidth());
+            output.writeInt(screenShot.getHeight());
+            output.writeInt(changed);
+            final int[] dirty = tileTracker.getDirtyTiles();
+            for (int index = 0; index < changed; ++index) {
+                output.writeInt(dirty[index]);
+            }
+            frameCodec.encode(reference == null ? tileTracker.getAtlas() : tileTracker.getXorAtlas(reference), byteBuffer);
+        }
+
+        output.writeByte(frameCodec.getId());
+        output.writeInt(byteBuffer.size());
+        byteBuffer.writeTo(output); //write directly to the output stream, no slow copy
+    }
+
+    //Writes the copy the scroll detector found
+    private void writeCopy(int width, int height, DataOutputStream output) throws IOException {
+        final ScrollDetector detector = scrollDetector; //avoid getfield opcode
+        output.writeByte(COPY_RECT);
+        output.writeInt(width);
+        output.writeInt(height);
+        output.writeInt(detector.getSourceX());
+        output.writeInt(detector.getSourceY());
+        output.writeInt(detector.getCopyWidth());
+        output.writeInt(detector.getCopyHeight());
+        output.writeInt(detector.getDestinationX());
+        output.writeInt(detector.getDestinationY());
+    }
+
+    //Lists every tile the frame changes, sent, cached or copied, in case it is retracted
+    private void collectTouched(int width, boolean copy) {
+        final TileTracker tileTracker = tiles; //avoid getfield opcode
+        final int tileCount = tileTracker.getTileCount();
+        boolean[] marks = touchedMarks;
+        if (marks.length != tileCount) {
+            touchedMarks = marks = new boolean[tileCount];
+            touchedTiles = new int[tileCount];
+        }
+        final int[] dirty = tileTracker.getDirtyTiles();
+        for (int index = 0, count = tileTracker.getDirtyCount(); index < count; ++index) {
+            marks[dirty[index]] = true;
+        }
+        if (copy) {
+            final ScrollDetector detector = scrollDetector; //avoid getfield opcode
+            final int left = detector.getDestinationX();
+            final int top = detector.getDestinationY();
+            final int columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+            final int lastColumn = (left + detector.getCopyWidth() - 1) / TILE_SIZE;
+            final int lastRow = (top + detector.getCopyHeight() - 1) / TILE_SIZE;
+            for (int row = top / TILE_SIZE; row <= lastRow; ++row) {
+                for (int column = left / TILE_SIZE; column <= lastColumn; ++column) {
+                    marks[row * columns + column] = true;
+                }
+            }
+        }
+        final int[] touched = touchedTiles;
+        int count = 0;
+        for (int tile = 0; tile < tileCount; ++tile) {
+            if (marks[tile]) {
+                marks[tile] = false;
+                touched[count++] = tile;
+            }
+        }
+        touchedCount = count;
+    }
+
+    //Splits the changed tiles between the lossless and the lossy codec, see TileClassifier
+    private void writeMixedFrame(MixedCodec mixedCodec, BufferedImage screenShot, int changed, DataOutputStream output) throws IOException {
+        final TileTracker tileTracker = tiles; //avoid getfield opcode
+        final TileClassifier classifier = tileClassifier; //avoid getfield opcode
+        final int width = screenShot.getWidth();
+        final int height = screenShot.getHeight();
+        final int[] dirty = tileTracker.getDirtyTiles();
+        final int[] pixels = tileTracker.getPixels();
+
+        int[] lossless = losslessTiles;
+        int[] lossy = lossyTiles;
+        if (lossless.length < changed) {
+            losslessTiles = lossless = new int[dirty.length];
+            lossyTiles = lossy = new int[dirty.length];
+        }
+
+        classifier.recordChanges(tileTracker.getTileCount(), dirty, changed);
+        int losslessCount = 0;
+        int lossyCount = 0;
+        for (int index = 0; index < changed; ++index) {
+            final int tile = dirty[index];
+            if (classifier.isLossy(pixels, width, height, TILE_SIZE, tile)) {
+                lossy[lossyCount++] = tile;
+            }
+            else {
+                lossless[losslessCount++] = tile;
+            }
+        }
+
+        if (tileTracker.isFullFrame()) {
+            mixedCodec.resetContext();
+        }
+        output.writeByte(lastHeader = tileTracker.isFullFrame() ? MIXED_FULL_FRAME : MIXED_DELTA_FRAME);
+        output.writeInt(width);
+        output.writeInt(height);
+        writeTiles(mixedCodec.getLossless(), lossless, losslessCount, output);
+        writeTiles(mixedCodec.getLossy(), lossy, lossyCount, output);
+    }
+
+    private void writeTiles(FrameCodec tileCodec, int[] group, int count, DataOutputStream output) throws IOException {
+        final ByteArrayOutputStream byteBuffer = imageBuffer; //avoid getfield opcode
+        output.writeInt(count);
+        for (int index = 0; index < count; ++index) {
+            output.writeInt(group[index]);
+        }
+        if (count == 0) {
+            return;
+        }
+        byteBuffer.reset();
+        tileCodec.encode(tiles.getAtlas(group, count), byteBuffer);
+        output.writeByte(tileCodec.getId());
+        output.writeInt(byteBuffer.size());
+        byteBuffer.writeTo(output);
+    }
+}
@@ -0,0 +1,271 @@
+package Client;
+
+import static Client.Network.HISTORY_FRAME;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+//The last minutes of the client's screen, so a server that only just looked can see what led up
+//to the present. Whether or not any server is watching, a screen shot is taken every so often,
+//shrunk and encoded as an independent JPEG, and kept in one buffer allocated up front, the oldest
+//screen shots being overwritten once it is full or they are older than the history lasts.
+//Screen shots are taken less often while the computer is idle, following the capture throttle's
+//ladder, and a screen shot whose sampled pixels did not change is neither shrunk nor encoded, so a
+//still screen costs one capture and a probe. A screen shot identical to the one before is not kept.
+public final class FrameHistory implements Closeable {
+
+    /**
+     * Seconds of history kept by default.
+     */
+    public static final int DEFAULT_SECONDS = 120;
+
+    /**
+     * Milliseconds between screen shots by default.
+     */
+    public static final long DEFAULT_PERIOD = 1000;
+
+    /**
+     * Bytes of encoded screen shots kept at most by default.
+     */
+    public static final int DEFAULT_CAPACITY = 16 << 20;
+
+    //History screen shots are shrunk to this width, about 100 KB each as a JPEG
+    private static final int MAXIMUM_WIDTH = 1280;
+    private static final float QUALITY = 0.5F;
+
+    //A change the probe misses is picked up by encoding at least this often, in milliseconds
+    private static final long MAXIMUM_SKIP = 10000;
+
+    private final CaptureSource screenCapturer;
+    private final CaptureThrottle throttle;
+    private final ChangeProbe probe = new ChangeProbe();
+    private final Rectangle area;
+    private final long period;
+    private final long duration; //milliseconds
+    private final FrameScaler scaler = new FrameScaler();
+    private final FrameCodec codec = new JpegCodec(QUALITY);
+    private final ExposedByteArrayOutputStream encoded = new ExposedByteArrayOutputStream();
+
+    //The ring buffer, screen shots are stored one after the other and wrap around to the start
+    //when the next one does not fit before the end. Guarded by this.
+    private final byte[] data;
+    private final long[] times;
+    private final int[] offsets;
+    private final int[] lengths;
+    private int oldest; //index into times, offsets and lengths
+    private int count;
+    private int end; //where the next screen shot is stored in data
+
+    private volatile FrameSpool spool;
+
+    private volatile boolean running = true;
+    private Thread recorderThread;
+
+    /**
+     * @param source Takes the screen shots.
+     * @param captureThrottle Whose ladder slows the screen shots down while
+     * the computer is idle.
+     * @param screen The part of the screen recorded.
+     * @param seconds How long screen shots are kept.
+     * @param interval Milliseconds between screen shots.
+     * @param capacity Bytes of encoded screen shots kept at most.
+     */
+    public FrameHistory(CaptureSource source, CaptureThrottle captureThrottle, Rectangle screen, int seconds, long interval, int capacity) {
+        if (seconds <= 0 || interval <= 0 || capacity <= 0 || screen.isEmpty()) {
+            throw new IllegalArgumentException("Invalid history: " + seconds + " s every " + interval + " ms in " + capacity + " bytes of " + screen);
+        }
+        screenCapturer = source;
+        throttle = captureThrottle;
+        area = new Rectangle(screen);
+        period = interval;
+        duration = TimeUnit.SECONDS.toMillis(seconds);
+        data = new byte[capacity];
+        //one more, the newest screen shot of a still screen is kept past the duration
+        final int frames = (int) Math.min(Integer.MAX_VALUE - 1, duration / interval) + 1;
+        times = new long[frames];
+        offsets = new int[frames];
+        lengths = new int[frames];
+        final int width = Math.min(MAXIMUM_WIDTH, area.width);
+        scaler.setTarget(width, Math.max(1, (int) ((long) area.height * width / area.width)), true);
+    }
+
+    /**
+     * @return The codec screen shots are encoded with.
+     */
+    public FrameCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * @param frameSpool Offered every screen shot taken, to keep some of them
+     * on disk while no server is connected, or null for none.
+     */
+    public void setSpool(FrameSpool frameSpool) {
+        spool = frameSpool;
+    }
+
+    public void start() {
+        Thread recorderThreadReference = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                record();
+            }
+        }, "Frame History Thread");
+        recorderThreadReference.setDaemon(true);
+        recorderThreadReference.setPriority(Thread.MIN_PRIORITY); //the live frames come first
+        (recorderThread = recorderThreadReference).start();
+    }
+
+    private void record() {
+        final CaptureSource screenCapturerReference = screenCapturer; //avoid getfield opcode
+        final CaptureThrottle throttleReference = throttle; //avoid getfield opcode
+        final ChangeProbe probeReference = probe; //avoid getfield opcode
+        final ExposedByteArrayOutputStream encodedReference = encoded; //avoid getfield opcode
+        long lastCapture = System.nanoTime() - TimeUnit.HOURS.toNanos(1); //the first screen shot is due at once
+        long lastEncode = lastCapture;
+        try {
+            while (running) {
+                final long start = System.nanoTime();
+                //Checked every period, so the history speeds up within one of the computer being used again
+                if (TimeUnit.NANOSECONDS.toMillis(start - lastCapture) >= throttleReference.getIdleInterval()) {
+                    lastCapture = start;
+                    final BufferedImage screenShot = screenCapturerReference.capture(area);
+                    if (probeReference.update(screenShot) || TimeUnit.NANOSECONDS.toMillis(start - lastEncode) >= MAXIMUM_SKIP) {
+                        lastEncode = start;
+                        encodedReference.reset();
+                        try {
+                            codec.encode(scaler.scale(screenShot), encodedReference);
+                            final long time = System.currentTimeMillis();
+                            store(time, encodedReference);
+                            final FrameSpool spoolReference = spool; //read volatile once
+                            if (spoolReference != null) {
+                                spoolReference.offer(time, encodedReference);
+                            }
+                        }
+                        catch (IOException ex) {
+                            ex.printStackTrace();
+                        }
+                    }
+                }
+                final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                TimeUnit.MILLISECONDS.sleep(Math.max(0, period - elapsed));
+            }
+        }
+        catch (InterruptedException ex) {
+            //closed
+        }
+        catch (RuntimeException ex) {
+            //such as a SecurityException from a robot, the live frames carry on without history
+            ex.printStackTrace();
+        }
+    }
+
+    synchronized void store(long time, ExposedByteArrayOutputStream screenShot) {
+        final byte[] dataReference = data; //avoid getfield opcode
+        final int length = screenShot.size();
+        final int frames = times.length;
+        if (length > dataReference.length) {
+            return;
+        }
+        if (count > 0) {
+            final int newest = (oldest + count - 1) % frames;
+            if (screenShot.matches(dataReference, offsets[newest], lengths[newest])) {
+                return; //still the same screen
+            }
+        }
+        int start = end;
+        if (start + length > dataReference.length) {
+            //The screen shots between here and the end are the oldest, drop them and start over
+            while (count > 0 && offsets[oldest] >= start) {
+                drop();
+            }
+            start = 0;
+        }
+        //Drop what this screen shot overwrites, and what has become too old or does not fit in the tables
+        while (count > 0 && (count == frames || (offsets[oldest] < start + length && offsets[oldest] + lengths[oldest] > start)
+                || (count > 1 && time - times[oldest] > duration))) {
+            drop();
+        }
+        screenShot.copyTo(dataReference, start);
+        final int index = (oldest + count) % frames;
+        times[index] = time;
+        offsets[index] = start;
+        lengths[index] = length;
+        ++count;
+        end = start + length;
+    }
+
+    private void drop() {
+        oldest = (oldest + 1) % times.length;
+        --count;
+    }
+
+    /**
+     * Encodes every screen shot kept, oldest first, as HISTORY_FRAMEs to be
+     * sent before the next frame.
+     *
+     * @return The screen shots, or null if there are none yet.
+     */
+    public synchronized byte[] export() {
+        final int countReference = count; //avoid getfield opcode
+        if (countReference == 0) {
+            return null;
+        }
+        final int frames = times.length;
+        int size = 0;
+        for (int index = 0; index < countReference; ++index) {
+            size += 1 + 8 + 4 + 1 + 4 + lengths[(oldest + index) % frames];
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(size);
+        final DataOutputStream output = new DataOutputStream(bytes);
+        try {
+            for (int index = 0; index < countReference; ++index) {
+                final int frame = (oldest + index) % frames;
+                output.writeByte(HISTORY_FRAME);
+                output.writeLong(times[frame]);
+                output.writeInt(countReference - index - 1);
+                output.writeByte(codec.getId());
+                output.writeInt(lengths[frame]);
+                output.write(data, offsets[frame], lengths[frame]);
+            }
+        }
+        catch (IOException ex) {
+            throw new IllegalStateException(ex); //never thrown by a ByteArrayOutputStream
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        Thread recorderThreadReference = recorderThread;
+        if (recorderThreadReference != null) {
+            recorderThreadReference.interrupt();
+        }
+    }
+
+    //Lets an encoded screen shot be compared and copied into the ring buffer without a copy of its own
+    static final class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+
+        private boolean matches(byte[] other, int offset, int length) {
+            if (length != count) {
+                return false;
+            }
+            final byte[] bytes = buf; //avoid getfield opcode
+            for (int index = 0; index < length; ++index) {
+                if (bytes[index] != other[offset + index]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void copyTo(byte[] destination, int offset) {
+            System.arraycopy(buf, 0, destination, offset, count);
+        }
+    }
+}
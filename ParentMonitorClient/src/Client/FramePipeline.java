@@ -0,0 +1,401 @@
+package Client;
+
+import static Client.Network.COPY_RECT;
+import static Client.Network.DELTA_FRAME;
+import static Client.Network.MIXED_DELTA_FRAME;
+import static Client.Network.IMAGE_BUFFER_SIZE;
+import static Client.Network.TILE_CACHE;
+import static Client.Network.XOR_DELTA_FRAME;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+//Captures, encodes and sends screen shots on separate threads, so that frame N + 1 is
+//captured while frame N is encoded and frame N - 1 is handed to the viewers.
+//Encoded frames wait in a mailbox that holds only the newest one: a frame still waiting when
+//the next one is encoded is dropped, so the viewers lag by at most one frame. A frame the send
+//stage was already waiting for is never dropped.
+//Nothing is captured unless a viewer has been granted a frame credit for it, and every viewer
+//writes the frames to its own image socket, see ViewerGroup.
+//Screen shots are scaled down to the largest viewer's panel size as part of the capture stage.
+//While the screen is static only heartbeats are sent, and while the computer is idle screen shots
+//are taken less and less often, as set by the CaptureThrottle.
+public final class FramePipeline implements Closeable {
+
+    //Print the stage timings after this many frames were sent
+    private static final int REPORT_INTERVAL = 100;
+
+    //One frame being encoded, one waiting in the mailbox and one being sent
+    private static final int FRAME_BUFFER_COUNT = 3;
+
+    //Passed from the capture stage to the encode stage when the throttle wants a heartbeat sent
+    private static final BufferedImage HEARTBEAT_FRAME = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+
+    private final CaptureSource screenCapturer;
+    private volatile Rectangle captureArea; //replaced as a whole, never modified
+    private final FrameScaler frameScaler;
+    private final FrameEncoder frameEncoder;
+    private final CaptureThrottle throttle;
+    private final ViewerGroup viewers;
+
+    private final BlockingQueue<BufferedImage> captured = new ArrayBlockingQueue<>(1);
+    private final FrameMailbox encoded = new FrameMailbox();
+    private final BlockingQueue<EncodedFrame> recycled = new ArrayBlockingQueue<>(FRAME_BUFFER_COUNT);
+
+    private final StageTimer captureTimer = new StageTimer("Capture");
+    private final StageTimer encodeTimer = new StageTimer("Encode");
+    private final StageTimer sendTimer = new StageTimer("Send");
+
+    private volatile boolean running = true;
+    private volatile long heartbeats;
+    private volatile long droppedFrames;
+
+    private Thread captureThread;
+    private Thread encodeThread;
+    private Thread sendThread;
+    //The capture and encode stages, and the pool threads they start, such as the parallel deflater's
+    private final ThreadGroup stageGroup = new ThreadGroup("Frame Pipeline");
+
+    public FramePipeline(CaptureSource source, Rectangle area, FrameScaler scaler, FrameEncoder encoder, CaptureThrottle captureThrottle, ViewerGroup viewerGroup) {
+        screenCapturer = source;
+        captureArea = area;
+        frameScaler = scaler;
+        frameEncoder = encoder;
+        throttle = captureThrottle;
+        viewers = viewerGroup;
+        for (int count = 0; count < FRAME_BUFFER_COUNT; ++count) {
+            recycled.add(new EncodedFrame());
+        }
+    }
+
+    /**
+     * Starts the capture and encode stages and runs the send stage on the
+     * calling thread, until the pipeline is closed.
+     */
+    public void run() {
+        final String name = Thread.currentThread().getName();
+        sendThread = Thread.currentThread();
+        (captureThread = new Thread(stageGroup, new Runnable() {
+            @Override
+            public void run() {
+                capture();
+            }
+        }, name + " Capture Stage")).start();
+        (encodeThread = new Thread(stageGroup, new Runnable() {
+            @Override
+            public void run() {
+                encode();
+            }
+        }, name + " Encode Stage")).start();
+
+        try {
+            send();
+        }
+        finally {
+            close();
+        }
+    }
+
+    private void capture() {
+        //Use local variables as much as possible here, performance critical!!!
+        final CaptureSource screenCapturerReference = screenCapturer;
+        final FrameScaler frameScalerReference = frameScaler;
+        final BlockingQueue<BufferedImage> capturedReference = captured;
+        final ViewerGroup viewersReference = viewers;
+        final CaptureThrottle throttleReference = throttle;
+        final StageTimer timer = captureTimer;
+        try {
+            while (running) {
+                viewersReference.awaitDemand(); //hidden viewers are never granted credits, so nothing is captured for them
+                if (!throttleReference.awaitCapture()) {
+                    capturedReference.put(HEARTBEAT_FRAME);
+                    continue;
+                }
+                long start = System.nanoTime();
+                //A region is captured at full resolution unless it is larger than the viewport
+                BufferedImage screenShot = frameScalerReference.scale(screenCapturerReference.capture(captureArea));
+                timer.record(System.nanoTime() - start);
+                capturedReference.put(screenShot);
+            }
+        }
+        catch (InterruptedException ex) {
+            //closed
+        }
+        catch (RuntimeException ex) {
+            ex.printStackTrace();
+            close();
+        }
+    }
+
+    private void encode() {
+        final FrameEncoder frameEncoderReference = frameEncoder;
+        final CaptureThrottle throttleReference = throttle;
+        final BlockingQueue<BufferedImage> capturedReference = captured;
+        final FrameMailbox encodedReference = encoded;
+        final BlockingQueue<EncodedFrame> recycledReference = recycled;
+        final StageTimer timer = encodeTimer;
+        try {
+            while (running) {
+                BufferedImage screenShot = capturedReference.take();
+                EncodedFrame stale = encodedReference.takeBack();
+                if (stale != null) {
+                    //Never sent, so whatever it carried goes out with this frame instead
+                    frameEncoderReference.retract(stale.header, stale.tiles, stale.tileCount);
+                    recycledReference.put(stale);
+                    ++droppedFrames; //only written by this thread
+                    viewers.dropped();
+                }
+                EncodedFrame frame = recycledReference.take();
+                frame.bytes.reset();
+                if (screenShot == HEARTBEAT_FRAME) {
+                    frameEncoderReference.writeHeartbeat(frame.data);
+                    ++heartbeats; //only written by this thread
+                }
+                else {
+                    long start = System.nanoTime();
+                    boolean sent = frameEncoderReference.writeFrame(screenShot, frame.data);
+                    timer.record(System.nanoTime() - start);
+                    throttleReference.recordFrame(sent);
+                    if (!sent) {
+                        ++heartbeats;
+                    }
+                }
+                frame.remember(frameEncoderReference);
+                encodedReference.put(frame);
+            }
+        }
+        catch (InterruptedException ex) {
+            //closed
+        }
+        catch (IOException | RuntimeException ex) {
+            ex.printStackTrace();
+            close();
+        }
+    }
+
+    private void send() {
+        final ViewerGroup viewersReference = viewers;
+        final FrameMailbox encodedReference = encoded;
+        final BlockingQueue<EncodedFrame> recycledReference = recycled;
+        final StageTimer timer = sendTimer;
+        try {
+            while (running) {
+                EncodedFrame frame = encodedReference.take();
+                long start = System.nanoTime();
+                //One copy shared by every viewer, each writes it on its own thread
+                viewersReference.publish(frame.header, frame.bytes.toByteArray());
+                timer.record(System.nanoTime() - start);
+                recycledReference.put(frame);
+                if (timer.getFrames() % REPORT_INTERVAL == 0) {
+                    System.out.println(getStatistics());
+                }
+            }
+        }
+        catch (InterruptedException ex) {
+            //closed
+        }
+        catch (RuntimeException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    public Rectangle getCaptureArea() {
+        return new Rectangle(captureArea);
+    }
+
+    /**
+     * Sets the part of the screen that is captured, from the next screen shot
+     * on. A screen shot of a different size is sent as a full frame.
+     *
+     * @param area The part of the screen, in screen coordinates.
+     */
+    public void setCaptureArea(Rectangle area) {
+        if (area.isEmpty()) {
+            throw new IllegalArgumentException("Empty capture area: " + area);
+        }
+        captureArea = new Rectangle(area);
+    }
+
+    public StageTimer getCaptureTimer() {
+        return captureTimer;
+    }
+
+    public StageTimer getEncodeTimer() {
+        return encodeTimer;
+    }
+
+    public StageTimer getSendTimer() {
+        return sendTimer;
+    }
+
+    /**
+     * @return The capture, encode and send threads, null before
+     * {@link #run()} has started them.
+     */
+    public Thread[] getStageThreads() {
+        return new Thread[]{captureThread, encodeThread, sendThread};
+    }
+
+    /**
+     * @return The stage threads and the live threads they hand work to, such
+     * as those of the parallel deflater, which start on demand and end when
+     * idle. Empty before {@link #run()} has started the stages.
+     */
+    public Thread[] getThreads() {
+        final Thread sendThreadReference = sendThread; //avoid getfield opcode
+        if (sendThreadReference == null) {
+            return new Thread[0];
+        }
+        Thread[] stages;
+        int count;
+        do {
+            //A full array may have missed threads started in the meantime
+            stages = new Thread[stageGroup.activeCount() + 4];
+            count = stageGroup.enumerate(stages, true);
+        }
+        while (count == stages.length);
+        stages = Arrays.copyOf(stages, count + 1);
+        stages[count] = sendThreadReference; //runs on the caller's thread, outside the group
+        return stages;
+    }
+
+    public long getHeartbeats() {
+        return heartbeats;
+    }
+
+    /**
+     * @return The number of encoded frames replaced by a newer one before the
+     * socket was ready for them.
+     */
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    public String getStatistics() {
+        return "Pipeline: " + captureTimer + ", " + encodeTimer + ", " + sendTimer + ", " + heartbeats + " heartbeats, " + droppedFrames + " dropped";
+    }
+
+    @Override
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        //wake up any stage blocked on a queue
+        Thread current = Thread.currentThread();
+        for (Thread stage : new Thread[]{captureThread, encodeThread, sendThread}) {
+            if (stage != null && stage != current) {
+                stage.interrupt();
+            }
+        }
+    }
+
+    //Holds an entire frame, header included, ready to be written to the socket,
+    //and what it carried in case it is dropped
+    static final class EncodedFrame {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(IMAGE_BUFFER_SIZE);
+        private final DataOutputStream data = new DataOutputStream(bytes);
+        private byte header;
+        private int[] tiles = {};
+        private int tileCount;
+
+        private void remember(FrameEncoder encoder) {
+            header = encoder.getLastHeader();
+            tileCount = header == DELTA_FRAME || header == MIXED_DELTA_FRAME || header == COPY_RECT || header == XOR_DELTA_FRAME || header == TILE_CACHE ? encoder.getLastTileCount() : 0;
+            if (tiles.length < tileCount) {
+                tiles = new int[tileCount];
+            }
+            System.arraycopy(encoder.getLastTiles(), 0, tiles, 0, tileCount);
+        }
+    }
+
+    //Holds the newest encoded frame until the send stage is ready for it. A frame put while the send
+    //stage is waiting is claimed by it and can no longer be taken back, even if the send stage has
+    //not woken up yet, so only frames the send stage was busy for are dropped.
+    static final class FrameMailbox {
+
+        private EncodedFrame frame;
+        private boolean receiving; //the send stage is waiting for a frame
+        private boolean claimed; //the frame waiting is promised to the send stage
+
+        //Only called by the encode stage, which takes back any frame still waiting first
+        synchronized void put(EncodedFrame encoded) throws InterruptedException {
+            while (frame != null) {
+                wait(); //a claimed frame, the send stage is about to take it
+            }
+            frame = encoded;
+            claimed = receiving;
+            notifyAll();
+        }
+
+        //Returns null if no frame is waiting or the one waiting is claimed
+        synchronized EncodedFrame takeBack() {
+            if (claimed) {
+                return null;
+            }
+            EncodedFrame waiting = frame;
+            frame = null;
+            return waiting;
+        }
+
+        synchronized EncodedFrame take() throws InterruptedException {
+            receiving = true;
+            try {
+                while (frame == null) {
+                    wait();
+                }
+            }
+            finally {
+                receiving = false;
+            }
+            EncodedFrame waiting = frame;
+            frame = null;
+            claimed = false;
+            notifyAll();
+            return waiting;
+        }
+    }
+
+    //Time spent working in a stage, excluding time spent waiting on the other stages
+    public static final class StageTimer {
+
+        private final String name;
+        private volatile long totalNanos;
+        private volatile long frames;
+
+        private StageTimer(String stageName) {
+            name = stageName;
+        }
+
+        //Only called by the stage's own thread
+        private void record(long nanos) {
+            totalNanos += nanos;
+            ++frames;
+        }
+
+        public long getFrames() {
+            return frames;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public double getAverageMillis() {
+            long count = frames;
+            return count == 0 ? 0 : totalNanos / (count * 1000000.0);
+        }
+
+        @Override
+        public String toString() {
+            return name + " " + String.format("%.1f", getAverageMillis()) + " ms";
+        }
+    }
+}
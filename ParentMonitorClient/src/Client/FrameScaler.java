@@ -0,0 +1,111 @@
+package Client;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+//Shrinks screen shots to the size of the server's panel before they are encoded,
+//the server would only scale them down itself otherwise
+public final class FrameScaler {
+
+    //Replaced as a whole, so the capture thread never sees half of an update
+    private volatile Target target;
+
+    //Set by the CPU governor, every screen shot is divided by this on top of the target size
+    private volatile int reduction = 1;
+
+    /**
+     * Sets the size screen shots are scaled down to. Screen shots smaller
+     * than this are left alone.
+     *
+     * @param width The width of the server's panel.
+     * @param height The height of the server's panel.
+     * @param smooth True for bilinear scaling, false for the faster nearest
+     * neighbor scaling.
+     */
+    public void setTarget(int width, int height, boolean smooth) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid viewport: " + width + "x" + height);
+        }
+        target = new Target(width, height, smooth);
+    }
+
+    public int getReduction() {
+        return reduction;
+    }
+
+    /**
+     * Shrinks screen shots further than the target size, to save CPU time.
+     *
+     * @param divisor The width and height are divided by this, 1 for none.
+     */
+    public void setReduction(int divisor) {
+        if (divisor <= 0) {
+            throw new IllegalArgumentException("Invalid reduction: " + divisor);
+        }
+        reduction = divisor;
+    }
+
+    /**
+     * Scales a screen shot down to the current target size.
+     *
+     * @param image The screen shot.
+     * @return A scaled copy, or the screen shot itself if it is already small
+     * enough, or no target has been set and there is no reduction.
+     */
+    public BufferedImage scale(BufferedImage image) {
+        final Target targetReference = target; //read volatile once
+        final int divisor = reduction; //read volatile once
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (targetReference != null) {
+            width = Math.min(targetReference.width, width);
+            height = Math.min(targetReference.height, height);
+        }
+        width = Math.max(1, width / divisor);
+        height = Math.max(1, height / divisor);
+        if (width == image.getWidth() && height == image.getHeight()) {
+            return image;
+        }
+
+        if (targetReference == null || !targetReference.smooth) {
+            return draw(image, width, height, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        }
+
+        //A single bilinear pass skips most source pixels when shrinking a lot,
+        //so halve the image until it is within a factor of 2 of the target
+        BufferedImage scaled = image;
+        int currentWidth = image.getWidth();
+        int currentHeight = image.getHeight();
+        do {
+            currentWidth = Math.max(width, currentWidth / 2);
+            currentHeight = Math.max(height, currentHeight / 2);
+            scaled = draw(scaled, currentWidth, currentHeight, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        }
+        while (currentWidth != width || currentHeight != height);
+        return scaled;
+    }
+
+    private static BufferedImage draw(BufferedImage image, int width, int height, Object interpolation) {
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+        graphics.drawImage(image, 0, 0, width, height, null);
+        graphics.dispose();
+        return scaled;
+    }
+
+    private static final class Target {
+
+        private final int width;
+        private final int height;
+        private final boolean smooth;
+
+        private Target(int targetWidth, int targetHeight, boolean smoothScaling) {
+            width = targetWidth;
+            height = targetHeight;
+            smooth = smoothScaling;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package Client;
+
+import static Client.Network.HISTORY_FRAME;
+import Util.StreamCloser;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+//Screen shots kept on disk while no server is connected, so a parent who checks in once a day
+//still sees what happened in between. Every so often one of the FrameHistory's screen shots is
+//appended to the spool file, as its time, length and JPEG bytes. Once the file holds half of the
+//allowed size it becomes the old file, replacing the one before, so the newest screen shots are
+//always kept. Files still waiting to be uploaded count towards the cap too, whole files are
+//dropped oldest first when over it, so the disk use never exceeds it by more than one screen shot.
+//When a server connects the files are moved aside and uploaded to it on a low priority thread, in
+//large sequential reads, batched into HISTORY_FRAMEs that go out one batch per live frame.
+//A corrupt record, as left by a crash, ends its file, the records before it are still uploaded.
+public final class FrameSpool implements Closeable {
+
+    /**
+     * Milliseconds between spooled screen shots by default.
+     */
+    public static final long DEFAULT_PERIOD = 60000;
+
+    /**
+     * Bytes of spool files kept at most by default.
+     */
+    public static final long DEFAULT_CAPACITY = 64L << 20;
+
+    //Read and sent in pieces of about this size
+    private static final int BATCH_SIZE = 1 << 20;
+
+    //Time and length written before every screen shot in the file
+    private static final int RECORD_HEADER = 8 + 4;
+
+    private final File current;
+    private final File old;
+    private final File[] uploads; //oldest first
+    private final long period;
+    private final long capacity;
+    private final byte codecId;
+    private final BooleanSupplier disconnected;
+
+    //Guarded by this
+    private DataOutputStream output;
+    private long size;
+    private long lastTime;
+
+    private final AtomicBoolean uploading = new AtomicBoolean();
+    private volatile boolean closed;
+
+    /**
+     * @param file The spool file, the old file and the files being uploaded
+     * are kept next to it.
+     * @param interval Milliseconds between spooled screen shots.
+     * @param maximumSize Bytes of spool files kept at most.
+     * @param codec The codec the screen shots are encoded with, a PNG or JPEG
+     * codec.
+     * @param noServer Tells whether no server is connected, screen shots are
+     * only spooled then.
+     */
+    public FrameSpool(File file, long interval, long maximumSize, FrameCodec codec, BooleanSupplier noServer) {
+        if (interval <= 0 || maximumSize <= 0) {
+            throw new IllegalArgumentException("Invalid spool: every " + interval + " ms in " + maximumSize + " bytes");
+        }
+        current = file.getAbsoluteFile();
+        old = new File(current.getPath() + ".old");
+        uploads = new File[]{new File(current.getPath() + ".upload.0"), new File(current.getPath() + ".upload.1")};
+        period = interval;
+        capacity = maximumSize;
+        codecId = codec.getId();
+        disconnected = noServer;
+        size = current.length(); //appended to, a spool from a previous run is kept
+    }
+
+    /**
+     * Appends a screen shot if no server is connected and the last one was
+     * spooled long enough ago.
+     *
+     * @param time When the screen shot was taken, in milliseconds since the
+     * epoch.
+     * @param screenShot The encoded screen shot.
+     */
+    public synchronized void offer(long time, ByteArrayOutputStream screenShot) {
+        if (closed || time - lastTime < period || !disconnected.getAsBoolean()) {
+            return;
+        }
+        lastTime = time;
+        final int length = screenShot.size();
+        try {
+            if (size + RECORD_HEADER + length > capacity / 2) {
+                //The old file is dropped, the newest half of the cap is kept
+                closeOutput();
+                if ((old.exists() && !old.delete()) || (current.exists() && !current.renameTo(old))) {
+                    throw new IOException("Failed to rotate spool file " + current);
+                }
+                size = 0;
+            }
+            DataOutputStream stream = output;
+            if (stream == null) {
+                output = stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(current, true), BATCH_SIZE / 8));
+            }
+            stream.writeLong(time);
+            stream.writeInt(length);
+            screenShot.writeTo(stream);
+            stream.flush(); //a crash loses at most this screen shot
+            size += RECORD_HEADER + length;
+            trim();
+        }
+        catch (IOException ex) {
+            System.out.println("Failed to spool screen shot.");
+            ex.printStackTrace();
+            closeOutput();
+        }
+    }
+
+    //Drops whole files, oldest first, until every file fits in the cap. The spool file itself is at
+    //most half of the cap, so it is never dropped. A file being uploaded may fail to be deleted.
+    private void trim() {
+        final File[] oldestFirst = {uploads[0], uploads[1], old};
+        long total = size;
+        for (File file : oldestFirst) {
+            total += file.length();
+        }
+        for (File file : oldestFirst) {
+            if (total <= capacity) {
+                return;
+            }
+            final long length = file.length();
+            if (length > 0 && file.delete()) {
+                total -= length;
+            }
+        }
+    }
+
+    private void closeOutput() {
+        StreamCloser.close(output);
+        output = null;
+    }
+
+    /**
+     * Starts uploading the spooled screen shots to a viewer that just
+     * connected, unless they are being uploaded already. Screen shots spooled
+     * from now on are uploaded next time.
+     *
+     * @param viewers The group the viewer belongs to.
+     * @param viewer The viewer.
+     */
+    public void upload(final ViewerGroup viewers, final Viewer viewer) {
+        if (!uploading.compareAndSet(false, true)) {
+            return; //each screen shot is uploaded to one server only
+        }
+        final File[] files;
+        synchronized (this) {
+            final File[] uploadsReference = uploads; //avoid getfield opcode
+            //What a failed upload left behind goes first, and alone, so nothing is overwritten
+            if (!uploadsReference[0].exists() && !uploadsReference[1].exists()) {
+                closeOutput();
+                if (old.exists()) {
+                    old.renameTo(uploadsReference[0]);
+                }
+                if (current.exists()) {
+                    current.renameTo(uploadsReference[1]);
+                }
+                size = 0;
+            }
+            files = uploadsReference.clone();
+        }
+        Thread uploaderThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (send(files, viewers, viewer)) {
+                        for (File file : files) {
+                            file.delete();
+                        }
+                    }
+                }
+                catch (IOException ex) {
+                    System.out.println("Failed to upload the spool to " + viewer + ".");
+                    ex.printStackTrace();
+                }
+                catch (InterruptedException ex) {
+                    //closed
+                }
+                finally {
+                    uploading.set(false);
+                }
+            }
+        }, "Spool Uploader Thread");
+        uploaderThread.setDaemon(true);
+        uploaderThread.setPriority(Thread.MIN_PRIORITY); //the live frames come first
+        uploaderThread.start();
+    }
+
+    //Returns true once every screen shot was handed to the viewer's socket
+    private boolean send(File[] files, ViewerGroup viewers, Viewer viewer) throws IOException, InterruptedException {
+        int remaining = 0;
+        for (File file : files) {
+            remaining += count(file);
+        }
+        if (remaining == 0) {
+            return true;
+        }
+        System.out.println("Uploading " + remaining + " spooled screen shots to " + viewer + ".");
+        final ByteArrayOutputStream batch = new ByteArrayOutputStream(BATCH_SIZE + BATCH_SIZE / 4);
+        final DataOutputStream batchOutput = new DataOutputStream(batch);
+        byte[] image = new byte[0];
+        for (File file : files) {
+            if (!file.exists()) {
+                continue;
+            }
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BATCH_SIZE))) {
+                while (remaining > 0) {
+                    final long time;
+                    try {
+                        time = input.readLong();
+                    }
+                    catch (EOFException ex) {
+                        break; //the end of this file
+                    }
+                    final int length = input.readInt();
+                    if (length < 0 || length > file.length()) {
+                        System.out.println("Skipping the rest of corrupt spool file " + file + ".");
+                        break; //what follows cannot be trusted, the file is done
+                    }
+                    if (image.length < length) {
+                        image = new byte[length];
+                    }
+                    try {
+                        input.readFully(image, 0, length);
+                    }
+                    catch (EOFException ex) {
+                        break; //cut short by a crash while appending
+                    }
+                    batchOutput.writeByte(HISTORY_FRAME);
+                    batchOutput.writeLong(time);
+                    batchOutput.writeInt(--remaining);
+                    batchOutput.writeByte(codecId);
+                    batchOutput.writeInt(length);
+                    batchOutput.write(image, 0, length);
+                    if (batch.size() >= BATCH_SIZE && !hand(batch, viewers, viewer)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return batch.size() == 0 || hand(batch, viewers, viewer);
+    }
+
+    //Waits for the viewer to write the previous batch, then gives it this one
+    private boolean hand(ByteArrayOutputStream batch, ViewerGroup viewers, Viewer viewer) throws InterruptedException {
+        while (viewer.hasPendingHistory()) {
+            if (closed || !viewer.isAttached()) {
+                return false;
+            }
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        if (closed || !viewer.isAttached()) {
+            return false;
+        }
+        viewers.sendHistory(viewer, batch.toByteArray());
+        batch.reset();
+        return true;
+    }
+
+    //The number of whole screen shots in a spool file, skipping over their bytes
+    private static int count(File file) throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        int records = 0;
+        final long length = file.length();
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), RECORD_HEADER))) {
+            for (long position = 0; position + RECORD_HEADER <= length; ++records) {
+                input.readLong();
+                final int imageLength = input.readInt();
+                if (imageLength < 0 || position + RECORD_HEADER + imageLength > length) {
+                    break;
+                }
+                position += RECORD_HEADER + imageLength;
+                for (long skipped = 0; skipped < imageLength;) {
+                    skipped += input.skip(imageLength - skipped);
+                }
+            }
+        }
+        return records;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        closeOutput();
+    }
+}
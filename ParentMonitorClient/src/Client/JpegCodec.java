@@ -0,0 +1,62 @@
+package Client;
+
+import static Client.Network.JPEG_CODEC;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+//Lossy, far cheaper to encode than PNG for full screen captures
+public final class JpegCodec implements FrameCodec {
+
+    public static final float DEFAULT_QUALITY = 0.6F;
+
+    private final float quality;
+
+    //Looked up once, instead of for every frame like ImageIO.write does
+    private final ImageWriter writer;
+    private final ImageWriteParam parameters;
+
+    public JpegCodec(float compressionQuality) {
+        if (compressionQuality < 0F || compressionQuality > 1F) {
+            throw new IllegalArgumentException("JPEG quality must be between 0 and 1: " + compressionQuality);
+        }
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("JPEG");
+        if (!writers.hasNext()) {
+            throw new IllegalArgumentException("No JPEG writer available.");
+        }
+        quality = compressionQuality;
+        writer = writers.next();
+        parameters = writer.getDefaultWriteParam();
+        parameters.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        parameters.setCompressionQuality(compressionQuality);
+    }
+
+    @Override
+    public byte getId() {
+        return JPEG_CODEC;
+    }
+
+    @Override
+    public void encode(BufferedImage image, ByteArrayOutputStream output) throws IOException {
+        final ImageWriter writerReference = writer; //avoid getfield opcode
+        try (ImageOutputStream stream = new MemoryCacheImageOutputStream(output)) {
+            writerReference.setOutput(stream);
+            writerReference.write(null, new IIOImage(image, null, null), parameters);
+        }
+        finally {
+            writerReference.setOutput(null);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "JPEG " + quality;
+    }
+}
@@ -0,0 +1,57 @@
+package Client;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+//Text and windows lossless, photos and video lossy, decided tile by tile by a TileClassifier.
+//The FrameEncoder splits the tiles of every frame between the two codecs, anything else
+//handed a whole image to encode gets it losslessly.
+public final class MixedCodec implements FrameCodec {
+
+    private final FrameCodec lossless;
+    private final FrameCodec lossy;
+
+    public MixedCodec(FrameCodec losslessCodec, FrameCodec lossyCodec) {
+        if (losslessCodec == null || lossyCodec == null) {
+            throw new NullPointerException();
+        }
+        lossless = losslessCodec;
+        lossy = lossyCodec;
+    }
+
+    public FrameCodec getLossless() {
+        return lossless;
+    }
+
+    public FrameCodec getLossy() {
+        return lossy;
+    }
+
+    @Override
+    public byte getId() {
+        return lossless.getId();
+    }
+
+    @Override
+    public void encode(BufferedImage image, ByteArrayOutputStream output) throws IOException {
+        lossless.encode(image, output);
+    }
+
+    @Override
+    public void setReducedEffort(boolean reduced) {
+        lossless.setReducedEffort(reduced);
+        lossy.setReducedEffort(reduced);
+    }
+
+    @Override
+    public void resetContext() {
+        lossless.resetContext();
+        lossy.resetContext();
+    }
+
+    @Override
+    public String toString() {
+        return "MIXED " + lossless + " / " + lossy;
+    }
+}
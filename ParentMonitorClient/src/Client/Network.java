@@ -50,6 +50,204 @@ public final class Network {
      */
     public static final String PNG = "PNG";
 
+    /**
+     * Width and height in pixels of the tiles a screen shot is divided into
+     * when only the changed parts of the screen are sent.
+     */
+    public static final int TILE_SIZE = 64;
+
+    /**
+     * Tiles the server keeps in its tile cache, 16 MB of pixels at most. The
+     * client decides which slot every tile goes into, both ends must agree
+     * on the number of slots.
+     */
+    public static final int TILE_CACHE_SIZE = 1024;
+
+    /**
+     * Frame header sent on the image socket before a complete screen shot.
+     * The server replaces its frame with the image that follows.
+     */
+    public static final byte FULL_FRAME = 0;
+
+    /**
+     * Frame header sent on the image socket before the tiles that changed
+     * since the previous frame. The server patches its frame with the tiles
+     * that follow, all of which are packed together in a single image, left
+     * to right and top to bottom, in rows no wider than the screen's tile
+     * columns.
+     */
+    public static final byte DELTA_FRAME = 1;
+
+    /**
+     * Frame header sent on the image socket instead of a frame when the
+     * screen has not changed since the previous frame, nothing follows it.
+     * It still uses up a frame credit, and keeps the server's read timeout
+     * from expiring while the screen is static.
+     */
+    public static final byte HEARTBEAT = 2;
+
+    /**
+     * Frame header sent on the image socket before a complete screen shot
+     * whose tiles are split between a lossless and a lossy codec. Followed by
+     * the width and height of the screen shot, then for the lossless tiles
+     * and then the lossy tiles: the number of tiles, their indices, and, if
+     * there are any, the tiles packed as in a DELTA_FRAME. The server replaces
+     * its frame with a blank one before drawing the tiles.
+     */
+    public static final byte MIXED_FULL_FRAME = 3;
+
+    /**
+     * Frame header sent on the image socket before the changed tiles of a
+     * screen shot, split as in a MIXED_FULL_FRAME, and drawn on top of the
+     * previous frame.
+     */
+    public static final byte MIXED_DELTA_FRAME = 4;
+
+    /**
+     * Frame header sent on the image socket when content of the screen moved,
+     * as when a page is scrolled. Followed by the width and height of the
+     * screen shot, the left, top, width and height of the area that moved,
+     * and the left and top it moved to. The server copies that area of its
+     * frame, then reads the frame that follows, a DELTA_FRAME,
+     * MIXED_DELTA_FRAME or HEARTBEAT with whatever the copy did not cover.
+     */
+    public static final byte COPY_RECT = 5;
+
+    /**
+     * Frame header sent on the image socket before the tiles that changed
+     * since the previous frame, laid out as in a DELTA_FRAME, but with every
+     * pixel XORed with the pixel the server's frame holds there. The server
+     * XORs the tiles onto its frame.
+     */
+    public static final byte XOR_DELTA_FRAME = 6;
+
+    /**
+     * Frame header sent on the image socket before a frame whose tiles the
+     * server's tile cache is used for, after any COPY_RECT. Followed by the
+     * number of tiles taken from the cache, then the index and slot of each,
+     * then the number of tiles the frame that follows carries and will be
+     * stored in the cache, then the index and slot of each. The server copies
+     * the cached tiles into its frame, reads the frame that follows, a
+     * DELTA_FRAME, MIXED_DELTA_FRAME, XOR_DELTA_FRAME or HEARTBEAT, and then
+     * stores the tiles. After every FULL_FRAME and MIXED_FULL_FRAME the
+     * server empties its cache and stores the frame's tiles in order, the
+     * first in slot 0.
+     */
+    public static final byte TILE_CACHE = 7;
+
+    /**
+     * Frame header sent on the image socket before any other frame, once for
+     * every screen shot of the client's recent history after the server asked
+     * for it with REQUEST_HISTORY. Followed by the time the screen shot was
+     * taken in milliseconds since the epoch, the number of history screen
+     * shots still to follow, and the encoded screen shot. History screen
+     * shots are independent of the frames shown live, and the frame that
+     * follows them is read as usual.
+     */
+    public static final byte HISTORY_FRAME = 8;
+
+    /**
+     * Frame header sent on the image socket, between frames or before one,
+     * whenever the client's mouse pointer moves and once a second while it
+     * does not, only while the server holds frame credits. Followed by the
+     * pointer's position as two unsigned shorts, the distance from the left
+     * and from the top of the captured area as fractions of its width and
+     * height times POINTER_SCALE, or both 0xFFFF when the pointer is outside
+     * of it. Uses up no frame credits, the frame that follows is read as usual.
+     */
+    public static final byte POINTER = 9;
+
+    /**
+     * A POINTER position of POINTER_SCALE is the right or bottom edge of the
+     * captured area.
+     */
+    public static final int POINTER_SCALE = 0xFFFE;
+
+    /**
+     * Codec identifier written before every encoded image, images are
+     * compressed losslessly as PNG.
+     */
+    public static final byte PNG_CODEC = 0;
+
+    /**
+     * Codec identifier written before every encoded image, images are
+     * compressed lossily as JPEG.
+     */
+    public static final byte JPEG_CODEC = 1;
+
+    /**
+     * Codec identifier written before every encoded image, images are sent as
+     * their width, height and 24-bit RGB pixels compressed by a Deflater.
+     */
+    public static final byte DEFLATE_CODEC = 2;
+
+    /**
+     * Codec identifier written before every encoded image, images are
+     * reduced to 16-bit RGB565 and compressed as a 16-bit grayscale PNG whose
+     * samples are the packed pixels.
+     */
+    public static final byte RGB565_CODEC = 3;
+
+    /**
+     * Message prefix sent by server to client choosing the codec used for the
+     * rest of the session, followed by the codec name and optional
+     * parameters, such as "PNG 3 UP 4", "JPEG 0.6" or "DEFLATE 1".
+     */
+    public static final String SET_CODEC = "Server Request: Codec ";
+
+    /**
+     * Message prefix sent by server to client granting it more frame credits,
+     * followed by the number of credits. The client captures and sends one
+     * frame per credit, and nothing at all while it holds none.
+     */
+    public static final String GRANT_CREDITS = "Server Request: Credits ";
+
+    /**
+     * Message prefix sent by server to client whenever the panel displaying
+     * the client changes size, followed by the width, height and either FAST
+     * or SMOOTH. The client scales its screen shots down to that size before
+     * encoding them.
+     */
+    public static final String SET_VIEWPORT = "Server Request: Viewport ";
+
+    /**
+     * Message prefix sent by server to client setting how the client slows
+     * down capturing while nobody uses it, followed by rungs such as
+     * "0:0 100:30 1000:120". Every rung is a capture interval in
+     * milliseconds followed by the idle time in seconds after which it
+     * applies, the first rung applying while the client is in use.
+     */
+    public static final String SET_IDLE_LADDER = "Server Request: Idle Ladder ";
+
+    /**
+     * Message prefix sent by server to client setting the percent of one core
+     * the client may spend capturing, encoding and sending screen shots,
+     * followed by the percent, such as "10".
+     */
+    public static final String SET_CPU_BUDGET = "Server Request: CPU Budget ";
+
+    /**
+     * Message prefix sent by server to client setting the part of the screen
+     * the client captures, followed by the left, top, width and height as
+     * fractions of the whole screen, such as "0.25 0.1 0.2 0.15", or by
+     * "FULL" for the whole screen.
+     */
+    public static final String SET_REGION = "Server Request: Region ";
+
+    /**
+     * Message sent by server to client asking for the next frame to be a full
+     * frame, such as when a client's panel is shown again after a while. The
+     * server shows nothing stale while it waits for it.
+     */
+    public static final String REQUEST_KEYFRAME = "Server Request: Keyframe";
+
+    /**
+     * Message sent by server to client asking for the screen shots the client
+     * kept of the last minutes, which it sends as HISTORY_FRAMEs before its
+     * next frame.
+     */
+    public static final String REQUEST_HISTORY = "Server Request: History";
+
     /**
      * Message sent by server to client ordering the client to send a screen
      * shot.
@@ -73,6 +271,13 @@ public final class Network {
      */
     public static final String CLIENT_EXITED = "Client Action: Exit";
 
+    /**
+     * Message prefix sent by client to server every few seconds while it is
+     * sending screen shots, followed by a line describing its frame rate and
+     * CPU use, such as "4.9 fps, CPU 9.8% of 10.0%".
+     */
+    public static final String CLIENT_STATUS = "Client Report: Status ";
+
     /**
      * Message sent by server to client ordering the client to shutdown their
      * entire device.
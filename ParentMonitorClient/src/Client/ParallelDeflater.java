@@ -0,0 +1,222 @@
+package Client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+//Compresses one zlib stream on several cores, the way pigz does. The input is split into
+//blocks which are deflated independently, each primed with the last 32KB of the block before
+//it as a dictionary so that almost no compression is lost. Every block but the last ends with
+//a sync flush, which leaves it on a byte boundary, so the blocks can simply be concatenated.
+public final class ParallelDeflater {
+
+    //Deflate never looks further back than this
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    //The zlib header for deflate with a 32KB window, the compression level in it is only a hint
+    private static final byte[] ZLIB_HEADER = {0x78, (byte) 0x9C};
+
+    private int level;
+    private final int strategy;
+    private final ThreadPoolExecutor pool;
+
+    private final Adler32 checksum = new Adler32();
+
+    //Reused between streams
+    private Block[] blocks = {};
+    private int blockCount;
+
+    public ParallelDeflater(int compressionLevel, int compressionStrategy, int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Thread count must be positive: " + threads);
+        }
+        level = compressionLevel;
+        strategy = compressionStrategy;
+        //Idle threads exit on their own, so a codec that is replaced leaves nothing behind
+        pool = new ThreadPoolExecutor(threads, threads, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private int count = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "Parallel Deflater Thread " + (++count));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Changes the compression level of the blocks submitted from now on.
+     *
+     * @param compressionLevel The new level, 0 to 9.
+     */
+    public void setLevel(int compressionLevel) {
+        level = compressionLevel;
+    }
+
+    /**
+     * Starts a new stream, the previous one must have been finished.
+     */
+    public void reset() {
+        checksum.reset();
+        blockCount = 0;
+    }
+
+    /**
+     * Queues the next block of the stream for compression. The data, and the
+     * 32KB in front of the block, must not change until {@link #finish()}
+     * returns.
+     *
+     * @param data Holds the whole stream so far.
+     * @param offset Where the block starts.
+     * @param length Length of the block.
+     * @param last True if this is the final block of the stream.
+     */
+    public void submit(final byte[] data, final int offset, final int length, final boolean last) {
+        final int index = blockCount++;
+        ensureCapacity(index + 1);
+
+        //The checksum covers all of the data in order, computed while the workers compress
+        checksum.update(data, offset, length);
+
+        final Block block = blocks[index];
+        final int blockLevel = level;
+        block.result = pool.submit(new Runnable() {
+            @Override
+            public void run() {
+                final Deflater deflater = block.deflater;
+                deflater.reset();
+                deflater.setLevel(blockLevel);
+                //The level and strategy only take effect on the next call to deflate, which would apply them
+                //after the dictionary and leave distances into it the inflater cannot follow
+                deflater.deflate(block.output, 0, 0, Deflater.NO_FLUSH);
+                if (offset != 0) {
+                    final int dictionaryLength = Math.min(DICTIONARY_SIZE, offset);
+                    deflater.setDictionary(data, offset - dictionaryLength, dictionaryLength);
+                }
+                deflater.setInput(data, offset, length);
+                if (last) {
+                    deflater.finish();
+                }
+
+                byte[] output = block.output;
+                int outputLength = 0;
+                while (true) {
+                    if (outputLength == output.length) {
+                        block.output = output = Arrays.copyOf(output, output.length * 2);
+                    }
+                    final int available = output.length - outputLength;
+                    final int written = deflater.deflate(output, outputLength, available, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                    outputLength += written;
+                    if (last ? deflater.finished() : written < available) {
+                        break;
+                    }
+                }
+                block.length = outputLength;
+            }
+        });
+    }
+
+    /**
+     * Waits for every block to be compressed. Every block is waited for even
+     * if one fails, so no worker still writes to a block once the next
+     * stream reuses it.
+     *
+     * @throws IOException If compression failed or the thread was interrupted.
+     */
+    public void finish() throws IOException {
+        final Block[] blocksReference = blocks;
+        IOException failure = null;
+        boolean interrupted = false;
+        for (int index = 0, count = blockCount; index < count; ++index) {
+            final Block block = blocksReference[index];
+            while (block.result != null) {
+                try {
+                    block.result.get();
+                    block.result = null;
+                }
+                catch (InterruptedException ex) {
+                    interrupted = true; //blocks take milliseconds, the interrupt is passed on once they are done
+                }
+                catch (ExecutionException ex) {
+                    if (failure == null) {
+                        failure = new IOException(ex.getCause());
+                    }
+                    block.result = null;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+            if (failure == null) {
+                failure = new InterruptedIOException("Interrupted while compressing.");
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    public int getThreads() {
+        return pool.getMaximumPoolSize();
+    }
+
+    public static byte[] getHeader() {
+        return ZLIB_HEADER.clone();
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    public byte[] getBlock(int index) {
+        return blocks[index].output;
+    }
+
+    public int getBlockLength(int index) {
+        return blocks[index].length;
+    }
+
+    /**
+     * @return The Adler-32 checksum that ends the zlib stream, valid once every
+     * block has been submitted.
+     */
+    public int getChecksum() {
+        return (int) checksum.getValue();
+    }
+
+    private void ensureCapacity(int count) {
+        final int previousCount = blocks.length;
+        if (previousCount >= count) {
+            return;
+        }
+        final Block[] grown = Arrays.copyOf(blocks, Math.max(count, previousCount * 2));
+        for (int index = previousCount; index < grown.length; ++index) {
+            grown[index] = new Block(level, strategy);
+        }
+        blocks = grown;
+    }
+
+    //Only touched by one worker at a time, and read once its result is done
+    private static final class Block {
+
+        private final Deflater deflater;
+        private byte[] output = new byte[64 * 1024];
+        private int length;
+        private Future<?> result;
+
+        private Block(int level, int strategy) {
+            deflater = new Deflater(level, true); //raw deflate, the zlib header is written separately
+            deflater.setStrategy(strategy);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package Client;
+
+import static Client.Network.IMAGE_BUFFER_SIZE;
+import static Client.Network.PNG;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.GradientPaint;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+//Compares PngEncoder against ImageIO.write on a desktop-like 1920x1080 image, and checks
+//that ImageIO.read decodes every PngEncoder output to the exact same pixels.
+//Run with: java -cp ParentMonitorClient.jar Client.PngBenchmark [frames]
+public final class PngBenchmark {
+
+    private PngBenchmark() {
+
+    }
+
+    public static void main(String[] args) throws IOException {
+        ImageIO.setUseCache(false);
+        final int frames = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        final BufferedImage desktop = createDesktop(1920, 1080);
+        final ByteArrayOutputStream output = new ByteArrayOutputStream(IMAGE_BUFFER_SIZE);
+
+        final double baseline = measure("ImageIO.write", desktop, output, frames, null);
+
+        for (PngEncoder encoder : new PngEncoder[]{
+            new PngEncoder(1, PngEncoder.Filter.NONE),
+            new PngEncoder(1, PngEncoder.Filter.SUB),
+            new PngEncoder(1, PngEncoder.Filter.UP),
+            new PngEncoder(3, PngEncoder.Filter.UP),
+            new PngEncoder(3, PngEncoder.Filter.UP, 2),
+            new PngEncoder(3, PngEncoder.Filter.UP, Runtime.getRuntime().availableProcessors()),
+            new PngEncoder(4, PngEncoder.Filter.ADAPTIVE),
+            new PngEncoder(6, PngEncoder.Filter.PAETH)}) {
+            final double time = measure("PngEncoder " + encoder, desktop, output, frames, encoder);
+            if (!matches(desktop, ImageIO.read(new ByteArrayInputStream(output.toByteArray())))) {
+                System.out.println("  ERROR: decoded image differs from the original!");
+            }
+            System.out.println(String.format("  %.1fx faster than ImageIO.write", baseline / time));
+        }
+
+        //Lossy, so only the time and size are compared
+        final PngEncoder full = new PngEncoder(PngCodec.DEFAULT_LEVEL, PngCodec.DEFAULT_FILTER);
+        final double fullTime = measure("PngEncoder " + full, desktop, output, frames, full);
+        final int fullSize = output.size();
+        for (PngEncoder.ColorMode colorMode : new PngEncoder.ColorMode[]{PngEncoder.ColorMode.GRAY, PngEncoder.ColorMode.RGB565, PngEncoder.ColorMode.PALETTE}) {
+            final PngEncoder encoder = new PngEncoder(PngCodec.DEFAULT_LEVEL, PngCodec.DEFAULT_FILTER, 1, colorMode);
+            final double time = measure("PngEncoder " + encoder, desktop, output, frames, encoder);
+            if (ImageIO.read(new ByteArrayInputStream(output.toByteArray())) == null) {
+                System.out.println("  ERROR: could not decode the image!");
+            }
+            System.out.println(String.format("  %.1fx faster and %.0f%% of the size of full color", fullTime / time, 100.0 * output.size() / fullSize));
+        }
+    }
+
+    private static double measure(String name, BufferedImage image, ByteArrayOutputStream output, int frames, PngEncoder encoder) throws IOException {
+        //warm up the JIT before timing
+        for (int frame = 0; frame < 5; ++frame) {
+            output.reset();
+            encode(image, output, encoder);
+        }
+        final long start = System.nanoTime();
+        for (int frame = 0; frame < frames; ++frame) {
+            output.reset();
+            encode(image, output, encoder);
+        }
+        final double millis = (System.nanoTime() - start) / (frames * 1000000.0);
+        System.out.println(String.format("%-28s %7.1f ms/frame %9d bytes", name, millis, output.size()));
+        return millis;
+    }
+
+    private static void encode(BufferedImage image, ByteArrayOutputStream output, PngEncoder encoder) throws IOException {
+        if (encoder == null) {
+            ImageIO.write(image, PNG, output);
+        }
+        else {
+            encoder.encode(image, output);
+        }
+    }
+
+    private static boolean matches(BufferedImage expected, BufferedImage actual) {
+        if (actual == null || actual.getWidth() != expected.getWidth() || actual.getHeight() != expected.getHeight()) {
+            return false;
+        }
+        for (int y = 0; y < expected.getHeight(); ++y) {
+            for (int x = 0; x < expected.getWidth(); ++x) {
+                if ((expected.getRGB(x, y) & 0xFFFFFF) != (actual.getRGB(x, y) & 0xFFFFFF)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    //Windows, title bars, text and a photo-like region, roughly what a screen shot contains
+    static BufferedImage createDesktop(int width, int height) {
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        final Graphics2D graphics = image.createGraphics();
+        final Random random = new Random(42);
+        graphics.setPaint(new GradientPaint(0, 0, new Color(30, 60, 120), width, height, new Color(90, 140, 200)));
+        graphics.fillRect(0, 0, width, height);
+        graphics.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 13));
+        for (int window = 0; window < 4; ++window) {
+            final int left = 40 + window * 220;
+            final int top = 30 + window * 120;
+            final int windowWidth = width / 2;
+            final int windowHeight = height / 2;
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(left, top, windowWidth, windowHeight);
+            graphics.setColor(new Color(220, 220, 225));
+            graphics.fillRect(left, top, windowWidth, 28);
+            graphics.setColor(Color.BLACK);
+            for (int line = 0, y = top + 50; y < top + windowHeight - 10; ++line, y += 17) {
+                graphics.drawString("Line " + line + ": the quick brown fox jumps over the lazy dog " + random.nextInt(100000), left + 10, y);
+            }
+        }
+        //photo-like noise
+        for (int y = height - 300; y < height - 40; ++y) {
+            for (int x = width - 500; x < width - 40; ++x) {
+                image.setRGB(x, y, (x * 3 + random.nextInt(40)) << 16 | (y * 2 + random.nextInt(40)) << 8 | random.nextInt(256));
+            }
+        }
+        graphics.dispose();
+        return image;
+    }
+}
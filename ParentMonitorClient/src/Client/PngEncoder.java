@@ -0,0 +1,467 @@
+package Client;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+//Writes 24-bit RGB PNGs straight from the int pixels of a screen shot. Unlike ImageIO.write
+//there is no writer lookup, no per pixel color conversion, and the Deflater and every buffer
+//are reused from frame to frame. The output is a standard PNG that ImageIO.read accepts.
+//With more than one thread, the filtered rows are compressed in blocks by a ParallelDeflater
+//while the rows after them are still being filtered.
+//Colors may be reduced to grayscale, 16-bit RGB565 or an adaptive palette first, which leaves
+//fewer bytes to filter and compress.
+public final class PngEncoder {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final byte[] IHDR = {'I', 'H', 'D', 'R'};
+    private static final byte[] PLTE = {'P', 'L', 'T', 'E'};
+    private static final byte[] IDAT = {'I', 'D', 'A', 'T'};
+    private static final byte[] IEND = {'I', 'E', 'N', 'D'};
+
+    //Size of each IDAT chunk
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    //Smallest amount of filtered data compressed by one thread, as in pigz
+    private static final int PARALLEL_BLOCK_SIZE = 128 * 1024;
+
+    /**
+     * The scanline filters PNG supports, applied before compression. SUB and
+     * UP are the cheapest and work well on screen content, ADAPTIVE tries
+     * every filter on every row and keeps the one most likely to compress
+     * best, like ImageIO does.
+     */
+    public enum Filter {
+        NONE(0), SUB(1), UP(2), PAETH(4), ADAPTIVE(-1);
+
+        private final int type;
+
+        private Filter(int filterType) {
+            type = filterType;
+        }
+    }
+
+    /**
+     * How the colors of a screen shot are stored. RGB is lossless, GRAY keeps
+     * only the brightness, RGB565 keeps 5 bits of red and blue and 6 of green,
+     * and PALETTE up to 256 colors picked from recent screen shots. RGB565 is
+     * written as a 16-bit grayscale PNG holding the packed pixels, which only
+     * the server knows to unpack, so it is sent under its own codec
+     * identifier.
+     */
+    public enum ColorMode {
+        RGB(3, 2, 8), GRAY(1, 0, 8), RGB565(2, 0, 16), PALETTE(1, 3, 8);
+
+        private final int pixelSize; //bytes per pixel
+        private final int colorType;
+        private final int bitDepth;
+
+        private ColorMode(int bytesPerPixel, int pngColorType, int pngBitDepth) {
+            pixelSize = bytesPerPixel;
+            colorType = pngColorType;
+            bitDepth = pngBitDepth;
+        }
+    }
+
+    private final int level;
+    private final Filter filter;
+    private final ColorMode colorMode;
+    private final int pixelSize;
+    private final AdaptivePalette palette; //null unless the color mode is PALETTE
+
+    private final Deflater deflater;
+    private final ParallelDeflater parallelDeflater; //null when single threaded
+    private final CRC32 crc = new CRC32();
+
+    //Reused between frames, grown when the screen shot is wider than before
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private int chunkLength;
+    private int[] rowPixels = {};
+    private byte[] previousRow = {};
+    private byte[] currentRow = {};
+    private byte[][] filteredRows = new byte[5][0];
+    private byte[] filteredFrame = {}; //every filtered row, only used by the parallel deflater
+
+    public PngEncoder(int compressionLevel, Filter rowFilter) {
+        this(compressionLevel, rowFilter, 1);
+    }
+
+    public PngEncoder(int compressionLevel, Filter rowFilter, int threads) {
+        this(compressionLevel, rowFilter, threads, ColorMode.RGB);
+    }
+
+    public PngEncoder(int compressionLevel, Filter rowFilter, int threads, ColorMode mode) {
+        if (compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("PNG compression level must be between 0 and 9: " + compressionLevel);
+        }
+        if (rowFilter == null || mode == null) {
+            throw new NullPointerException();
+        }
+        level = compressionLevel;
+        filter = rowFilter;
+        colorMode = mode;
+        pixelSize = mode.pixelSize;
+        palette = mode == ColorMode.PALETTE ? new AdaptivePalette() : null;
+        deflater = new Deflater(compressionLevel);
+        //Filtered rows are mostly small values, which the FILTERED strategy is tuned for
+        final int strategy = rowFilter == Filter.NONE ? Deflater.DEFAULT_STRATEGY : Deflater.FILTERED;
+        deflater.setStrategy(strategy);
+        parallelDeflater = threads > 1 ? new ParallelDeflater(compressionLevel, strategy, threads) : null;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Changes the compression level used from the next image on, without
+     * changing {@link #getLevel()}.
+     *
+     * @param compressionLevel The new level, 0 to 9.
+     */
+    public void setDeflateLevel(int compressionLevel) {
+        deflater.setLevel(compressionLevel);
+        if (parallelDeflater != null) {
+            parallelDeflater.setLevel(compressionLevel);
+        }
+    }
+
+    public Filter getFilter() {
+        return filter;
+    }
+
+    public ColorMode getColorMode() {
+        return colorMode;
+    }
+
+    /**
+     * Encodes an image as a PNG.
+     *
+     * @param image The image, any type, but int RGB images are read fastest.
+     * @param output The buffer the PNG is appended to.
+     * @throws IOException If the parallel deflater failed or was interrupted.
+     */
+    public void encode(BufferedImage image, ByteArrayOutputStream output) throws IOException {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int rowLength = width * pixelSize + 1; //filter type byte first
+        final Deflater deflaterReference = deflater; //avoid getfield opcode
+        final ParallelDeflater parallelDeflaterReference = parallelDeflater; //avoid getfield opcode
+        final ColorMode colorModeReference = colorMode; //avoid getfield opcode
+        final AdaptivePalette paletteReference = palette; //avoid getfield opcode
+
+        ensureCapacity(width, rowLength);
+
+        //Small images are not worth splitting up
+        final boolean parallel = parallelDeflaterReference != null && (long) rowLength * height >= 2 * PARALLEL_BLOCK_SIZE;
+        byte[] frameData = filteredFrame;
+        if (parallel && frameData.length < rowLength * height) {
+            filteredFrame = frameData = new byte[rowLength * height];
+        }
+
+        output.write(SIGNATURE, 0, SIGNATURE.length);
+        {
+            final byte[] header = new byte[13];
+            putInt(header, 0, width);
+            putInt(header, 4, height);
+            header[8] = (byte) colorModeReference.bitDepth;
+            header[9] = (byte) colorModeReference.colorType;
+            //compression, filter and interlace methods are all 0
+            writeChunk(output, IHDR, header, 13);
+        }
+
+        //Screen shots from a Robot are read without copying, other images a row at a time
+        final int[] backing = TileTracker.getBackingPixels(image);
+        final WritableRaster raster = backing == null && image.getType() == BufferedImage.TYPE_INT_RGB ? image.getRaster() : null;
+        final int[] pixels = rowPixels;
+
+        if (paletteReference != null) {
+            //The palette is written before the pixels, so every 4th row is counted up front
+            for (int y = 0; y < height; y += 4) {
+                paletteReference.count(readRow(image, backing, raster, pixels, y), backing != null ? y * width : 0, width, y);
+            }
+            paletteReference.update();
+            final int size = paletteReference.size();
+            final byte[] entries = new byte[size * 3];
+            for (int index = 0, entry = 0; index < size; ++index) {
+                final int color = paletteReference.getColor(index);
+                entries[entry++] = (byte) (color >> 16);
+                entries[entry++] = (byte) (color >> 8);
+                entries[entry++] = (byte) color;
+            }
+            writeChunk(output, PLTE, entries, entries.length);
+        }
+
+        byte[] previous = previousRow;
+        byte[] current = currentRow;
+        Arrays.fill(previous, 0, rowLength, (byte) 0); //the row above the first row is all zero
+
+        deflaterReference.reset();
+        chunkLength = 0;
+        if (parallel) {
+            parallelDeflaterReference.reset();
+        }
+        int submitted = 0; //filtered bytes handed to the parallel deflater
+        int pending = 0; //filtered bytes waiting to be handed to the parallel deflater
+
+        for (int y = 0; y < height; ++y) {
+            final int[] source = readRow(image, backing, raster, pixels, y);
+            final int offset = backing != null ? y * width : 0;
+
+            //One loop per color mode, so the choice is not made for every pixel
+            switch (colorModeReference) {
+                case RGB: {
+                    for (int x = 0, index = 1; x < width; ++x) {
+                        final int pixel = source[offset + x];
+                        current[index++] = (byte) (pixel >> 16);
+                        current[index++] = (byte) (pixel >> 8);
+                        current[index++] = (byte) pixel;
+                    }
+                    break;
+                }
+                case GRAY: {
+                    for (int x = 0, index = 1; x < width; ++x) {
+                        final int pixel = source[offset + x];
+                        //ITU-R BT.601 luma in 8 bit fixed point
+                        current[index++] = (byte) ((77 * ((pixel >> 16) & 0xFF) + 150 * ((pixel >> 8) & 0xFF) + 29 * (pixel & 0xFF)) >> 8);
+                    }
+                    break;
+                }
+                case RGB565: {
+                    for (int x = 0, index = 1; x < width; ++x) {
+                        final int pixel = source[offset + x];
+                        current[index++] = (byte) (((pixel >> 16) & 0xF8) | ((pixel >> 13) & 0x07));
+                        current[index++] = (byte) (((pixel >> 5) & 0xE0) | ((pixel >> 3) & 0x1F));
+                    }
+                    break;
+                }
+                case PALETTE: {
+                    for (int x = 0, index = 1; x < width; ++x) {
+                        current[index++] = paletteReference.indexOf(source[offset + x]);
+                    }
+                    break;
+                }
+            }
+
+            final byte[] filtered = filterRow(current, previous, rowLength);
+            if (parallel) {
+                System.arraycopy(filtered, 0, frameData, submitted + pending, rowLength);
+                pending += rowLength;
+                if (pending >= PARALLEL_BLOCK_SIZE && y != height - 1) {
+                    parallelDeflaterReference.submit(frameData, submitted, pending, false);
+                    submitted += pending;
+                    pending = 0;
+                }
+            }
+            else {
+                deflaterReference.setInput(filtered, 0, rowLength);
+                drainDeflater(output);
+            }
+
+            //the current row becomes the previous row
+            final byte[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+
+        if (parallel) {
+            parallelDeflaterReference.submit(frameData, submitted, pending, true);
+            parallelDeflaterReference.finish();
+            //zlib header, the blocks in order, then the checksum, each as its own IDAT chunk
+            final byte[] header = ParallelDeflater.getHeader();
+            writeChunk(output, IDAT, header, header.length);
+            for (int index = 0, count = parallelDeflaterReference.getBlockCount(); index < count; ++index) {
+                writeChunk(output, IDAT, parallelDeflaterReference.getBlock(index), parallelDeflaterReference.getBlockLength(index));
+            }
+            final byte[] trailer = new byte[4];
+            putInt(trailer, 0, parallelDeflaterReference.getChecksum());
+            writeChunk(output, IDAT, trailer, 4);
+        }
+        else {
+            deflaterReference.finish();
+            while (!deflaterReference.finished()) {
+                fillChunk(output);
+            }
+            if (chunkLength != 0) {
+                writeChunk(output, IDAT, chunk, chunkLength);
+                chunkLength = 0;
+            }
+        }
+
+        writeChunk(output, IEND, chunk, 0);
+
+        previousRow = previous;
+        currentRow = current;
+    }
+
+    //Returns the pixels of a row, the backing array itself if there is one
+    private static int[] readRow(BufferedImage image, int[] backing, WritableRaster raster, int[] pixels, int y) {
+        if (backing != null) {
+            return backing;
+        }
+        final int width = image.getWidth();
+        if (raster != null) {
+            raster.getDataElements(0, y, width, 1, pixels);
+        }
+        else {
+            image.getRGB(0, y, width, 1, pixels, 0, width);
+        }
+        return pixels;
+    }
+
+    private void ensureCapacity(int width, int rowLength) {
+        if (rowPixels.length < width) {
+            rowPixels = new int[width];
+        }
+        if (currentRow.length < rowLength) {
+            previousRow = new byte[rowLength];
+            currentRow = new byte[rowLength];
+            final byte[][] rows = filteredRows;
+            for (int index = 0; index < rows.length; ++index) {
+                rows[index] = new byte[rowLength];
+            }
+        }
+    }
+
+    //Returns the row to compress, filter type byte included
+    private byte[] filterRow(byte[] current, byte[] previous, int rowLength) {
+        final Filter filterReference = filter;
+        if (filterReference != Filter.ADAPTIVE) {
+            if (filterReference == Filter.NONE) {
+                current[0] = 0;
+                return current;
+            }
+            final byte[] filtered = filteredRows[filterReference.type];
+            applyFilter(filterReference.type, current, previous, filtered, rowLength, pixelSize);
+            return filtered;
+        }
+
+        //Pick the filter whose output has the smallest sum of absolute values,
+        //the heuristic recommended by the PNG specification
+        current[0] = 0;
+        byte[] best = current;
+        long bestSum = sumOfAbsolutes(current, rowLength);
+        for (Filter candidate : new Filter[]{Filter.SUB, Filter.UP, Filter.PAETH}) {
+            final byte[] filtered = filteredRows[candidate.type];
+            applyFilter(candidate.type, current, previous, filtered, rowLength, pixelSize);
+            final long sum = sumOfAbsolutes(filtered, rowLength);
+            if (sum < bestSum) {
+                bestSum = sum;
+                best = filtered;
+            }
+        }
+        return best;
+    }
+
+    //Bytes are compared to the same byte of the pixel to the left, pixelSize bytes back
+    private static void applyFilter(int type, byte[] current, byte[] previous, byte[] filtered, int rowLength, int pixelSize) {
+        filtered[0] = (byte) type;
+        switch (type) {
+            case 1: { //SUB
+                for (int index = 1; index <= pixelSize; ++index) {
+                    filtered[index] = current[index];
+                }
+                for (int index = pixelSize + 1; index < rowLength; ++index) {
+                    filtered[index] = (byte) (current[index] - current[index - pixelSize]);
+                }
+                break;
+            }
+            case 2: { //UP
+                for (int index = 1; index < rowLength; ++index) {
+                    filtered[index] = (byte) (current[index] - previous[index]);
+                }
+                break;
+            }
+            case 4: { //PAETH
+                for (int index = 1; index <= pixelSize; ++index) {
+                    filtered[index] = (byte) (current[index] - previous[index]);
+                }
+                for (int index = pixelSize + 1; index < rowLength; ++index) {
+                    final int left = current[index - pixelSize] & 0xFF;
+                    final int above = previous[index] & 0xFF;
+                    final int upperLeft = previous[index - pixelSize] & 0xFF;
+                    final int estimate = left + above - upperLeft;
+                    final int leftDistance = Math.abs(estimate - left);
+                    final int aboveDistance = Math.abs(estimate - above);
+                    final int upperLeftDistance = Math.abs(estimate - upperLeft);
+                    final int predictor;
+                    if (leftDistance <= aboveDistance && leftDistance <= upperLeftDistance) {
+                        predictor = left;
+                    }
+                    else if (aboveDistance <= upperLeftDistance) {
+                        predictor = above;
+                    }
+                    else {
+                        predictor = upperLeft;
+                    }
+                    filtered[index] = (byte) (current[index] - predictor);
+                }
+                break;
+            }
+            default: {
+                throw new IllegalArgumentException("Unsupported filter: " + type);
+            }
+        }
+    }
+
+    private static long sumOfAbsolutes(byte[] row, int rowLength) {
+        long sum = 0;
+        for (int index = 1; index < rowLength; ++index) {
+            sum += Math.abs(row[index]);
+        }
+        return sum;
+    }
+
+    private void drainDeflater(ByteArrayOutputStream output) {
+        final Deflater deflaterReference = deflater;
+        while (!deflaterReference.needsInput()) {
+            fillChunk(output);
+        }
+    }
+
+    //Deflates into the chunk buffer, writing an IDAT chunk whenever it fills up
+    private void fillChunk(ByteArrayOutputStream output) {
+        final byte[] chunkReference = chunk;
+        int length = chunkLength;
+        length += deflater.deflate(chunkReference, length, CHUNK_SIZE - length);
+        if (length == CHUNK_SIZE) {
+            writeChunk(output, IDAT, chunkReference, length);
+            length = 0;
+        }
+        chunkLength = length;
+    }
+
+    private void writeChunk(ByteArrayOutputStream output, byte[] type, byte[] data, int length) {
+        final CRC32 crcReference = crc;
+        final byte[] number = new byte[4];
+        putInt(number, 0, length);
+        output.write(number, 0, 4);
+        output.write(type, 0, 4);
+        output.write(data, 0, length);
+        crcReference.reset();
+        crcReference.update(type, 0, 4);
+        crcReference.update(data, 0, length);
+        putInt(number, 0, (int) crcReference.getValue());
+        output.write(number, 0, 4);
+    }
+
+    private static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    public int getThreads() {
+        return parallelDeflater == null ? 1 : parallelDeflater.getThreads();
+    }
+
+    @Override
+    public String toString() {
+        return level + " " + filter + " " + getThreads() + (colorMode == ColorMode.RGB ? "" : " " + colorMode);
+    }
+}
@@ -0,0 +1,116 @@
+package Client;
+
+import static Client.Network.POINTER_SCALE;
+import java.awt.GraphicsEnvironment;
+import java.awt.MouseInfo;
+import java.awt.Point;
+import java.awt.PointerInfo;
+import java.awt.Rectangle;
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+//Robot screen shots do not show the mouse pointer, and arrive only a few times a second when
+//throttled, so the pointer is sampled on its own thread many times a second and reported to the
+//servers whenever it moves, as a POINTER packet of 5 bytes on their image sockets. The position is
+//a fraction of the captured area, so the server places it on the screen shot it shows without
+//knowing the client's screen.
+public final class PointerTracker implements Closeable {
+
+    /**
+     * Samples per second by default.
+     */
+    public static final int DEFAULT_RATE = 30;
+
+    /**
+     * The position reported while the pointer is outside the captured area,
+     * both coordinates 0xFFFF.
+     */
+    public static final int OFF = -1;
+
+    //Samples between reports of a pointer that has not moved, so a server that just connected learns where it is
+    private static final int REPEAT_SAMPLES = DEFAULT_RATE;
+
+    private final FramePipeline pipeline;
+    private final IntConsumer reporter;
+    private final long period; //milliseconds between samples
+
+    private volatile boolean running = true;
+    private Thread trackerThread;
+
+    /**
+     * @param framePipeline Tells the part of the screen that is captured.
+     * @param positionReporter Receives the position every time it changes,
+     * the distance from the left in the upper 16 bits and from the top in the
+     * lower 16 bits, as fractions of the captured area times POINTER_SCALE,
+     * or OFF when the pointer is outside of it.
+     * @param rate Samples per second, 1 to 1000.
+     */
+    public PointerTracker(FramePipeline framePipeline, IntConsumer positionReporter, int rate) {
+        if (rate < 1 || rate > 1000) {
+            throw new IllegalArgumentException("Pointer rate must be between 1 and 1000: " + rate);
+        }
+        pipeline = framePipeline;
+        reporter = positionReporter;
+        period = 1000 / rate;
+    }
+
+    public void start() {
+        if (GraphicsEnvironment.isHeadless()) {
+            return; //there is no pointer
+        }
+        Thread trackerThreadReference = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                track();
+            }
+        }, "Pointer Tracker Thread");
+        trackerThreadReference.setDaemon(true);
+        (trackerThread = trackerThreadReference).start();
+    }
+
+    private void track() {
+        final FramePipeline pipelineReference = pipeline; //avoid getfield opcode
+        final IntConsumer reporterReference = reporter; //avoid getfield opcode
+        int last = OFF;
+        try {
+            for (int unchanged = 0; running; ++unchanged) {
+                TimeUnit.MILLISECONDS.sleep(period);
+                final int position = locate(pipelineReference.getCaptureArea());
+                if (position != last || unchanged >= REPEAT_SAMPLES) {
+                    reporterReference.accept(position);
+                    last = position;
+                    unchanged = 0;
+                }
+            }
+        }
+        catch (InterruptedException ex) {
+            //closed
+        }
+    }
+
+    //The pointer's position as fractions of the area, the same way the server sends regions
+    private static int locate(Rectangle area) {
+        final PointerInfo info = MouseInfo.getPointerInfo(); //null when there is no mouse
+        if (info == null || area.isEmpty()) {
+            return OFF;
+        }
+        final Point location = info.getLocation();
+        if (!area.contains(location)) {
+            return OFF;
+        }
+        //The middle of the pixel, never quite 0 or POINTER_SCALE
+        final int x = (int) ((location.x - area.x + 0.5) * POINTER_SCALE / area.width);
+        final int y = (int) ((location.y - area.y + 0.5) * POINTER_SCALE / area.height);
+        return x << 16 | y;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        Thread trackerThreadReference = trackerThread;
+        if (trackerThreadReference != null) {
+            trackerThreadReference.interrupt();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package Client;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.imageio.ImageIO;
+
+//Plays back a recorded sequence of screen shots, the PNG files in a directory in the order of
+//their names, one per capture and starting over after the last. They are decoded up front, so
+//decoding does not count as capture time, which limits a sequence to what fits in memory.
+//The screen is as large as the first screen shot, the others are drawn at its origin.
+public final class ReplayCaptureSource implements CaptureSource {
+
+    private final BufferedImage[] frames;
+    private final Rectangle bounds;
+    private int next;
+
+    /**
+     * @param directory The directory holding the screen shots, such as
+     * "frame0001.png" and on.
+     * @throws IOException If there are no PNG files, or one could not be
+     * decoded.
+     */
+    public ReplayCaptureSource(File directory) throws IOException {
+        final File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().toLowerCase().endsWith(".png");
+            }
+        });
+        if (files == null || files.length == 0) {
+            throw new IOException("No PNG files to replay in " + directory);
+        }
+        Arrays.sort(files);
+        final List<BufferedImage> decoded = new ArrayList<>(files.length);
+        for (File file : files) {
+            final BufferedImage image = ImageIO.read(file);
+            if (image == null) {
+                throw new IOException("Failed to decode " + file);
+            }
+            decoded.add(toRgb(image));
+        }
+        frames = decoded.toArray(new BufferedImage[decoded.size()]);
+        bounds = new Rectangle(0, 0, frames[0].getWidth(), frames[0].getHeight());
+    }
+
+    //Screen shots are always TYPE_INT_RGB, a PNG decodes to whatever its color type is
+    private static BufferedImage toRgb(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_RGB) {
+            return image;
+        }
+        final BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        final Graphics2D graphics = converted.createGraphics();
+        graphics.drawImage(image, 0, 0, null);
+        graphics.dispose();
+        return converted;
+    }
+
+    /**
+     * @return The number of screen shots in the sequence.
+     */
+    public int getFrameCount() {
+        return frames.length;
+    }
+
+    @Override
+    public Rectangle getBounds() {
+        return new Rectangle(bounds);
+    }
+
+    @Override
+    public BufferedImage capture(Rectangle area) {
+        final BufferedImage[] framesReference = frames; //avoid getfield opcode
+        final BufferedImage frame = framesReference[next];
+        next = (next + 1) % framesReference.length;
+        return SyntheticCaptureSource.crop(frame, area);
+    }
+}
@@ -0,0 +1,32 @@
+package Client;
+
+import java.awt.Rectangle;
+import java.awt.Robot;
+import java.awt.image.BufferedImage;
+
+//The real screen, as captured by a robot. Safe to call from several threads, the robot takes one
+//screen shot at a time.
+public final class RobotCaptureSource implements CaptureSource {
+
+    private final Robot screenCapturer;
+    private final Rectangle bounds;
+
+    /**
+     * @param robot Takes the screen shots.
+     * @param screen The part of the screen that can be captured.
+     */
+    public RobotCaptureSource(Robot robot, Rectangle screen) {
+        screenCapturer = robot;
+        bounds = new Rectangle(screen);
+    }
+
+    @Override
+    public Rectangle getBounds() {
+        return new Rectangle(bounds);
+    }
+
+    @Override
+    public BufferedImage capture(Rectangle area) {
+        return screenCapturer.createScreenCapture(area);
+    }
+}
@@ -0,0 +1,393 @@
+package Client;
+
+import java.util.Arrays;
+
+//Finds content that moved up, down, left or right between two screen shots, as scrolling a page
+//or a terminal does. Scrolling changes nearly every tile, yet all but a strip of it is already on
+//the server, which can copy it into place instead of receiving it again.
+//Every row is hashed across the middle half of the screen and every column down the middle half,
+//each hash of the new screen shot is looked up among the hashes of the previous one, and every
+//match votes for the distance between the two lines. The distance most lines agree on is the shift.
+public final class ScrollDetector {
+
+    //64-bit FNV-1a, as in the TileTracker
+    private static final long HASH_OFFSET = 0xCBF29CE484222325L;
+    private static final long HASH_PRIME = 0x100000001B3L;
+
+    //Hash of a line of a single color, such lines match at any distance so they never vote
+    private static final long UNIFORM = 0;
+
+    //Lines that must agree on a shift, and the share of the changed lines they must make up
+    private static final int MINIMUM_VOTES = 16;
+    private static final double MINIMUM_SHARE = 0.5;
+
+    //Matched lines sampled when widening the copied area beyond the hashed middle half
+    private static final int EDGE_SAMPLES = 8;
+
+    //Positions in the table of line hashes that are not lines
+    private static final int EMPTY = -1;
+    private static final int DUPLICATE = -2;
+
+    //The previous screen shot, with the copy of the last shift found applied to it
+    private int[] previous = {};
+    private int width;
+    private int height;
+    private boolean valid;
+
+    private long[] previousRows = {};
+    private long[] previousColumns = {};
+    private long[] rows = {};
+    private long[] columns = {};
+    private boolean[] mixedColumns = {}; //columns with more than one color
+    private boolean hashed; //rows and columns hold the hashes of the screen shot last passed in
+
+    //Open addressing table from a line's hash in the previous screen shot to its position,
+    //or to DUPLICATE if several lines share the hash
+    private long[] lineHashes = {};
+    private int[] linePositions = {};
+
+    private int[] votes = {};
+    private final int[] samples = new int[EDGE_SAMPLES];
+
+    //The copy found by the last call to detect
+    private int sourceX;
+    private int sourceY;
+    private int destinationX;
+    private int destinationY;
+    private int copyWidth;
+    private int copyHeight;
+
+    /**
+     * Makes the next screen shot be compared with nothing, such as when the
+     * server may not hold what was last passed to remember.
+     */
+    public void invalidate() {
+        valid = false;
+    }
+
+    /**
+     * Looks for content of the previous screen shot that moved in the given
+     * one. If some did, the previous screen shot is changed as the server's
+     * frame will be once it copies the content into place, see
+     * getPrediction().
+     *
+     * @param pixels The pixels of the new screen shot, one int per pixel and
+     * row after row.
+     * @param imageWidth The width of the screen shot.
+     * @param imageHeight The height of the screen shot.
+     * @return True if content moved, the copy is described by the getters.
+     */
+    public boolean detect(int[] pixels, int imageWidth, int imageHeight) {
+        hash(pixels, imageWidth, imageHeight);
+        if (!valid || imageWidth != width || imageHeight != height) {
+            return false;
+        }
+        if (detect(pixels, rows, previousRows, imageHeight, imageWidth, true)) {
+            return true;
+        }
+        return detect(pixels, columns, previousColumns, imageWidth, imageHeight, false);
+    }
+
+    /**
+     * Remembers a screen shot as the one the next is compared with, once the
+     * server has been sent it.
+     *
+     * @param pixels The pixels of the screen shot, one int per pixel and row
+     * after row.
+     * @param imageWidth The width of the screen shot.
+     * @param imageHeight The height of the screen shot.
+     */
+    public void remember(int[] pixels, int imageWidth, int imageHeight) {
+        if (!hashed) {
+            hash(pixels, imageWidth, imageHeight);
+        }
+        hashed = false;
+        final int length = imageWidth * imageHeight;
+        if (previous.length != length) {
+            previous = new int[length];
+        }
+        System.arraycopy(pixels, 0, previous, 0, length);
+        width = imageWidth;
+        height = imageHeight;
+        valid = true;
+
+        long[] swap = previousRows;
+        previousRows = rows;
+        rows = swap;
+        swap = previousColumns;
+        previousColumns = columns;
+        columns = swap;
+    }
+
+    /**
+     * @param imageWidth The width of a screen shot.
+     * @param imageHeight The height of a screen shot.
+     * @return True if getPrediction() holds what the server's frame holds,
+     * as long as the server decodes losslessly, and a screen shot of this
+     * size can be compared with it.
+     */
+    public boolean hasPrediction(int imageWidth, int imageHeight) {
+        return valid && imageWidth == width && imageHeight == height;
+    }
+
+    /**
+     * @return The previous screen shot with the last copy found applied, as
+     * the server's frame will look once it has made the copy. Do not modify.
+     */
+    public int[] getPrediction() {
+        return previous;
+    }
+
+    public int getSourceX() {
+        return sourceX;
+    }
+
+    public int getSourceY() {
+        return sourceY;
+    }
+
+    public int getDestinationX() {
+        return destinationX;
+    }
+
+    public int getDestinationY() {
+        return destinationY;
+    }
+
+    public int getCopyWidth() {
+        return copyWidth;
+    }
+
+    public int getCopyHeight() {
+        return copyHeight;
+    }
+
+    //Hashes the middle half of every row and of every column, in a single pass over the rows
+    private void hash(int[] pixels, int imageWidth, int imageHeight) {
+        long[] rowHashes = rows;
+        long[] columnHashes = columns;
+        if (rowHashes.length != imageHeight) {
+            rows = rowHashes = new long[imageHeight];
+        }
+        if (columnHashes.length != imageWidth) {
+            columns = columnHashes = new long[imageWidth];
+        }
+        boolean[] mixed = mixedColumns;
+        if (mixed.length != imageWidth) {
+            mixedColumns = mixed = new boolean[imageWidth];
+        }
+        Arrays.fill(columnHashes, HASH_OFFSET);
+        Arrays.fill(mixed, false);
+
+        final int left = imageWidth / 4;
+        final int right = imageWidth - left;
+        final int top = imageHeight / 4;
+        final int bottom = imageHeight - top;
+        for (int y = 0; y < imageHeight; ++y) {
+            final int start = y * imageWidth;
+            final int first = pixels[start + left];
+            long hash = HASH_OFFSET;
+            boolean uniform = true;
+            for (int index = start + left, end = start + right; index < end; ++index) {
+                final int pixel = pixels[index];
+                hash = (hash ^ pixel) * HASH_PRIME;
+                uniform &= pixel == first;
+            }
+            rowHashes[y] = uniform ? UNIFORM : hash == UNIFORM ? 1 : hash;
+            if (y >= top && y < bottom) {
+                final int topStart = top * imageWidth;
+                for (int x = 0; x < imageWidth; ++x) {
+                    final int pixel = pixels[start + x];
+                    columnHashes[x] = (columnHashes[x] ^ pixel) * HASH_PRIME;
+                    mixed[x] |= pixel != pixels[topStart + x];
+                }
+            }
+        }
+        for (int x = 0; x < imageWidth; ++x) {
+            final long hash = columnHashes[x];
+            columnHashes[x] = !mixed[x] ? UNIFORM : hash == UNIFORM ? 1 : hash;
+        }
+        hashed = true;
+    }
+
+    /**
+     * Looks for a shift along one axis. Lines are rows for a vertical shift,
+     * and columns for a horizontal one.
+     *
+     * @param pixels The new screen shot.
+     * @param current The hashes of its lines.
+     * @param before The hashes of the lines of the previous screen shot.
+     * @param lineCount The number of lines.
+     * @param lineLength The number of pixels in a line.
+     * @param vertical True if lines are rows.
+     * @return True if a shift was found and applied to the prediction.
+     */
+    private boolean detect(int[] pixels, long[] current, long[] before, int lineCount, int lineLength, boolean vertical) {
+        index(before, lineCount);
+        final long[] keys = lineHashes; //avoid getfield opcode
+        final int[] positions = linePositions; //avoid getfield opcode
+        final int mask = keys.length - 1;
+
+        int[] voteCounts = votes;
+        if (voteCounts.length < 2 * lineCount) {
+            votes = voteCounts = new int[2 * lineCount];
+        }
+        Arrays.fill(voteCounts, 0, 2 * lineCount, 0);
+
+        //Shifts are counted from -lineCount, so they index the votes
+        int changed = 0;
+        for (int line = 0; line < lineCount; ++line) {
+            final long hash = current[line];
+            if (hash == UNIFORM || hash == before[line]) {
+                continue;
+            }
+            ++changed;
+            final int position = find(keys, positions, mask, hash);
+            if (position >= 0) {
+                ++voteCounts[line - position + lineCount];
+            }
+        }
+
+        int best = 0;
+        for (int shift = 1; shift < 2 * lineCount; ++shift) {
+            if (voteCounts[shift] > voteCounts[best]) {
+                best = shift;
+            }
+        }
+        final int votesFor = voteCounts[best];
+        if (votesFor < MINIMUM_VOTES || votesFor < MINIMUM_SHARE * changed) {
+            return false;
+        }
+        final int shift = best - lineCount;
+
+        //The copied lines run from the first line that matched to the last
+        int first = -1;
+        int last = -1;
+        int sampled = 0;
+        for (int line = Math.max(0, shift); line < Math.min(lineCount, lineCount + shift); ++line) {
+            final long hash = current[line];
+            if (hash != UNIFORM && hash == before[line - shift]) {
+                if (first < 0) {
+                    first = line;
+                }
+                last = line;
+            }
+        }
+        if (first < 0) {
+            return false;
+        }
+        //Spread the samples over the matched lines
+        final int[] sampleLines = samples; //avoid getfield opcode
+        for (int line = first, step = Math.max(1, (last - first) / EDGE_SAMPLES); line <= last && sampled < EDGE_SAMPLES; line += step) {
+            if (current[line] != UNIFORM && current[line] == before[line - shift]) {
+                sampleLines[sampled++] = line;
+            }
+        }
+
+        //Widen the copy along the lines for as long as every sampled line matches
+        final int[] reference = previous; //avoid getfield opcode
+        final int lineStride = vertical ? width : 1;
+        final int pixelStride = vertical ? 1 : width;
+        int start = lineLength / 4;
+        int end = lineLength - start;
+        while (start > 0 && matches(pixels, reference, sampleLines, sampled, shift, start - 1, lineStride, pixelStride)) {
+            --start;
+        }
+        while (end < lineLength && matches(pixels, reference, sampleLines, sampled, shift, end, lineStride, pixelStride)) {
+            ++end;
+        }
+
+        final int lines = last + 1 - first;
+        if (vertical) {
+            sourceX = destinationX = start;
+            sourceY = first - shift;
+            destinationY = first;
+            copyWidth = end - start;
+            copyHeight = lines;
+        }
+        else {
+            sourceY = destinationY = start;
+            sourceX = first - shift;
+            destinationX = first;
+            copyWidth = lines;
+            copyHeight = end - start;
+        }
+        applyCopy();
+        return true;
+    }
+
+    //Builds the table of the previous screen shot's line hashes
+    private void index(long[] before, int lineCount) {
+        int capacity = Integer.highestOneBit(Math.max(1, lineCount)) << 2;
+        long[] keys = lineHashes;
+        int[] positions = linePositions;
+        if (keys.length != capacity) {
+            lineHashes = keys = new long[capacity];
+            linePositions = positions = new int[capacity];
+        }
+        Arrays.fill(positions, EMPTY);
+        final int mask = capacity - 1;
+        for (int line = 0; line < lineCount; ++line) {
+            final long hash = before[line];
+            if (hash == UNIFORM) {
+                continue;
+            }
+            int slot = slot(hash, mask);
+            while (positions[slot] != EMPTY && keys[slot] != hash) {
+                slot = (slot + 1) & mask;
+            }
+            if (positions[slot] == EMPTY) {
+                keys[slot] = hash;
+                positions[slot] = line;
+            }
+            else {
+                positions[slot] = DUPLICATE; //repeated lines cannot tell how far they moved
+            }
+        }
+    }
+
+    private static int find(long[] keys, int[] positions, int mask, long hash) {
+        int slot = slot(hash, mask);
+        while (positions[slot] != EMPTY) {
+            if (keys[slot] == hash) {
+                return positions[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return EMPTY;
+    }
+
+    private static int slot(long hash, int mask) {
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    //True if the pixel at the given position along every sampled line equals the one it moved from
+    private static boolean matches(int[] pixels, int[] reference, int[] lines, int count, int shift, int position, int lineStride, int pixelStride) {
+        for (int index = 0; index < count; ++index) {
+            final int line = lines[index];
+            if (pixels[line * lineStride + position * pixelStride] != reference[(line - shift) * lineStride + position * pixelStride]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //Makes the copy in the previous screen shot, the way the server will make it in its frame
+    private void applyCopy() {
+        final int[] reference = previous; //avoid getfield opcode
+        final int stride = width;
+        final int copyWidthReference = copyWidth;
+        final int rowCount = copyHeight;
+        if (destinationY > sourceY) {
+            //Moving down, so the lowest rows are copied first and nothing is overwritten before it is read
+            for (int row = rowCount - 1; row >= 0; --row) {
+                System.arraycopy(reference, (sourceY + row) * stride + sourceX, reference, (destinationY + row) * stride + destinationX, copyWidthReference);
+            }
+        }
+        else {
+            for (int row = 0; row < rowCount; ++row) {
+                System.arraycopy(reference, (sourceY + row) * stride + sourceX, reference, (destinationY + row) * stride + destinationX, copyWidthReference);
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package Client;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+//Works on the horizontal stripes of a frame on several cores at once, the calling thread taking
+//the first stripe while the pool takes the others. Stripes take a few milliseconds, so waiting
+//for them is not interruptible, an interrupt is passed on once they are done.
+public final class StripeExecutor {
+
+    private final int threads;
+    private final ThreadPoolExecutor pool; //null when everything runs on the calling thread
+
+    /**
+     * @param name The name of the pool's threads, numbered from 1.
+     * @param threadCount The number of stripes worked on at once, the calling
+     * thread included.
+     */
+    public StripeExecutor(final String name, int threadCount) {
+        if (threadCount <= 0) {
+            throw new IllegalArgumentException("Thread count must be positive: " + threadCount);
+        }
+        threads = threadCount;
+        if (threadCount == 1) {
+            pool = null;
+            return;
+        }
+        //Idle threads exit on their own, so an executor that is no longer used leaves nothing behind
+        pool = new ThreadPoolExecutor(threadCount - 1, threadCount - 1, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private int count = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, name + " " + (++count));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return The number of stripes worked on at once.
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Works on every stripe and returns once all are done.
+     *
+     * @param stripes The number of stripes.
+     * @param task Called once with the index of every stripe, from 0, on
+     * several threads at once.
+     */
+    public void run(int stripes, final IntConsumer task) {
+        final ThreadPoolExecutor poolReference = pool; //avoid getfield opcode
+        if (poolReference == null || stripes <= 1) {
+            for (int stripe = 0; stripe < stripes; ++stripe) {
+                task.accept(stripe);
+            }
+            return;
+        }
+        final Future<?>[] results = new Future<?>[stripes - 1];
+        for (int stripe = 1; stripe < stripes; ++stripe) {
+            final int index = stripe;
+            results[stripe - 1] = poolReference.submit(new Runnable() {
+                @Override
+                public void run() {
+                    task.accept(index);
+                }
+            });
+        }
+        RuntimeException failure = null;
+        try {
+            task.accept(0);
+        }
+        catch (RuntimeException ex) {
+            failure = ex;
+        }
+        boolean interrupted = false;
+        for (Future<?> result : results) {
+            while (true) {
+                try {
+                    result.get();
+                    break;
+                }
+                catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+                catch (ExecutionException ex) {
+                    if (failure == null) {
+                        failure = ex.getCause() instanceof RuntimeException ? (RuntimeException) ex.getCause() : new IllegalStateException(ex.getCause());
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package Client;
+
+import static Client.Network.TILE_SIZE;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.function.IntConsumer;
+
+//Captures a large screen as horizontal stripes on several threads at once, each stripe by a source
+//of its own, such as a robot per stripe, since a robot takes one screen shot at a time. The stripes
+//are copied into one screen shot as they arrive, so the rest of the pipeline sees a single frame.
+//Stripes are a whole number of tiles high, so the tile tracker's stripes line up with them.
+//A small area, such as a region the server selected, is captured by the first source alone.
+//Whether this is faster depends on the platform: on X11 every robot's capture goes through one
+//lock, so stripes are taken one after another and only add round trips and a copy. Striping is
+//therefore off by default, compare "ROBOT 1" with "ROBOT <stripes>" in CaptureBenchmark first.
+public final class StripedCaptureSource implements CaptureSource {
+
+    /**
+     * Stripes captured at once by default, a single one, see --stripes.
+     */
+    public static final int DEFAULT_STRIPES = 1;
+
+    //Below this a stripe costs more to hand over than it saves
+    private static final int MINIMUM_STRIPE_HEIGHT = 4 * TILE_SIZE;
+
+    private final CaptureSource[] sources;
+    private final StripeExecutor executor;
+
+    /**
+     * @param stripeSources One source per stripe, capturing the same screen,
+     * the first one for the top stripe.
+     */
+    public StripedCaptureSource(CaptureSource... stripeSources) {
+        if (stripeSources.length == 0) {
+            throw new IllegalArgumentException("No capture sources");
+        }
+        sources = stripeSources.clone();
+        executor = new StripeExecutor("Striped Capture Thread", sources.length);
+    }
+
+    @Override
+    public Rectangle getBounds() {
+        return sources[0].getBounds();
+    }
+
+    @Override
+    public BufferedImage capture(final Rectangle area) {
+        final CaptureSource[] sourcesReference = sources; //avoid getfield opcode
+        final int stripes = Math.min(sourcesReference.length, area.height / MINIMUM_STRIPE_HEIGHT);
+        if (stripes <= 1) {
+            return sourcesReference[0].capture(area);
+        }
+        //Whole tiles, the last stripe takes what is left
+        final int stripeHeight = (area.height / stripes + TILE_SIZE - 1) / TILE_SIZE * TILE_SIZE;
+        final BufferedImage screenShot = new BufferedImage(area.width, area.height, BufferedImage.TYPE_INT_RGB);
+        final int[] pixels = TileTracker.getBackingPixels(screenShot);
+        executor.run(stripes, new IntConsumer() {
+            @Override
+            public void accept(int stripe) {
+                final int top = stripe * stripeHeight;
+                final int height = stripe == stripes - 1 ? area.height - top : stripeHeight;
+                if (height <= 0) {
+                    return;
+                }
+                final BufferedImage part = sourcesReference[stripe].capture(new Rectangle(area.x, area.y + top, area.width, height));
+                final int[] partPixels = TileTracker.getBackingPixels(part);
+                if (partPixels != null && part.getWidth() == area.width) {
+                    System.arraycopy(partPixels, 0, pixels, top * area.width, area.width * height);
+                }
+                else {
+                    //Stripes do not overlap, so drawing them at once is safe
+                    final Graphics2D graphics = screenShot.createGraphics();
+                    graphics.drawImage(part, 0, top, null);
+                    graphics.dispose();
+                }
+            }
+        });
+        return screenShot;
+    }
+}
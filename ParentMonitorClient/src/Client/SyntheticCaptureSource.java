@@ -0,0 +1,151 @@
+package Client;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Random;
+
+//A made up screen, drawn in memory, that changes the way a real one does for some kind of use:
+//a window of text scrolling up a line at a time, a video playing in a window, or a desktop where
+//nothing moves. The screen advances one step every time it is captured, and is the same on every
+//run, so the frames it produces can be compared across encoder changes.
+public final class SyntheticCaptureSource implements CaptureSource {
+
+    public enum Content {
+        /**
+         * Text scrolling up one line per screen shot.
+         */
+        TEXT,
+        /**
+         * A photo-like region that changes entirely with every screen shot.
+         */
+        VIDEO,
+        /**
+         * Windows and text that never change.
+         */
+        DESKTOP
+    }
+
+    private static final int LINE_HEIGHT = 17;
+
+    private final Content content;
+    private final int width;
+    private final int height;
+    private final BufferedImage screen;
+    private final int[] pixels; //of the screen
+    private final Rectangle window; //the text or video window
+    private final Font font = new Font(Font.MONOSPACED, Font.PLAIN, 13);
+    private long step;
+    private int noise = 42; //xorshift state
+
+    /**
+     * @param screenContent What the screen shows.
+     * @param screenWidth The width of the screen.
+     * @param screenHeight The height of the screen.
+     */
+    public SyntheticCaptureSource(Content screenContent, int screenWidth, int screenHeight) {
+        if (screenWidth < 64 || screenHeight < 64) {
+            throw new IllegalArgumentException("Invalid synthetic screen: " + screenWidth + "x" + screenHeight);
+        }
+        content = screenContent;
+        width = screenWidth;
+        height = screenHeight;
+        screen = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        pixels = ((DataBufferInt) screen.getRaster().getDataBuffer()).getData();
+        window = new Rectangle(width / 8, height / 8, width * 3 / 4, height * 3 / 4);
+        final Graphics2D graphics = screen.createGraphics();
+        graphics.drawImage(PngBenchmark.createDesktop(width, height), 0, 0, null); //what the window is drawn on
+        graphics.dispose();
+    }
+
+    @Override
+    public Rectangle getBounds() {
+        return new Rectangle(0, 0, width, height);
+    }
+
+    @Override
+    public BufferedImage capture(Rectangle area) {
+        switch (content) {
+            case TEXT: {
+                drawText();
+                break;
+            }
+            case VIDEO: {
+                drawVideo();
+                break;
+            }
+            default: {
+                break; //never changes
+            }
+        }
+        ++step;
+        return crop(screen, area);
+    }
+
+    //A terminal or web page scrolled by one line, every line is the same whenever it is shown
+    private void drawText() {
+        final Rectangle windowReference = window; //avoid getfield opcode
+        final Graphics2D graphics = screen.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(windowReference.x, windowReference.y, windowReference.width, windowReference.height);
+        graphics.setClip(windowReference);
+        graphics.setFont(font);
+        graphics.setColor(Color.BLACK);
+        final int lines = windowReference.height / LINE_HEIGHT;
+        for (int line = 0; line <= lines; ++line) {
+            final long number = step + line;
+            final Random random = new Random(number);
+            graphics.drawString(String.format("%06d %08x the quick brown fox jumps over the lazy dog %d", number, random.nextInt(), random.nextInt(100000)),
+                    windowReference.x + 8, windowReference.y + (line + 1) * LINE_HEIGHT - 4);
+        }
+        graphics.dispose();
+    }
+
+    //Smooth gradients drifting across the window with grain on top, so every pixel changes every frame
+    private void drawVideo() {
+        final Rectangle windowReference = window; //avoid getfield opcode
+        final int[] pixelsReference = pixels; //avoid getfield opcode
+        final int screenWidth = width;
+        final int shift = (int) (step * 3);
+        int state = noise;
+        for (int y = windowReference.y, bottom = y + windowReference.height; y < bottom; ++y) {
+            int index = y * screenWidth + windowReference.x;
+            for (int x = 0; x < windowReference.width; ++x) {
+                state ^= state << 13;
+                state ^= state >>> 17;
+                state ^= state << 5;
+                final int grain = state & 0x0F;
+                final int red = ((x + shift) >> 2) & 0xFF;
+                final int green = ((y + shift) >> 1) & 0xFF;
+                final int blue = ((x + y - shift) >> 3) & 0xFF;
+                pixelsReference[index++] = Math.min(255, red + grain) << 16 | Math.min(255, green + grain) << 8 | Math.min(255, blue + grain);
+            }
+        }
+        noise = state;
+    }
+
+    /**
+     * Copies part of an image the way a robot captures part of the screen.
+     *
+     * @param image A TYPE_INT_RGB image, at the origin of the screen.
+     * @param area The part to copy, whatever lies outside the image is black.
+     * @return The copy.
+     */
+    static BufferedImage crop(BufferedImage image, Rectangle area) {
+        final BufferedImage copy = new BufferedImage(area.width, area.height, BufferedImage.TYPE_INT_RGB);
+        final Rectangle inside = area.intersection(new Rectangle(0, 0, image.getWidth(), image.getHeight()));
+        if (inside.isEmpty()) {
+            return copy;
+        }
+        final int[] source = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        final int[] target = ((DataBufferInt) copy.getRaster().getDataBuffer()).getData();
+        final int sourceWidth = image.getWidth();
+        for (int y = inside.y, bottom = y + inside.height; y < bottom; ++y) {
+            System.arraycopy(source, y * sourceWidth + inside.x, target, (y - area.y) * area.width + inside.x - area.x, inside.width);
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,131 @@
+package Client;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//Which tiles the server holds in its tile cache, and in which slot, so a tile that reappears, as
+//when switching back to a window, is sent as a reference to its slot instead of as pixels.
+//Only the client decides which slot a tile goes into, evicting the least recently used one,
+//and tells the server with every tile it sends, so the server never has to run an LRU of its own.
+//Only content hashes are kept here, the pixels are kept by the server.
+public final class TileCache {
+
+    private final int capacity;
+
+    //Content hash to slot, least recently used first
+    private final LinkedHashMap<Long, Integer> slots;
+    private final long[] slotKeys;
+    private int used; //slots below this have been handed out
+    private final int[] free; //handed out slots whose tile was forgotten
+    private int freeCount;
+
+    //Slots stored into by the last frame, forgotten if that frame is taken back
+    private final int[] stored;
+    private int storedCount;
+
+    public TileCache(int slotCount) {
+        if (slotCount <= 0) {
+            throw new IllegalArgumentException("Tile cache size must be positive: " + slotCount);
+        }
+        capacity = slotCount;
+        slots = new LinkedHashMap<>(2 * slotCount, 0.75F, true);
+        slotKeys = new long[slotCount];
+        free = new int[slotCount];
+        stored = new int[slotCount];
+    }
+
+    /**
+     * Forgets every tile, when the server empties its cache.
+     */
+    public void clear() {
+        slots.clear();
+        used = 0;
+        freeCount = 0;
+        storedCount = 0;
+    }
+
+    /**
+     * Starts a new frame, see forgetStored().
+     */
+    public void beginFrame() {
+        storedCount = 0;
+    }
+
+    /**
+     * Fills the cache from a full frame, the way the server does once it has
+     * received it: the first tile in slot 0, the next in slot 1, until the
+     * cache is full.
+     *
+     * @param keys The content hash of every tile of the frame.
+     * @param count The number of tiles in the frame.
+     */
+    public void seed(long[] keys, int count) {
+        clear();
+        for (int tile = 0, end = Math.min(count, capacity); tile < end; ++tile) {
+            slots.put(keys[tile], tile);
+            slotKeys[tile] = keys[tile];
+        }
+        used = Math.min(count, capacity);
+    }
+
+    /**
+     * @param key The content hash of a tile.
+     * @return The slot the server holds the tile in, which becomes the most
+     * recently used, or -1 if it does not hold it.
+     */
+    public int find(long key) {
+        final Integer slot = slots.get(key);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * Picks the slot the server stores a tile in once it has received it,
+     * evicting the least recently used tile if the cache is full.
+     *
+     * @param key The content hash of the tile.
+     * @return The slot.
+     */
+    public int store(long key) {
+        final LinkedHashMap<Long, Integer> slotsReference = slots; //avoid getfield opcode
+        Integer existing = slotsReference.get(key);
+        if (existing != null) {
+            return existing; //the same tile twice in one frame, stored twice in one slot
+        }
+        int slot;
+        if (freeCount > 0) {
+            slot = free[--freeCount];
+        }
+        else if (used < capacity) {
+            slot = used++;
+        }
+        else {
+            final Iterator<Map.Entry<Long, Integer>> eldest = slotsReference.entrySet().iterator();
+            slot = eldest.next().getValue();
+            eldest.remove();
+        }
+        slotsReference.put(key, slot);
+        slotKeys[slot] = key;
+        stored[storedCount++ % capacity] = slot; //a frame storing more tiles than fit reuses its own slots
+        return slot;
+    }
+
+    /**
+     * Forgets the tiles stored by the last frame, because it was taken back
+     * and the server never stored them. Their slots are never referred to
+     * until they are stored again.
+     */
+    public void forgetStored() {
+        final LinkedHashMap<Long, Integer> slotsReference = slots; //avoid getfield opcode
+        for (int index = 0, count = Math.min(storedCount, capacity); index < count; ++index) {
+            final int slot = stored[index];
+            final Long key = slotKeys[slot];
+            final Integer holder = slotsReference.get(key);
+            if (holder != null && holder == slot) {
+                slotsReference.remove(key);
+                free[freeCount++] = slot;
+            }
+        }
+        storedCount = 0;
+    }
+}
@@ -0,0 +1,122 @@
+package Client;
+
+//Decides which tiles look like photos or video, which a lossy codec shrinks far more than a
+//lossless one, and which look like text and windows, which only stay readable when lossless.
+//Every decision is made from a quarter of the tile's pixels: how many colors it has, how many
+//neighboring pixels differ slightly, as in gradients and photos, or sharply, as at the edges of
+//glyphs, and how often the tile changed in recent frames, as video does.
+public final class TileClassifier {
+
+    //Every 2nd pixel of every 2nd row is looked at
+    private static final int SAMPLE_STEP = 2;
+
+    //Colors counted at most, a tile with this many is certainly not text
+    private static final int COLOR_LIMIT = 128;
+
+    //Photos have many colors and smooth transitions between them
+    private static final int PHOTO_COLORS = 64;
+    private static final int VIDEO_COLORS = 24; //video is forgiven fewer, it is gone in a moment anyway
+    private static final double PHOTO_GRADIENTS = 0.3;
+    private static final double TEXT_EDGES = 0.15;
+
+    //Summed channel differences of neighboring pixels, up to SLIGHT is a gradient and over SHARP an edge
+    private static final int SLIGHT_DIFFERENCE = 48;
+    private static final int SHARP_DIFFERENCE = 192;
+
+    //Weight of older frames in the change rate, and the rate at which a tile is treated as video
+    private static final float RATE_DECAY = 0.75F;
+    private static final float VIDEO_RATE = 0.6F;
+
+    private float[] changeRates = {};
+
+    //Open addressing set of the colors of one tile, a slot is empty unless its stamp is the current one
+    private final int[] colorTable = new int[2 * COLOR_LIMIT];
+    private final int[] colorStamps = new int[2 * COLOR_LIMIT];
+    private int stamp;
+
+    /**
+     * Records which tiles changed in the latest screen shot.
+     *
+     * @param tileCount The number of tiles in the screen shot, the rates are
+     * reset when this changes.
+     * @param tiles The changed tiles.
+     * @param count The number of valid entries in tiles.
+     */
+    public void recordChanges(int tileCount, int[] tiles, int count) {
+        float[] rates = changeRates;
+        if (rates.length != tileCount) {
+            changeRates = rates = new float[tileCount];
+        }
+        for (int tile = 0; tile < tileCount; ++tile) {
+            rates[tile] *= RATE_DECAY;
+        }
+        for (int index = 0; index < count; ++index) {
+            rates[tiles[index]] += 1 - RATE_DECAY;
+        }
+    }
+
+    /**
+     * @param pixels The pixels of the screen shot, one int per pixel.
+     * @param width The width of the screen shot.
+     * @param height The height of the screen shot.
+     * @param tileSize The width and height of a tile.
+     * @param tile The index of the tile, left to right and top to bottom.
+     * @return True if the tile should be encoded lossily.
+     */
+    public boolean isLossy(int[] pixels, int width, int height, int tileSize, int tile) {
+        final int[] table = colorTable; //avoid getfield opcode
+        final int[] stamps = colorStamps; //avoid getfield opcode
+        final int mask = table.length - 1;
+        final int current = ++stamp;
+
+        final int columns = (width + tileSize - 1) / tileSize;
+        final int left = (tile % columns) * tileSize;
+        final int top = (tile / columns) * tileSize;
+        final int right = Math.min(left + tileSize, width) - 1; //every sample has a right neighbor
+        final int bottom = Math.min(top + tileSize, height);
+
+        int colors = 0;
+        int pairs = 0;
+        int slight = 0;
+        int sharp = 0;
+        for (int y = top; y < bottom; y += SAMPLE_STEP) {
+            for (int index = y * width + left, end = y * width + right; index < end; index += SAMPLE_STEP) {
+                final int pixel = pixels[index] & 0xFFFFFF;
+                final int neighbor = pixels[index + 1] & 0xFFFFFF;
+                final int difference = Math.abs((pixel >> 16) - (neighbor >> 16))
+                        + Math.abs(((pixel >> 8) & 0xFF) - ((neighbor >> 8) & 0xFF))
+                        + Math.abs((pixel & 0xFF) - (neighbor & 0xFF));
+                ++pairs;
+                if (difference > SHARP_DIFFERENCE) {
+                    ++sharp;
+                }
+                else if (difference != 0 && difference <= SLIGHT_DIFFERENCE) {
+                    ++slight;
+                }
+                if (colors < COLOR_LIMIT) {
+                    int slot = (pixel * 0x9E3779B1) >>> 24 & mask;
+                    while (stamps[slot] == current && table[slot] != pixel) {
+                        slot = (slot + 1) & mask;
+                    }
+                    if (stamps[slot] != current) {
+                        stamps[slot] = current;
+                        table[slot] = pixel;
+                        ++colors;
+                    }
+                }
+            }
+        }
+        if (pairs == 0) {
+            return false; //a sliver of a tile at the edge of the screen
+        }
+
+        final double gradients = (double) slight / pairs;
+        final double edges = (double) sharp / pairs;
+        if (edges >= TEXT_EDGES) {
+            return false;
+        }
+        final float[] rates = changeRates;
+        final boolean video = tile < rates.length && rates[tile] >= VIDEO_RATE;
+        return gradients >= PHOTO_GRADIENTS && colors >= (video ? VIDEO_COLORS : PHOTO_COLORS);
+    }
+}
@@ -0,0 +1,407 @@
+package Client;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.function.IntConsumer;
+
+//Divides every screen shot into square tiles and remembers a fingerprint of each tile,
+//so that only the tiles that changed since the previous screen shot have to be sent.
+//Large screen shots are fingerprinted in horizontal bands of tile rows on several cores.
+public final class TileTracker {
+
+    //64-bit FNV-1a, cheap enough to run over every pixel of every frame
+    private static final long FINGERPRINT_OFFSET = 0xCBF29CE484222325L;
+    private static final long FINGERPRINT_PRIME = 0x100000001B3L;
+
+    //Tile rows fingerprinted by one thread at least, fewer are not worth handing over
+    private static final int MINIMUM_BAND_ROWS = 4;
+
+    private final int tileSize;
+    private final StripeExecutor executor;
+
+    //dimensions of the previous screen shot
+    private int width;
+    private int height;
+    private int columns;
+    private int rows;
+
+    private long[] fingerprints = {};
+    private long[] nextFingerprints = {}; //of the screen shot being compared
+    private boolean[] forced = {}; //tiles treated as changed by the next update, whatever their fingerprint
+    private int[] dirtyTiles = {};
+    private int dirtyCount;
+
+    private boolean invalidated = true;
+    private boolean fullFrame = true;
+
+    //pixels of the previous screen shot, and a copy buffer for images not backed by an int array
+    private int[] pixels;
+    private int[] scratch;
+
+    //Reused every frame, large enough to hold every tile of the screen
+    private BufferedImage atlas;
+    private int[] atlasPixels;
+
+    public TileTracker(int size) {
+        this(size, 1);
+    }
+
+    /**
+     * @param size The width and height of a tile.
+     * @param threads The number of bands of tile rows fingerprinted at once.
+     */
+    public TileTracker(int size, int threads) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Tile size must be positive: " + size);
+        }
+        tileSize = size;
+        executor = new StripeExecutor("Tile Tracker Thread", threads);
+    }
+
+    /**
+     * Compares the tiles of the given screen shot with the tiles of the
+     * previous one.
+     *
+     * @param screenShot The newly captured screen shot.
+     * @return The number of tiles that changed.
+     */
+    public int update(BufferedImage screenShot) {
+        final int imageWidth = screenShot.getWidth();
+        final int imageHeight = screenShot.getHeight();
+        final int size = tileSize;
+
+        boolean full = invalidated;
+        if (imageWidth != width || imageHeight != height) {
+            width = imageWidth;
+            height = imageHeight;
+            columns = (imageWidth + size - 1) / size;
+            rows = (imageHeight + size - 1) / size;
+            fingerprints = new long[columns * rows];
+            nextFingerprints = new long[columns * rows];
+            forced = new boolean[columns * rows];
+            dirtyTiles = new int[columns * rows];
+            atlas = null;
+            atlasPixels = null;
+            full = true;
+        }
+        invalidated = false;
+
+        int[] pixelData = getBackingPixels(screenShot);
+        if (pixelData == null) {
+            pixelData = scratch = copyPixels(screenShot, scratch);
+        }
+        pixels = pixelData;
+        final long[] fingerprintsReference = fingerprints; //avoid getfield opcode
+        final long[] next = nextFingerprints; //avoid getfield opcode
+        final boolean[] forcedReference = forced; //avoid getfield opcode
+        final int[] dirty = dirtyTiles; //avoid getfield opcode
+        final int rowCount = rows;
+
+        final int[] pixelsReference = pixelData;
+        final int bands = Math.max(1, Math.min(executor.getThreads(), rowCount / MINIMUM_BAND_ROWS));
+        final int bandRows = (rowCount + bands - 1) / bands;
+        executor.run(bands, new IntConsumer() {
+            @Override
+            public void accept(int band) {
+                fingerprintRows(pixelsReference, imageWidth, imageHeight, band * bandRows, Math.min(rowCount, (band + 1) * bandRows), next);
+            }
+        });
+
+        int count = 0;
+        for (int tile = 0, tileCount = next.length; tile < tileCount; ++tile) {
+            final long fingerprint = next[tile];
+            if (full || forcedReference[tile] || fingerprintsReference[tile] != fingerprint) {
+                fingerprintsReference[tile] = fingerprint;
+                forcedReference[tile] = false;
+                dirty[count++] = tile;
+            }
+        }
+
+        fullFrame = full || count == dirty.length;
+        return dirtyCount = count;
+    }
+
+    //Fingerprints every tile in a band of tile rows
+    private void fingerprintRows(int[] pixelData, int imageWidth, int imageHeight, int firstRow, int lastRow, long[] destination) {
+        final int size = tileSize;
+        final int columnCount = columns;
+        for (int row = firstRow; row < lastRow; ++row) {
+            final int top = row * size;
+            final int bottom = Math.min(top + size, imageHeight);
+            for (int column = 0, tile = row * columnCount; column < columnCount; ++column, ++tile) {
+                final int left = column * size;
+                destination[tile] = fingerprint(pixelData, imageWidth, left, top, Math.min(size, imageWidth - left), bottom);
+            }
+        }
+    }
+
+    /**
+     * Fingerprints some tiles again from other pixels than the last screen
+     * shot's, such as when the server is told to copy part of its frame
+     * elsewhere, so the next update only finds the tiles that still differ.
+     *
+     * @param reference The pixels the server's frame will hold, one int per
+     * pixel and row after row, as large as the last screen shot.
+     * @param left The left edge of the area that changed.
+     * @param top The top edge of the area that changed.
+     * @param areaWidth The width of the area that changed.
+     * @param areaHeight The height of the area that changed.
+     */
+    public void rebase(int[] reference, int left, int top, int areaWidth, int areaHeight) {
+        final long[] fingerprintsReference = fingerprints; //avoid getfield opcode
+        final int size = tileSize;
+        final int imageWidth = width;
+        final int columnCount = columns;
+        final int lastColumn = Math.min(columnCount, (left + areaWidth + size - 1) / size);
+        final int lastRow = Math.min(rows, (top + areaHeight + size - 1) / size);
+        for (int row = Math.max(0, top / size); row < lastRow; ++row) {
+            final int tileTop = row * size;
+            final int tileBottom = Math.min(tileTop + size, height);
+            for (int column = Math.max(0, left / size); column < lastColumn; ++column) {
+                final int tileLeft = column * size;
+                fingerprintsReference[row * columnCount + column] = fingerprint(reference, imageWidth, tileLeft, tileTop, Math.min(size, imageWidth - tileLeft), tileBottom);
+            }
+        }
+    }
+
+    private static long fingerprint(int[] pixelData, int imageWidth, int left, int top, int tileWidth, int bottom) {
+        long fingerprint = FINGERPRINT_OFFSET;
+        for (int y = top; y < bottom; ++y) {
+            for (int index = y * imageWidth + left, end = index + tileWidth; index < end; ++index) {
+                fingerprint = (fingerprint ^ pixelData[index]) * FINGERPRINT_PRIME;
+            }
+        }
+        return fingerprint;
+    }
+
+    /**
+     * @param imageWidth The width of a screen shot.
+     * @param imageHeight The height of a screen shot.
+     * @return True if the next update compares the tiles of a screen shot of
+     * this size with the previous ones, instead of treating every tile as
+     * changed.
+     */
+    public boolean isTracking(int imageWidth, int imageHeight) {
+        return !invalidated && imageWidth == width && imageHeight == height;
+    }
+
+    /**
+     * Forces the next screen shot to be treated as entirely changed.
+     */
+    public void invalidate() {
+        invalidated = true;
+    }
+
+    /**
+     * Forces tiles to be treated as changed by the next screen shot, such as
+     * when the frame that carried them was never sent.
+     *
+     * @param tiles The tile indices.
+     * @param count The number of valid entries in tiles.
+     */
+    public void markDirty(int[] tiles, int count) {
+        final boolean[] forcedReference = forced; //avoid getfield opcode
+        for (int index = 0; index < count; ++index) {
+            final int tile = tiles[index];
+            if (tile < forcedReference.length) {
+                forcedReference[tile] = true;
+            }
+        }
+    }
+
+    /**
+     * Drops the changed tiles after the given count, once the caller has
+     * moved the ones it still wants to the front of getDirtyTiles(), such as
+     * when the others are taken from the server's tile cache.
+     *
+     * @param count The number of changed tiles to keep.
+     */
+    public void setDirtyCount(int count) {
+        if (count < 0 || count > dirtyCount) {
+            throw new IllegalArgumentException("Invalid dirty tile count: " + count);
+        }
+        dirtyCount = count;
+    }
+
+    /**
+     * @param tile The index of a tile of the last screen shot.
+     * @return The fingerprint of its pixels.
+     */
+    public long getFingerprint(int tile) {
+        return fingerprints[tile];
+    }
+
+    /**
+     * @param tile The index of a tile of the last screen shot.
+     * @return The width times 65536 plus the height of the tile, smaller than
+     * the tile size at the right and bottom edges of the screen.
+     */
+    public int getTileShape(int tile) {
+        final int size = tileSize;
+        final int left = (tile % columns) * size;
+        final int top = (tile / columns) * size;
+        return (Math.min(size, width - left) << 16) | Math.min(size, height - top);
+    }
+
+    public boolean isFullFrame() {
+        return fullFrame;
+    }
+
+    public int getDirtyCount() {
+        return dirtyCount;
+    }
+
+    /**
+     * Indices of the changed tiles, counted left to right and top to bottom.
+     * Only the first {@link #getDirtyCount()} entries are valid.
+     *
+     * @return The changed tiles, do not modify.
+     */
+    public int[] getDirtyTiles() {
+        return dirtyTiles;
+    }
+
+    /**
+     * @return The number of tiles in the last screen shot.
+     */
+    public int getTileCount() {
+        return columns * rows;
+    }
+
+    /**
+     * @return The pixels of the last screen shot, one int per pixel and row
+     * after row, valid until the next update. Do not modify.
+     */
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    /**
+     * Packs every changed tile of the last screen shot into one image, in the
+     * order of {@link #getDirtyTiles()}. The image returned is reused by the
+     * next call.
+     *
+     * @return The packed tiles, or null when no tiles changed.
+     */
+    public BufferedImage getAtlas() {
+        return getAtlas(dirtyTiles, dirtyCount);
+    }
+
+    /**
+     * Packs some tiles of the last screen shot into one image, in the given
+     * order. The image returned is reused by the next call.
+     *
+     * @param tiles The tile indices.
+     * @param count The number of valid entries in tiles.
+     * @return The packed tiles, or null when count is 0.
+     */
+    public BufferedImage getAtlas(int[] tiles, int count) {
+        return pack(tiles, count, null);
+    }
+
+    /**
+     * Packs every changed tile of the last screen shot into one image as
+     * getAtlas() does, with every pixel XORed with the same pixel of another
+     * image, so pixels both share become 0. The image returned is reused by
+     * the next call.
+     *
+     * @param reference The pixels to XOR with, one int per pixel and row
+     * after row, as large as the last screen shot.
+     * @return The packed tiles, or null when no tiles changed.
+     */
+    public BufferedImage getXorAtlas(int[] reference) {
+        return pack(dirtyTiles, dirtyCount, reference);
+    }
+
+    private BufferedImage pack(int[] tiles, int count, int[] reference) {
+        if (count == 0) {
+            return null;
+        }
+
+        final int size = tileSize;
+        final int columnCount = columns;
+        final int imageWidth = width;
+        final int imageHeight = height;
+
+        BufferedImage atlasReference = atlas;
+        if (atlasReference == null) {
+            atlas = atlasReference = new BufferedImage(columnCount * size, rows * size, BufferedImage.TYPE_INT_RGB);
+            atlasPixels = ((DataBufferInt) atlasReference.getRaster().getDataBuffer()).getData();
+        }
+
+        final int[] source = pixels;
+        final int[] destination = atlasPixels;
+        final int[] dirty = tiles;
+        final int atlasStride = atlasReference.getWidth();
+        final int atlasColumns = Math.min(count, columnCount);
+
+        for (int slot = 0; slot < count; ++slot) {
+            final int tile = dirty[slot];
+            final int left = (tile % columnCount) * size;
+            final int top = (tile / columnCount) * size;
+            final int tileWidth = Math.min(size, imageWidth - left);
+            final int tileHeight = Math.min(size, imageHeight - top);
+            final int slotLeft = (slot % atlasColumns) * size;
+            final int slotTop = (slot / atlasColumns) * size;
+            for (int y = 0; y < tileHeight; ++y) {
+                final int sourceIndex = (top + y) * imageWidth + left;
+                final int destinationIndex = (slotTop + y) * atlasStride + slotLeft;
+                if (reference == null) {
+                    System.arraycopy(source, sourceIndex, destination, destinationIndex, tileWidth);
+                }
+                else {
+                    for (int x = 0; x < tileWidth; ++x) {
+                        destination[destinationIndex + x] = source[sourceIndex + x] ^ reference[sourceIndex + x];
+                    }
+                }
+            }
+        }
+
+        return atlasReference.getSubimage(0, 0, atlasColumns * size, ((count + atlasColumns - 1) / atlasColumns) * size);
+    }
+
+    /**
+     * Retrieves the int array backing an image, one RGB pixel per int and row
+     * after row. Screen shots taken by a Robot are laid out this way, which
+     * lets them be read without copying.
+     *
+     * @param image The image to read.
+     * @return The pixels of the image, or null if the image is laid out
+     * differently.
+     */
+    public static int[] getBackingPixels(BufferedImage image) {
+        final int type = image.getType();
+        if (type != BufferedImage.TYPE_INT_RGB && type != BufferedImage.TYPE_INT_ARGB) {
+            return null;
+        }
+        final WritableRaster raster = image.getRaster();
+        final DataBuffer buffer = raster.getDataBuffer();
+        final SampleModel model = raster.getSampleModel();
+        if (buffer instanceof DataBufferInt && buffer.getOffset() == 0
+                && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+                && model instanceof SinglePixelPackedSampleModel
+                && ((SinglePixelPackedSampleModel) model).getScanlineStride() == image.getWidth()) {
+            return ((DataBufferInt) buffer).getData();
+        }
+        return null;
+    }
+
+    /**
+     * Copies the RGB pixels of an image, one int per pixel and row after row.
+     *
+     * @param image The image to read.
+     * @param destination An array to reuse if it is large enough, may be null.
+     * @return The copied pixels.
+     */
+    public static int[] copyPixels(BufferedImage image, int[] destination) {
+        final int imageWidth = image.getWidth();
+        final int imageHeight = image.getHeight();
+        final int length = imageWidth * imageHeight;
+        final int[] data = destination != null && destination.length >= length ? destination : new int[length];
+        return image.getRGB(0, 0, imageWidth, imageHeight, data, 0, imageWidth);
+    }
+}
@@ -0,0 +1,184 @@
+package Client;
+
+import static Client.Network.IMAGE_BUFFER_SIZE;
+import static Client.Network.POINTER;
+import Util.StreamCloser;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+//One server watching this client. Frames fanned out by the ViewerGroup are written to its image
+//socket by its own thread, from its own queue, so a slow server only ever holds up itself. The
+//mouse pointer's newest position is written ahead of the next frame, or on its own if none waits.
+//Everything but the queue, the pointer and the socket is guarded by the ViewerGroup it belongs to.
+public final class Viewer implements Closeable {
+
+    //Frames waiting to be written, a viewer that falls further behind misses frames
+    static final int QUEUE_SIZE = 2;
+
+    private final String name;
+    final String address; //of the server, its image socket must come from the same address
+    private final ArrayDeque<byte[]> queue = new ArrayDeque<>(QUEUE_SIZE); //guarded by itself
+    private int pointer = PointerTracker.OFF; //guarded by the queue, waiting to be written if pointerMoved
+    private boolean pointerMoved;
+
+    private volatile Socket connection;
+    private volatile DataOutputStream output;
+    private volatile boolean closed;
+    private final ConcurrentLinkedQueue<byte[]> histories = new ConcurrentLinkedQueue<>(); //one written ahead of each frame, see ViewerGroup.sendHistory()
+    private Thread senderThread;
+
+    volatile ViewerGroup group;
+
+    //Guarded by the group
+    int credits;
+    boolean needsKeyframe = true; //a delta frame is useless until a full frame has been sent
+    int viewportWidth;
+    int viewportHeight;
+    boolean smooth;
+    long missedFrames;
+
+    public Viewer(String viewerName, String serverAddress) {
+        name = viewerName;
+        address = serverAddress;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isAttached() {
+        return output != null && !closed;
+    }
+
+    /**
+     * Starts writing frames to the image socket the server connected with.
+     *
+     * @param imageConnection The image socket.
+     * @throws IOException If the socket's stream could not be opened.
+     */
+    void attach(Socket imageConnection) throws IOException {
+        final DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(imageConnection.getOutputStream(), IMAGE_BUFFER_SIZE));
+        connection = imageConnection;
+        output = stream;
+        (senderThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                send(stream);
+            }
+        }, name + " Image Sender Thread")).start();
+    }
+
+    //Called with the group's lock held
+    void enqueueHistory(byte[] history) {
+        histories.add(history);
+    }
+
+    /**
+     * @return True if history screen shots are waiting to be written.
+     */
+    public boolean hasPendingHistory() {
+        return !histories.isEmpty();
+    }
+
+    //Called with the group's lock held
+    boolean hasRoom() {
+        synchronized (queue) {
+            return queue.size() < QUEUE_SIZE;
+        }
+    }
+
+    //Called with the group's lock held, after hasRoom()
+    void enqueue(byte[] frame) {
+        synchronized (queue) {
+            queue.add(frame);
+            queue.notifyAll();
+        }
+    }
+
+    //Called with the group's lock held, replaces a position not written yet
+    void movePointer(int position) {
+        synchronized (queue) {
+            pointer = position;
+            pointerMoved = true;
+            queue.notifyAll();
+        }
+    }
+
+    private void send(DataOutputStream stream) {
+        final ArrayDeque<byte[]> queueReference = queue; //avoid getfield opcode
+        try {
+            while (!closed) {
+                final byte[] frame;
+                final int position;
+                final boolean moved;
+                synchronized (queueReference) {
+                    while (queueReference.isEmpty() && !pointerMoved) {
+                        queueReference.wait();
+                    }
+                    frame = queueReference.poll();
+                    position = pointer;
+                    moved = pointerMoved;
+                    pointerMoved = false;
+                }
+                if (moved) {
+                    stream.writeByte(POINTER);
+                    stream.writeInt(position); //both shorts at once
+                }
+                if (frame != null) {
+                    byte[] pending = histories.poll();
+                    if (pending != null) {
+                        stream.write(pending);
+                    }
+                    stream.write(frame);
+                }
+                stream.flush();
+                ViewerGroup groupReference = group;
+                if (frame != null && groupReference != null) {
+                    groupReference.sent(this);
+                }
+            }
+        }
+        catch (InterruptedException ex) {
+            //closed
+        }
+        catch (IOException ex) {
+            System.out.println(name + " stopped receiving frames.");
+            ex.printStackTrace();
+        }
+        finally {
+            close();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        ViewerGroup groupReference = group;
+        if (groupReference != null) {
+            groupReference.remove(this);
+        }
+        Thread senderThreadReference = senderThread;
+        if (senderThreadReference != null && senderThreadReference != Thread.currentThread()) {
+            senderThreadReference.interrupt();
+        }
+        StreamCloser.close(output);
+        StreamCloser.close(connection);
+        synchronized (queue) {
+            queue.clear();
+        }
+        histories.clear();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
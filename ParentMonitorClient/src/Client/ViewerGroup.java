@@ -0,0 +1,233 @@
+package Client;
+
+import static Client.Network.FULL_FRAME;
+import static Client.Network.HEARTBEAT;
+import static Client.Network.MIXED_FULL_FRAME;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//Every server watching this client, each screen shot is captured and encoded once and the same
+//bytes are handed to every viewer that has a credit and room for it. A viewer that misses a frame,
+//because it is hidden or its link is slow, skips delta frames until the next full frame, which it
+//asks the encoder for. New viewers start out the same way, so each costs bandwidth, not encoding.
+public final class ViewerGroup {
+
+    //Viewers that fell behind may ask for a full frame this often, in milliseconds,
+    //so a viewer on a slow link cannot turn every frame into a full frame for everyone
+    private static final long KEYFRAME_INTERVAL = 1000;
+
+    private final FrameEncoder frameEncoder;
+    private final FrameScaler frameScaler;
+    private final List<Viewer> viewers = new ArrayList<>();
+
+    private int inFlight; //frames being captured or encoded, each will use up a credit once published
+    private long lastKeyframeRequest = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(KEYFRAME_INTERVAL);
+
+    public ViewerGroup(FrameEncoder encoder, FrameScaler scaler) {
+        frameEncoder = encoder;
+        frameScaler = scaler;
+    }
+
+    public synchronized void add(Viewer viewer) {
+        viewer.group = this;
+        viewers.add(viewer);
+        notifyAll();
+    }
+
+    public synchronized void remove(Viewer viewer) {
+        if (viewers.remove(viewer)) {
+            updateViewport();
+            notifyAll();
+        }
+    }
+
+    public synchronized int size() {
+        return viewers.size();
+    }
+
+    /**
+     * Finds the viewer that is waiting for an image socket from the given
+     * server, and starts sending frames to it.
+     *
+     * @param imageConnection The image socket a server connected with.
+     * @param address The address of the server.
+     * @return The viewer, or null if no viewer connected from the same
+     * address is waiting for an image socket.
+     * @throws IOException If the socket's stream could not be opened.
+     */
+    public synchronized Viewer attach(Socket imageConnection, String address) throws IOException {
+        for (Viewer viewer : viewers) {
+            if (!viewer.isAttached() && address.equals(viewer.address)) {
+                viewer.attach(imageConnection);
+                notifyAll();
+                return viewer;
+            }
+        }
+        return null;
+    }
+
+    public synchronized void grantCredits(Viewer viewer, int count) {
+        //a misbehaving server could otherwise overflow the credits
+        if (count > 0 && viewer.credits < Integer.MAX_VALUE / 2) {
+            viewer.credits += count;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Makes the next frame a full frame, and holds back delta frames from the
+     * viewer until then, such as when its server wants to start afresh.
+     */
+    public synchronized void requestKeyframe(Viewer viewer) {
+        viewer.needsKeyframe = true;
+        frameEncoder.requestKeyframe();
+    }
+
+    /**
+     * Sends screen shots of the client's history to a viewer, ahead of the
+     * next frame it is sent, or ahead of later frames if others are waiting
+     * already. They use up none of its credits.
+     *
+     * @param history The screen shots, as HISTORY_FRAMEs.
+     */
+    public synchronized void sendHistory(Viewer viewer, byte[] history) {
+        viewer.enqueueHistory(history);
+    }
+
+    /**
+     * Sends the position of the mouse pointer to every viewer whose server is
+     * reading frames, ahead of its next frame or on its own. Hidden viewers
+     * hold no credits and are skipped, so their unread sockets do not fill up.
+     *
+     * @param position The position, as reported by the PointerTracker.
+     */
+    public synchronized void movePointer(int position) {
+        for (Viewer viewer : viewers) {
+            if (viewer.isAttached() && viewer.credits > 0) {
+                viewer.movePointer(position);
+            }
+        }
+    }
+
+    /**
+     * Sets the size of the panel a viewer displays this client in. Screen
+     * shots are scaled to the largest panel, so no viewer gets less than it
+     * can show.
+     */
+    public synchronized void setViewport(Viewer viewer, int width, int height, boolean smooth) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid viewport: " + width + "x" + height);
+        }
+        viewer.viewportWidth = width;
+        viewer.viewportHeight = height;
+        viewer.smooth = smooth;
+        updateViewport();
+    }
+
+    private void updateViewport() {
+        int width = 0;
+        int height = 0;
+        boolean smooth = false;
+        for (Viewer viewer : viewers) {
+            width = Math.max(width, viewer.viewportWidth);
+            height = Math.max(height, viewer.viewportHeight);
+            smooth |= viewer.smooth;
+        }
+        if (width > 0 && height > 0) {
+            frameScaler.setTarget(width, height, smooth);
+        }
+    }
+
+    /**
+     * Blocks until a viewer can take another frame, and counts that frame as
+     * in flight until it is published or dropped.
+     *
+     * @throws InterruptedException If the thread was interrupted.
+     */
+    public synchronized void awaitDemand() throws InterruptedException {
+        while (!hasDemand()) {
+            wait();
+        }
+        ++inFlight;
+    }
+
+    /**
+     * Reports that a frame counted by awaitDemand() will never be published.
+     */
+    public synchronized void dropped() {
+        if (inFlight > 0) {
+            --inFlight;
+            notifyAll();
+        }
+    }
+
+    private boolean hasDemand() {
+        final int inFlightReference = inFlight; //avoid getfield opcode
+        for (Viewer viewer : viewers) {
+            //hidden viewers are never granted credits, so they do not count
+            if (viewer.isAttached() && viewer.credits > inFlightReference && viewer.hasRoom()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //Called by a viewer's thread once it has written a frame
+    synchronized void sent(Viewer viewer) {
+        notifyAll();
+    }
+
+    /**
+     * Hands an encoded frame to every viewer that can take it.
+     *
+     * @param header The frame's header, such as FULL_FRAME, DELTA_FRAME or
+     * HEARTBEAT.
+     * @param frame The encoded frame, header included. Not modified
+     * afterwards, it is shared by all viewers.
+     */
+    public synchronized void publish(byte header, byte[] frame) {
+        if (inFlight > 0) {
+            --inFlight;
+            notifyAll();
+        }
+        boolean behind = false;
+        for (Viewer viewer : viewers) {
+            if (!viewer.isAttached()) {
+                continue;
+            }
+            final boolean ready = viewer.credits > 0 && viewer.hasRoom();
+            if (header == HEARTBEAT) {
+                //Heartbeats carry nothing, a viewer missing one is still in step
+                if (ready) {
+                    --viewer.credits;
+                    viewer.enqueue(frame);
+                }
+            }
+            else if (ready && (!viewer.needsKeyframe || header == FULL_FRAME || header == MIXED_FULL_FRAME)) {
+                --viewer.credits;
+                viewer.needsKeyframe = false;
+                viewer.enqueue(frame);
+            }
+            else {
+                //Every delta frame after this one would be drawn on the wrong frame
+                viewer.needsKeyframe = true;
+                ++viewer.missedFrames;
+            }
+            //Only a viewer that can take the full frame is worth encoding one for
+            behind |= viewer.needsKeyframe && viewer.credits > 0;
+        }
+        final long now = System.nanoTime();
+        if (behind && now - lastKeyframeRequest >= TimeUnit.MILLISECONDS.toNanos(KEYFRAME_INTERVAL)) {
+            lastKeyframeRequest = now;
+            frameEncoder.requestKeyframe();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return viewers.toString();
+    }
+}
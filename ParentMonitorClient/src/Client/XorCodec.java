@@ -0,0 +1,61 @@
+package Client;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+//Video-like frames: a full keyframe every so many frames, and in between the changed tiles XORed
+//with what the server already shows there, so pixels that stayed the same become zeros. The
+//FrameEncoder does the XOR, this codec deflates the result, which shrinks runs of zeros to almost
+//nothing. Being lossless, the server's frame is known exactly, which the XOR depends on.
+public final class XorCodec implements FrameCodec {
+
+    /**
+     * Frames between keyframes by default, about ten seconds at full speed.
+     */
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 300;
+
+    private final DeflateCodec deflate;
+    private final int level;
+    private final int keyframeInterval;
+
+    /**
+     * @param compressionLevel The Deflater level, 0 to 9.
+     * @param interval Frames between keyframes, at least 1.
+     */
+    public XorCodec(int compressionLevel, int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Keyframe interval must be positive: " + interval);
+        }
+        deflate = new DeflateCodec(compressionLevel);
+        level = compressionLevel;
+        keyframeInterval = interval;
+    }
+
+    /**
+     * @return Frames sent at most between two keyframes, keyframe included.
+     */
+    public int getKeyframeInterval() {
+        return keyframeInterval;
+    }
+
+    @Override
+    public byte getId() {
+        return deflate.getId();
+    }
+
+    @Override
+    public void encode(BufferedImage image, ByteArrayOutputStream output) throws IOException {
+        deflate.encode(image, output);
+    }
+
+    @Override
+    public void setReducedEffort(boolean reduced) {
+        deflate.setReducedEffort(reduced);
+    }
+
+    @Override
+    public String toString() {
+        return "XOR " + level + " " + keyframeInterval;
+    }
+}
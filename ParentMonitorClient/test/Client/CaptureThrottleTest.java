@@ -0,0 +1,61 @@
+package Client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class CaptureThrottleTest {
+
+    @Test
+    public void startsWithTheDefaultLadder() {
+        assertEquals(CaptureThrottle.DEFAULT_LADDER, new CaptureThrottle().toString());
+    }
+
+    @Test
+    public void parsesLadders() {
+        CaptureThrottle throttle = new CaptureThrottle();
+        assertTrue(throttle.setLadder(" 250:0   1000:30 "));
+        assertEquals("250:0 1000:30", throttle.toString());
+        assertTrue(throttle.setLadder("0:0"));
+        assertEquals("0:0", throttle.toString());
+    }
+
+    @Test
+    public void keepsTheLadderWhenTheSettingIsInvalid() {
+        CaptureThrottle throttle = new CaptureThrottle();
+        assertTrue(throttle.setLadder("250:0 1000:30"));
+        assertFalse("first rung after 0 seconds", throttle.setLadder("100:5 1000:30"));
+        assertFalse("idle times increase", throttle.setLadder("0:0 100:30 1000:30"));
+        assertFalse("idle times increase", throttle.setLadder("0:0 100:30 1000:10"));
+        assertFalse("no negative intervals", throttle.setLadder("-1:0"));
+        assertFalse("interval and idle time", throttle.setLadder("0:0 100"));
+        assertFalse("interval and idle time", throttle.setLadder("0:0:0"));
+        assertFalse("numbers", throttle.setLadder("fast:0"));
+        assertFalse("numbers", throttle.setLadder(""));
+        assertEquals("250:0 1000:30", throttle.toString());
+    }
+
+    @Test
+    public void usesTheFirstRungWhileInUse() {
+        CaptureThrottle throttle = new CaptureThrottle();
+        assertTrue(throttle.setLadder("250:0 1000:30"));
+        throttle.recordFrame(true);
+        throttle.recordFrame(true);
+        assertEquals(250, throttle.getIdleInterval());
+    }
+
+    @Test
+    public void spacesCapturesByTheMinimumInterval() throws InterruptedException {
+        CaptureThrottle throttle = new CaptureThrottle();
+        assertTrue(throttle.setLadder("0:0"));
+        throttle.setMinimumInterval(200);
+        assertTrue(throttle.awaitCapture());
+        long start = System.nanoTime();
+        assertTrue(throttle.awaitCapture());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 150);
+        //Not part of the ladder
+        assertEquals(0, throttle.getIdleInterval());
+    }
+}
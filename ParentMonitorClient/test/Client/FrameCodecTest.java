@@ -0,0 +1,108 @@
+package Client;
+
+import static Client.Network.JPEG_CODEC;
+import static Client.Network.PNG_CODEC;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import javax.imageio.ImageIO;
+import org.junit.Test;
+
+//The settings the server sends, and the images the codecs they pick produce.
+public class FrameCodecTest {
+
+    @Test
+    public void parsesSettings() {
+        assertTrue(FrameCodec.fromSetting("PNG") instanceof PngCodec);
+        assertTrue(FrameCodec.fromSetting(" png 3 up 4 ") instanceof PngCodec);
+        assertTrue(FrameCodec.fromSetting("PNG 3 UP 4 GRAY") instanceof PngCodec);
+        assertTrue(FrameCodec.fromSetting("JPEG 0.6") instanceof JpegCodec);
+        assertTrue(FrameCodec.fromSetting("DEFLATE 1 STREAM") instanceof DeflateCodec);
+        assertEquals(PNG_CODEC, FrameCodec.fromSetting("PNG 9").getId());
+        assertEquals(JPEG_CODEC, FrameCodec.fromSetting("JPEG").getId());
+    }
+
+    @Test
+    public void rejectsInvalidSettings() {
+        assertNull(FrameCodec.fromSetting("GIF"));
+        assertNull(FrameCodec.fromSetting("PNG fast"));
+        assertNull(FrameCodec.fromSetting("PNG 3 SIDEWAYS"));
+        assertNull(FrameCodec.fromSetting("JPEG 1.5"));
+        assertNull(FrameCodec.fromSetting("JPEG high"));
+        assertNull(FrameCodec.fromSetting("DEFLATE 10"));
+    }
+
+    @Test
+    public void pngIsLossless() throws IOException {
+        BufferedImage image = FrameEncoderTest.pattern(150, 90, 3);
+        BufferedImage decoded = encodeAndRead(FrameCodec.fromSetting("PNG 3 UP 2"), image);
+        FrameEncoderTest.assertPixels(image, 0, 0, decoded, 0, 0, 150, 90);
+    }
+
+    @Test
+    public void jpegKeepsTheSize() throws IOException {
+        BufferedImage decoded = encodeAndRead(FrameCodec.fromSetting("JPEG 0.8"), FrameEncoderTest.pattern(150, 90, 3));
+        assertEquals(150, decoded.getWidth());
+        assertEquals(90, decoded.getHeight());
+    }
+
+    @Test
+    public void deflateIsLossless() throws IOException, DataFormatException {
+        BufferedImage image = FrameEncoderTest.pattern(150, 90, 3);
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        FrameCodec.fromSetting("DEFLATE 6").encode(image, encoded);
+        Inflater inflater = new Inflater();
+        assertInflates(image, 0, encoded, inflater);
+        assertTrue(inflater.finished());
+    }
+
+    @Test
+    public void streamedDeflateContinuesTheStream() throws IOException, DataFormatException {
+        FrameCodec codec = FrameCodec.fromSetting("DEFLATE 6 STREAM");
+        BufferedImage first = FrameEncoderTest.pattern(150, 90, 3);
+        BufferedImage second = FrameEncoderTest.pattern(150, 90, 4);
+        ByteArrayOutputStream firstEncoded = new ByteArrayOutputStream();
+        ByteArrayOutputStream secondEncoded = new ByteArrayOutputStream();
+        codec.encode(first, firstEncoded);
+        codec.encode(second, secondEncoded);
+        //A single Inflater, as the server keeps
+        Inflater inflater = new Inflater();
+        assertInflates(first, 2, firstEncoded, inflater);
+        assertInflates(second, 1, secondEncoded, inflater);
+        codec.resetContext();
+        ByteArrayOutputStream restarted = new ByteArrayOutputStream();
+        codec.encode(first, restarted);
+        assertInflates(first, 2, restarted, new Inflater());
+    }
+
+    //Checks the mode, size and pixels of a deflated image
+    private static void assertInflates(BufferedImage image, int mode, ByteArrayOutputStream encoded, Inflater inflater) throws IOException, DataFormatException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(encoded.toByteArray()));
+        assertEquals(mode, input.readUnsignedByte());
+        assertEquals(image.getWidth(), input.readInt());
+        assertEquals(image.getHeight(), input.readInt());
+        byte[] deflated = new byte[input.available()];
+        input.readFully(deflated);
+        inflater.setInput(deflated);
+        byte[] rgb = new byte[image.getWidth() * image.getHeight() * 3];
+        assertEquals(rgb.length, inflater.inflate(rgb));
+        for (int y = 0, index = 0; y < image.getHeight(); ++y) {
+            for (int x = 0; x < image.getWidth(); ++x, index += 3) {
+                assertEquals(image.getRGB(x, y) & 0xFFFFFF, (rgb[index] & 0xFF) << 16 | (rgb[index + 1] & 0xFF) << 8 | rgb[index + 2] & 0xFF);
+            }
+        }
+    }
+
+    private static BufferedImage encodeAndRead(FrameCodec codec, BufferedImage image) throws IOException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        codec.encode(image, encoded);
+        return ImageIO.read(new ByteArrayInputStream(encoded.toByteArray()));
+    }
+}
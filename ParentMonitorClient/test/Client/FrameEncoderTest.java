@@ -0,0 +1,294 @@
+package Client;
+
+import static Client.Network.COPY_RECT;
+import static Client.Network.DEFLATE_CODEC;
+import static Client.Network.DELTA_FRAME;
+import static Client.Network.FULL_FRAME;
+import static Client.Network.HEARTBEAT;
+import static Client.Network.MIXED_FULL_FRAME;
+import static Client.Network.PNG_CODEC;
+import static Client.Network.TILE_CACHE;
+import static Client.Network.TILE_SIZE;
+import static Client.Network.XOR_DELTA_FRAME;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import javax.imageio.ImageIO;
+import org.junit.Test;
+
+//Frames are read back as the server reads them, following the layout documented in Network.
+public class FrameEncoderTest {
+
+    //3 columns and 2 rows of tiles, the last column and row only partly covered
+    private static final int WIDTH = 2 * TILE_SIZE + 2;
+    private static final int HEIGHT = TILE_SIZE + 6;
+
+    @Test
+    public void writesOnlyTheChangedTiles() throws IOException {
+        FrameEncoder encoder = new FrameEncoder();
+        BufferedImage screen = pattern(WIDTH, HEIGHT, 0);
+        DataInputStream input = write(encoder, screen);
+        assertEquals(FULL_FRAME, input.readByte());
+        assertPixels(screen, 0, 0, readImage(input), 0, 0, WIDTH, HEIGHT);
+        assertEquals(0, input.available());
+
+        //Tiles 1 and 5 change
+        BufferedImage changed = pattern(WIDTH, HEIGHT, 0);
+        BufferedImage content = pattern(WIDTH, HEIGHT, 9);
+        changed.setRGB(TILE_SIZE, 0, TILE_SIZE, TILE_SIZE, content.getRGB(TILE_SIZE, 0, TILE_SIZE, TILE_SIZE, null, 0, TILE_SIZE), 0, TILE_SIZE);
+        changed.setRGB(2 * TILE_SIZE, TILE_SIZE, 2, 6, content.getRGB(2 * TILE_SIZE, TILE_SIZE, 2, 6, null, 0, 2), 0, 2);
+        input = writeChanges(encoder, changed);
+        assertEquals(TILE_CACHE, input.readByte());
+        assertEquals("tiles taken from the cache", 0, input.readInt());
+        assertEquals("tiles stored in the cache", 2, input.readInt());
+        assertEquals(1, input.readInt());
+        input.readInt();
+        assertEquals(5, input.readInt());
+        input.readInt();
+        assertEquals(DELTA_FRAME, input.readByte());
+        assertEquals(WIDTH, input.readInt());
+        assertEquals(HEIGHT, input.readInt());
+        assertEquals(2, input.readInt());
+        assertArrayEquals(new int[] {1, 5}, new int[] {input.readInt(), input.readInt()});
+        BufferedImage atlas = readImage(input);
+        assertPixels(changed, TILE_SIZE, 0, atlas, 0, 0, TILE_SIZE, TILE_SIZE);
+        assertPixels(changed, 2 * TILE_SIZE, TILE_SIZE, atlas, TILE_SIZE, 0, 2, 6);
+        assertEquals(0, input.available());
+    }
+
+    @Test
+    public void writesHeartbeatsWhileNothingChanges() throws IOException {
+        FrameEncoder encoder = new FrameEncoder();
+        BufferedImage screen = pattern(WIDTH, HEIGHT, 0);
+        write(encoder, screen);
+        for (int frame = 0; frame < 10; ++frame) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            assertFalse(encoder.writeFrame(pattern(WIDTH, HEIGHT, 0), new DataOutputStream(bytes)));
+            assertArrayEquals(new byte[] {HEARTBEAT}, bytes.toByteArray());
+        }
+    }
+
+    @Test
+    public void refersToTilesTheServerCached() throws IOException {
+        FrameEncoder encoder = new FrameEncoder();
+        BufferedImage first = pattern(WIDTH, HEIGHT, 0);
+        //Tiles 0 and 1 change
+        BufferedImage second = pattern(WIDTH, HEIGHT, 0);
+        second.setRGB(0, 0, 2 * TILE_SIZE, TILE_SIZE, pattern(WIDTH, HEIGHT, 1).getRGB(0, 0, 2 * TILE_SIZE, TILE_SIZE, null, 0, 2 * TILE_SIZE), 0, 2 * TILE_SIZE);
+        write(encoder, first);
+        DataInputStream input = writeChanges(encoder, second);
+        assertEquals(TILE_CACHE, input.readByte());
+        assertEquals(0, input.readInt());
+        assertEquals(2, input.readInt());
+        int[] slots = new int[2];
+        for (int index = 0; index < 2; ++index) {
+            assertEquals(index, input.readInt());
+            slots[index] = input.readInt();
+            assertTrue("not the slots of the full frame's tiles", slots[index] >= 6);
+        }
+
+        //Back to the first screen, whose tiles are still cached where the full frame put them
+        input = writeChanges(encoder, first);
+        assertEquals(TILE_CACHE, input.readByte());
+        assertEquals(2, input.readInt());
+        for (int index = 0; index < 2; ++index) {
+            assertEquals(index, input.readInt());
+            assertEquals(index, input.readInt());
+        }
+        assertEquals(0, input.readInt());
+        assertEquals(HEARTBEAT, input.readByte());
+        assertEquals(0, input.available());
+
+        //And back again, to the slots picked for the second screen
+        input = writeChanges(encoder, second);
+        assertEquals(TILE_CACHE, input.readByte());
+        assertEquals(2, input.readInt());
+        for (int index = 0; index < 2; ++index) {
+            assertEquals(index, input.readInt());
+            assertEquals(slots[index], input.readInt());
+        }
+    }
+
+    @Test
+    public void mixedFrameCarriesEveryTileOnce() throws IOException {
+        //Both groups lossless, so the frame can be compared exactly
+        FrameEncoder encoder = new FrameEncoder();
+        encoder.setCodec(new MixedCodec(new PngCodec(), new PngCodec()));
+        BufferedImage screen = pattern(WIDTH, HEIGHT, 2);
+        DataInputStream input = write(encoder, screen);
+        assertEquals(MIXED_FULL_FRAME, input.readByte());
+        assertEquals(WIDTH, input.readInt());
+        assertEquals(HEIGHT, input.readInt());
+        BufferedImage frame = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        boolean[] seen = new boolean[6];
+        for (int group = 0; group < 2; ++group) {
+            int count = input.readInt();
+            int[] tiles = new int[count];
+            for (int index = 0; index < count; ++index) {
+                tiles[index] = input.readInt();
+                assertFalse("tile " + tiles[index] + " sent twice", seen[tiles[index]]);
+                seen[tiles[index]] = true;
+            }
+            if (count != 0) {
+                drawTiles(frame, tiles, readImage(input));
+            }
+        }
+        assertEquals(0, input.available());
+        assertPixels(screen, 0, 0, frame, 0, 0, WIDTH, HEIGHT);
+    }
+
+    @Test
+    public void copiesContentThatScrolled() throws IOException {
+        FrameEncoder encoder = new FrameEncoder();
+        Random random = new Random(1);
+        int[] page = new int[320 * (240 + 17)];
+        for (int index = 0; index < page.length; ++index) {
+            page[index] = random.nextInt(0x1000000);
+        }
+        BufferedImage before = new BufferedImage(320, 240, BufferedImage.TYPE_INT_RGB);
+        before.setRGB(0, 0, 320, 240, page, 0, 320);
+        BufferedImage after = new BufferedImage(320, 240, BufferedImage.TYPE_INT_RGB);
+        after.setRGB(0, 0, 320, 240, page, 17 * 320, 320);
+        assertEquals(FULL_FRAME, write(encoder, before).readByte());
+
+        DataInputStream input = writeChanges(encoder, after);
+        assertEquals(COPY_RECT, input.readByte());
+        assertEquals(320, input.readInt());
+        assertEquals(240, input.readInt());
+        int sourceX = input.readInt();
+        int sourceY = input.readInt();
+        int copyWidth = input.readInt();
+        int copyHeight = input.readInt();
+        assertEquals(sourceX, input.readInt());
+        assertEquals(sourceY - 17, input.readInt());
+        assertTrue(sourceX >= 0 && copyWidth > 0 && sourceX + copyWidth <= 320);
+        assertTrue(sourceY >= 17 && copyHeight > 0 && sourceY + copyHeight <= 240);
+        //Then whatever the copy did not cover
+        assertEquals(TILE_CACHE, input.readByte());
+    }
+
+    @Test
+    public void xorFramesCarryTheDifferenceBetweenKeyframes() throws IOException, DataFormatException {
+        FrameEncoder encoder = new FrameEncoder();
+        encoder.setCodec(FrameCodec.fromSetting("XOR 1 2"));
+        BufferedImage before = pattern(WIDTH, HEIGHT, 0);
+        DataInputStream input = write(encoder, before);
+        assertEquals(FULL_FRAME, input.readByte());
+        assertPixels(before, 0, 0, readDeflated(input), 0, 0, WIDTH, HEIGHT);
+
+        //Tile 1 changes
+        BufferedImage after = pattern(WIDTH, HEIGHT, 0);
+        BufferedImage content = pattern(WIDTH, HEIGHT, 9);
+        after.setRGB(TILE_SIZE, 0, TILE_SIZE, TILE_SIZE, content.getRGB(TILE_SIZE, 0, TILE_SIZE, TILE_SIZE, null, 0, TILE_SIZE), 0, TILE_SIZE);
+        input = writeChanges(encoder, after);
+        assertEquals(TILE_CACHE, input.readByte());
+        assertEquals(0, input.readInt());
+        assertEquals(1, input.readInt());
+        assertEquals(1, input.readInt());
+        input.readInt();
+        assertEquals(XOR_DELTA_FRAME, input.readByte());
+        assertEquals(WIDTH, input.readInt());
+        assertEquals(HEIGHT, input.readInt());
+        assertEquals(1, input.readInt());
+        assertEquals(1, input.readInt());
+        BufferedImage atlas = readDeflated(input);
+        for (int y = 0; y < TILE_SIZE; ++y) {
+            for (int x = 0; x < TILE_SIZE; ++x) {
+                assertEquals((before.getRGB(TILE_SIZE + x, y) ^ after.getRGB(TILE_SIZE + x, y)) & 0xFFFFFF, atlas.getRGB(x, y) & 0xFFFFFF);
+            }
+        }
+
+        //Every second frame is a keyframe
+        assertEquals(FULL_FRAME, writeChanges(encoder, before).readByte());
+    }
+
+    //Inflates an image written by a DeflateCodec that does not stream
+    private static BufferedImage readDeflated(DataInputStream input) throws IOException, DataFormatException {
+        assertEquals(DEFLATE_CODEC, input.readByte());
+        int length = input.readInt();
+        assertEquals("independent", 0, input.readUnsignedByte());
+        int width = input.readInt();
+        int height = input.readInt();
+        byte[] deflated = new byte[length - 9];
+        input.readFully(deflated);
+        Inflater inflater = new Inflater();
+        inflater.setInput(deflated);
+        byte[] rgb = new byte[width * height * 3];
+        assertEquals(rgb.length, inflater.inflate(rgb));
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0, index = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x, index += 3) {
+                image.setRGB(x, y, (rgb[index] & 0xFF) << 16 | (rgb[index + 1] & 0xFF) << 8 | rgb[index + 2] & 0xFF);
+            }
+        }
+        return image;
+    }
+
+    //Draws tiles packed as the server unpacks them
+    private static void drawTiles(BufferedImage frame, int[] tiles, BufferedImage atlas) {
+        int columns = (frame.getWidth() + TILE_SIZE - 1) / TILE_SIZE;
+        int atlasColumns = Math.min(tiles.length, columns);
+        for (int slot = 0; slot < tiles.length; ++slot) {
+            int left = tiles[slot] % columns * TILE_SIZE;
+            int top = tiles[slot] / columns * TILE_SIZE;
+            int width = Math.min(TILE_SIZE, frame.getWidth() - left);
+            int height = Math.min(TILE_SIZE, frame.getHeight() - top);
+            int[] pixels = atlas.getRGB(slot % atlasColumns * TILE_SIZE, slot / atlasColumns * TILE_SIZE, width, height, null, 0, width);
+            frame.setRGB(left, top, width, height, pixels, 0, width);
+        }
+    }
+
+    private static DataInputStream write(FrameEncoder encoder, BufferedImage screenShot) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        assertTrue(encoder.writeFrame(screenShot, new DataOutputStream(bytes)));
+        return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    //The change probe samples the screen, so a few heartbeats may come before every tile is compared
+    private static DataInputStream writeChanges(FrameEncoder encoder, BufferedImage screenShot) throws IOException {
+        for (int frame = 0; frame < 10; ++frame) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            if (encoder.writeFrame(screenShot, new DataOutputStream(bytes))) {
+                return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+            }
+        }
+        throw new AssertionError("The change was never written");
+    }
+
+    private static BufferedImage readImage(DataInputStream input) throws IOException {
+        assertEquals(PNG_CODEC, input.readByte());
+        byte[] encoded = new byte[input.readInt()];
+        input.readFully(encoded);
+        return ImageIO.read(new ByteArrayInputStream(encoded));
+    }
+
+    //Pixels every tile of which differs from its neighbors
+    static BufferedImage pattern(int width, int height, int seed) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                image.setRGB(x, y, ((x * 7 + seed * 40) & 0xFF) << 16 | ((y * 5 + seed * 20) & 0xFF) << 8 | ((x ^ y) + seed) & 0xFF);
+            }
+        }
+        return image;
+    }
+
+    static void assertPixels(BufferedImage expected, int expectedX, int expectedY, BufferedImage actual, int actualX, int actualY, int width, int height) {
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                assertEquals("Pixel at " + (actualX + x) + "," + (actualY + y),
+                        expected.getRGB(expectedX + x, expectedY + y) & 0xFFFFFF, actual.getRGB(actualX + x, actualY + y) & 0xFFFFFF);
+            }
+        }
+    }
+}
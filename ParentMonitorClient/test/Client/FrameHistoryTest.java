@@ -0,0 +1,111 @@
+package Client;
+
+import static Client.Network.HISTORY_FRAME;
+import static Client.Network.JPEG_CODEC;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import java.awt.Rectangle;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import org.junit.Test;
+
+//Screen shots are stored directly, never recorded, so the ring buffer's contents are known exactly.
+public class FrameHistoryTest {
+
+    @Test
+    public void exportsNothingUntilAScreenShotIsKept() {
+        assertNull(history(60, 1000, 100).export());
+    }
+
+    @Test
+    public void wrapsAroundOverwritingTheOldest() throws IOException {
+        //Room for three screen shots of 30 bytes
+        FrameHistory history = history(60, 1000, 100);
+        for (int shot = 1; shot <= 3; ++shot) {
+            history.store(shot * 1000, screenShot(shot, 30));
+        }
+        assertExported(history, 1, 2, 3);
+        //Does not fit after the third, so it overwrites the first
+        history.store(4000, screenShot(4, 30));
+        assertExported(history, 2, 3, 4);
+        history.store(5000, screenShot(5, 30));
+        assertExported(history, 3, 4, 5);
+        //Fits neither after the fifth nor before the third, so every other one goes
+        history.store(6000, screenShot(6, 50));
+        assertExported(history, 6);
+        history.store(7000, screenShot(7, 50));
+        assertExported(history, 6, 7);
+    }
+
+    @Test
+    public void dropsScreenShotsOlderThanTheHistoryLasts() throws IOException {
+        FrameHistory history = history(10, 1000, 1000);
+        history.store(0, screenShot(1, 10));
+        history.store(5000, screenShot(2, 10));
+        history.store(12000, screenShot(3, 10));
+        assertExported(history, 2, 3);
+        //The newest is kept however old it gets
+        history.store(60000, screenShot(4, 10));
+        assertExported(history, 3, 4);
+    }
+
+    @Test
+    public void keepsNoMoreScreenShotsThanTheHistoryHoldsAtItsRate() throws IOException {
+        //10 seconds at one a second, and one more
+        FrameHistory history = history(10, 1000, 1000);
+        for (int shot = 1; shot <= 14; ++shot) {
+            history.store(shot, screenShot(shot, 10));
+        }
+        assertExported(history, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14);
+    }
+
+    @Test
+    public void skipsRepeatedAndOversizedScreenShots() throws IOException {
+        FrameHistory history = history(60, 1000, 100);
+        history.store(1000, screenShot(1, 30));
+        history.store(2000, screenShot(1, 30));
+        history.store(3000, screenShot(2, 101));
+        assertExported(history, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void needsRoomForScreenShots() {
+        history(60, 1000, 0);
+    }
+
+    private static FrameHistory history(int seconds, long interval, int capacity) {
+        return new FrameHistory(null, null, new Rectangle(0, 0, 100, 100), seconds, interval, capacity);
+    }
+
+    //Bytes standing in for a JPEG, all of them the screen shot's number
+    private static FrameHistory.ExposedByteArrayOutputStream screenShot(int shot, int length) {
+        FrameHistory.ExposedByteArrayOutputStream bytes = new FrameHistory.ExposedByteArrayOutputStream();
+        for (int index = 0; index < length; ++index) {
+            bytes.write(shot);
+        }
+        return bytes;
+    }
+
+    //Reads the export as the server does and checks it holds the given screen shots, oldest first
+    private static void assertExported(FrameHistory history, int... shots) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(history.export()));
+        int[] found = new int[shots.length];
+        for (int index = 0; index < shots.length; ++index) {
+            assertEquals(HISTORY_FRAME, input.readByte());
+            input.readLong();
+            assertEquals("still to follow", shots.length - index - 1, input.readInt());
+            assertEquals(JPEG_CODEC, input.readByte());
+            byte[] encoded = new byte[input.readInt()];
+            input.readFully(encoded);
+            found[index] = encoded[0];
+            byte[] expected = new byte[encoded.length];
+            Arrays.fill(expected, encoded[0]);
+            assertArrayEquals(expected, encoded);
+        }
+        assertEquals(0, input.available());
+        assertArrayEquals(shots, found);
+    }
+}
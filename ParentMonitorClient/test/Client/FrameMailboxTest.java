@@ -0,0 +1,72 @@
+package Client;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import Client.FramePipeline.EncodedFrame;
+import Client.FramePipeline.FrameMailbox;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+public class FrameMailboxTest {
+
+    @Test
+    public void newestFrameWinsWhileTheSenderIsBusy() throws InterruptedException {
+        FrameMailbox mailbox = new FrameMailbox();
+        EncodedFrame stale = new EncodedFrame();
+        EncodedFrame newest = new EncodedFrame();
+        assertNull(mailbox.takeBack());
+        mailbox.put(stale);
+        assertSame(stale, mailbox.takeBack());
+        assertNull(mailbox.takeBack());
+        mailbox.put(newest);
+        assertSame(newest, mailbox.take());
+        assertNull(mailbox.takeBack());
+    }
+
+    @Test(timeout = 10000)
+    public void neverTakesBackAFrameTheSenderWaitsFor() throws InterruptedException {
+        FrameMailbox mailbox = new FrameMailbox();
+        AtomicReference<EncodedFrame> received = new AtomicReference<>();
+        Thread sender = startTaking(mailbox, received);
+        EncodedFrame frame = new EncodedFrame();
+        mailbox.put(frame);
+        //Whether or not the sender woke up yet, the frame is its own
+        assertNull(mailbox.takeBack());
+        sender.join();
+        assertSame(frame, received.get());
+    }
+
+    @Test(timeout = 10000)
+    public void waitsForAClaimedFrameToBeTaken() throws InterruptedException {
+        FrameMailbox mailbox = new FrameMailbox();
+        AtomicReference<EncodedFrame> received = new AtomicReference<>();
+        Thread sender = startTaking(mailbox, received);
+        EncodedFrame claimed = new EncodedFrame();
+        EncodedFrame next = new EncodedFrame();
+        mailbox.put(claimed);
+        mailbox.put(next); //returns once the sender took the claimed frame
+        sender.join();
+        assertSame(claimed, received.get());
+        assertSame(next, mailbox.takeBack());
+    }
+
+    //A send stage waiting for a frame
+    private static Thread startTaking(final FrameMailbox mailbox, final AtomicReference<EncodedFrame> received) throws InterruptedException {
+        Thread sender = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    received.set(mailbox.take());
+                }
+                catch (InterruptedException ex) {
+                    //received stays null
+                }
+            }
+        });
+        sender.start();
+        while (sender.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        return sender;
+    }
+}
@@ -0,0 +1,200 @@
+package Client;
+
+import static Client.Network.HEARTBEAT;
+import static Client.Network.HISTORY_FRAME;
+import static Client.Network.JPEG_CODEC;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+//Screen shots 500 bytes long, every byte the screen shot's number, taken at that many seconds.
+public class FrameSpoolTest {
+
+    private static final int LENGTH = 500;
+    private static final int RECORD = 8 + 4 + LENGTH;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FrameSpool spool;
+    private boolean connected;
+
+    @After
+    public void close() {
+        if (spool != null) {
+            spool.close();
+        }
+    }
+
+    @Test
+    public void spoolsOnlyWhileNoServerIsConnectedAndAtItsInterval() throws IOException {
+        File file = folder.newFile("spool");
+        spool = spool(file, 2000, 1 << 20);
+        spool.offer(1000, screenShot(1));
+        assertEquals("too soon after the epoch", 0, file.length());
+        spool.offer(2000, screenShot(2));
+        spool.offer(3000, screenShot(3));
+        spool.offer(4000, screenShot(4));
+        connected = true;
+        spool.offer(6000, screenShot(6));
+        assertEquals(2 * RECORD, file.length());
+        assertRecords(file, 2, 4);
+    }
+
+    @Test
+    public void rotatesToKeepTheNewestScreenShots() throws IOException {
+        File file = folder.newFile("spool");
+        //Half of the cap holds one screen shot
+        spool = spool(file, 1000, 2 * RECORD + 100);
+        for (int shot = 1; shot <= 5; ++shot) {
+            spool.offer(shot * 1000, screenShot(shot));
+        }
+        assertRecords(new File(file.getPath() + ".old"), 4);
+        assertRecords(file, 5);
+    }
+
+    @Test
+    public void dropsFilesLeftToUploadWhenOverTheCap() throws IOException {
+        File file = folder.newFile("spool");
+        File upload = new File(file.getPath() + ".upload.0");
+        writeRecords(upload, 1, 2);
+        spool = spool(file, 1000, 3 * RECORD);
+        spool.offer(3000, screenShot(3));
+        assertTrue("still under the cap", upload.exists());
+        spool.offer(4000, screenShot(4));
+        assertFalse(upload.exists());
+        assertRecords(file, 4);
+    }
+
+    @Test
+    public void uploadsEveryWholeScreenShotOldestFirst() throws IOException, InterruptedException {
+        File file = folder.newFile("spool");
+        writeRecords(new File(file.getPath() + ".upload.1"), 1, 2);
+        //Ended by a corrupt record, as a crash might leave it
+        try (DataOutputStream output = new DataOutputStream(new FileOutputStream(file.getPath() + ".upload.1", true))) {
+            output.writeLong(3000);
+            output.writeInt(-1);
+            output.write(new byte[100]);
+        }
+        spool = spool(file, 1000, 1 << 20);
+        //Left over from a failed upload, so these wait for the next one
+        spool.offer(4000, screenShot(4));
+
+        ViewerGroup group = new ViewerGroup(new FrameEncoder(), new FrameScaler());
+        Viewer viewer = new Viewer("Test", "127.0.0.1");
+        group.add(viewer);
+        try (ServerSocket listener = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+                Socket server = new Socket(listener.getInetAddress(), listener.getLocalPort())) {
+            group.attach(listener.accept(), "127.0.0.1");
+            server.setSoTimeout(5000);
+            DataInputStream input = new DataInputStream(server.getInputStream());
+
+            spool.upload(group, viewer);
+            assertUploaded(group, viewer, input, 1, 2);
+            awaitDeleted(new File(file.getPath() + ".upload.1"));
+            spool.upload(group, viewer);
+            assertUploaded(group, viewer, input, 4);
+            awaitDeleted(new File(file.getPath() + ".upload.1"));
+        }
+        finally {
+            viewer.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void needsRoomForScreenShots() throws IOException {
+        spool(folder.newFile("spool"), 1000, 0);
+    }
+
+    private FrameSpool spool(File file, long interval, long capacity) {
+        return new FrameSpool(file, interval, capacity, new JpegCodec(0.5F), () -> !connected);
+    }
+
+    private static ByteArrayOutputStream screenShot(int shot) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int index = 0; index < LENGTH; ++index) {
+            bytes.write(shot);
+        }
+        return bytes;
+    }
+
+    //Writes records as the spool appends them
+    private static void writeRecords(File file, int... shots) throws IOException {
+        try (DataOutputStream output = new DataOutputStream(new FileOutputStream(file))) {
+            for (int shot : shots) {
+                output.writeLong(shot * 1000L);
+                output.writeInt(LENGTH);
+                screenShot(shot).writeTo(output);
+            }
+        }
+    }
+
+    private static void assertRecords(File file, int... shots) throws IOException {
+        try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+            for (int shot : shots) {
+                assertEquals(shot * 1000L, input.readLong());
+                assertScreenShot(shot, input);
+            }
+            assertEquals(-1, input.read());
+        }
+    }
+
+    private static void assertScreenShot(int shot, DataInputStream input) throws IOException {
+        byte[] encoded = new byte[input.readInt()];
+        input.readFully(encoded);
+        byte[] expected = new byte[LENGTH];
+        Arrays.fill(expected, (byte) shot);
+        assertArrayEquals(expected, encoded);
+    }
+
+    //Sends heartbeats until the history arrives ahead of one, then reads it as the server does
+    private static void assertUploaded(ViewerGroup group, Viewer viewer, DataInputStream input, int... shots) throws IOException, InterruptedException {
+        byte header = HEARTBEAT;
+        for (int attempt = 0; header == HEARTBEAT; ++attempt) {
+            if (attempt == 50) {
+                fail("Nothing uploaded");
+            }
+            Thread.sleep(100);
+            group.grantCredits(viewer, 1);
+            group.publish(HEARTBEAT, new byte[] {HEARTBEAT});
+            header = input.readByte();
+        }
+        for (int index = 0; index < shots.length; ++index) {
+            if (index > 0) {
+                header = input.readByte();
+            }
+            assertEquals(HISTORY_FRAME, header);
+            assertEquals(shots[index] * 1000L, input.readLong());
+            assertEquals("still to follow", shots.length - index - 1, input.readInt());
+            assertEquals(JPEG_CODEC, input.readByte());
+            assertScreenShot(shots[index], input);
+        }
+        assertEquals(HEARTBEAT, input.readByte());
+    }
+
+    private static void awaitDeleted(File file) throws InterruptedException {
+        for (int attempt = 0; file.exists(); ++attempt) {
+            if (attempt == 50) {
+                fail("Not deleted after the upload: " + file);
+            }
+            Thread.sleep(100);
+        }
+    }
+}
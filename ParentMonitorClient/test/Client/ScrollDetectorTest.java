@@ -0,0 +1,92 @@
+package Client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.util.Random;
+import org.junit.Test;
+
+public class ScrollDetectorTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    @Test
+    public void findsContentThatScrolledUp() {
+        int[] page = page(WIDTH, HEIGHT + 17, 1);
+        int[] before = crop(page, 0);
+        int[] after = crop(page, 17);
+        ScrollDetector detector = new ScrollDetector();
+        assertFalse("nothing to compare with yet", detector.detect(before, WIDTH, HEIGHT));
+        detector.remember(before, WIDTH, HEIGHT);
+        assertTrue(detector.detect(after, WIDTH, HEIGHT));
+        assertEquals(17, detector.getSourceY() - detector.getDestinationY());
+        assertEquals(detector.getSourceX(), detector.getDestinationX());
+        assertTrue(detector.getCopyHeight() >= HEIGHT / 2);
+        assertCopied(detector, after);
+    }
+
+    @Test
+    public void findsContentThatScrolledLeft() {
+        int[] before = page(WIDTH, HEIGHT, 2);
+        int[] after = new int[WIDTH * HEIGHT];
+        int[] uncovered = page(WIDTH, HEIGHT, 3);
+        for (int y = 0; y < HEIGHT; ++y) {
+            System.arraycopy(before, y * WIDTH + 40, after, y * WIDTH, WIDTH - 40);
+            System.arraycopy(uncovered, y * WIDTH, after, y * WIDTH + WIDTH - 40, 40);
+        }
+        ScrollDetector detector = new ScrollDetector();
+        detector.remember(before, WIDTH, HEIGHT);
+        assertTrue(detector.detect(after, WIDTH, HEIGHT));
+        assertEquals(40, detector.getSourceX() - detector.getDestinationX());
+        assertEquals(detector.getSourceY(), detector.getDestinationY());
+        assertCopied(detector, after);
+    }
+
+    @Test
+    public void ignoresScreensThatDidNotMove() {
+        ScrollDetector detector = new ScrollDetector();
+        detector.remember(page(WIDTH, HEIGHT, 4), WIDTH, HEIGHT);
+        assertFalse(detector.detect(page(WIDTH, HEIGHT, 5), WIDTH, HEIGHT));
+        detector.remember(page(WIDTH, HEIGHT, 5), WIDTH, HEIGHT);
+        assertFalse(detector.detect(page(WIDTH, HEIGHT, 5), WIDTH, HEIGHT));
+        assertFalse("other size", detector.detect(page(WIDTH, HEIGHT / 2, 5), WIDTH, HEIGHT / 2));
+    }
+
+    @Test
+    public void comparesWithNothingOnceInvalidated() {
+        int[] page = page(WIDTH, HEIGHT + 17, 6);
+        ScrollDetector detector = new ScrollDetector();
+        detector.remember(crop(page, 0), WIDTH, HEIGHT);
+        detector.invalidate();
+        assertFalse(detector.hasPrediction(WIDTH, HEIGHT));
+        assertFalse(detector.detect(crop(page, 17), WIDTH, HEIGHT));
+    }
+
+    //The prediction holds the new screen shot wherever the copy covers it
+    private static void assertCopied(ScrollDetector detector, int[] after) {
+        assertTrue(detector.hasPrediction(WIDTH, HEIGHT));
+        int[] prediction = detector.getPrediction();
+        for (int y = detector.getDestinationY(); y < detector.getDestinationY() + detector.getCopyHeight(); ++y) {
+            for (int x = detector.getDestinationX(); x < detector.getDestinationX() + detector.getCopyWidth(); ++x) {
+                assertEquals("Pixel at " + x + "," + y, after[y * WIDTH + x], prediction[y * WIDTH + x]);
+            }
+        }
+    }
+
+    //Rows and columns that are all different, like lines of text
+    private static int[] page(int width, int height, long seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[width * height];
+        for (int index = 0; index < pixels.length; ++index) {
+            pixels[index] = random.nextInt(0x1000000);
+        }
+        return pixels;
+    }
+
+    private static int[] crop(int[] page, int top) {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        System.arraycopy(page, top * WIDTH, pixels, 0, pixels.length);
+        return pixels;
+    }
+}
@@ -0,0 +1,67 @@
+package Client;
+
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class TileCacheTest {
+
+    @Test
+    public void seedsSlotsInTileOrder() {
+        TileCache cache = new TileCache(4);
+        cache.seed(new long[] {10, 11, 12, 13, 14, 15}, 6);
+        assertEquals(0, cache.find(10));
+        assertEquals(3, cache.find(13));
+        assertEquals("beyond the cache's size", -1, cache.find(14));
+    }
+
+    @Test
+    public void storesIntoFreeSlotsThenEvictsTheLeastRecentlyUsed() {
+        TileCache cache = new TileCache(3);
+        cache.seed(new long[] {10}, 1);
+        cache.beginFrame();
+        assertEquals(1, cache.store(11));
+        assertEquals(2, cache.store(12));
+        assertEquals("the same tile twice", 2, cache.store(12));
+        //10 was used most recently, so 11 goes
+        assertEquals(0, cache.find(10));
+        assertEquals(1, cache.store(13));
+        assertEquals(-1, cache.find(11));
+        assertEquals(2, cache.find(12));
+        assertEquals(1, cache.find(13));
+    }
+
+    @Test
+    public void forgetsTheTilesOfAFrameTakenBack() {
+        TileCache cache = new TileCache(4);
+        cache.seed(new long[] {10, 11}, 2);
+        cache.beginFrame();
+        assertEquals(2, cache.store(12));
+        assertEquals(3, cache.store(13));
+        cache.forgetStored();
+        assertEquals(-1, cache.find(12));
+        assertEquals(-1, cache.find(13));
+        assertEquals(0, cache.find(10));
+        //The forgotten slots are handed out again before anything is evicted
+        cache.beginFrame();
+        int first = cache.store(14);
+        int second = cache.store(15);
+        assertEquals(5, first + second);
+        assertEquals(0, cache.find(10));
+        assertEquals(1, cache.find(11));
+    }
+
+    @Test
+    public void clearForgetsEverything() {
+        TileCache cache = new TileCache(2);
+        cache.seed(new long[] {10, 11}, 2);
+        cache.clear();
+        assertEquals(-1, cache.find(10));
+        cache.beginFrame();
+        assertEquals(0, cache.store(12));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void needsAtLeastOneSlot() {
+        new TileCache(0);
+    }
+}
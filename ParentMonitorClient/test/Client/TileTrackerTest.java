@@ -0,0 +1,138 @@
+package Client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import org.junit.Test;
+
+//Tiles of 8 pixels over a screen of 20 by 20, three by three tiles with narrower ones at the edges.
+public class TileTrackerTest {
+
+    private static final int SIZE = 8;
+    private static final int WIDTH = 20;
+    private static final int HEIGHT = 20;
+
+    @Test
+    public void findsTheTilesThatChanged() {
+        TileTracker tracker = new TileTracker(SIZE);
+        BufferedImage screen = pattern(BufferedImage.TYPE_INT_RGB, WIDTH, HEIGHT);
+        assertEquals("every tile of the first screen shot", 9, tracker.update(screen));
+        assertTrue(tracker.isFullFrame());
+        assertEquals(0, tracker.update(screen));
+        assertFalse(tracker.isFullFrame());
+
+        screen.setRGB(17, 9, 0x123456);
+        screen.setRGB(0, 19, 0x123456);
+        assertEquals(2, tracker.update(screen));
+        assertDirty(tracker, 5, 6);
+        assertEquals((4 << 16) | 8, tracker.getTileShape(5));
+        assertEquals((8 << 16) | 4, tracker.getTileShape(6));
+    }
+
+    @Test
+    public void resendsTilesMarkedDirtyAndEverythingOnceInvalidated() {
+        TileTracker tracker = new TileTracker(SIZE);
+        BufferedImage screen = pattern(BufferedImage.TYPE_INT_RGB, WIDTH, HEIGHT);
+        tracker.update(screen);
+        tracker.markDirty(new int[] {1, 7, 100}, 2);
+        assertEquals(2, tracker.update(screen));
+        assertDirty(tracker, 1, 7);
+        assertEquals("only once", 0, tracker.update(screen));
+
+        tracker.invalidate();
+        assertFalse(tracker.isTracking(WIDTH, HEIGHT));
+        assertEquals(9, tracker.update(screen));
+        assertTrue(tracker.isTracking(WIDTH, HEIGHT));
+        assertEquals("a new size", 4, tracker.update(pattern(BufferedImage.TYPE_INT_RGB, 16, 16)));
+        assertTrue(tracker.isFullFrame());
+    }
+
+    @Test
+    public void findsTheSameTilesInBandsAndInImagesNotBackedByInts() {
+        //Enough tile rows for four bands
+        BufferedImage screen = pattern(BufferedImage.TYPE_INT_RGB, WIDTH, 16 * SIZE);
+        BufferedImage copy = pattern(BufferedImage.TYPE_3BYTE_BGR, WIDTH, 16 * SIZE);
+        TileTracker single = new TileTracker(SIZE);
+        TileTracker banded = new TileTracker(SIZE, 4);
+        TileTracker copied = new TileTracker(SIZE);
+        single.update(screen);
+        banded.update(screen);
+        copied.update(copy);
+        for (int y = 0; y < 16 * SIZE; y += 11) {
+            screen.setRGB(y % WIDTH, y, 0);
+            copy.setRGB(y % WIDTH, y, 0);
+        }
+        int count = single.update(screen);
+        assertEquals(count, banded.update(screen));
+        assertEquals(count, copied.update(copy));
+        int[] expected = Arrays.copyOf(single.getDirtyTiles(), count);
+        assertArrayEquals(expected, Arrays.copyOf(banded.getDirtyTiles(), count));
+        assertArrayEquals(expected, Arrays.copyOf(copied.getDirtyTiles(), count));
+        for (int tile = 0; tile < single.getTileCount(); ++tile) {
+            assertEquals(single.getFingerprint(tile), banded.getFingerprint(tile));
+        }
+    }
+
+    @Test
+    public void packsTilesIntoTheAtlasInOrder() {
+        TileTracker tracker = new TileTracker(SIZE);
+        BufferedImage screen = pattern(BufferedImage.TYPE_INT_RGB, WIDTH, HEIGHT);
+        tracker.update(screen);
+        assertNull(tracker.getAtlas(new int[0], 0));
+
+        //Two tiles side by side, the second one narrower than a tile
+        BufferedImage atlas = tracker.getAtlas(new int[] {4, 2}, 2);
+        assertEquals(2 * SIZE, atlas.getWidth());
+        assertEquals(SIZE, atlas.getHeight());
+        assertTile(screen, 4, atlas, 0, SIZE, SIZE);
+        assertTile(screen, 2, atlas, 1, 4, SIZE);
+
+        //Every tile, three to a row like the screen
+        atlas = tracker.getAtlas();
+        assertEquals(3 * SIZE, atlas.getWidth());
+        assertEquals(3 * SIZE, atlas.getHeight());
+        assertTile(screen, 8, atlas, 8, 4, 4);
+
+        int[] reference = new int[WIDTH * HEIGHT];
+        Arrays.fill(reference, 0xFFFFFF);
+        atlas = tracker.getXorAtlas(reference);
+        assertEquals(~screen.getRGB(19, 19) & 0xFFFFFF, atlas.getRGB(2 * SIZE + 3, 2 * SIZE + 3) & 0xFFFFFF);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void keepsTheChangedTilesItFound() {
+        TileTracker tracker = new TileTracker(SIZE);
+        tracker.update(pattern(BufferedImage.TYPE_INT_RGB, WIDTH, HEIGHT));
+        tracker.setDirtyCount(10);
+    }
+
+    //Pixels that differ from every other pixel of the image
+    private static BufferedImage pattern(int type, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                image.setRGB(x, y, (y << 12) | (x << 4) | 0x800000);
+            }
+        }
+        return image;
+    }
+
+    private static void assertDirty(TileTracker tracker, int... tiles) {
+        assertArrayEquals(tiles, Arrays.copyOf(tracker.getDirtyTiles(), tracker.getDirtyCount()));
+    }
+
+    private static void assertTile(BufferedImage screen, int tile, BufferedImage atlas, int slot, int tileWidth, int tileHeight) {
+        int atlasColumns = atlas.getWidth() / SIZE;
+        for (int y = 0; y < tileHeight; ++y) {
+            for (int x = 0; x < tileWidth; ++x) {
+                assertEquals("tile " + tile + " at " + x + ", " + y,
+                        screen.getRGB((tile % 3) * SIZE + x, (tile / 3) * SIZE + y),
+                        atlas.getRGB((slot % atlasColumns) * SIZE + x, (slot / atlasColumns) * SIZE + y));
+            }
+        }
+    }
+}
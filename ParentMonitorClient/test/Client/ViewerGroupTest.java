@@ -0,0 +1,85 @@
+package Client;
+
+import static Client.Network.HEARTBEAT;
+import static Client.Network.POINTER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+//A viewer attached over loopback, read from as its server reads its image socket.
+public class ViewerGroupTest {
+
+    private ViewerGroup group;
+    private Viewer viewer;
+    private Socket server;
+    private DataInputStream input;
+
+    @Before
+    public void attach() throws IOException {
+        group = new ViewerGroup(new FrameEncoder(), new FrameScaler());
+        viewer = new Viewer("Test", "127.0.0.1");
+        group.add(viewer);
+        try (ServerSocket listener = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            server = new Socket(listener.getInetAddress(), listener.getLocalPort());
+            group.attach(listener.accept(), "127.0.0.1");
+        }
+        server.setSoTimeout(5000);
+        input = new DataInputStream(server.getInputStream());
+    }
+
+    @After
+    public void close() throws IOException {
+        viewer.close();
+        server.close();
+    }
+
+    @Test
+    public void sendsThePointerAsItsOwnPacket() throws IOException {
+        group.grantCredits(viewer, 1);
+        group.movePointer(0x7FFF << 16 | 0x3FFF);
+        assertEquals(POINTER, input.readByte());
+        assertEquals(0x7FFF, input.readUnsignedShort());
+        assertEquals(0x3FFF, input.readUnsignedShort());
+
+        //Outside the captured area, then a frame
+        group.movePointer(PointerTracker.OFF);
+        group.publish(HEARTBEAT, new byte[] {HEARTBEAT});
+        assertEquals(POINTER, input.readByte());
+        assertEquals(0xFFFF, input.readUnsignedShort());
+        assertEquals(0xFFFF, input.readUnsignedShort());
+        assertEquals(HEARTBEAT, input.readByte());
+    }
+
+    @Test
+    public void sendsNoPointerToServersNotReadingFrames() throws IOException {
+        group.movePointer(0x1234 << 16 | 0x5678);
+        assertNothingSent();
+        //The heartbeat uses up the only credit
+        group.grantCredits(viewer, 1);
+        group.publish(HEARTBEAT, new byte[] {HEARTBEAT});
+        assertEquals(HEARTBEAT, input.readByte());
+        group.movePointer(0x1234 << 16 | 0x5678);
+        assertNothingSent();
+    }
+
+    private void assertNothingSent() throws IOException {
+        server.setSoTimeout(300);
+        try {
+            fail("Sent " + input.readByte());
+        }
+        catch (SocketTimeoutException expected) {
+            //nothing was sent
+        }
+        finally {
+            server.setSoTimeout(5000);
+        }
+    }
+}